@@ -6,4 +6,128 @@ public class ElasticQuerySymbolConstants {
 	public static final String ES_HOST = "elasticquery.url";
 	public static final String ES_PORT = "elasticquery.port";
 	public static final String ES_SOCKET_TIMEOUT = "elasticquery.sockettimeout";
+	/**
+	 * One of the {@link SearchExecutionMode} names. Defaults to {@link SearchExecutionMode#SEQUENTIAL}.
+	 */
+	public static final String ES_SEARCH_EXECUTION_MODE = "elasticquery.search.executionmode";
+	/**
+	 * The maximum number of search requests sent within a single <tt>_msearch</tt> call in the
+	 * {@link SearchExecutionMode#MULTI_SEARCH} mode. Larger carriers are split into multiple calls.
+	 */
+	public static final String ES_MULTI_SEARCH_MAX_BATCH_SIZE = "elasticquery.search.multisearch.maxbatchsize";
+	/**
+	 * The maximum number of requests a single search component sends concurrently in the
+	 * {@link SearchExecutionMode#ASYNC} mode. Further requests wait until a running request has returned.
+	 */
+	public static final String ES_ASYNC_MAX_REQUESTS_IN_FLIGHT = "elasticquery.search.async.maxinflight";
+	/**
+	 * Whether identical search requests issued concurrently share a single call to ElasticSearch. Applies to all
+	 * search execution modes; in the {@link SearchExecutionMode#MULTI_SEARCH} mode, a request joining a call in flight
+	 * is left out of its batch. Requests downloading complete results are never coalesced. Defaults to
+	 * <tt>false</tt>.
+	 */
+	public static final String ES_SEARCH_COALESCING = "elasticquery.search.coalescing";
+	/**
+	 * The maximum number of ElasticSearch query builders cached for queries marked as
+	 * {@link de.julielab.elastic.query.components.data.query.SearchServerQuery#immutable}. 0 disables the cache.
+	 */
+	public static final String ES_QUERY_TRANSLATION_CACHE_SIZE = "elasticquery.search.querytranslationcache.size";
+	/**
+	 * The interval in seconds in which the {@link de.julielab.elastic.query.services.ISearchContextRegistry} releases
+	 * leaked scroll and point in time contexts. 0 disables the reaper.
+	 */
+	public static final String ES_SEARCH_CONTEXT_REAPER_INTERVAL = "elasticquery.search.context.reaperinterval";
+	/**
+	 * The time in seconds after which a scroll or point in time context without requests is considered leaked and
+	 * released by the reaper.
+	 */
+	public static final String ES_SEARCH_CONTEXT_MAX_IDLE_TIME = "elasticquery.search.context.maxidletime";
+	/**
+	 * The number of documents after which the indexing service sends a bulk request.
+	 */
+	public static final String ES_BULK_MAX_ACTIONS = "elasticquery.bulk.maxactions";
+	/**
+	 * The size after which the indexing service sends a bulk request, e.g. <tt>5mb</tt>.
+	 */
+	public static final String ES_BULK_MAX_SIZE = "elasticquery.bulk.maxsize";
+	/**
+	 * The time after which the indexing service sends a bulk request even if it is not full, e.g. <tt>5s</tt>.
+	 * <tt>-1</tt> disables flushing by time.
+	 */
+	public static final String ES_BULK_FLUSH_INTERVAL = "elasticquery.bulk.flushinterval";
+	/**
+	 * The number of bulk requests the indexing service keeps in flight while reading further documents. With 0,
+	 * each bulk request is sent synchronously.
+	 */
+	public static final String ES_BULK_CONCURRENT_REQUESTS = "elasticquery.bulk.concurrentrequests";
+	/**
+	 * The maximum number of times the indexing service resends bulk items that were rejected by the cluster.
+	 */
+	public static final String ES_BULK_MAX_RETRIES = "elasticquery.bulk.maxretries";
+	/**
+	 * The delay before the first resending of rejected bulk items, e.g. <tt>100ms</tt>. Doubles with each retry.
+	 */
+	public static final String ES_BULK_RETRY_INITIAL_DELAY = "elasticquery.bulk.retry.initialdelay";
+	/**
+	 * The maximum delay between two resendings of rejected bulk items, e.g. <tt>30s</tt>.
+	 */
+	public static final String ES_BULK_RETRY_MAX_DELAY = "elasticquery.bulk.retry.maxdelay";
+	/**
+	 * The maximum number of HTTP connections to a single ElasticSearch node.
+	 */
+	public static final String ES_HTTP_MAX_CONNECTIONS_PER_ROUTE = "elasticquery.http.maxconnectionsperroute";
+	/**
+	 * The maximum number of HTTP connections to all ElasticSearch nodes.
+	 */
+	public static final String ES_HTTP_MAX_CONNECTIONS_TOTAL = "elasticquery.http.maxconnectionstotal";
+	/**
+	 * The number of I/O dispatcher threads of the HTTP client. 0 uses one thread per available processor.
+	 */
+	public static final String ES_HTTP_IO_THREAD_COUNT = "elasticquery.http.iothreadcount";
+	/**
+	 * The timeout in milliseconds for establishing an HTTP connection.
+	 */
+	public static final String ES_HTTP_CONNECT_TIMEOUT = "elasticquery.http.connecttimeout";
+	/**
+	 * The timeout in milliseconds for leasing an HTTP connection from the pool. A negative value waits indefinitely.
+	 */
+	public static final String ES_HTTP_CONNECTION_REQUEST_TIMEOUT = "elasticquery.http.connectionrequesttimeout";
+	/**
+	 * The maximum time in milliseconds an idle HTTP connection is kept for reuse. A negative value keeps connections
+	 * as long as the server allows.
+	 */
+	public static final String ES_HTTP_KEEP_ALIVE = "elasticquery.http.keepalive";
+	/**
+	 * Whether to set TCP_NODELAY on HTTP connections.
+	 */
+	public static final String ES_HTTP_TCP_NO_DELAY = "elasticquery.http.tcpnodelay";
+	/**
+	 * Whether to set SO_KEEPALIVE on HTTP connections.
+	 */
+	public static final String ES_HTTP_SO_KEEP_ALIVE = "elasticquery.http.sokeepalive";
+	/**
+	 * The number of HTTP connections to open to each ElasticSearch node when the registry starts up. 0 creates the
+	 * client lazily with the first request.
+	 */
+	public static final String ES_HTTP_WARMUP_CONNECTIONS = "elasticquery.http.warmupconnections";
+	/**
+	 * Whether to gzip HTTP request bodies, including bulk requests, and to accept gzip compressed responses.
+	 */
+	public static final String ES_HTTP_COMPRESSION = "elasticquery.http.compression";
+	/**
+	 * The minimum size in bytes of an HTTP request body to be compressed.
+	 */
+	public static final String ES_HTTP_COMPRESSION_THRESHOLD = "elasticquery.http.compression.threshold";
+	/**
+	 * Whether to cache search responses in the {@link de.julielab.elastic.query.services.ISearchResultCache}.
+	 */
+	public static final String ES_RESULT_CACHE_ENABLED = "elasticquery.resultcache.enabled";
+	/**
+	 * The maximum estimated size of all cached search responses, e.g. <tt>64mb</tt>.
+	 */
+	public static final String ES_RESULT_CACHE_MAX_SIZE = "elasticquery.resultcache.maxsize";
+	/**
+	 * The time after which a cached search response expires, e.g. <tt>5m</tt>.
+	 */
+	public static final String ES_RESULT_CACHE_TIME_TO_LIVE = "elasticquery.resultcache.timetolive";
 }
@@ -0,0 +1,22 @@
+package de.julielab.elastic.query;
+
+/**
+ * Determines how the {@link de.julielab.elastic.query.components.ElasticSearchComponent} sends the server requests
+ * of a single carrier to ElasticSearch.
+ */
+public enum SearchExecutionMode {
+	/**
+	 * Each server request is sent on its own after the previous one has returned.
+	 */
+	SEQUENTIAL,
+	/**
+	 * All search requests are packed into <tt>_msearch</tt> calls of a configurable maximum size. Count requests
+	 * and scroll requests are not supported by <tt>_msearch</tt> and are still sent on their own.
+	 */
+	MULTI_SEARCH,
+	/**
+	 * All requests are sent concurrently using the asynchronous client API. The number of requests in flight is
+	 * capped per component instance. The carrier latency is then roughly that of the slowest request.
+	 */
+	ASYNC
+}
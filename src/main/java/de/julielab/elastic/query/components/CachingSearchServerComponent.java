@@ -0,0 +1,78 @@
+package de.julielab.elastic.query.components;
+
+import de.julielab.elastic.query.components.data.ElasticSearchCarrier;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+import de.julielab.elastic.query.services.IElasticServerResponse;
+import de.julielab.elastic.query.services.ISearchResultCache;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Decorates the search server component with an {@link ISearchResultCache}. The responses for cacheable server
+ * requests are taken from the cache if present. The remaining requests are passed to the decorated component and
+ * their successful responses are added to the cache.</p>
+ * <p>If a carrier contains a request that is not cacheable, the whole carrier is passed to the decorated component
+ * because the responses of suggestion requests cannot be matched to their requests.</p>
+ *
+ * @see de.julielab.elastic.query.ElasticQuerySymbolConstants#ES_RESULT_CACHE_ENABLED
+ */
+public class CachingSearchServerComponent<C extends ElasticSearchCarrier<IElasticServerResponse>> extends AbstractSearchComponent<C> implements ISearchServerComponent<C> {
+    private final ISearchServerComponent<C> delegate;
+    private final ISearchResultCache resultCache;
+
+    public CachingSearchServerComponent(Logger log, ISearchServerComponent<C> delegate, ISearchResultCache resultCache) {
+        super(log);
+        this.delegate = delegate;
+        this.resultCache = resultCache;
+    }
+
+    @Override
+    protected boolean processSearch(C elasticSearchCarrier) {
+        final List<SearchServerRequest> serverRequests = elasticSearchCarrier.getServerRequests();
+        if (serverRequests == null || serverRequests.isEmpty() || !serverRequests.stream().allMatch(resultCache::isCacheable))
+            return delegate.process(elasticSearchCarrier);
+
+        final IElasticServerResponse[] responses = new IElasticServerResponse[serverRequests.size()];
+        // the keys are computed before the requests are sent because the decorated component may complete them
+        final ISearchResultCache.Key[] keys = new ISearchResultCache.Key[serverRequests.size()];
+        final List<SearchServerRequest> missedRequests = new ArrayList<>();
+        for (int i = 0; i < serverRequests.size(); i++) {
+            keys[i] = resultCache.getKey(serverRequests.get(i));
+            responses[i] = resultCache.get(keys[i]);
+            if (responses[i] == null)
+                missedRequests.add(serverRequests.get(i));
+        }
+        log.debug("{} of {} search server requests were answered from the cache.", serverRequests.size() - missedRequests.size(), serverRequests.size());
+        boolean terminateChain = false;
+        if (!missedRequests.isEmpty()) {
+            // let the decorated component only see the missed requests and collect its responses separately
+            final List<IElasticServerResponse> previousResponses = new ArrayList<>(elasticSearchCarrier.getSearchResponses());
+            elasticSearchCarrier.setServerRequests(missedRequests);
+            elasticSearchCarrier.clearSearchResponses();
+            try {
+                terminateChain = delegate.process(elasticSearchCarrier);
+            } finally {
+                elasticSearchCarrier.setServerRequests(serverRequests);
+            }
+            final List<IElasticServerResponse> missedResponses = new ArrayList<>(elasticSearchCarrier.getSearchResponses());
+            elasticSearchCarrier.setSearchResponses(previousResponses);
+            if (missedResponses.size() != missedRequests.size()) {
+                // the request failed as a whole, e.g. because no node was available
+                missedResponses.forEach(elasticSearchCarrier::addSearchResponse);
+                return terminateChain;
+            }
+            for (int i = 0, j = 0; i < responses.length; i++) {
+                if (responses[i] == null) {
+                    responses[i] = missedResponses.get(j++);
+                    if (!responses[i].hasQueryError())
+                        resultCache.put(keys[i], responses[i]);
+                }
+            }
+        }
+        for (IElasticServerResponse response : responses)
+            elasticSearchCarrier.addSearchResponse(response);
+        return terminateChain;
+    }
+}
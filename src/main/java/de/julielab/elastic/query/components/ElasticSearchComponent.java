@@ -1,5 +1,10 @@
 package de.julielab.elastic.query.components;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import de.julielab.elastic.query.SearchExecutionMode;
 import de.julielab.elastic.query.components.data.*;
 import de.julielab.elastic.query.components.data.HighlightCommand.HlField;
 import de.julielab.elastic.query.components.data.aggregation.*;
@@ -9,11 +14,22 @@ import de.julielab.elastic.query.components.data.query.FunctionScoreQuery.BoostM
 import de.julielab.elastic.query.components.data.query.FunctionScoreQuery.FieldValueFactor;
 import de.julielab.elastic.query.services.IElasticServerResponse;
 import de.julielab.elastic.query.services.ISearchClientProvider;
+import de.julielab.elastic.query.services.IAggregationTranslatorRegistry;
+import de.julielab.elastic.query.services.IQueryTranslatorRegistry;
+import de.julielab.elastic.query.services.ISearchContextRegistry;
 import de.julielab.java.utilities.prerequisites.PrerequisiteChecker;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.lucene.search.join.ScoreMode;
 import org.apache.lucene.util.BytesRef;
+import org.apache.tapestry5.ioc.annotations.Autobuild;
+import org.apache.tapestry5.ioc.annotations.Inject;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.OpenPointInTimeRequest;
 import org.elasticsearch.action.search.OpenPointInTimeResponse;
 import org.elasticsearch.action.search.SearchRequest;
@@ -31,8 +47,11 @@ import org.elasticsearch.index.query.MultiMatchQueryBuilder.Type;
 import org.elasticsearch.index.query.functionscore.FieldValueFactorFunctionBuilder;
 import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.script.mustache.SearchTemplateRequest;
+import org.elasticsearch.script.mustache.SearchTemplateResponse;
 import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.BucketOrder;
@@ -46,6 +65,7 @@ import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder.Field;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.search.suggest.SuggestBuilder;
 import org.elasticsearch.search.suggest.SuggestBuilders;
@@ -54,6 +74,13 @@ import org.slf4j.Logger;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static org.elasticsearch.index.query.SimpleQueryStringFlag.*;
@@ -67,12 +94,135 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
     private static final int DEFAULT_NUMBER_FRAGS = 5;
 
     private RestHighLevelClient client;
+    private SearchExecutionMode executionMode;
+    private int multiSearchMaxBatchSize;
+    /**
+     * Limits the number of requests this component instance has in flight in the {@link SearchExecutionMode#ASYNC}
+     * mode, across all carriers processed concurrently.
+     */
+    private Semaphore inFlightRequests;
+    /**
+     * Tracks the scroll and PIT contexts of the responses. May be null in which case the contexts are only released
+     * by the responses themselves.
+     */
+    private ISearchContextRegistry contextRegistry;
+    private boolean coalesceRequests;
+    /**
+     * The calls to ElasticSearch currently in flight for coalescable requests, keyed by the
+     * {@link RequestFingerprint} of the server request. Concurrent identical requests join the existing call instead
+     * of sending their own.
+     */
+    private final Map<String, CompletableFuture<ElasticServerResponse>> inFlightSearches = new ConcurrentHashMap<>();
+    /**
+     * The ElasticSearch query builders of {@link SearchServerQuery#immutable} queries, keyed by the
+     * {@link RequestFingerprint} of the query. Null if the cache is disabled.
+     */
+    private Cache<String, QueryBuilder> queryTranslationCache;
+    /**
+     * The fingerprints of immutable query instances which are passed repeatedly, e.g. constant filter queries, and of
+     * their immutable subqueries, which the fingerprints of their parents refer to. The keys are compared by identity
+     * and weakly referenced.
+     */
+    private Cache<SearchServerQuery, String> queryFingerprints;
+    /**
+     * The built-in translators and those added by subclasses, by the exact class of the queries they translate.
+     */
+    private final Map<Class<?>, IQueryTranslator<?>> queryTranslators = new HashMap<>();
+    /**
+     * The translators contributed to the {@link IQueryTranslatorRegistry}. They are kept apart from
+     * {@link #queryTranslators} so that they take precedence also over the translators that subclasses add in their
+     * constructors, i.e. after the contributions have been read.
+     */
+    private final Map<Class<?>, IQueryTranslator<?>> contributedQueryTranslators = new HashMap<>();
+    /**
+     * The built-in translators and those added by subclasses, by the exact class of the aggregations they translate.
+     */
+    private final Map<Class<?>, IAggregationTranslator<?>> aggregationTranslators = new HashMap<>();
+    /**
+     * The translators contributed to the {@link IAggregationTranslatorRegistry}, taking precedence over
+     * {@link #aggregationTranslators}.
+     */
+    private final Map<Class<?>, IAggregationTranslator<?>> contributedAggregationTranslators = new HashMap<>();
 
     public ElasticSearchComponent(Logger log, ISearchClientProvider searchClientProvider) {
+        this(log, searchClientProvider, null, null, null, new SearchExecutionSettings());
+    }
+
+    /**
+     * @param contextRegistry               Tracks the scroll and PIT contexts of the responses, may be null.
+     * @param queryTranslatorRegistry       The contributed query translators, may be null.
+     * @param aggregationTranslatorRegistry The contributed aggregation translators, may be null.
+     * @param settings                      How the requests are sent. Built from the symbols by the IoC registry.
+     */
+    @Inject
+    public ElasticSearchComponent(Logger log, ISearchClientProvider searchClientProvider, ISearchContextRegistry contextRegistry, IQueryTranslatorRegistry queryTranslatorRegistry, IAggregationTranslatorRegistry aggregationTranslatorRegistry, @Autobuild SearchExecutionSettings settings) {
         super(log);
+        addBuiltInTranslators();
+        if (queryTranslatorRegistry != null)
+            contributedQueryTranslators.putAll(queryTranslatorRegistry.getTranslators());
+        if (aggregationTranslatorRegistry != null)
+            contributedAggregationTranslators.putAll(aggregationTranslatorRegistry.getTranslators());
+        this.contextRegistry = contextRegistry;
+        this.coalesceRequests = settings.coalesceRequests;
+        if (settings.queryTranslationCacheSize > 0) {
+            this.queryTranslationCache = CacheBuilder.newBuilder().maximumSize(settings.queryTranslationCacheSize).build();
+            this.queryFingerprints = CacheBuilder.newBuilder().weakKeys().maximumSize(settings.queryTranslationCacheSize).build();
+        }
+        if (settings.executionMode == null)
+            throw new IllegalArgumentException("The search execution mode must not be null.");
+        if (settings.multiSearchMaxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum multi search batch size must be positive but was " + settings.multiSearchMaxBatchSize + ".");
+        if (settings.maxRequestsInFlight < 1)
+            throw new IllegalArgumentException("The maximum number of asynchronous requests in flight must be positive but was " + settings.maxRequestsInFlight + ".");
+        this.executionMode = settings.executionMode;
+        this.multiSearchMaxBatchSize = settings.multiSearchMaxBatchSize;
+        this.inFlightRequests = new Semaphore(settings.maxRequestsInFlight);
         log.info("Obtaining ElasticSearch client...");
         client = searchClientProvider.getSearchClient().getRestHighLevelClient();
         log.info("ElasticSearch client retrieved.");
+        log.info("Search execution mode is {}, request coalescing is {}.", this.executionMode, coalesceRequests ? "enabled" : "disabled");
+    }
+
+    private void addBuiltInTranslators() {
+        addQueryTranslator(LuceneSyntaxQuery.class, (query, translator) -> buildQueryStringQuery(query));
+        addQueryTranslator(MultiMatchQuery.class, (query, translator) -> buildMultiMatchQuery(query));
+        addQueryTranslator(MatchQuery.class, (query, translator) -> buildMatchQuery(query));
+        addQueryTranslator(MatchAllQuery.class, (query, translator) -> new MatchAllQueryBuilder());
+        addQueryTranslator(BoolQuery.class, (query, translator) -> buildBoolQuery(query));
+        addQueryTranslator(TermQuery.class, (query, translator) -> buildTermQuery(query));
+        addQueryTranslator(NestedQuery.class, (query, translator) -> buildNestedQuery(query));
+        addQueryTranslator(FunctionScoreQuery.class, (query, translator) -> buildFunctionScoreQuery(query));
+        addQueryTranslator(ConstantScoreQuery.class, (query, translator) -> buildConstantScoreQuery(query));
+        addQueryTranslator(MatchPhraseQuery.class, (query, translator) -> buildMatchPhraseQuery(query));
+        addQueryTranslator(TermsQuery.class, (query, translator) -> buildTermsQuery(query));
+        addQueryTranslator(WildcardQuery.class, (query, translator) -> buildWildcardQuery(query));
+        addQueryTranslator(SimpleQueryStringQuery.class, (query, translator) -> buildSimpleQueryStringQuery(query));
+        addQueryTranslator(RangeQuery.class, (query, translator) -> buildRangeQuery(query));
+
+        addAggregationTranslator(NoOpAggregation.class, (aggregation, translator) -> null);
+        addAggregationTranslator(TermsAggregation.class, (aggregation, translator) -> buildTermsAggregation(aggregation));
+        addAggregationTranslator(MaxAggregation.class, (aggregation, translator) -> buildMaxAggregation(aggregation));
+        addAggregationTranslator(TopHitsAggregation.class, (aggregation, translator) -> buildTopHitsAggregation(aggregation));
+        addAggregationTranslator(SignificantTermsAggregation.class, (aggregation, translator) -> buildSignificantTermsAggregation(aggregation));
+    }
+
+    /**
+     * Sets the translator for queries of exactly the class <tt>queryClass</tt>. Meant to be called by the constructors
+     * of subclasses; applications should contribute their translators to the {@link IQueryTranslatorRegistry}.
+     * Contributed translators take precedence over the translators set by this method.
+     */
+    protected <Q extends SearchServerQuery> void addQueryTranslator(Class<Q> queryClass, IQueryTranslator<? super Q> translator) {
+        queryTranslators.put(queryClass, translator);
+    }
+
+    /**
+     * Sets the translator for aggregations of exactly the class <tt>aggregationClass</tt>. Meant to be called by the
+     * constructors of subclasses; applications should contribute their translators to the
+     * {@link IAggregationTranslatorRegistry}. Contributed translators take precedence over the translators set by this
+     * method.
+     */
+    protected <A extends AggregationRequest> void addAggregationTranslator(Class<A> aggregationClass, IAggregationTranslator<? super A> translator) {
+        aggregationTranslators.put(aggregationClass, translator);
     }
 
     @Override
@@ -107,6 +257,10 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
                 log.debug("Configuring ElasticSearch query for server command {}", i);
 
                 SearchServerRequest serverRequest = serverRequests.get(i);
+                if (serverRequest != null && serverRequest.searchTemplate != null) {
+                    handleSearchTemplateRequest(searchRequests, serverRequest);
+                    continue;
+                }
                 prChecker.notNull((Supplier<?>) () -> serverRequest)
                         .notNull((Supplier<?>) () -> serverRequest.query)
                         .withNames("Server request " + i, "Server request query for request " + i);
@@ -117,7 +271,11 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
                 // of the index first
                 OpenPointInTimeResponse openPointInTimeResponse = null;
                 if (serverRequest.downloadCompleteResultsMethod.equalsIgnoreCase("searchAfter")) {
-                    openPointInTimeResponse = client.openPointInTime(new OpenPointInTimeRequest(serverRequest.index).keepAlive(TimeValue.parseTimeValue(serverRequest.downloadCompleteResultMethodKeepAlive, "DownloadAll.afterSearch.PIT")), RequestOptions.DEFAULT);
+                    // When resuming, we first try the PIT of the checkpoint, see executeSingle for the fallback
+                    if (serverRequest.downloadCompleteResultsResumeFrom != null && serverRequest.downloadCompleteResultsResumeFrom.pointInTimeId != null)
+                        openPointInTimeResponse = new OpenPointInTimeResponse(serverRequest.downloadCompleteResultsResumeFrom.pointInTimeId);
+                    else
+                        openPointInTimeResponse = openPointInTime(serverRequest);
                 }
 
                 if (null != serverRequest.query) {
@@ -131,53 +289,32 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
 
             // Send the query to the server
             if (searchRequests.size() == elasticSearchCarrier.getServerRequests().size()) {
-//                final MultiSearchRequest msr = new MultiSearchRequest();
-//                for (SearchRequest srb : searchRequests)
-//                    msr.add(srb);
-                log.debug("Issueing {} search request as a multi search", searchRequests.size());
-//                final MultiSearchResponse multiSearchResponse = client.msearch(msr, RequestOptions.DEFAULT);
-//                Item[] responses = multiSearchResponse.getResponses();
-                List<SearchResponse> responses = new ArrayList<>();
-                for (int i = 0; i < searchRequests.size(); i++) {
-//                    Item item = responses[i];
-//                    SearchResponse response = item.getResponse();
-                    final boolean isCountRequest = serverRequests.get(i).isCountRequest;
-                    SearchRequest sr = searchRequests.get(i);
-                    ElasticServerResponse serverRsp;
-                    try {
-                        SearchResponse response = null;
-                        CountResponse countResponse = null;
-                        if (!isCountRequest) {
-                            response = client.search(sr, RequestOptions.DEFAULT);
-                            log.trace("Response from ElasticSearch: {}", response);
-                        } else {
-                            countResponse = client.count(new CountRequest(sr.indices(), sr.source().query()), RequestOptions.DEFAULT);
-                            log.trace("Response from ElasticSearch: {}", countResponse);
-                        }
-
-                        serverRsp = new ElasticServerResponse(response, countResponse, serverRequests.get(i).downloadCompleteResults, serverRequests.get(i).downloadCompleteResultsLimit, searchRequests.get(i), client);
-                        int status = isCountRequest ? countResponse.status().getStatus() : response.status().getStatus();
-                        if (status > 299 && status < 200) {
-                            serverRsp.setQueryError(QueryError.QUERY_ERROR);
-//                        serverRsp.setQueryErrorMessage(item.getFailureMessage());
-                            serverRsp.setQueryErrorMessage("HTTP status " + status);
-
-                        }
-                    } catch (IOException e) {
-                        serverRsp = new ElasticServerResponse();
-                        serverRsp.setQueryError(QueryError.NO_RESPONSE);
-                        serverRsp.setQueryErrorMessage(e.getMessage());
-                    }
-                    elasticSearchCarrier.addSearchResponse(serverRsp);
+                List<ElasticServerResponse> responses;
+                // In the batching modes, the suggestion requests are sent within the same round trip as the search
+                // requests. Their responses are appended after the search responses, as in the sequential mode.
+                switch (executionMode) {
+                    case MULTI_SEARCH:
+                        responses = executeMultiSearch(serverRequests, searchRequests, suggestionBuilders);
+                        break;
+                    case ASYNC:
+                        responses = executeAsynchronously(serverRequests, searchRequests, suggestionBuilders);
+                        break;
+                    case SEQUENTIAL:
+                    default:
+                        responses = executeSequentially(serverRequests, searchRequests);
+                        break;
                 }
+                if (contextRegistry != null)
+                    responses.forEach(response -> response.getSearchContexts().forEach(contextRegistry::register));
+                responses.forEach(elasticSearchCarrier::addSearchResponse);
             } else {
                 throw new IllegalStateException(
                         "There is at least one server request for which on ElasticSearch query could be created. This shouldn't happen.");
             }
-            if (!suggestionBuilders.isEmpty()) {
+            if (executionMode == SearchExecutionMode.SEQUENTIAL && !suggestionBuilders.isEmpty()) {
                 for (SearchRequest suggestBuilder : suggestionBuilders) {
                     SearchResponse suggestResponse = client.search(suggestBuilder, RequestOptions.DEFAULT);
-                    elasticSearchCarrier.addSearchResponse(new ElasticServerResponse(suggestResponse, null, false, -1, null, client));
+                    elasticSearchCarrier.addSearchResponse(createSuggestionResponse(suggestResponse));
                 }
             }
             w.stop();
@@ -201,6 +338,453 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
         return false;
     }
 
+    /**
+     * Sends the given search requests one after the other to ElasticSearch.
+     *
+     * @param serverRequests The server requests of the carrier.
+     * @param searchRequests The ElasticSearch requests created for the server requests, in the same order.
+     * @return The responses in the order of the server requests.
+     */
+    protected List<ElasticServerResponse> executeSequentially(List<SearchServerRequest> serverRequests, List<SearchRequest> searchRequests) {
+        List<ElasticServerResponse> responses = new ArrayList<>(searchRequests.size());
+        for (int i = 0; i < searchRequests.size(); i++)
+            responses.add(executeSingleCoalesced(serverRequests.get(i), searchRequests.get(i)));
+        return responses;
+    }
+
+    /**
+     * <p>Packs the given search and suggestion requests into <tt>_msearch</tt> calls of at most
+     * {@link #multiSearchMaxBatchSize} requests each. Failures of single items are mapped to a {@link QueryError}
+     * on the respective response without affecting the other responses.</p>
+     * <p>Count requests and scroll requests are sent on their own because <tt>_msearch</tt> supports neither of
+     * them; the scroll parameter would be silently dropped. Search template requests are sent on their own as
+     * well.</p>
+     * <p>A single <tt>_msearch</tt> call is sent with a single set of request options. Therefore, only requests with
+     * equal {@link SearchServerRequest#requestOptions} are batched together; suggestion requests are batched with the
+     * requests without options. Each distinct profile, e.g. with its own <tt>X-Opaque-Id</tt> or buffer limit, thus
+     * costs at least one call of its own.</p>
+     * <p>With request coalescing, a request whose identical request is already in flight, in a batch or on its own,
+     * joins that call and is not added to a batch. The other batch items are registered as in flight until their
+     * batch has returned so that identical requests of concurrent carriers can join them in turn.</p>
+     *
+     * @param serverRequests     The server requests of the carrier.
+     * @param searchRequests     The ElasticSearch requests created for the server requests, in the same order.
+     * @param suggestionRequests The ElasticSearch requests created for server requests with suggestion text.
+     * @return The responses in the order of the server requests, followed by the suggestion responses.
+     */
+    protected List<ElasticServerResponse> executeMultiSearch(List<SearchServerRequest> serverRequests, List<SearchRequest> searchRequests, List<SearchRequest> suggestionRequests) {
+        final int numRequests = searchRequests.size() + suggestionRequests.size();
+        ElasticServerResponse[] responses = new ElasticServerResponse[numRequests];
+        // the open batches by the fingerprint of the request options of their requests
+        final Map<String, List<Integer>> batches = new LinkedHashMap<>();
+        // the batch items registered in inFlightSearches and the calls in flight joined by requests, by position
+        final String[] fingerprints = new String[numRequests];
+        final Map<Integer, CompletableFuture<ElasticServerResponse>> registeredCalls = new HashMap<>();
+        final Map<Integer, CompletableFuture<ElasticServerResponse>> joinedCalls = new HashMap<>();
+        try {
+            for (int i = 0; i < numRequests; i++) {
+                RequestOptionsProfile requestOptions = null;
+                if (i < searchRequests.size()) {
+                    SearchServerRequest serverRequest = serverRequests.get(i);
+                    SearchRequest sr = searchRequests.get(i);
+                    if (serverRequest.isCountRequest || sr.scroll() != null || serverRequest.searchTemplate != null || requiresSingleExecution(serverRequest)) {
+                        responses[i] = executeSingleCoalesced(serverRequest, sr);
+                        continue;
+                    }
+                    if (coalesceRequests && !serverRequest.downloadCompleteResults) {
+                        fingerprints[i] = RequestFingerprint.of(serverRequest);
+                        final CompletableFuture<ElasticServerResponse> future = new CompletableFuture<>();
+                        final CompletableFuture<ElasticServerResponse> inFlight = inFlightSearches.putIfAbsent(fingerprints[i], future);
+                        if (inFlight != null) {
+                            log.debug("Joining the identical request in flight for index {}", serverRequest.index);
+                            joinedCalls.put(i, inFlight);
+                            continue;
+                        }
+                        registeredCalls.put(i, future);
+                    }
+                    requestOptions = serverRequest.requestOptions;
+                }
+                final String optionsKey = requestOptions != null ? RequestFingerprint.of(requestOptions) : "";
+                final List<Integer> batchPositions = batches.computeIfAbsent(optionsKey, k -> new ArrayList<>(multiSearchMaxBatchSize));
+                batchPositions.add(i);
+                if (batchPositions.size() == multiSearchMaxBatchSize) {
+                    executeMultiSearchBatch(batchPositions, serverRequests, searchRequests, suggestionRequests, responses);
+                    completeRegisteredCalls(batchPositions, fingerprints, registeredCalls, responses);
+                    batches.remove(optionsKey);
+                }
+            }
+            for (List<Integer> batchPositions : batches.values()) {
+                executeMultiSearchBatch(batchPositions, serverRequests, searchRequests, suggestionRequests, responses);
+                completeRegisteredCalls(batchPositions, fingerprints, registeredCalls, responses);
+            }
+        } finally {
+            // requests joining these calls must not wait forever if a batch failed unexpectedly
+            completeRegisteredCalls(new ArrayList<>(registeredCalls.keySet()), fingerprints, registeredCalls, responses);
+        }
+        // all own batches have been sent, the joined calls do not wait for this carrier
+        for (Map.Entry<Integer, CompletableFuture<ElasticServerResponse>> joinedCall : joinedCalls.entrySet())
+            responses[joinedCall.getKey()] = joinedCall.getValue().join().copy();
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Completes the futures of the batch items at <tt>positions</tt> registered in {@link #inFlightSearches} with
+     * their responses and removes them from there. The responses in the futures stay untouched for the requests that
+     * joined them, the carrier receives copies.
+     */
+    private void completeRegisteredCalls(List<Integer> positions, String[] fingerprints, Map<Integer, CompletableFuture<ElasticServerResponse>> registeredCalls, ElasticServerResponse[] responses) {
+        for (Integer pos : positions) {
+            final CompletableFuture<ElasticServerResponse> future = registeredCalls.remove(pos);
+            if (future == null)
+                continue;
+            inFlightSearches.remove(fingerprints[pos], future);
+            final ElasticServerResponse response = responses[pos] != null ? responses[pos] : createErrorResponse(QueryError.NO_RESPONSE, "The multi search was aborted.");
+            future.complete(response);
+            responses[pos] = response.copy();
+        }
+    }
+
+    private void executeMultiSearchBatch(List<Integer> batchPositions, List<SearchServerRequest> serverRequests, List<SearchRequest> searchRequests, List<SearchRequest> suggestionRequests, ElasticServerResponse[] responses) {
+        final MultiSearchRequest msr = new MultiSearchRequest();
+        for (Integer pos : batchPositions)
+            msr.add(pos < searchRequests.size() ? searchRequests.get(pos) : suggestionRequests.get(pos - searchRequests.size()));
+        log.debug("Issuing {} search requests as a multi search", batchPositions.size());
+        // all requests of the batch have equal options
+        final int firstPos = batchPositions.get(0);
+        final RequestOptions requestOptions = firstPos < searchRequests.size() ? RequestOptionsProfile.toRequestOptions(serverRequests.get(firstPos).requestOptions) : RequestOptions.DEFAULT;
+        try {
+            final MultiSearchResponse multiSearchResponse = client.msearch(msr, requestOptions);
+            final MultiSearchResponse.Item[] items = multiSearchResponse.getResponses();
+            for (int j = 0; j < items.length; j++) {
+                final int pos = batchPositions.get(j);
+                final MultiSearchResponse.Item item = items[j];
+                ElasticServerResponse serverRsp;
+                if (item.isFailure()) {
+                    log.debug("Multi search item {} failed: {}", pos, item.getFailureMessage());
+                    serverRsp = new ElasticServerResponse();
+                    serverRsp.setQueryError(QueryError.QUERY_ERROR);
+                    serverRsp.setQueryErrorMessage(item.getFailureMessage());
+                } else if (pos < searchRequests.size()) {
+                    log.trace("Response from ElasticSearch: {}", item.getResponse());
+                    final SearchServerRequest serverRequest = serverRequests.get(pos);
+                    serverRsp = new ElasticServerResponse(item.getResponse(), null, serverRequest, searchRequests.get(pos), client);
+                } else {
+                    log.trace("Suggestion response from ElasticSearch: {}", item.getResponse());
+                    serverRsp = createSuggestionResponse(item.getResponse());
+                }
+                responses[pos] = serverRsp;
+            }
+        } catch (IOException e) {
+            log.error("Multi search request failed", e);
+            for (Integer pos : batchPositions) {
+                ElasticServerResponse serverRsp = new ElasticServerResponse();
+                serverRsp.setQueryError(QueryError.NO_RESPONSE);
+                serverRsp.setQueryErrorMessage(e.getMessage());
+                responses[pos] = serverRsp;
+            }
+        }
+    }
+
+    /**
+     * <p>Sends all given search and suggestion requests concurrently using the asynchronous client API and waits
+     * for all of them to return. At most {@link SearchExecutionSettings#maxRequestsInFlight} requests are in flight
+     * for this component instance at any time.</p>
+     * <p>Failures of single requests are mapped to a {@link QueryError} on the respective response without affecting
+     * the other responses.</p>
+     *
+     * @param serverRequests     The server requests of the carrier.
+     * @param searchRequests     The ElasticSearch requests created for the server requests, in the same order.
+     * @param suggestionRequests The ElasticSearch requests created for server requests with suggestion text.
+     * @return The responses in the order of the server requests, followed by the suggestion responses.
+     */
+    protected List<ElasticServerResponse> executeAsynchronously(List<SearchServerRequest> serverRequests, List<SearchRequest> searchRequests, List<SearchRequest> suggestionRequests) {
+        List<CompletableFuture<ElasticServerResponse>> futures = new ArrayList<>(searchRequests.size() + suggestionRequests.size());
+        for (int i = 0; i < searchRequests.size(); i++) {
+            final SearchServerRequest serverRequest = serverRequests.get(i);
+            final SearchRequest sr = searchRequests.get(i);
+            final RequestOptions requestOptions = RequestOptionsProfile.toRequestOptions(serverRequest.requestOptions);
+            if (requiresSingleExecution(serverRequest))
+                futures.add(CompletableFuture.completedFuture(executeSingle(serverRequest, sr)));
+            else if (serverRequest.searchTemplate != null)
+                futures.add(coalesce(serverRequest, () -> this.<SearchTemplateResponse>executeAsync(listener -> client.searchTemplateAsync(toSearchTemplateRequest(serverRequest, sr), requestOptions, listener),
+                        response -> new ElasticServerResponse(response.getResponse(), null, serverRequest, sr, client))));
+            else if (!serverRequest.isCountRequest)
+                futures.add(coalesce(serverRequest, () -> this.<SearchResponse>executeAsync(listener -> client.searchAsync(sr, requestOptions, listener),
+                        response -> new ElasticServerResponse(response, null, serverRequest, sr, client))));
+            else
+                futures.add(coalesce(serverRequest, () -> this.<CountResponse>executeAsync(listener -> client.countAsync(new CountRequest(sr.indices(), sr.source().query()), requestOptions, listener),
+                        countResponse -> new ElasticServerResponse(null, countResponse, serverRequest, sr, client))));
+        }
+        for (SearchRequest suggestionRequest : suggestionRequests)
+            futures.add(this.<SearchResponse>executeAsync(listener -> client.searchAsync(suggestionRequest, RequestOptions.DEFAULT, listener), this::createSuggestionResponse));
+        List<ElasticServerResponse> responses = new ArrayList<>(futures.size());
+        for (CompletableFuture<ElasticServerResponse> future : futures)
+            responses.add(future.join());
+        return responses;
+    }
+
+    /**
+     * Sends a request with the asynchronous client API once a slot of {@link #inFlightRequests} is free.
+     *
+     * @param call            Sends the request with the passed listener.
+     * @param responseFactory Creates the server response from the ElasticSearch response.
+     * @param <R>             The ElasticSearch response type.
+     * @return A future that always completes normally, possibly with an error response.
+     */
+    private <R> CompletableFuture<ElasticServerResponse> executeAsync(Consumer<ActionListener<R>> call, Function<R, ElasticServerResponse> responseFactory) {
+        final CompletableFuture<ElasticServerResponse> future = new CompletableFuture<>();
+        try {
+            inFlightRequests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.complete(createErrorResponse(QueryError.QUERY_ERROR, "Interrupted while waiting to send the request."));
+            return future;
+        }
+        future.whenComplete((response, throwable) -> inFlightRequests.release());
+        try {
+            call.accept(new ActionListener<>() {
+                @Override
+                public void onResponse(R response) {
+                    log.trace("Response from ElasticSearch: {}", response);
+                    try {
+                        future.complete(responseFactory.apply(response));
+                    } catch (RuntimeException e) {
+                        future.complete(createErrorResponse(e));
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    future.complete(createErrorResponse(e));
+                }
+            });
+        } catch (RuntimeException e) {
+            future.complete(createErrorResponse(e));
+        }
+        return future;
+    }
+
+    /**
+     * Like {@link #executeSingle(SearchServerRequest, SearchRequest)} but joins an identical request already in
+     * flight, see {@link #coalesce(SearchServerRequest, Supplier)}.
+     */
+    private ElasticServerResponse executeSingleCoalesced(SearchServerRequest serverRequest, SearchRequest sr) {
+        return coalesce(serverRequest, () -> CompletableFuture.completedFuture(executeSingle(serverRequest, sr))).join();
+    }
+
+    /**
+     * <p>Sends the request with <tt>call</tt> unless an identical request - with respect to its
+     * {@link RequestFingerprint} - is already in flight. In this case, the caller waits for the running call. Each
+     * caller receives its own copy of the response, see {@link ElasticServerResponse#copy()}. The in-flight entry is
+     * removed as soon as the call completes so that later requests see fresh results.</p>
+     * <p>Requests downloading complete results are never coalesced because their responses hold a scroll or point in
+     * time context which must be consumed and released by exactly one caller.</p>
+     *
+     * @param serverRequest The server request.
+     * @param call          Sends the request to ElasticSearch.
+     * @return The future of the own or the shared call.
+     */
+    private CompletableFuture<ElasticServerResponse> coalesce(SearchServerRequest serverRequest, Supplier<CompletableFuture<ElasticServerResponse>> call) {
+        if (!coalesceRequests || serverRequest.downloadCompleteResults)
+            return call.get();
+        final String fingerprint = RequestFingerprint.of(serverRequest);
+        final CompletableFuture<ElasticServerResponse> future = new CompletableFuture<>();
+        final CompletableFuture<ElasticServerResponse> inFlight = inFlightSearches.putIfAbsent(fingerprint, future);
+        if (inFlight != null) {
+            log.debug("Joining the identical request in flight for index {}", serverRequest.index);
+            return inFlight.thenApply(ElasticServerResponse::copy);
+        }
+        try {
+            call.get().whenComplete((response, throwable) -> {
+                inFlightSearches.remove(fingerprint, future);
+                if (throwable != null)
+                    future.completeExceptionally(throwable);
+                else
+                    future.complete(response);
+            });
+        } catch (RuntimeException e) {
+            inFlightSearches.remove(fingerprint, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        // the response in the future stays untouched for the callers that join later
+        return future.thenApply(ElasticServerResponse::copy);
+    }
+
+    private ElasticServerResponse createSuggestionResponse(SearchResponse suggestResponse) {
+        final ElasticServerResponse serverRsp = new ElasticServerResponse(suggestResponse, null, false, -1, null, client);
+        serverRsp.setSuggestionSearchResponse(true);
+        return serverRsp;
+    }
+
+    private ElasticServerResponse createErrorResponse(Exception e) {
+        log.debug("Request to ElasticSearch failed", e);
+        return createErrorResponse(e instanceof IOException ? QueryError.NO_RESPONSE : QueryError.QUERY_ERROR, e.getMessage());
+    }
+
+    private ElasticServerResponse createErrorResponse(QueryError queryError, String message) {
+        ElasticServerResponse serverRsp = new ElasticServerResponse();
+        serverRsp.setQueryError(queryError);
+        serverRsp.setQueryErrorMessage(message);
+        return serverRsp;
+    }
+
+    /**
+     * Sends a single search or count request to ElasticSearch and wraps the result into an
+     * {@link ElasticServerResponse}. An IOException is mapped to {@link QueryError#NO_RESPONSE}.
+     *
+     * @param serverRequest The server request.
+     * @param sr            The ElasticSearch request created for <tt>serverRequest</tt>.
+     * @return The response.
+     */
+    protected ElasticServerResponse executeSingle(SearchServerRequest serverRequest, SearchRequest sr) {
+        if (isSlicedRequest(serverRequest))
+            return executeSlicedSearch(serverRequest, sr);
+        final boolean isCountRequest = serverRequest.isCountRequest;
+        final RequestOptions requestOptions = RequestOptionsProfile.toRequestOptions(serverRequest.requestOptions);
+        ElasticServerResponse serverRsp;
+        try {
+            SearchResponse response = null;
+            CountResponse countResponse = null;
+            if (serverRequest.searchTemplate != null) {
+                response = client.searchTemplate(toSearchTemplateRequest(serverRequest, sr), requestOptions).getResponse();
+                log.trace("Response from ElasticSearch: {}", response);
+            } else if (!isCountRequest) {
+                response = serverRequest.downloadCompleteResults && serverRequest.downloadCompleteResultsResumeFrom != null ? resume(serverRequest, sr) : client.search(sr, requestOptions);
+                log.trace("Response from ElasticSearch: {}", response);
+            } else {
+                countResponse = client.count(new CountRequest(sr.indices(), sr.source().query()), requestOptions);
+                log.trace("Response from ElasticSearch: {}", countResponse);
+            }
+
+            serverRsp = new ElasticServerResponse(response, countResponse, serverRequest, sr, client);
+            int status = isCountRequest ? countResponse.status().getStatus() : response.status().getStatus();
+            if (status > 299 && status < 200) {
+                serverRsp.setQueryError(QueryError.QUERY_ERROR);
+                serverRsp.setQueryErrorMessage("HTTP status " + status);
+
+            }
+        } catch (IOException e) {
+            serverRsp = new ElasticServerResponse();
+            serverRsp.setQueryError(QueryError.NO_RESPONSE);
+            serverRsp.setQueryErrorMessage(e.getMessage());
+        }
+        return serverRsp;
+    }
+
+    private OpenPointInTimeResponse openPointInTime(SearchServerRequest serverRequest) throws IOException {
+        return client.openPointInTime(new OpenPointInTimeRequest(serverRequest.index).keepAlive(TimeValue.parseTimeValue(serverRequest.downloadCompleteResultMethodKeepAlive, "DownloadAll.afterSearch.PIT")), RequestOptionsProfile.toRequestOptions(serverRequest.requestOptions));
+    }
+
+    /**
+     * Resumed requests and sliced requests are always sent on their own because they need special handling, see
+     * {@link #executeSingle(SearchServerRequest, SearchRequest)}.
+     */
+    private boolean requiresSingleExecution(SearchServerRequest serverRequest) {
+        return isSlicedRequest(serverRequest) || (serverRequest.downloadCompleteResults && serverRequest.downloadCompleteResultsResumeFrom != null);
+    }
+
+    private boolean isSlicedRequest(SearchServerRequest serverRequest) {
+        return serverRequest.downloadCompleteResults && !serverRequest.isCountRequest && serverRequest.downloadCompleteResultsSlices > 1;
+    }
+
+    /**
+     * Sends one request per slice of a sliced deep pagination download concurrently and waits for all initial
+     * responses. The slices share the scroll keep alive or the point in time of <tt>sr</tt>.
+     *
+     * @param serverRequest The server request with {@link SearchServerRequest#downloadCompleteResultsSlices} set.
+     * @param sr            The ElasticSearch request created for <tt>serverRequest</tt>.
+     * @return The response over all slices.
+     */
+    protected ElasticServerResponse executeSlicedSearch(SearchServerRequest serverRequest, SearchRequest sr) {
+        final int numSlices = serverRequest.downloadCompleteResultsSlices;
+        log.debug("Issuing deep pagination request in {} slices", numSlices);
+        final RequestOptions requestOptions = RequestOptionsProfile.toRequestOptions(serverRequest.requestOptions);
+        final List<SearchRequest> sliceRequests = new ArrayList<>(numSlices);
+        final List<CompletableFuture<SearchResponse>> futures = new ArrayList<>(numSlices);
+        for (int i = 0; i < numSlices; i++) {
+            final SearchRequest sliceRequest = new SearchRequest(sr.indices(), sr.source().copyWithNewSlice(new SliceBuilder(i, numSlices)));
+            if (sr.scroll() != null)
+                sliceRequest.scroll(sr.scroll());
+            final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+            client.searchAsync(sliceRequest, requestOptions, ActionListener.wrap(future::complete, future::completeExceptionally));
+            sliceRequests.add(sliceRequest);
+            futures.add(future);
+        }
+        final List<SearchResponse> sliceResponses = new ArrayList<>(numSlices);
+        Exception failure = null;
+        for (CompletableFuture<SearchResponse> future : futures) {
+            try {
+                sliceResponses.add(future.join());
+            } catch (CompletionException e) {
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        if (failure != null) {
+            // release the scrolls of the slices that did succeed
+            sliceResponses.stream().map(SearchResponse::getScrollId).filter(Objects::nonNull).forEach(scrollId -> {
+                final ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+                clearScrollRequest.addScrollId(scrollId);
+                client.clearScrollAsync(clearScrollRequest, RequestOptions.DEFAULT, ActionListener.wrap(r -> {
+                }, e -> log.warn("Could not clear scroll of a failed sliced request", e)));
+            });
+            // the PIT is shared by all slices and nobody will use it anymore
+            if (sr.source().pointInTimeBuilder() != null) {
+                // the ID might have been updated by a successful slice
+                final String pointInTimeId = sliceResponses.stream().map(SearchResponse::pointInTimeId).filter(Objects::nonNull).reduce((first, second) -> second).orElse(sr.source().pointInTimeBuilder().getEncodedId());
+                client.closePointInTimeAsync(new ClosePointInTimeRequest(pointInTimeId), RequestOptions.DEFAULT, ActionListener.wrap(r -> {
+                }, e -> log.warn("Could not close the point in time of a failed sliced request", e)));
+            }
+            return createErrorResponse(failure);
+        }
+        return new ElasticServerResponse(sliceResponses, sliceRequests, serverRequest, client);
+    }
+
+    /**
+     * Sends the first request of a resumed searchAfter download. If the point in time of the checkpoint has expired,
+     * a new point in time is opened and the request is sent again with the same searchAfter values.
+     *
+     * @param serverRequest The server request with {@link SearchServerRequest#downloadCompleteResultsResumeFrom} set.
+     * @param sr            The ElasticSearch request created for <tt>serverRequest</tt>.
+     * @return The response for the first batch after the checkpoint.
+     * @throws IOException If the request fails.
+     */
+    private SearchResponse resume(SearchServerRequest serverRequest, SearchRequest sr) throws IOException {
+        log.debug("Resuming deep pagination download from {}", serverRequest.downloadCompleteResultsResumeFrom);
+        final RequestOptions requestOptions = RequestOptionsProfile.toRequestOptions(serverRequest.requestOptions);
+        try {
+            return client.search(sr, requestOptions);
+        } catch (ElasticsearchStatusException e) {
+            if (e.status() != RestStatus.NOT_FOUND)
+                throw e;
+            log.info("The point in time of the deep pagination checkpoint has expired. Continuing on a new point in time after the sort values of the checkpoint.");
+            final OpenPointInTimeResponse openPointInTimeResponse = openPointInTime(serverRequest);
+            sr.source().pointInTimeBuilder(new PointInTimeBuilder(openPointInTimeResponse.getPointInTimeId()));
+            return client.search(sr, requestOptions);
+        }
+    }
+
+    /**
+     * Adds the request for the index of a search template request. The search body is rendered by ElasticSearch from
+     * the stored template, see {@link #toSearchTemplateRequest(SearchServerRequest, SearchRequest)}.
+     */
+    private void handleSearchTemplateRequest(List<SearchRequest> searchRequests, SearchServerRequest serverRequest) {
+        if (StringUtils.isBlank(serverRequest.searchTemplate.id))
+            throw new IllegalArgumentException("The search template of the request for index " + serverRequest.index + " has no ID.");
+        if (serverRequest.isCountRequest || serverRequest.downloadCompleteResults || serverRequest.suggestionText != null)
+            throw new IllegalArgumentException("The search template " + serverRequest.searchTemplate.id + " cannot be used for count requests, suggestions or downloading complete results.");
+        searchRequests.add(new SearchRequest(serverRequest.index));
+        log.debug("Searching on index {} with search template {}.", serverRequest.index, serverRequest.searchTemplate);
+    }
+
+    private SearchTemplateRequest toSearchTemplateRequest(SearchServerRequest serverRequest, SearchRequest sr) {
+        final SearchTemplateRequest templateRequest = new SearchTemplateRequest(sr);
+        templateRequest.setScriptType(ScriptType.STORED);
+        templateRequest.setScript(serverRequest.searchTemplate.id);
+        templateRequest.setScriptParams(serverRequest.searchTemplate.params != null ? serverRequest.searchTemplate.params : Collections.emptyMap());
+        return templateRequest;
+    }
+
     private void checkDeepPagingParameters(SearchServerRequest serverRequest) {
         if (!serverRequest.suppressDownloadCompleteResultPerformanceChecks && serverRequest.downloadCompleteResults) {
             final List<SortCommand> sortCmds = serverRequest.sortCmds;
@@ -241,9 +825,6 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
 
     protected void handleSearchRequest(List<SearchRequest> searchRequestBuilders,
                                        OpenPointInTimeResponse openPointInTimeResponse, SearchServerRequest serverCmd) {
-        if (null == serverCmd.fieldsToReturn)
-            serverCmd.addField("*");
-
         if (serverCmd.index == null)
             throw new IllegalArgumentException("The search command does not define an index to search on.");
         final SearchSourceBuilder ssb = new SearchSourceBuilder();
@@ -262,12 +843,20 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
             ssb.timeout(TimeValue.parseTimeValue(serverCmd.requestTimeout, "RequestTimeout"));
 
         if (serverCmd.downloadCompleteResults) {
-            if (serverCmd.downloadCompleteResultsMethod.equalsIgnoreCase("scroll"))
+            if (serverCmd.downloadCompleteResultsMethod.equalsIgnoreCase("scroll")) {
+                if (serverCmd.downloadCompleteResultsResumeFrom != null)
+                    throw new IllegalArgumentException("Only searchAfter deep pagination downloads can be resumed, scroll downloads cannot.");
                 sr.scroll(serverCmd.downloadCompleteResultMethodKeepAlive);
+            }
             else if (serverCmd.downloadCompleteResultsMethod.equalsIgnoreCase("searchAfter")) {
                 if (openPointInTimeResponse == null)
                     throw new IllegalStateException("Download complete results is enabled but no point in time request was performed. This is coding error in this component.");
                 ssb.pointInTimeBuilder(new PointInTimeBuilder(openPointInTimeResponse.getPointInTimeId()));
+                if (serverCmd.downloadCompleteResultsResumeFrom != null) {
+                    if (isSlicedRequest(serverCmd))
+                        throw new IllegalArgumentException("Resuming a sliced deep pagination download is not supported.");
+                    ssb.searchAfter(serverCmd.downloadCompleteResultsResumeFrom.lastSortValues);
+                }
             } else
                 throw new IllegalArgumentException("Unknown deep pagination method '" + serverCmd.downloadCompleteResultsMethod + "'.");
         }
@@ -276,10 +865,11 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
         ssb.query(queryBuilder);
 
 
-        if (null != serverCmd.fieldsToReturn)
-            for (String field : serverCmd.fieldsToReturn) {
-                ssb.storedField(field);
-            }
+        // the server request is not changed so that it can still serve as a cache key
+        final Collection<String> fieldsToReturn = null != serverCmd.fieldsToReturn ? serverCmd.fieldsToReturn : List.of("*");
+        for (String field : fieldsToReturn) {
+            ssb.storedField(field);
+        }
 
         ssb.from(serverCmd.start);
         if (serverCmd.rows >= 0)
@@ -385,172 +975,183 @@ public class ElasticSearchComponent<C extends ElasticSearchCarrier<IElasticServe
         log.debug("Searching on index {}. Created search query \"{}\".", serverCmd.index, ssb);
     }
 
+    @SuppressWarnings("unchecked")
     protected AbstractAggregationBuilder<?> buildAggregation(AggregationRequest aggCmd) {
-        if (NoOpAggregation.class.equals(aggCmd.getClass()))
+        IAggregationTranslator<AggregationRequest> translator = (IAggregationTranslator<AggregationRequest>) contributedAggregationTranslators.get(aggCmd.getClass());
+        if (translator == null)
+            translator = (IAggregationTranslator<AggregationRequest>) aggregationTranslators.get(aggCmd.getClass());
+        if (translator == null) {
+            log.error("Unhandled aggregation command class: {}", aggCmd.getClass());
             return null;
-        if (TermsAggregation.class.equals(aggCmd.getClass())) {
-            TermsAggregation termsAgg = (TermsAggregation) aggCmd;
-
-            TermsAggregationBuilder termsBuilder = AggregationBuilders.terms(termsAgg.name).field(termsAgg.field);
-            List<BucketOrder> compoundOrder = new ArrayList<>();
-            for (OrderCommand orderCmd : termsAgg.order) {
-                BucketOrder order = null;
-                boolean ascending = false;
-                if (null != orderCmd && null != orderCmd.sortOrder)
-                    ascending = orderCmd.sortOrder == OrderCommand.SortOrder.ASCENDING;
-                if (null != orderCmd) {
-                    switch (orderCmd.referenceType) {
-                        case AGGREGATION_MULTIVALUE:
-                            order = BucketOrder.aggregation(orderCmd.referenceName, orderCmd.metric.name(), ascending);
-                            break;
-                        case AGGREGATION_SINGLE_VALUE:
-                            order = BucketOrder.aggregation(orderCmd.referenceName, ascending);
-                            break;
-                        case COUNT:
-                            order = BucketOrder.count(ascending);
-                            break;
-                        case TERM:
-                            order = BucketOrder.key(ascending);
-                            break;
-                    }
-                    if (null != order)
-                        compoundOrder.add(order);
+        }
+        return translator.translate(aggCmd, this::buildAggregation);
+    }
+
+    private AbstractAggregationBuilder<?> buildTermsAggregation(TermsAggregation termsAgg) {
+        TermsAggregationBuilder termsBuilder = AggregationBuilders.terms(termsAgg.name).field(termsAgg.field);
+        List<BucketOrder> compoundOrder = new ArrayList<>();
+        for (OrderCommand orderCmd : termsAgg.order) {
+            BucketOrder order = null;
+            boolean ascending = false;
+            if (null != orderCmd && null != orderCmd.sortOrder)
+                ascending = orderCmd.sortOrder == OrderCommand.SortOrder.ASCENDING;
+            if (null != orderCmd) {
+                switch (orderCmd.referenceType) {
+                    case AGGREGATION_MULTIVALUE:
+                        order = BucketOrder.aggregation(orderCmd.referenceName, orderCmd.metric.name(), ascending);
+                        break;
+                    case AGGREGATION_SINGLE_VALUE:
+                        order = BucketOrder.aggregation(orderCmd.referenceName, ascending);
+                        break;
+                    case COUNT:
+                        order = BucketOrder.count(ascending);
+                        break;
+                    case TERM:
+                        order = BucketOrder.key(ascending);
+                        break;
                 }
+                if (null != order)
+                    compoundOrder.add(order);
             }
-            if (!compoundOrder.isEmpty())
-                termsBuilder.order(BucketOrder.compound(compoundOrder));
-            if (null != termsAgg.size)
-                termsBuilder.size(termsAgg.size);
-
-            {
-                // manage the in- or exclusion of terms into the aggregation
-                String includeRegex = null;
-                String excludeRegex = null;
-                SortedSet<BytesRef> includeTerms = null;
-                SortedSet<BytesRef> excludeTerms = null;
-                if (termsAgg.include != null) {
-                    if (termsAgg.include instanceof String) {
-                        includeRegex = (String) termsAgg.include;
-                    } else if (termsAgg.include.getClass().isArray()) {
-                        includeTerms = new TreeSet<>();
-                        for (int i = 0; i < Array.getLength(termsAgg.include); ++i) {
-                            includeTerms.add(new BytesRef(String.valueOf(Array.get(termsAgg.include, i))));
-                        }
-                    } else {
-                        includeTerms = new TreeSet<>();
-                        for (Iterator<?> it = ((Collection<?>) termsAgg.include).iterator(); it.hasNext(); ) {
-                            includeTerms.add(new BytesRef(String.valueOf(it.next())));
-                        }
+        }
+        if (!compoundOrder.isEmpty())
+            termsBuilder.order(BucketOrder.compound(compoundOrder));
+        if (null != termsAgg.size)
+            termsBuilder.size(termsAgg.size);
+
+        {
+            // manage the in- or exclusion of terms into the aggregation
+            String includeRegex = null;
+            String excludeRegex = null;
+            SortedSet<BytesRef> includeTerms = null;
+            SortedSet<BytesRef> excludeTerms = null;
+            if (termsAgg.include != null) {
+                if (termsAgg.include instanceof String) {
+                    includeRegex = (String) termsAgg.include;
+                } else if (termsAgg.include.getClass().isArray()) {
+                    includeTerms = new TreeSet<>();
+                    for (int i = 0; i < Array.getLength(termsAgg.include); ++i) {
+                        includeTerms.add(new BytesRef(String.valueOf(Array.get(termsAgg.include, i))));
+                    }
+                } else {
+                    includeTerms = new TreeSet<>();
+                    for (Iterator<?> it = ((Collection<?>) termsAgg.include).iterator(); it.hasNext(); ) {
+                        includeTerms.add(new BytesRef(String.valueOf(it.next())));
                     }
                 }
-                if (termsAgg.exclude != null) {
-                    if (termsAgg.exclude instanceof String) {
-                        excludeRegex = (String) termsAgg.exclude;
-                    } else if (termsAgg.exclude.getClass().isArray()) {
-                        excludeTerms = new TreeSet<>();
-                        for (int i = 0; i < Array.getLength(termsAgg.exclude); ++i) {
-                            excludeTerms.add(new BytesRef(String.valueOf(Array.get(termsAgg.exclude, i))));
-                        }
-                    } else {
-                        excludeTerms = new TreeSet<>();
-                        for (Iterator<?> it = ((Collection<?>) termsAgg.exclude).iterator(); it.hasNext(); ) {
-                            excludeTerms.add(new BytesRef(String.valueOf(it.next())));
-                        }
+            }
+            if (termsAgg.exclude != null) {
+                if (termsAgg.exclude instanceof String) {
+                    excludeRegex = (String) termsAgg.exclude;
+                } else if (termsAgg.exclude.getClass().isArray()) {
+                    excludeTerms = new TreeSet<>();
+                    for (int i = 0; i < Array.getLength(termsAgg.exclude); ++i) {
+                        excludeTerms.add(new BytesRef(String.valueOf(Array.get(termsAgg.exclude, i))));
+                    }
+                } else {
+                    excludeTerms = new TreeSet<>();
+                    for (Iterator<?> it = ((Collection<?>) termsAgg.exclude).iterator(); it.hasNext(); ) {
+                        excludeTerms.add(new BytesRef(String.valueOf(it.next())));
                     }
                 }
-                IncludeExclude includeExclude = null;
-                if (includeRegex != null || excludeRegex != null)
-                    includeExclude = new IncludeExclude(includeRegex, excludeRegex);
-                else if ((includeTerms != null && !includeTerms.isEmpty())
-                        || (excludeTerms != null && !excludeTerms.isEmpty()))
-                    includeExclude = new IncludeExclude(includeTerms, excludeTerms);
-
-                if (includeExclude != null)
-                    termsBuilder.includeExclude(includeExclude);
-                // End inclusion / exclusion of aggregation terms
             }
+            IncludeExclude includeExclude = null;
+            if (includeRegex != null || excludeRegex != null)
+                includeExclude = new IncludeExclude(includeRegex, excludeRegex);
+            else if ((includeTerms != null && !includeTerms.isEmpty())
+                    || (excludeTerms != null && !excludeTerms.isEmpty()))
+                includeExclude = new IncludeExclude(includeTerms, excludeTerms);
+
+            if (includeExclude != null)
+                termsBuilder.includeExclude(includeExclude);
+            // End inclusion / exclusion of aggregation terms
+        }
 
-            // Add sub aggregations
-            if (null != termsAgg.subaggregations) {
-                for (AggregationRequest subAggCmd : termsAgg.subaggregations.values()) {
-                    termsBuilder.subAggregation(buildAggregation(subAggCmd));
-                }
+        // Add sub aggregations
+        if (null != termsAgg.subaggregations) {
+            for (AggregationRequest subAggCmd : termsAgg.subaggregations.values()) {
+                termsBuilder.subAggregation(buildAggregation(subAggCmd));
             }
-            return termsBuilder;
-        }
-        if (MaxAggregation.class.equals(aggCmd.getClass())) {
-            MaxAggregation maxAgg = (MaxAggregation) aggCmd;
-            MaxAggregationBuilder maxBuilder = AggregationBuilders.max(maxAgg.name);
-            if (null != maxAgg.field)
-                maxBuilder.field(maxAgg.field);
-            if (null != maxAgg.script)
-                maxBuilder.script(
-                        new Script(ScriptType.INLINE, maxAgg.scriptLang.name(), maxAgg.script, Collections.emptyMap()));
-            return maxBuilder;
-        }
-        if (TopHitsAggregation.class.equals(aggCmd.getClass())) {
-            TopHitsAggregation topHitsAgg = (TopHitsAggregation) aggCmd;
-            TopHitsAggregationBuilder topHitsBuilder = AggregationBuilders.topHits(topHitsAgg.name);
-            String[] includes = null;
-            if (null != topHitsAgg.includeFields)
-                includes = topHitsAgg.includeFields.toArray(new String[0]);
-            String[] excludes = null;
-            if (null != topHitsAgg.excludeFields)
-                excludes = topHitsAgg.excludeFields.toArray(new String[0]);
-            if (null != includes || null != excludes)
-                topHitsBuilder.fetchSource(includes, excludes);
-            if (topHitsAgg.size != null)
-                topHitsBuilder.size(topHitsAgg.size);
-            return topHitsBuilder;
-        }
-        if (SignificantTermsAggregation.class.equals(aggCmd.getClass())) {
-            SignificantTermsAggregation sigAgg = (SignificantTermsAggregation) aggCmd;
-            SignificantTermsAggregationBuilder esSigAgg = AggregationBuilders.significantTerms(sigAgg.name);
-            esSigAgg.field(sigAgg.field);
-            return esSigAgg;
-        }
-        log.error("Unhandled aggregation command class: {}", aggCmd.getClass());
-        return null;
+        }
+        return termsBuilder;
+    }
+
+    private AbstractAggregationBuilder<?> buildMaxAggregation(MaxAggregation maxAgg) {
+        MaxAggregationBuilder maxBuilder = AggregationBuilders.max(maxAgg.name);
+        if (null != maxAgg.field)
+            maxBuilder.field(maxAgg.field);
+        if (null != maxAgg.script)
+            maxBuilder.script(
+                    new Script(ScriptType.INLINE, maxAgg.scriptLang.name(), maxAgg.script, Collections.emptyMap()));
+        return maxBuilder;
+    }
+
+    private AbstractAggregationBuilder<?> buildTopHitsAggregation(TopHitsAggregation topHitsAgg) {
+        TopHitsAggregationBuilder topHitsBuilder = AggregationBuilders.topHits(topHitsAgg.name);
+        String[] includes = null;
+        if (null != topHitsAgg.includeFields)
+            includes = topHitsAgg.includeFields.toArray(new String[0]);
+        String[] excludes = null;
+        if (null != topHitsAgg.excludeFields)
+            excludes = topHitsAgg.excludeFields.toArray(new String[0]);
+        if (null != includes || null != excludes)
+            topHitsBuilder.fetchSource(includes, excludes);
+        if (topHitsAgg.size != null)
+            topHitsBuilder.size(topHitsAgg.size);
+        return topHitsBuilder;
+    }
+
+    private AbstractAggregationBuilder<?> buildSignificantTermsAggregation(SignificantTermsAggregation sigAgg) {
+        SignificantTermsAggregationBuilder esSigAgg = AggregationBuilders.significantTerms(sigAgg.name);
+        esSigAgg.field(sigAgg.field);
+        return esSigAgg;
     }
 
     protected QueryBuilder buildQuery(SearchServerQuery searchServerQuery) {
         if (null == searchServerQuery)
             throw new IllegalArgumentException("The search server query is null");
-        QueryBuilder queryBuilder = null;
-        if (LuceneSyntaxQuery.class.equals(searchServerQuery.getClass())) {
-            LuceneSyntaxQuery luceneSyntaxQuery = (LuceneSyntaxQuery) searchServerQuery;
-            queryBuilder = buildQueryStringQuery(luceneSyntaxQuery);
-        } else if (MultiMatchQuery.class.equals(searchServerQuery.getClass())) {
-            MultiMatchQuery query = (MultiMatchQuery) searchServerQuery;
-            queryBuilder = buildMultiMatchQuery(query);
-        } else if (MatchQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildMatchQuery((MatchQuery) searchServerQuery);
-        } else if (MatchAllQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = new MatchAllQueryBuilder();
-        } else if (BoolQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildBoolQuery((BoolQuery) searchServerQuery);
-        } else if (TermQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildTermQuery((TermQuery) searchServerQuery);
-        } else if (NestedQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildNestedQuery((NestedQuery) searchServerQuery);
-        } else if (FunctionScoreQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildFunctionScoreQuery((FunctionScoreQuery) searchServerQuery);
-        } else if (ConstantScoreQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildConstantScoreQuery((ConstantScoreQuery) searchServerQuery);
-        } else if (MatchPhraseQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildMatchPhraseQuery((MatchPhraseQuery) searchServerQuery);
-        } else if (TermsQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildTermsQuery((TermsQuery) searchServerQuery);
-        } else if (WildcardQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildWildcardQuery((WildcardQuery) searchServerQuery);
-        } else if (SimpleQueryStringQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildSimpleQueryStringQuery((SimpleQueryStringQuery) searchServerQuery);
-        } else if (RangeQuery.class.equals(searchServerQuery.getClass())) {
-            queryBuilder = buildRangeQuery((RangeQuery) searchServerQuery);
-        } else {
-            throw new IllegalArgumentException("Unhandled query type: " + searchServerQuery.getClass());
+        if (queryTranslationCache != null && searchServerQuery.immutable)
+            return buildCachedQuery(searchServerQuery);
+        return translateQuery(searchServerQuery);
+    }
+
+    /**
+     * Returns the cached query builder of a structurally equal immutable query or translates and caches
+     * <tt>searchServerQuery</tt>. The returned builder is shared and must not be changed.
+     */
+    private QueryBuilder buildCachedQuery(SearchServerQuery searchServerQuery) {
+        try {
+            return queryTranslationCache.get(getFingerprint(searchServerQuery), () -> translateQuery(searchServerQuery));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
         }
-        return queryBuilder;
+    }
+
+    /**
+     * Returns the fingerprint of an immutable query, computed bottom-up: immutable subqueries are represented by their
+     * own fingerprints from {@link #queryFingerprints}. Since the translation of the query builds the subqueries with
+     * {@link #buildCachedQuery(SearchServerQuery)} again, each subtree is hashed only once instead of once per
+     * ancestor.
+     */
+    private String getFingerprint(SearchServerQuery searchServerQuery) {
+        try {
+            return queryFingerprints.get(searchServerQuery, () -> RequestFingerprint.of(searchServerQuery,
+                    nested -> nested instanceof SearchServerQuery && ((SearchServerQuery) nested).immutable ? getFingerprint((SearchServerQuery) nested) : null));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueryBuilder translateQuery(SearchServerQuery searchServerQuery) {
+        IQueryTranslator<SearchServerQuery> translator = (IQueryTranslator<SearchServerQuery>) contributedQueryTranslators.get(searchServerQuery.getClass());
+        if (translator == null)
+            translator = (IQueryTranslator<SearchServerQuery>) queryTranslators.get(searchServerQuery.getClass());
+        if (translator == null)
+            throw new IllegalArgumentException("Unhandled query type: " + searchServerQuery.getClass());
+        return translator.translate(searchServerQuery, this::buildQuery);
     }
 
     private QueryBuilder buildRangeQuery(RangeQuery rangeQuery) {
@@ -0,0 +1,25 @@
+package de.julielab.elastic.query.components;
+
+import de.julielab.elastic.query.components.data.aggregation.AggregationRequest;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+
+import java.util.function.Function;
+
+/**
+ * Translates aggregations of a specific {@link AggregationRequest} class into ElasticSearch aggregation builders.
+ * Translators for additional aggregation classes or replacing the translation of built-in classes are contributed to
+ * the {@link de.julielab.elastic.query.services.IAggregationTranslatorRegistry}.
+ *
+ * @param <A> The aggregation class.
+ */
+@FunctionalInterface
+public interface IAggregationTranslator<A extends AggregationRequest> {
+    /**
+     * @param aggregation The aggregation to translate.
+     * @param translator  Translates subaggregations of <tt>aggregation</tt> using the translators registered for their
+     *                    classes.
+     * @return The ElasticSearch aggregation builder for <tt>aggregation</tt> or <tt>null</tt> if the aggregation should
+     * be omitted from the request.
+     */
+    AbstractAggregationBuilder<?> translate(A aggregation, Function<AggregationRequest, AbstractAggregationBuilder<?>> translator);
+}
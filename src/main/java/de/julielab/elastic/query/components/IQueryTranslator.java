@@ -0,0 +1,23 @@
+package de.julielab.elastic.query.components;
+
+import de.julielab.elastic.query.components.data.query.SearchServerQuery;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.util.function.Function;
+
+/**
+ * Translates queries of a specific {@link SearchServerQuery} class into ElasticSearch query builders.
+ * Translators for additional query classes or replacing the translation of built-in classes are contributed to the
+ * {@link de.julielab.elastic.query.services.IQueryTranslatorRegistry}.
+ *
+ * @param <Q> The query class.
+ */
+@FunctionalInterface
+public interface IQueryTranslator<Q extends SearchServerQuery> {
+    /**
+     * @param query      The query to translate.
+     * @param translator Translates subqueries of <tt>query</tt> using the translators registered for their classes.
+     * @return The ElasticSearch query builder for <tt>query</tt>.
+     */
+    QueryBuilder translate(Q query, Function<SearchServerQuery, QueryBuilder> translator);
+}
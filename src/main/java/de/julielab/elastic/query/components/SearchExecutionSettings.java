@@ -0,0 +1,72 @@
+package de.julielab.elastic.query.components;
+
+import de.julielab.elastic.query.SearchExecutionMode;
+import org.apache.tapestry5.ioc.annotations.Inject;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+
+import static de.julielab.elastic.query.ElasticQuerySymbolConstants.*;
+
+/**
+ * The settings of the {@link ElasticSearchComponent} for sending the server requests of a carrier to ElasticSearch.
+ * The no-argument constructor creates the defaults; within the Tapestry IoC registry, the settings are read from the
+ * symbols.
+ */
+public class SearchExecutionSettings {
+    public static final SearchExecutionMode DEFAULT_EXECUTION_MODE = SearchExecutionMode.SEQUENTIAL;
+    public static final int DEFAULT_MULTI_SEARCH_MAX_BATCH_SIZE = 50;
+    public static final int DEFAULT_ASYNC_MAX_REQUESTS_IN_FLIGHT = 16;
+    public static final boolean DEFAULT_COALESCE_REQUESTS = false;
+    public static final int DEFAULT_QUERY_TRANSLATION_CACHE_SIZE = 1000;
+
+    /**
+     * How the server requests of a single carrier are sent.
+     */
+    public SearchExecutionMode executionMode = DEFAULT_EXECUTION_MODE;
+    /**
+     * The maximum number of requests in a single <tt>_msearch</tt> call in the
+     * {@link SearchExecutionMode#MULTI_SEARCH} mode.
+     */
+    public int multiSearchMaxBatchSize = DEFAULT_MULTI_SEARCH_MAX_BATCH_SIZE;
+    /**
+     * The maximum number of requests a component instance has in flight in the {@link SearchExecutionMode#ASYNC}
+     * mode, across all carriers processed concurrently.
+     */
+    public int maxRequestsInFlight = DEFAULT_ASYNC_MAX_REQUESTS_IN_FLIGHT;
+    /**
+     * Whether concurrent identical search requests, with respect to their
+     * {@link de.julielab.elastic.query.components.data.RequestFingerprint}, share a single call to ElasticSearch. Applies
+     * to all execution modes, including the items of <tt>_msearch</tt> batches. Each request receives its own copy of
+     * the response. Requests downloading complete results are never coalesced.
+     */
+    public boolean coalesceRequests = DEFAULT_COALESCE_REQUESTS;
+    /**
+     * The maximum number of ElasticSearch query builders cached for queries marked as
+     * {@link de.julielab.elastic.query.components.data.query.SearchServerQuery#immutable}, keyed by their
+     * fingerprints. Structurally equal immutable queries share one builder. 0 disables the cache.
+     */
+    public int queryTranslationCacheSize = DEFAULT_QUERY_TRANSLATION_CACHE_SIZE;
+
+    public SearchExecutionSettings() {
+    }
+
+    @Inject
+    public SearchExecutionSettings(@Symbol(ES_SEARCH_EXECUTION_MODE) String executionMode, @Symbol(ES_MULTI_SEARCH_MAX_BATCH_SIZE) int multiSearchMaxBatchSize, @Symbol(ES_ASYNC_MAX_REQUESTS_IN_FLIGHT) int maxRequestsInFlight,
+                                   @Symbol(ES_SEARCH_COALESCING) boolean coalesceRequests, @Symbol(ES_QUERY_TRANSLATION_CACHE_SIZE) int queryTranslationCacheSize) {
+        this.executionMode = SearchExecutionMode.valueOf(executionMode.toUpperCase());
+        this.multiSearchMaxBatchSize = multiSearchMaxBatchSize;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+        this.coalesceRequests = coalesceRequests;
+        this.queryTranslationCacheSize = queryTranslationCacheSize;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchExecutionSettings{" +
+                "executionMode=" + executionMode +
+                ", multiSearchMaxBatchSize=" + multiSearchMaxBatchSize +
+                ", maxRequestsInFlight=" + maxRequestsInFlight +
+                ", coalesceRequests=" + coalesceRequests +
+                ", queryTranslationCacheSize=" + queryTranslationCacheSize +
+                '}';
+    }
+}
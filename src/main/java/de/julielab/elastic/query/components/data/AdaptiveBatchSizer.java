@@ -0,0 +1,131 @@
+package de.julielab.elastic.query.components.data;
+
+import org.elasticsearch.core.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Determines the batch size and the keep alive of the subsequent requests of a deep pagination download from the
+ * measured latency and byte size of the previous batches.</p>
+ * <p>The batch size is chosen such that a batch is expected to take the target latency, but never exceeds the
+ * maximum number of bytes per batch. Since the per-document cost estimate includes the fixed cost of a request, the
+ * size grows towards the optimum over a few batches; it changes by at most a factor of two per batch to avoid
+ * oscillation.</p>
+ * <p>The keep alive is set to a multiple of the observed time between two subsequent batch requests, but not below
+ * the configured keep alive. This time only includes the time the consumer takes to process a batch when the next
+ * request waits for the consumer. With prefetching, see {@link DeepPaginationIterator}, a request is sent as soon as
+ * the previous response has arrived and a prefetch slot is free; the consumer's processing time is then only
+ * reflected once it falls behind and the prefetched batches pile up. The configured keep alive must therefore cover
+ * the processing of a batch by a slow consumer.</p>
+ */
+class AdaptiveBatchSizer {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+    /**
+     * The weight of the latest measurement in the moving averages.
+     */
+    private static final double SMOOTHING = 0.5;
+    private static final int KEEP_ALIVE_FACTOR = 3;
+    private static final long MAX_KEEP_ALIVE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyNanos;
+    private final long maxBatchBytes;
+    private final long minKeepAliveMillis;
+    private final int initialBatchSize;
+
+    private int batchSize;
+    private double nanosPerDocument = -1;
+    private double bytesPerDocument = -1;
+    private double millisBetweenRequests = -1;
+    private long lastRequestStart = -1;
+
+    AdaptiveBatchSizer(int minBatchSize, int maxBatchSize, long targetLatencyMillis, long maxBatchBytes, TimeValue minKeepAlive, int initialBatchSize) {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize)
+            throw new IllegalArgumentException("Invalid adaptive batch size bounds [" + minBatchSize + ", " + maxBatchSize + "].");
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.maxBatchBytes = maxBatchBytes;
+        this.minKeepAliveMillis = minKeepAlive.millis();
+        this.initialBatchSize = initialBatchSize;
+        this.batchSize = clamp(initialBatchSize);
+    }
+
+    /**
+     * Creates the batch sizer for the given server request if adaptive batch sizing is enabled.
+     *
+     * @return The batch sizer or <tt>null</tt> if the batch size should not be adapted.
+     */
+    static AdaptiveBatchSizer of(SearchServerRequest serverRequest) {
+        if (!serverRequest.downloadCompleteResults || !serverRequest.downloadCompleteResultsAdaptiveBatchSize)
+            return null;
+        return new AdaptiveBatchSizer(serverRequest.downloadCompleteResultsMinBatchSize, serverRequest.downloadCompleteResultsMaxBatchSize, serverRequest.downloadCompleteResultsTargetBatchLatency, serverRequest.downloadCompleteResultsMaxBatchBytes, TimeValue.parseTimeValue(serverRequest.downloadCompleteResultMethodKeepAlive, "DownloadAll.keepAlive"), serverRequest.rows);
+    }
+
+    /**
+     * @return A new batch sizer with the same configuration and without measurements.
+     */
+    AdaptiveBatchSizer copy() {
+        return new AdaptiveBatchSizer(minBatchSize, maxBatchSize, TimeUnit.NANOSECONDS.toMillis(targetLatencyNanos), maxBatchBytes, TimeValue.timeValueMillis(minKeepAliveMillis), initialBatchSize);
+    }
+
+    /**
+     * @return The batch size for the next request.
+     */
+    synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * To be called when the next batch request is sent. Records the time since the previous request was sent.
+     *
+     * @return The keep alive to send with the request.
+     */
+    synchronized TimeValue requestStarted() {
+        final long now = System.nanoTime();
+        if (lastRequestStart >= 0)
+            millisBetweenRequests = average(millisBetweenRequests, TimeUnit.NANOSECONDS.toMillis(now - lastRequestStart));
+        lastRequestStart = now;
+        return getKeepAlive();
+    }
+
+    /**
+     * Updates the batch size from the measurements of a completed batch request.
+     *
+     * @param numDocuments The number of documents in the response.
+     * @param latencyNanos The time between sending the request and receiving the response.
+     * @param bytes        The size of the response body in bytes.
+     */
+    synchronized void batchReceived(int numDocuments, long latencyNanos, long bytes) {
+        if (numDocuments == 0)
+            return;
+        nanosPerDocument = average(nanosPerDocument, (double) latencyNanos / numDocuments);
+        bytesPerDocument = average(bytesPerDocument, (double) bytes / numDocuments);
+        long size = (long) (targetLatencyNanos / nanosPerDocument);
+        if (bytesPerDocument > 0)
+            size = Math.min(size, (long) (maxBatchBytes / bytesPerDocument));
+        size = Math.max(batchSize / 2, Math.min(size, 2L * batchSize));
+        final int previousBatchSize = batchSize;
+        batchSize = clamp(size);
+        if (batchSize != previousBatchSize)
+            log.debug("Adapted deep pagination batch size from {} to {} after a batch of {} documents that took {}ms with {} bytes.", previousBatchSize, batchSize, numDocuments, TimeUnit.NANOSECONDS.toMillis(latencyNanos), bytes);
+    }
+
+    private TimeValue getKeepAlive() {
+        if (millisBetweenRequests < 0)
+            return TimeValue.timeValueMillis(minKeepAliveMillis);
+        final long keepAlive = (long) (KEEP_ALIVE_FACTOR * millisBetweenRequests);
+        return TimeValue.timeValueMillis(Math.min(MAX_KEEP_ALIVE_MILLIS, Math.max(minKeepAliveMillis, keepAlive)));
+    }
+
+    private int clamp(long size) {
+        return (int) Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+
+    private double average(double average, double value) {
+        return average < 0 ? value : SMOOTHING * value + (1 - SMOOTHING) * average;
+    }
+}
@@ -0,0 +1,97 @@
+package de.julielab.elastic.query.components.data;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the response consumers of a given factory but counts the number of response body bytes received.
+ * A new factory is to be used for each request whose response size should be known.
+ */
+class ByteCountingResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+    private final HttpAsyncResponseConsumerFactory delegate;
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    ByteCountingResponseConsumerFactory(HttpAsyncResponseConsumerFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+        final HttpAsyncResponseConsumer<HttpResponse> consumer = delegate.createHttpAsyncResponseConsumer();
+        return new HttpAsyncResponseConsumer<>() {
+            @Override
+            public void responseReceived(HttpResponse response) throws IOException, HttpException {
+                consumer.responseReceived(response);
+            }
+
+            @Override
+            public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+                consumer.consumeContent(new ContentDecoder() {
+                    @Override
+                    public int read(ByteBuffer dst) throws IOException {
+                        final int read = decoder.read(dst);
+                        if (read > 0)
+                            bytesReceived.addAndGet(read);
+                        return read;
+                    }
+
+                    @Override
+                    public boolean isCompleted() {
+                        return decoder.isCompleted();
+                    }
+                }, ioControl);
+            }
+
+            @Override
+            public void responseCompleted(HttpContext context) {
+                consumer.responseCompleted(context);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                consumer.failed(ex);
+            }
+
+            @Override
+            public Exception getException() {
+                return consumer.getException();
+            }
+
+            @Override
+            public HttpResponse getResult() {
+                return consumer.getResult();
+            }
+
+            @Override
+            public boolean isDone() {
+                return consumer.isDone();
+            }
+
+            @Override
+            public void close() throws IOException {
+                consumer.close();
+            }
+
+            @Override
+            public boolean cancel() {
+                return consumer.cancel();
+            }
+        };
+    }
+
+    /**
+     * @return The number of response body bytes received by the consumers of this factory.
+     */
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+}
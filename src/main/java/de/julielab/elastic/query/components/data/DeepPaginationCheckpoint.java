@@ -0,0 +1,40 @@
+package de.julielab.elastic.query.components.data;
+
+import java.util.Arrays;
+
+/**
+ * <p>The position of a searchAfter deep pagination download after a completely consumed batch. Checkpoints are
+ * written to a {@link IDeepPaginationCheckpointStore} when {@link SearchServerRequest#downloadCompleteResultsCheckpointStore}
+ * is set. A new request continues the download when the checkpoint is set to
+ * {@link SearchServerRequest#downloadCompleteResultsResumeFrom}.</p>
+ */
+public class DeepPaginationCheckpoint {
+    /**
+     * The ID of the point in time the download was running on. If the PIT has expired in the meantime, the
+     * download is continued on a new PIT.
+     */
+    public String pointInTimeId;
+    /**
+     * The sort values of the last document that has been returned. The download continues after this document.
+     */
+    public Object[] lastSortValues;
+    /**
+     * The number of documents that have been returned up to this checkpoint. Counts against
+     * {@link SearchServerRequest#downloadCompleteResultsLimit} when resuming.
+     */
+    public int documentsReturned;
+
+    public DeepPaginationCheckpoint() {
+    }
+
+    public DeepPaginationCheckpoint(String pointInTimeId, Object[] lastSortValues, int documentsReturned) {
+        this.pointInTimeId = pointInTimeId;
+        this.lastSortValues = lastSortValues;
+        this.documentsReturned = documentsReturned;
+    }
+
+    @Override
+    public String toString() {
+        return "DeepPaginationCheckpoint [pointInTimeId=" + pointInTimeId + ", lastSortValues=" + Arrays.toString(lastSortValues) + ", documentsReturned=" + documentsReturned + "]";
+    }
+}
@@ -0,0 +1,88 @@
+package de.julielab.elastic.query.components.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link DeepPaginationCheckpoint} to the configured store every <tt>interval</tt> completely consumed
+ * batches of a searchAfter download and removes it once the download has been completed.
+ */
+class DeepPaginationCheckpointer {
+    private static final Logger log = LoggerFactory.getLogger(DeepPaginationCheckpointer.class);
+
+    private final IDeepPaginationCheckpointStore store;
+    private final String key;
+    private final int interval;
+    private final int resumedDocuments;
+    private int batchesSinceCheckpoint;
+    /**
+     * Set when a checkpoint cannot be written at all, e.g. because of an unsupported sort value type. The download
+     * continues without checkpoints.
+     */
+    private boolean disabled;
+
+    DeepPaginationCheckpointer(IDeepPaginationCheckpointStore store, String key, int interval, DeepPaginationCheckpoint resumedFrom) {
+        this.store = store;
+        this.key = key;
+        this.interval = Math.max(1, interval);
+        this.resumedDocuments = resumedFrom != null ? resumedFrom.documentsReturned : 0;
+    }
+
+    /**
+     * Creates the checkpointer for the given server request if it is a searchAfter download with a checkpoint store
+     * and key.
+     *
+     * @return The checkpointer or <tt>null</tt> if no checkpoints should be written.
+     */
+    static DeepPaginationCheckpointer of(SearchServerRequest serverRequest) {
+        if (!serverRequest.downloadCompleteResults || !serverRequest.downloadCompleteResultsMethod.equalsIgnoreCase("searchAfter"))
+            return null;
+        if (serverRequest.downloadCompleteResultsCheckpointStore == null || serverRequest.downloadCompleteResultsCheckpointKey == null)
+            return null;
+        return new DeepPaginationCheckpointer(serverRequest.downloadCompleteResultsCheckpointStore, serverRequest.downloadCompleteResultsCheckpointKey, serverRequest.downloadCompleteResultsCheckpointInterval, serverRequest.downloadCompleteResultsResumeFrom);
+    }
+
+    /**
+     * @return The number of documents returned by the download this download resumes, 0 for new downloads.
+     */
+    int getResumedDocuments() {
+        return resumedDocuments;
+    }
+
+    /**
+     * Called after all documents of a batch have been handed out.
+     *
+     * @param pointInTimeId     The current PIT ID.
+     * @param lastSortValues    The sort values of the last document of the batch.
+     * @param documentsReturned The number of documents returned so far, including those before resuming.
+     */
+    void batchCompleted(String pointInTimeId, Object[] lastSortValues, int documentsReturned) {
+        if (disabled || ++batchesSinceCheckpoint < interval)
+            return;
+        batchesSinceCheckpoint = 0;
+        final DeepPaginationCheckpoint checkpoint = new DeepPaginationCheckpoint(pointInTimeId, lastSortValues, documentsReturned);
+        try {
+            store.store(key, checkpoint);
+            log.debug("Wrote deep pagination checkpoint {} for key {}", checkpoint, key);
+        } catch (IOException e) {
+            log.error("Could not write deep pagination checkpoint for key {}", key, e);
+        } catch (RuntimeException e) {
+            // a failing checkpoint must not abort the download
+            log.error("Could not write deep pagination checkpoint for key {}. No further checkpoints are written for this download.", key, e);
+            disabled = true;
+        }
+    }
+
+    /**
+     * Called when the download has been completed. Removes the checkpoint since there is nothing left to resume.
+     */
+    void downloadCompleted() {
+        try {
+            store.remove(key);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not remove deep pagination checkpoint for key {}", key, e);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package de.julielab.elastic.query.components.data;
+
+import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.*;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Iterates over the hits of a search response and, for deep pagination requests, fetches the subsequent batches
+ * via scroll or via searchAfter on a point in time (PIT).</p>
+ * <p>With a positive prefetch depth, the requests for up to that many subsequent batches are sent in the background
+ * as soon as a batch is handed out so that network time and the processing of the consumer overlap. Since each
+ * batch request depends on the previous response (scroll ID, PIT ID, sort values), the prefetch requests form a chain.
+ * Memory is bounded by the prefetch depth.</p>
+ * <p>The scroll or PIT is closed when the iterator is exhausted, when the deep pagination limit is reached or
+ * when {@link #close()} is called.</p>
+ * <p>If the scroll or PIT is released by someone else while the iterator still needs it, for example by closing the
+ * response or by the {@link de.julielab.elastic.query.services.ISearchContextRegistry}, fetching the next batch fails
+ * with an {@link IllegalStateException}. The checkpoint of the download is kept in this case.</p>
+ */
+class DeepPaginationIterator implements Iterator<ISearchServerDocument>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DeepPaginationIterator.class);
+    private static final TimeValue DEFAULT_SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+
+    private final RestHighLevelClient client;
+    private final SearchResponse response;
+    private final SearchRequest searchRequest;
+    private final boolean downloadCompleteResults;
+    private final int downloadCompleteResultsLimit;
+    private final int prefetchDepth;
+    /**
+     * The requested, possibly still running, subsequent batches in the order they are to be handed out.
+     */
+    private final Deque<CompletableFuture<SearchResponse>> prefetchedBatches = new ArrayDeque<>();
+    /**
+     * The last element of the chain of batch requests. The next batch request is chained after it.
+     */
+    private CompletableFuture<SearchResponse> lastRequestedBatch;
+    private int pos = 0;
+    private int documentsReturned;
+    private SearchHit[] currentHits;
+    /**
+     * The number of hits received from the server so far, including batches that have not yet been handed out.
+     */
+    private volatile int documentsFetched;
+    private volatile boolean closed;
+    /**
+     * The scroll or PIT this iterator reads from. Null if the response is not a deep pagination response.
+     */
+    private final SearchContext context;
+    /**
+     * For sliced downloads, all slices share the same PIT. This counter holds the number of slices that still use
+     * it, the last slice releases the PIT. Null if the context is not shared.
+     */
+    private final AtomicInteger contextUsers;
+    /**
+     * Writes checkpoints of searchAfter downloads. Null if no checkpoints should be written.
+     */
+    private final DeepPaginationCheckpointer checkpointer;
+    /**
+     * Adapts batch size and keep alive of the subsequent batch requests. Null if they should not be adapted.
+     */
+    private final AdaptiveBatchSizer batchSizer;
+    /**
+     * The options for the requests of further batches, see {@link SearchServerRequest#requestOptions}.
+     */
+    private final RequestOptions requestOptions;
+
+    DeepPaginationIterator(SearchResponse response, SearchRequest searchRequest, boolean downloadCompleteResults, int downloadCompleteResultsLimit, int prefetchDepth, SearchContext context, AtomicInteger contextUsers, DeepPaginationCheckpointer checkpointer, AdaptiveBatchSizer batchSizer, RequestOptions requestOptions, RestHighLevelClient client) {
+        this.context = context;
+        this.contextUsers = contextUsers;
+        if (context != null)
+            context.addOwner(this);
+        this.checkpointer = checkpointer;
+        this.batchSizer = batchSizer;
+        this.requestOptions = requestOptions;
+        this.client = client;
+        this.response = response;
+        this.searchRequest = searchRequest;
+        this.downloadCompleteResults = downloadCompleteResults;
+        this.downloadCompleteResultsLimit = downloadCompleteResultsLimit;
+        this.prefetchDepth = Math.max(0, prefetchDepth);
+        this.currentHits = response.getHits().getHits();
+        // when resuming, the documents returned before count against the limit
+        this.documentsReturned = checkpointer != null ? checkpointer.getResumedDocuments() : 0;
+        this.documentsFetched = documentsReturned + currentHits.length;
+        this.lastRequestedBatch = CompletableFuture.completedFuture(response);
+        requestPrefetchBatches();
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return advance().join();
+        } catch (CompletionException e) {
+            // a released search context must not look like the regular end of the results
+            if (e.getCause() instanceof IllegalStateException)
+                throw (IllegalStateException) e.getCause();
+            log.error("Could not retrieve the next batch of documents", e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * <p>Determines whether there is a next document without blocking. If the current batch has been consumed, the
+     * returned future completes when the next batch has arrived.</p>
+     * <p>The returned future completes exceptionally if the next batch could not be retrieved. The iterator is closed
+     * in this case.</p>
+     *
+     * @return A future that completes with whether there is a next document.
+     */
+    CompletableFuture<Boolean> advance() {
+        if (closed)
+            return CompletableFuture.completedFuture(false);
+        if (currentHits.length > 0 && documentsReturned < downloadCompleteResultsLimit) {
+            if (pos < currentHits.length) {
+                log.trace("There are more documents in the current response.");
+                return CompletableFuture.completedFuture(true);
+            } else if (isDeepPagination()) {
+                log.debug("No more documents present in the current response. Querying next batch.");
+                if (checkpointer != null)
+                    checkpointer.batchCompleted(context != null ? context.getId() : response.pointInTimeId(), currentHits[currentHits.length - 1].getSortValues(), documentsReturned);
+                return nextBatch().handle((sr, throwable) -> {
+                    if (throwable != null) {
+                        // keep the checkpoint so that the download can be resumed
+                        close();
+                        throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+                    }
+                    if (sr != null) {
+                        currentHits = sr.getHits().getHits();
+                        log.trace("Received {} new hits for the next batch.", currentHits.length);
+                        pos = 0;
+                        requestPrefetchBatches();
+                        if (currentHits.length > 0)
+                            return true;
+                    }
+                    finish();
+                    return false;
+                });
+            }
+        }
+        finish();
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Called when there are no more documents to return. Removes the checkpoint, if any, and closes the iterator.
+     */
+    private void finish() {
+        if (checkpointer != null && !closed)
+            checkpointer.downloadCompleted();
+        if (documentsReturned < downloadCompleteResultsLimit)
+            log.debug("No more hits returned from scrolling request.");
+        else
+            log.debug("Hit the deep pagination limit of {}. Closing the request.", downloadCompleteResultsLimit);
+        close();
+    }
+
+    @Override
+    public ISearchServerDocument next() {
+        if (!hasNext())
+            return null;
+        if (pos > 0 && pos % 200 == 0)
+            log.info("Returning next document at position {} of the current scroll batch.", pos);
+        SearchHit hit = currentHits[pos++];
+        ++documentsReturned;
+        return new ElasticSearchDocumentHit(hit);
+    }
+
+    /**
+     * @return Whether there are more documents in the current batch, without fetching the next batch.
+     */
+    boolean hasNextInBatch() {
+        return !closed && pos < currentHits.length && documentsReturned < downloadCompleteResultsLimit;
+    }
+
+    /**
+     * Hands out all remaining hits of the current batch at once. The next call to {@link #hasNext()} will fetch the
+     * next batch. Used to split work off for parallel consumers.
+     *
+     * @return The remaining hits of the current batch, possibly empty.
+     */
+    SearchHit[] takeRemainingBatch() {
+        if (!hasNextInBatch())
+            return new SearchHit[0];
+        final int end = (int) Math.min(currentHits.length, pos + (long) downloadCompleteResultsLimit - documentsReturned);
+        final SearchHit[] remaining = Arrays.copyOfRange(currentHits, pos, end);
+        documentsReturned += remaining.length;
+        pos = currentHits.length;
+        return remaining;
+    }
+
+    /**
+     * pointInTime and scroll are indicators for two different types of deep pagination.
+     * PointInTime is used with searchAfter which is preferred.
+     *
+     * @return Whether there might be further batches to fetch.
+     */
+    private boolean isDeepPagination() {
+        return !StringUtils.isBlank(response.getScrollId()) || (response.pointInTimeId() != null && downloadCompleteResults);
+    }
+
+    private CompletableFuture<SearchResponse> nextBatch() {
+        if (prefetchedBatches.isEmpty()) {
+            lastRequestedBatch = lastRequestedBatch.thenCompose(this::fetchBatchAfter);
+            return lastRequestedBatch;
+        }
+        return prefetchedBatches.poll();
+    }
+
+    /**
+     * Fills the prefetch queue up to the prefetch depth.
+     */
+    private void requestPrefetchBatches() {
+        if (!isDeepPagination())
+            return;
+        while (prefetchedBatches.size() < prefetchDepth) {
+            lastRequestedBatch = lastRequestedBatch.thenCompose(this::fetchBatchAfter);
+            prefetchedBatches.offer(lastRequestedBatch);
+        }
+    }
+
+    /**
+     * Sends the request for the batch following <tt>previous</tt>. Returns a future completed with <tt>null</tt>
+     * if there is no such batch. If the search context has been released although this iterator has not been closed,
+     * the future completes exceptionally with an {@link IllegalStateException}.
+     *
+     * @param previous The previous batch, possibly null.
+     * @return The future response for the next batch.
+     */
+    private CompletableFuture<SearchResponse> fetchBatchAfter(SearchResponse previous) {
+        if (closed)
+            return CompletableFuture.completedFuture(null);
+        if (context != null && context.isReleased())
+            return CompletableFuture.failedFuture(new IllegalStateException("search context released: " + context));
+        if (previous == null || previous.getHits().getHits().length == 0 || documentsFetched >= downloadCompleteResultsLimit)
+            return CompletableFuture.completedFuture(null);
+        final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        // the response size is only measured when it is used for the adaptation of the batch size
+        final ByteCountingResponseConsumerFactory responseConsumerFactory = batchSizer != null ? new ByteCountingResponseConsumerFactory(this.requestOptions.getHttpAsyncResponseConsumerFactory()) : null;
+        final RequestOptions requestOptions = batchSizer != null ? this.requestOptions.toBuilder().setHttpAsyncResponseConsumerFactory(responseConsumerFactory).build() : this.requestOptions;
+        final TimeValue keepAlive = batchSizer != null ? batchSizer.requestStarted() : DEFAULT_SCROLL_KEEP_ALIVE;
+        final long requestStart = System.nanoTime();
+        final ActionListener<SearchResponse> listener = new ActionListener<>() {
+            @Override
+            public void onResponse(SearchResponse searchResponse) {
+                documentsFetched += searchResponse.getHits().getHits().length;
+                if (context != null)
+                    context.accessed(searchResponse.getScrollId() != null ? searchResponse.getScrollId() : searchResponse.pointInTimeId());
+                if (batchSizer != null)
+                    batchSizer.batchReceived(searchResponse.getHits().getHits().length, System.nanoTime() - requestStart, responseConsumerFactory.getBytesReceived());
+                future.complete(searchResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(e);
+            }
+        };
+        try {
+            final String scrollId = previous.getScrollId() != null ? previous.getScrollId() : response.getScrollId();
+            if (!StringUtils.isBlank(scrollId)) {
+                log.debug("Querying next batch with scroll ID {}.", scrollId);
+                // the batch size of a scroll is fixed by the initial request, only the keep alive is adapted
+                client.scrollAsync(new SearchScrollRequest(scrollId).scroll(keepAlive), requestOptions, listener);
+            } else {
+                final String pointInTimeId = previous.pointInTimeId() != null ? previous.pointInTimeId() : response.pointInTimeId();
+                final SearchHit[] previousHits = previous.getHits().getHits();
+                log.debug("Querying next batch with PIT ID {}.", pointInTimeId);
+                // Each request gets its own copy of the source so that running requests are not affected.
+                final SearchSourceBuilder sourceBuilder = searchRequest.source().copyWithNewSlice(searchRequest.source().slice());
+                final PointInTimeBuilder pointInTimeBuilder = new PointInTimeBuilder(pointInTimeId);
+                if (batchSizer != null) {
+                    pointInTimeBuilder.setKeepAlive(keepAlive);
+                    sourceBuilder.size(batchSizer.getBatchSize());
+                }
+                sourceBuilder.pointInTimeBuilder(pointInTimeBuilder);
+                sourceBuilder.searchAfter(previousHits[previousHits.length - 1].getSortValues());
+                client.searchAsync(new SearchRequest(searchRequest.indices(), sourceBuilder), requestOptions, listener);
+            }
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Stops the iteration and releases the scroll or PIT on the server. If there are still batch requests running,
+     * the release happens after they have returned because they might carry updated scroll or PIT IDs. The release
+     * requests are sent asynchronously since they might be issued from a client I/O thread, see
+     * {@link SearchContext#release()}.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        pos = Integer.MAX_VALUE;
+        currentHits = new SearchHit[0];
+        prefetchedBatches.clear();
+        if (lastRequestedBatch.isDone())
+            releaseServerContext();
+        else
+            lastRequestedBatch.handle((r, t) -> {
+                releaseServerContext();
+                return null;
+            });
+    }
+
+    private void releaseServerContext() {
+        if (context != null && (contextUsers == null || contextUsers.decrementAndGet() == 0))
+            context.release();
+    }
+}
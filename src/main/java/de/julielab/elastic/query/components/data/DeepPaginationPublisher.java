@@ -0,0 +1,171 @@
+package de.julielab.elastic.query.components.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * <p>Publishes the documents of a search response, including all subsequent deep pagination batches, to reactive
+ * consumers. Documents are only handed out as requested by the subscriber and the next batch is only fetched when the
+ * current batch has been delivered and more documents are requested. Waiting for a batch does not block a thread:
+ * the delivery continues on the thread that receives the batch response.</p>
+ * <p>The publisher accepts a single subscriber since all passes over the results would read from the same scroll or
+ * point in time. Further subscribers are signalled an {@link IllegalStateException}. Cancelling the subscription
+ * releases the scroll or point in time immediately. For sliced downloads, the slices are delivered alternately batch
+ * by batch.</p>
+ */
+class DeepPaginationPublisher implements Flow.Publisher<ISearchServerDocument> {
+    private static final Logger log = LoggerFactory.getLogger(DeepPaginationPublisher.class);
+
+    private final Supplier<List<DeepPaginationIterator>> iteratorSupplier;
+    private final int limit;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param iteratorSupplier Creates the iterators, one per slice, for the subscriber.
+     * @param limit            The maximum number of documents to publish over all slices.
+     */
+    DeepPaginationPublisher(Supplier<List<DeepPaginationIterator>> iteratorSupplier, int limit) {
+        this.iteratorSupplier = iteratorSupplier;
+        this.limit = limit;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ISearchServerDocument> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("The subscriber must not be null.");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The documents of a search response can only be published to a single subscriber."));
+            return;
+        }
+        final DocumentSubscription subscription = new DocumentSubscription(subscriber, iteratorSupplier.get(), limit);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * All signals to the subscriber are sent from {@link #drain()} which is executed by at most one thread at a
+     * time. {@link #request(long)} and {@link #cancel()} only record their effect and trigger the drain.
+     */
+    private static class DocumentSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ISearchServerDocument> subscriber;
+        private final List<DeepPaginationIterator> slices;
+        private final AtomicLong demand = new AtomicLong();
+        /**
+         * Serializes the delivery: only the thread that increments this counter from 0 delivers documents, other
+         * threads just record that there is new work.
+         */
+        private final AtomicInteger workInProgress = new AtomicInteger();
+        private final int limit;
+        private int current;
+        private int delivered;
+        private boolean done;
+        private volatile boolean waitingForBatch;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        /**
+         * A slice that has no more documents, set by the batch callback and removed by {@link #drain()}.
+         */
+        private volatile DeepPaginationIterator exhaustedSlice;
+
+        private DocumentSubscription(Flow.Subscriber<? super ISearchServerDocument> subscriber, List<DeepPaginationIterator> slices, int limit) {
+            this.subscriber = subscriber;
+            this.slices = new ArrayList<>(slices);
+            this.limit = limit;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0)
+                error = new IllegalArgumentException("The number of requested documents must be positive but was " + n + ".");
+            else
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (workInProgress.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                if (exhaustedSlice != null) {
+                    slices.remove(exhaustedSlice);
+                    exhaustedSlice = null;
+                    if (current >= slices.size())
+                        current = 0;
+                }
+                if (!done && cancelled) {
+                    log.debug("Subscription cancelled, releasing the deep pagination contexts.");
+                    terminate();
+                } else if (!done && error != null) {
+                    terminate();
+                    subscriber.onError(error);
+                }
+                while (!done && !cancelled && error == null && exhaustedSlice == null && !waitingForBatch) {
+                    // completion does not require demand
+                    if (slices.isEmpty() || delivered >= limit) {
+                        terminate();
+                        subscriber.onComplete();
+                        break;
+                    }
+                    if (demand.get() == 0)
+                        break;
+                    final DeepPaginationIterator slice = slices.get(current);
+                    if (slice.hasNextInBatch()) {
+                        final ISearchServerDocument document = slice.next();
+                        ++delivered;
+                        demand.decrementAndGet();
+                        if (!slice.hasNextInBatch())
+                            current = (current + 1) % slices.size();
+                        try {
+                            subscriber.onNext(document);
+                        } catch (RuntimeException e) {
+                            log.error("The subscriber threw an exception on a document, cancelling the subscription.", e);
+                            cancelled = true;
+                        }
+                        continue;
+                    }
+                    waitingForBatch = true;
+                    // If the batch is already there, the callback runs right away and this loop continues.
+                    slice.advance().whenComplete((hasNext, throwable) -> {
+                        if (throwable != null) {
+                            error = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                        } else if (!hasNext) {
+                            exhaustedSlice = slice;
+                        }
+                        waitingForBatch = false;
+                        drain();
+                    });
+                }
+                missed = workInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void terminate() {
+            done = true;
+            slices.forEach(DeepPaginationIterator::close);
+        }
+    }
+}
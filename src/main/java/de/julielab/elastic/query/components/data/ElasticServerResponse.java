@@ -2,14 +2,12 @@ package de.julielab.elastic.query.components.data;
 
 import de.julielab.elastic.query.components.data.aggregation.*;
 import de.julielab.elastic.query.services.IElasticServerResponse;
-import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.search.TotalHits;
 import org.elasticsearch.action.search.*;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.core.CountResponse;
 import org.elasticsearch.common.document.DocumentField;
-import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.aggregations.Aggregation;
@@ -18,8 +16,6 @@ import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms.Bucket;
 import org.elasticsearch.search.aggregations.metrics.Max;
 import org.elasticsearch.search.aggregations.metrics.TopHits;
-import org.elasticsearch.search.builder.PointInTimeBuilder;
-import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.suggest.Suggest;
 import org.elasticsearch.search.suggest.Suggest.Suggestion;
 import org.elasticsearch.search.suggest.Suggest.Suggestion.Entry.Option;
@@ -27,8 +23,10 @@ import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -38,7 +36,6 @@ public class ElasticServerResponse implements IElasticServerResponse {
     private static final Logger log = LoggerFactory.getLogger(ElasticServerResponse.class);
 
     protected SearchResponse response;
-    protected SearchResponse scrollResponse;
     protected boolean searchServerNotReachable;
     protected boolean isSuggestionSearchResponse;
     protected Suggest suggest;
@@ -48,9 +45,35 @@ public class ElasticServerResponse implements IElasticServerResponse {
     protected String queryErrorMessage;
     private boolean downloadCompleteResults;
     private int downloadCompleteResultsLimit;
+    private int downloadCompleteResultsPrefetchDepth;
     private SearchRequest searchRequest;
     private CountResponse countResponse;
-
+    /**
+     * The initial responses of a sliced deep pagination download, one per slice. Null for unsliced requests.
+     */
+    private List<SearchResponse> sliceResponses;
+    private List<SearchRequest> sliceRequests;
+    private DeepPaginationCheckpointer checkpointer;
+    /**
+     * The scroll or PIT opened for this response, null if there is none.
+     */
+    private SearchContext searchContext;
+    /**
+     * The contexts of the slices of a sliced download in slice order. A shared PIT occurs once per slice.
+     */
+    private List<SearchContext> sliceContexts;
+    /**
+     * The configuration of the adaptive batch size. Each iterator gets its own copy. Null if the batch size is fixed.
+     */
+    private AdaptiveBatchSizer batchSizer;
+    /**
+     * The options for the requests of further batches.
+     */
+    private RequestOptions requestOptions = RequestOptions.DEFAULT;
+    /**
+     * Created on the first call of {@link #getDocumentPublisher()}; it accepts a single subscriber.
+     */
+    private DeepPaginationPublisher documentPublisher;
 
     public ElasticServerResponse(SearchResponse response, CountResponse countResponse, boolean downloadCompleteResults, int downloadCompleteResultsLimit, SearchRequest searchRequest, RestHighLevelClient client) {
         this.response = response;
@@ -59,6 +82,7 @@ public class ElasticServerResponse implements IElasticServerResponse {
         this.downloadCompleteResultsLimit = downloadCompleteResultsLimit;
         this.searchRequest = searchRequest;
         this.client = client;
+        this.searchContext = SearchContext.of(response, downloadCompleteResults, this, client);
         if (response != null) {
             this.suggest = response.getSuggest();
             if (null != response.getAggregations())
@@ -67,9 +91,82 @@ public class ElasticServerResponse implements IElasticServerResponse {
 
     }
 
+    public ElasticServerResponse(SearchResponse response, CountResponse countResponse, SearchServerRequest serverRequest, SearchRequest searchRequest, RestHighLevelClient client) {
+        this(response, countResponse, serverRequest.downloadCompleteResults, serverRequest.downloadCompleteResultsLimit, searchRequest, client);
+        this.downloadCompleteResultsPrefetchDepth = serverRequest.downloadCompleteResultsPrefetchDepth;
+        this.checkpointer = DeepPaginationCheckpointer.of(serverRequest);
+        this.batchSizer = AdaptiveBatchSizer.of(serverRequest);
+        this.requestOptions = RequestOptionsProfile.toRequestOptions(serverRequest.requestOptions);
+    }
+
+    /**
+     * Creates the response for a sliced deep pagination download. The first slice response serves as
+     * {@link #getResponse()}, the number of found documents is summed over all slices.
+     *
+     * @param sliceResponses The initial responses of the slices.
+     * @param sliceRequests  The requests of the slices, in the same order as the responses.
+     * @param serverRequest  The server request the slices were created for.
+     * @param client         The client to fetch the subsequent batches with.
+     */
+    public ElasticServerResponse(List<SearchResponse> sliceResponses, List<SearchRequest> sliceRequests, SearchServerRequest serverRequest, RestHighLevelClient client) {
+        this(sliceResponses.get(0), null, serverRequest, sliceRequests.get(0), client);
+        this.sliceResponses = sliceResponses;
+        this.sliceRequests = sliceRequests;
+        // the slices have independent positions which cannot be captured by a single checkpoint
+        this.checkpointer = null;
+        this.sliceContexts = new ArrayList<>(sliceResponses.size());
+        sliceContexts.add(searchContext);
+        for (int i = 1; i < sliceResponses.size(); i++) {
+            // the slices share the PIT but each slice has its own scroll
+            if (searchContext != null && searchContext.getType() == SearchContext.Type.POINT_IN_TIME)
+                sliceContexts.add(searchContext);
+            else
+                sliceContexts.add(SearchContext.of(sliceResponses.get(i), serverRequest.downloadCompleteResults, this, client));
+        }
+    }
+
     public ElasticServerResponse() {
     }
 
+    /**
+     * Creates a copy of <tt>other</tt> that can be changed independently, e.g. by {@link #setQueryError(QueryError)}.
+     * The ElasticSearch responses are immutable and shared.
+     *
+     * @param other The response to copy.
+     * @throws IllegalStateException If <tt>other</tt> holds a scroll or point in time which must be consumed and
+     *                               released by a single owner.
+     */
+    protected ElasticServerResponse(ElasticServerResponse other) {
+        if (!other.getSearchContexts().isEmpty())
+            throw new IllegalStateException("A response holding a scroll or point in time cannot be copied.");
+        this.response = other.response;
+        this.searchServerNotReachable = other.searchServerNotReachable;
+        this.isSuggestionSearchResponse = other.isSuggestionSearchResponse;
+        this.suggest = other.suggest;
+        this.aggregationsByName = other.aggregationsByName;
+        this.queryError = other.queryError;
+        this.client = other.client;
+        this.queryErrorMessage = other.queryErrorMessage;
+        this.downloadCompleteResults = other.downloadCompleteResults;
+        this.downloadCompleteResultsLimit = other.downloadCompleteResultsLimit;
+        this.downloadCompleteResultsPrefetchDepth = other.downloadCompleteResultsPrefetchDepth;
+        this.searchRequest = other.searchRequest;
+        this.countResponse = other.countResponse;
+        this.sliceResponses = other.sliceResponses;
+        this.sliceRequests = other.sliceRequests;
+        this.checkpointer = other.checkpointer;
+        this.batchSizer = other.batchSizer;
+        this.requestOptions = other.requestOptions;
+    }
+
+    /**
+     * @return A copy of this response that can be handed to another caller, see
+     * {@link #ElasticServerResponse(ElasticServerResponse)}.
+     */
+    public ElasticServerResponse copy() {
+        return new ElasticServerResponse(this);
+    }
+
     public SearchResponse getResponse() {
         return response;
     }
@@ -212,98 +309,77 @@ public class ElasticServerResponse implements IElasticServerResponse {
             return Stream.empty();
         }
 
-        Iterator<ISearchServerDocument> documentIt = new Iterator<>() {
-
-            private int pos = 0;
-            private int documentsReturned = 0;
-            private SearchHit[] currentHits = response.getHits().getHits();
-            private String pointInTimeId = response.pointInTimeId();
-            private Object[] lastSortValues = currentHits != null && currentHits.length > 0 ? currentHits[currentHits.length - 1].getSortValues() : null;
-
-            @Override
-            public boolean hasNext() {
-                if (currentHits.length > 0 && documentsReturned < downloadCompleteResultsLimit) {
-                    try {
-                        // pointInTime and scroll are indicators for two different types of deep pagination.
-                        // PointInTime is used with searchAfter which is preferred.
-                        SearchResponse currentResponse = scrollResponse != null ? scrollResponse : response;
-                        String scrollId = currentResponse.getScrollId() != null ? currentResponse.getScrollId() : response.getScrollId();
-                        if (pos < currentHits.length) {
-                            log.trace("There are more documents in the current response.");
-                            return true;
-                        } else if (!StringUtils.isBlank(scrollId)) {
-                            log.debug(
-                                    "No more documents present in the current response but got scroll ID {}. Querying next batch.",
-                                    scrollId);
-                            SearchResponse sr = client.scroll(new SearchScrollRequest(scrollId).scroll(TimeValue.timeValueMinutes(5)), RequestOptions.DEFAULT);
-                            currentHits = sr.getHits().getHits();
-                            log.trace("Received {} new hits from scroll request.", currentHits.length);
-                            pos = 0;
-                            scrollResponse = sr;
-                            if (currentHits.length > 0)
-                                return true;
-                        } else if (pointInTimeId != null && downloadCompleteResults) {
-                            log.debug(
-                                    "No more documents present in the current response but PIT ID {}. Querying next batch.",
-                                    pointInTimeId);
-                            final SearchSourceBuilder sourceBuilder = searchRequest.source();
-                            sourceBuilder.pointInTimeBuilder(new PointInTimeBuilder(pointInTimeId));
-                            sourceBuilder.searchAfter(lastSortValues);
-                            SearchResponse sr = client.search(searchRequest, RequestOptions.DEFAULT);
-                            currentHits = sr.getHits().getHits();
-                            lastSortValues = currentHits != null && currentHits.length > 0 ? currentHits[currentHits.length - 1].getSortValues() : null;
-                            log.trace("Received {} new hits with searchAfter.", currentHits.length);
-                            pos = 0;
-                            scrollResponse = sr;
-                            // update point in time ID
-                            pointInTimeId = scrollResponse.pointInTimeId();
-                            if (currentHits.length > 0)
-                                return true;
-                        }
-                    } catch (IOException e) {
-                        log.error("Could not retrieve the next batch of documents", e);
-                    }
-                }
-                if (documentsReturned < downloadCompleteResultsLimit)
-                    log.debug("No more hits returned from scrolling request.");
-                else
-                    log.debug("Hit the deep pagination limit of {}. Closing the request.", downloadCompleteResultsLimit);
-                try {
-                    pos = Integer.MAX_VALUE;
-                    if (response.getScrollId() != null) {
-                        log.debug("Closing the scroll with ID {}", response.getScrollId());
-                        final ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
-                        clearScrollRequest.addScrollId(response.getScrollId());
-                        final boolean succeeded = client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT).isSucceeded();
-                        log.debug("Closing of scroll did succeed: {}", succeeded);
-                    }
-                    if (pointInTimeId != null && downloadCompleteResults) {
-                        log.debug("Closing point of time (PIT) with ID {}", pointInTimeId);
-                        final ClosePointInTimeRequest closePointInTimeRequest = new ClosePointInTimeRequest(pointInTimeId);
-                        final boolean succeeded = client.closePointInTime(closePointInTimeRequest, RequestOptions.DEFAULT).isSucceeded();
-                        log.debug("Closing of point in time did succeed: {}", succeeded);
-                    }
-                } catch (IOException e) {
-                    log.error("Could not close scroll.", e);
-                }
-                return false;
-            }
+        if (sliceResponses != null)
+            return getSlicedDocumentResults();
 
-            @Override
-            public ISearchServerDocument next() {
-                if (!hasNext())
-                    return null;
-                if (pos > 0 && pos % 200 == 0)
-                log.info("Returning next document at position {} of the current scroll batch.", pos);
-                SearchHit hit = currentHits[pos++];
-                ++documentsReturned;
-                return new ElasticSearchDocumentHit(hit);
+        DeepPaginationIterator documentIt = createDocumentIterators().get(0);
+
+        Iterable<ISearchServerDocument> documentIterable = () -> documentIt;
+        return StreamSupport.stream(documentIterable.spliterator(), false).onClose(documentIt::close);
+    }
+
+    /**
+     * Returns a stream over the documents of all slices. The stream supports splitting for parallel processing, see
+     * {@link SlicedDocumentSpliterator}. Closing the stream releases the scrolls or the point in time of all slices.
+     *
+     * @return The documents of all slices.
+     */
+    private Stream<ISearchServerDocument> getSlicedDocumentResults() {
+        final List<DeepPaginationIterator> sliceIterators = createDocumentIterators();
+        final SlicedDocumentSpliterator spliterator = new SlicedDocumentSpliterator(sliceIterators, new AtomicInteger(downloadCompleteResultsLimit));
+        return StreamSupport.stream(spliterator, false).onClose(() -> sliceIterators.forEach(DeepPaginationIterator::close));
+    }
+
+    @Override
+    public synchronized Flow.Publisher<ISearchServerDocument> getDocumentPublisher() {
+        if (documentPublisher == null) {
+            if (searchServerNotReachable || response == null) {
+                log.debug("Not publishing any document results because there is no search response.");
+                documentPublisher = new DeepPaginationPublisher(Collections::emptyList, 0);
+            } else {
+                documentPublisher = new DeepPaginationPublisher(this::createDocumentIterators, downloadCompleteResultsLimit);
             }
+        }
+        return documentPublisher;
+    }
 
-        };
+    /**
+     * Creates a new pass over the documents of this response.
+     *
+     * @return The iterator over the documents or, for sliced downloads, one iterator per slice.
+     */
+    private List<DeepPaginationIterator> createDocumentIterators() {
+        if (sliceResponses == null)
+            return List.of(new DeepPaginationIterator(response, searchRequest, downloadCompleteResults, downloadCompleteResultsLimit, downloadCompleteResultsPrefetchDepth, searchContext, null, checkpointer, newBatchSizer(), requestOptions, client));
+        final List<DeepPaginationIterator> sliceIterators = new ArrayList<>(sliceResponses.size());
+        // a shared PIT is released by the last slice to finish
+        final boolean sharedContext = searchContext != null && searchContext.getType() == SearchContext.Type.POINT_IN_TIME;
+        final AtomicInteger contextUsers = sharedContext ? new AtomicInteger(sliceResponses.size()) : null;
+        for (int i = 0; i < sliceResponses.size(); i++)
+            sliceIterators.add(new DeepPaginationIterator(sliceResponses.get(i), sliceRequests.get(i), downloadCompleteResults, downloadCompleteResultsLimit, downloadCompleteResultsPrefetchDepth, sliceContexts.get(i), contextUsers, null, newBatchSizer(), requestOptions, client));
+        return sliceIterators;
+    }
 
-        Iterable<ISearchServerDocument> documentIterable = () -> documentIt;
-        return StreamSupport.stream(documentIterable.spliterator(), false);
+    /**
+     * @return The scroll or PIT contexts opened on the server for this response, possibly empty.
+     */
+    public List<SearchContext> getSearchContexts() {
+        if (sliceContexts != null)
+            return sliceContexts.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        return searchContext != null ? List.of(searchContext) : Collections.emptyList();
+    }
+
+    /**
+     * Releases the scroll or PIT contexts of this response on the server. Streams and publishers obtained from this
+     * response fail with an {@link IllegalStateException} when they need a further batch afterwards.
+     */
+    @Override
+    public void close() {
+        getSearchContexts().forEach(SearchContext::release);
+    }
+
+    private AdaptiveBatchSizer newBatchSizer() {
+        return batchSizer != null ? batchSizer.copy() : null;
     }
 
     @Override
@@ -312,6 +388,8 @@ public class ElasticServerResponse implements IElasticServerResponse {
             return 0;
         if (null != countResponse)
             return countResponse.getCount();
+        if (null != sliceResponses)
+            return sliceResponses.stream().mapToLong(r -> r.getHits().getTotalHits().value).sum();
         if (null != response)
             return response.getHits().getTotalHits().value;
 
@@ -322,6 +400,8 @@ public class ElasticServerResponse implements IElasticServerResponse {
     public String getNumFoundRelation() {
         if (null != countResponse)
             return TotalHits.Relation.EQUAL_TO.name();
+        if (null != sliceResponses)
+            return sliceResponses.stream().map(r -> r.getHits().getTotalHits().relation).filter(TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO::equals).findAny().orElse(TotalHits.Relation.EQUAL_TO).name();
         if (null != response)
             return response.getHits().getTotalHits().relation.name();
         return null;
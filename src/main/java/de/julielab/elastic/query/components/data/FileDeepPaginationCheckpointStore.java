@@ -0,0 +1,122 @@
+package de.julielab.elastic.query.components.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * <p>Stores each checkpoint as a properties file named after the checkpoint key in a given directory.</p>
+ * <p>The searchAfter sort values are stored together with their type so that they are sent back to ElasticSearch
+ * exactly as they were received. Files are first written to a temporary file and then moved into place so that a
+ * crash during writing does not corrupt the previous checkpoint.</p>
+ */
+public class FileDeepPaginationCheckpointStore implements IDeepPaginationCheckpointStore {
+    private static final String FILE_EXTENSION = ".checkpoint";
+    private static final String POINT_IN_TIME_ID = "pointInTimeId";
+    private static final String DOCUMENTS_RETURNED = "documentsReturned";
+    private static final String NUM_SORT_VALUES = "sortValues";
+    private static final String SORT_VALUE_PREFIX = "sortValue.";
+
+    private final Path directory;
+
+    public FileDeepPaginationCheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void store(String key, DeepPaginationCheckpoint checkpoint) throws IOException {
+        Files.createDirectories(directory);
+        final Properties properties = new Properties();
+        if (checkpoint.pointInTimeId != null)
+            properties.setProperty(POINT_IN_TIME_ID, checkpoint.pointInTimeId);
+        properties.setProperty(DOCUMENTS_RETURNED, String.valueOf(checkpoint.documentsReturned));
+        final Object[] sortValues = checkpoint.lastSortValues != null ? checkpoint.lastSortValues : new Object[0];
+        properties.setProperty(NUM_SORT_VALUES, String.valueOf(sortValues.length));
+        for (int i = 0; i < sortValues.length; i++)
+            properties.setProperty(SORT_VALUE_PREFIX + i, encodeSortValue(sortValues[i]));
+        final Path file = getFile(key);
+        final Path tmpFile = directory.resolve(file.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            properties.store(w, "Deep pagination checkpoint " + key);
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public DeepPaginationCheckpoint load(String key) throws IOException {
+        final Path file = getFile(key);
+        if (!Files.exists(file))
+            return null;
+        final Properties properties = new Properties();
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(r);
+        }
+        final Object[] sortValues = new Object[Integer.parseInt(properties.getProperty(NUM_SORT_VALUES, "0"))];
+        for (int i = 0; i < sortValues.length; i++)
+            sortValues[i] = decodeSortValue(properties.getProperty(SORT_VALUE_PREFIX + i));
+        return new DeepPaginationCheckpoint(properties.getProperty(POINT_IN_TIME_ID), sortValues, Integer.parseInt(properties.getProperty(DOCUMENTS_RETURNED, "0")));
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        Files.deleteIfExists(getFile(key));
+    }
+
+    private Path getFile(String key) {
+        if (key.contains("/") || key.contains("\\"))
+            throw new IllegalArgumentException("The checkpoint key '" + key + "' must not contain path separators.");
+        return directory.resolve(key + FILE_EXTENSION);
+    }
+
+    private String encodeSortValue(Object value) {
+        if (value == null)
+            return "null:";
+        if (value instanceof Long)
+            return "long:" + value;
+        if (value instanceof Integer)
+            return "int:" + value;
+        if (value instanceof Double)
+            return "double:" + value;
+        if (value instanceof Float)
+            return "float:" + value;
+        if (value instanceof Boolean)
+            return "boolean:" + value;
+        if (value instanceof BigInteger)
+            return "biginteger:" + value;
+        if (value instanceof String)
+            return "string:" + value;
+        throw new IllegalArgumentException("Unsupported sort value type " + value.getClass().getName() + " of value " + value);
+    }
+
+    private Object decodeSortValue(String encoded) {
+        final int separator = encoded.indexOf(':');
+        final String type = encoded.substring(0, separator);
+        final String value = encoded.substring(separator + 1);
+        switch (type) {
+            case "null":
+                return null;
+            case "long":
+                return Long.parseLong(value);
+            case "int":
+                return Integer.parseInt(value);
+            case "double":
+                return Double.parseDouble(value);
+            case "float":
+                return Float.parseFloat(value);
+            case "boolean":
+                return Boolean.parseBoolean(value);
+            case "biginteger":
+                return new BigInteger(value);
+            case "string":
+                return value;
+            default:
+                throw new IllegalArgumentException("Unknown sort value type " + type);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package de.julielab.elastic.query.components.data;
+
+import java.io.IOException;
+
+/**
+ * Persists {@link DeepPaginationCheckpoint}s of long running deep pagination downloads under a key chosen by the
+ * application, see {@link SearchServerRequest#downloadCompleteResultsCheckpointKey}.
+ */
+public interface IDeepPaginationCheckpointStore {
+    /**
+     * Stores the checkpoint, replacing an existing checkpoint with the same key.
+     */
+    void store(String key, DeepPaginationCheckpoint checkpoint) throws IOException;
+
+    /**
+     * @return The checkpoint stored for <tt>key</tt> or <tt>null</tt> if there is none.
+     */
+    DeepPaginationCheckpoint load(String key) throws IOException;
+
+    /**
+     * Removes the checkpoint for <tt>key</tt>. Called when a download has been completed.
+     */
+    void remove(String key) throws IOException;
+}
@@ -0,0 +1,190 @@
+package de.julielab.elastic.query.components.data;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates response consumers that receive the response body into chunks of a {@link ResponseBufferPool}. The chunks
+ * are returned to the pool when the response body stream is closed, which the client does after parsing the
+ * response. The body can thus only be read once.
+ */
+public class PooledResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+    private final ResponseBufferPool pool;
+    private final int bufferLimit;
+
+    public PooledResponseConsumerFactory(ResponseBufferPool pool, int bufferLimit) {
+        this.pool = pool;
+        this.bufferLimit = bufferLimit;
+    }
+
+    @Override
+    public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+        return new PooledResponseConsumer();
+    }
+
+    private class PooledResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+        private HttpResponse response;
+        private HttpEntity enclosedEntity;
+        private List<byte[]> chunks;
+        private ByteBuffer currentChunk;
+        private long size;
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            if (entity.getContentLength() > bufferLimit)
+                throw new ContentTooLongException("entity content is too long [" + entity.getContentLength() + "] for the configured buffer limit [" + bufferLimit + "]");
+            enclosedEntity = entity;
+            chunks = new ArrayList<>();
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            while (true) {
+                if (currentChunk == null || !currentChunk.hasRemaining()) {
+                    final byte[] chunk = pool.acquire();
+                    chunks.add(chunk);
+                    currentChunk = ByteBuffer.wrap(chunk);
+                }
+                final int read = decoder.read(currentChunk);
+                if (read <= 0)
+                    break;
+                size += read;
+                if (size > bufferLimit)
+                    throw new ContentTooLongException("entity content is too long [" + size + "] for the configured buffer limit [" + bufferLimit + "]");
+            }
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) {
+            if (chunks != null) {
+                final PooledEntity entity = new PooledEntity(chunks, size);
+                entity.setContentType(enclosedEntity.getContentType());
+                entity.setContentEncoding(enclosedEntity.getContentEncoding());
+                response.setEntity(entity);
+                // the chunks now belong to the entity
+                chunks = null;
+            }
+            return response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            if (chunks != null) {
+                chunks.forEach(pool::release);
+                chunks = null;
+            }
+            response = null;
+            enclosedEntity = null;
+            currentChunk = null;
+        }
+    }
+
+    private class PooledEntity extends AbstractHttpEntity {
+        private final long size;
+        private List<byte[]> chunks;
+        private boolean consumed;
+
+        private PooledEntity(List<byte[]> chunks, long size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return size;
+        }
+
+        @Override
+        public InputStream getContent() {
+            if (consumed)
+                throw new IllegalStateException("The pooled response content has already been consumed.");
+            consumed = true;
+            return new InputStream() {
+                private long position;
+
+                @Override
+                public int read() throws IOException {
+                    checkOpen();
+                    if (position >= size)
+                        return -1;
+                    final int chunkSize = pool.getChunkSize();
+                    return chunks.get((int) (position / chunkSize))[(int) (position++ % chunkSize)] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    checkOpen();
+                    if (position >= size)
+                        return -1;
+                    final int chunkSize = pool.getChunkSize();
+                    final byte[] chunk = chunks.get((int) (position / chunkSize));
+                    final int chunkOffset = (int) (position % chunkSize);
+                    final int n = (int) Math.min(len, Math.min(chunkSize - chunkOffset, size - position));
+                    System.arraycopy(chunk, chunkOffset, b, off, n);
+                    position += n;
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return (int) Math.min(Integer.MAX_VALUE, size - position);
+                }
+
+                @Override
+                public void close() {
+                    release();
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try (InputStream is = getContent()) {
+                is.transferTo(outStream);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+        private void checkOpen() throws IOException {
+            if (chunks == null)
+                throw new IOException("Stream closed");
+        }
+
+        private synchronized void release() {
+            if (chunks != null) {
+                chunks.forEach(pool::release);
+                chunks = null;
+            }
+        }
+    }
+}
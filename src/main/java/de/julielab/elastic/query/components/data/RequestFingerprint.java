@@ -0,0 +1,162 @@
+package de.julielab.elastic.query.components.data;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import de.julielab.elastic.query.components.data.aggregation.AggregationRequest;
+import de.julielab.elastic.query.components.data.query.SearchServerQuery;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * <p>Computes a fingerprint of a {@link SearchServerRequest}, a {@link SearchServerQuery} or any other object of this
+ * library's data model. Two objects have the same fingerprint if they have the same class and their fields have equal
+ * values, recursively.</p>
+ * <p>The fingerprint is a hash over a canonical form of the object: the fields of the data model classes of this
+ * library, including application subclasses of {@link SearchServerQuery} and {@link AggregationRequest}, are visited
+ * in the order of their names, map entries in the order of their keys and set elements in the order of their string
+ * representations. Arrays, including primitive arrays, are represented by their elements. Objects of other classes are represented by their class and string representation. Fields that do
+ * not influence the request sent to ElasticSearch, e.g. the checkpoint settings of deep pagination downloads, are
+ * ignored. The {@link SearchServerRequest#requestOptions} are part of the fingerprint because they are sent as
+ * headers, e.g. the <tt>X-Opaque-Id</tt>, and influence how the response is read.</p>
+ */
+public final class RequestFingerprint {
+    private static final String DATA_MODEL_PACKAGE = "de.julielab.elastic.query";
+    private static final Set<String> IGNORED_FIELDS = Set.of("downloadCompleteResultsCheckpointStore", "downloadCompleteResultsCheckpointKey", "downloadCompleteResultsCheckpointInterval", "suppressDownloadCompleteResultPerformanceChecks");
+    private static final ClassValue<List<Field>> FIELDS = new ClassValue<>() {
+        @Override
+        protected List<Field> computeValue(Class<?> type) {
+            final List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    final int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic() || IGNORED_FIELDS.contains(field.getName()))
+                        continue;
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            fields.sort(Comparator.comparing(Field::getName).thenComparing(field -> field.getDeclaringClass().getName()));
+            return fields;
+        }
+    };
+
+    private RequestFingerprint() {
+    }
+
+    /**
+     * @return The hexadecimal 128 bit fingerprint of <tt>object</tt>.
+     */
+    public static String of(Object object) {
+        return of(object, null);
+    }
+
+    /**
+     * Like {@link #of(Object)} but represents each nested data model object for which <tt>nestedFingerprints</tt>
+     * returns a fingerprint by that fingerprint instead of by its fields. This allows to compute the fingerprints of
+     * a tree bottom-up, hashing each subtree only once. Fingerprints are only comparable if they were computed with
+     * the same function.
+     *
+     * @param object             The object to compute the fingerprint of.
+     * @param nestedFingerprints Returns the fingerprint of a nested object or null to visit its fields. May be null.
+     * @return The hexadecimal 128 bit fingerprint of <tt>object</tt>.
+     */
+    public static String of(Object object, Function<Object, String> nestedFingerprints) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        put(hasher, object, new IdentityHashMap<>(), nestedFingerprints);
+        return hasher.hash().toString();
+    }
+
+    private static void put(Hasher hasher, Object value, Map<Object, Boolean> path, Function<Object, String> nestedFingerprints) {
+        // each value is prefixed by a type tag and each sequence by its length to keep the encoding unambiguous
+        if (value == null) {
+            hasher.putByte((byte) 0);
+        } else if (value instanceof String) {
+            hasher.putByte((byte) 's');
+            putString(hasher, (String) value);
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            hasher.putByte((byte) 'v');
+            putString(hasher, value.getClass().getName());
+            putString(hasher, value.toString());
+        } else if (value instanceof Map) {
+            final TreeMap<String, Object> sortedMap = new TreeMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> sortedMap.put(String.valueOf(k), v));
+            hasher.putByte((byte) 'm').putInt(sortedMap.size());
+            sortedMap.forEach((k, v) -> {
+                putString(hasher, k);
+                put(hasher, v, path, nestedFingerprints);
+            });
+        } else if (value instanceof Set) {
+            final List<Object> sortedElements = new ArrayList<>((Set<?>) value);
+            sortedElements.sort(Comparator.comparing(String::valueOf));
+            putSequence(hasher, (byte) 'e', sortedElements, path, nestedFingerprints);
+        } else if (value instanceof Collection) {
+            putSequence(hasher, (byte) 'l', (Collection<?>) value, path, nestedFingerprints);
+        } else if (value instanceof Object[]) {
+            putSequence(hasher, (byte) 'l', Arrays.asList((Object[]) value), path, nestedFingerprints);
+        } else if (value.getClass().isArray()) {
+            // primitive arrays, e.g. HighlightCommand.HlField#boundaryChars
+            final int length = Array.getLength(value);
+            hasher.putByte((byte) 'a');
+            putString(hasher, value.getClass().getComponentType().getName());
+            hasher.putInt(length);
+            for (int i = 0; i < length; i++)
+                put(hasher, Array.get(value, i), path, nestedFingerprints);
+        } else if (isDataModel(value)) {
+            // the path is empty for the object the fingerprint is computed of
+            final String nestedFingerprint = nestedFingerprints != null && !path.isEmpty() ? nestedFingerprints.apply(value) : null;
+            if (nestedFingerprint != null) {
+                hasher.putByte((byte) 'f');
+                putString(hasher, nestedFingerprint);
+                return;
+            }
+            if (path.put(value, Boolean.TRUE) != null)
+                throw new IllegalArgumentException("Cannot compute the fingerprint of an object graph with cycles, " + value.getClass().getName() + " refers to itself.");
+            hasher.putByte((byte) 'o');
+            putString(hasher, value.getClass().getName());
+            for (Field field : FIELDS.get(value.getClass())) {
+                putString(hasher, field.getName());
+                try {
+                    put(hasher, field.get(value), path, nestedFingerprints);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            path.remove(value);
+        } else {
+            hasher.putByte((byte) 'x');
+            putString(hasher, value.getClass().getName());
+            putString(hasher, value.toString());
+        }
+    }
+
+    /**
+     * Queries and aggregations of applications are part of the data model as well, see
+     * {@link de.julielab.elastic.query.services.IQueryTranslatorRegistry}.
+     */
+    private static boolean isDataModel(Object value) {
+        return value.getClass().getName().startsWith(DATA_MODEL_PACKAGE) || value instanceof SearchServerQuery || value instanceof AggregationRequest;
+    }
+
+    private static void putSequence(Hasher hasher, byte tag, Collection<?> elements, Map<Object, Boolean> path, Function<Object, String> nestedFingerprints) {
+        hasher.putByte(tag).putInt(elements.size());
+        for (Object element : elements)
+            put(hasher, element, path, nestedFingerprints);
+    }
+
+    private static void putString(Hasher hasher, String s) {
+        hasher.putInt(s.length()).putString(s, StandardCharsets.UTF_8);
+    }
+}
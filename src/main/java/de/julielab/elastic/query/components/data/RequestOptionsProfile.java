@@ -0,0 +1,61 @@
+package de.julielab.elastic.query.components.data;
+
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.WarningsHandler;
+
+import java.util.Map;
+
+/**
+ * The transport options for the requests sent for a {@link SearchServerRequest}, including the requests for further
+ * batches of a deep pagination download. Requests without a profile use {@link RequestOptions#DEFAULT}.
+ */
+public class RequestOptionsProfile {
+    public static final int DEFAULT_BUFFER_LIMIT = HttpAsyncResponseConsumerFactory.HeapBufferedResponseConsumerFactory.DEFAULT_BUFFER_LIMIT;
+
+    /**
+     * The maximum size in bytes of a response body. Larger responses fail.
+     */
+    public int bufferLimit = DEFAULT_BUFFER_LIMIT;
+    /**
+     * Whether to receive response bodies into buffers taken from {@link ResponseBufferPool#DEFAULT} instead of
+     * allocating a new buffer for each response. Recommended for the large pages of deep pagination downloads.
+     */
+    public boolean pooledBuffers;
+    /**
+     * Sent as the <tt>X-Opaque-Id</tt> header which ElasticSearch includes in the slow log, the tasks API and
+     * deprecation warnings, so requests can be traced back to their origin.
+     */
+    public String opaqueId;
+    /**
+     * Further HTTP headers to send with each request.
+     */
+    public Map<String, String> headers;
+    /**
+     * Decides whether responses with warnings, e.g. about deprecated query syntax, fail. The default of the client
+     * is used if null.
+     */
+    public WarningsHandler warningsHandler;
+
+    /**
+     * @return The request options for <tt>profile</tt> or {@link RequestOptions#DEFAULT} if <tt>profile</tt> is null.
+     */
+    public static RequestOptions toRequestOptions(RequestOptionsProfile profile) {
+        return profile != null ? profile.toRequestOptions() : RequestOptions.DEFAULT;
+    }
+
+    public RequestOptions toRequestOptions() {
+        final RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
+        if (pooledBuffers)
+            builder.setHttpAsyncResponseConsumerFactory(new PooledResponseConsumerFactory(ResponseBufferPool.DEFAULT, bufferLimit));
+        else if (bufferLimit != DEFAULT_BUFFER_LIMIT)
+            builder.setHttpAsyncResponseConsumerFactory(new HttpAsyncResponseConsumerFactory.HeapBufferedResponseConsumerFactory(bufferLimit));
+        if (opaqueId != null)
+            builder.addHeader("X-Opaque-Id", opaqueId);
+        if (headers != null)
+            headers.forEach(builder::addHeader);
+        if (warningsHandler != null)
+            builder.setWarningsHandler(warningsHandler);
+        return builder.build();
+    }
+}
@@ -0,0 +1,57 @@
+package de.julielab.elastic.query.components.data;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A pool of fixed size byte chunks for receiving response bodies, see {@link PooledResponseConsumerFactory}.</p>
+ * <p>Response bodies are stored in a list of chunks instead of one contiguous array. The chunks are small enough not
+ * to be allocated as humongous objects by G1, which happens for arrays of at least half a heap region, i.e. 512KB
+ * for the smallest region size. Chunks are returned to the pool when the response body has been read, up to a
+ * maximum number of pooled chunks; surplus chunks are left to the garbage collector.</p>
+ */
+public class ResponseBufferPool {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_POOLED_CHUNKS = 256;
+    /**
+     * The pool shared by all {@link RequestOptionsProfile}s with pooled buffers, holding at most 64MB.
+     */
+    public static final ResponseBufferPool DEFAULT = new ResponseBufferPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED_CHUNKS);
+
+    private final int chunkSize;
+    private final int maxPooledChunks;
+    private final Queue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numPooledChunks = new AtomicInteger();
+
+    public ResponseBufferPool(int chunkSize, int maxPooledChunks) {
+        this.chunkSize = chunkSize;
+        this.maxPooledChunks = maxPooledChunks;
+    }
+
+    byte[] acquire() {
+        final byte[] chunk = chunks.poll();
+        if (chunk == null)
+            return new byte[chunkSize];
+        numPooledChunks.decrementAndGet();
+        return chunk;
+    }
+
+    void release(byte[] chunk) {
+        if (numPooledChunks.incrementAndGet() <= maxPooledChunks)
+            chunks.offer(chunk);
+        else
+            numPooledChunks.decrementAndGet();
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return The number of chunks currently available in the pool.
+     */
+    public int getNumPooledChunks() {
+        return numPooledChunks.get();
+    }
+}
@@ -0,0 +1,188 @@
+package de.julielab.elastic.query.components.data;
+
+import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * <p>A scroll or point in time (PIT) that is open on the ElasticSearch server for a deep pagination download.</p>
+ * <p>The context is owned by the response it was opened for and by the iterators reading the documents. The owners
+ * are only referenced weakly so that the
+ * {@link de.julielab.elastic.query.services.ISearchContextRegistry} can detect contexts whose owners have been
+ * garbage collected without being closed.</p>
+ */
+public class SearchContext {
+    private static final Logger log = LoggerFactory.getLogger(SearchContext.class);
+
+    public enum Type {SCROLL, POINT_IN_TIME}
+
+    private final Type type;
+    private final RestHighLevelClient client;
+    private final String ownerDescription;
+    private final List<WeakReference<Object>> owners = new CopyOnWriteArrayList<>();
+    private final long openedAt;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile String id;
+    private volatile long lastAccess;
+    private volatile Consumer<SearchContext> releaseListener;
+
+    public SearchContext(Type type, String id, Object owner, RestHighLevelClient client) {
+        this.type = type;
+        this.id = id;
+        this.client = client;
+        this.ownerDescription = owner.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(owner));
+        this.owners.add(new WeakReference<>(owner));
+        this.openedAt = System.currentTimeMillis();
+        this.lastAccess = openedAt;
+    }
+
+    /**
+     * Creates the context for the scroll or PIT of the given response.
+     *
+     * @param response                The response of the initial search request.
+     * @param downloadCompleteResults Whether the response belongs to a deep pagination download. Only then a PIT is
+     *                                owned by the response.
+     * @param owner                   The owner of the context.
+     * @param client                  The client to release the context with.
+     * @return The context or <tt>null</tt> if the response does not refer to a scroll or PIT.
+     */
+    public static SearchContext of(SearchResponse response, boolean downloadCompleteResults, Object owner, RestHighLevelClient client) {
+        if (response == null)
+            return null;
+        if (!StringUtils.isBlank(response.getScrollId()))
+            return new SearchContext(Type.SCROLL, response.getScrollId(), owner, client);
+        if (downloadCompleteResults && response.pointInTimeId() != null)
+            return new SearchContext(Type.POINT_IN_TIME, response.pointInTimeId(), owner, client);
+        return null;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The current scroll or PIT ID.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getOwnerDescription() {
+        return ownerDescription;
+    }
+
+    /**
+     * @return The time in milliseconds since the epoch when the context was opened.
+     */
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    /**
+     * @return The time in milliseconds since the epoch when the context was last used for a request.
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /**
+     * @return Whether all owners of this context have been garbage collected, i.e. the context cannot be used or
+     * released by its owners any more.
+     */
+    public boolean isAbandoned() {
+        return owners.stream().allMatch(owner -> owner.get() == null);
+    }
+
+    void addOwner(Object owner) {
+        owners.add(new WeakReference<>(owner));
+    }
+
+    /**
+     * Records a request on this context. ElasticSearch might return a new ID with each response.
+     *
+     * @param id The ID returned with the latest response, may be null.
+     */
+    void accessed(String id) {
+        if (id != null)
+            this.id = id;
+        lastAccess = System.currentTimeMillis();
+    }
+
+    public void setReleaseListener(Consumer<SearchContext> releaseListener) {
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * Closes the context on the server with an asynchronous request so that this method may be called from client
+     * I/O threads. Subsequent calls have no effect.
+     */
+    public void release() {
+        if (!markReleased())
+            return;
+        if (type == Type.SCROLL) {
+            log.debug("Closing the scroll with ID {}", id);
+            client.clearScrollAsync(createClearScrollRequest(), RequestOptions.DEFAULT, ActionListener.wrap(
+                    r -> log.debug("Closing of scroll did succeed: {}", r.isSucceeded()),
+                    e -> log.error("Could not close scroll.", e)));
+        } else {
+            log.debug("Closing point of time (PIT) with ID {}", id);
+            client.closePointInTimeAsync(new ClosePointInTimeRequest(id), RequestOptions.DEFAULT, ActionListener.wrap(
+                    r -> log.debug("Closing of point in time did succeed: {}", r.isSucceeded()),
+                    e -> log.error("Could not close point in time.", e)));
+        }
+    }
+
+    /**
+     * Closes the context on the server and waits for the response. Must not be called from client I/O threads.
+     * Subsequent calls have no effect.
+     */
+    public void releaseAndWait() {
+        if (!markReleased())
+            return;
+        try {
+            if (type == Type.SCROLL)
+                client.clearScroll(createClearScrollRequest(), RequestOptions.DEFAULT);
+            else
+                client.closePointInTime(new ClosePointInTimeRequest(id), RequestOptions.DEFAULT);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not close {} with ID {}", type, id, e);
+        }
+    }
+
+    private boolean markReleased() {
+        if (!released.compareAndSet(false, true))
+            return false;
+        final Consumer<SearchContext> listener = releaseListener;
+        if (listener != null)
+            listener.accept(this);
+        return true;
+    }
+
+    private ClearScrollRequest createClearScrollRequest() {
+        final ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(id);
+        return clearScrollRequest;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchContext [type=" + type + ", id=" + id + ", owner=" + ownerDescription + ", openedAt=" + openedAt + ", lastAccess=" + lastAccess + ", released=" + released + "]";
+    }
+}
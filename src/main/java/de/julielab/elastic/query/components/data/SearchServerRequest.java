@@ -38,6 +38,14 @@ public class SearchServerRequest {
      * @see SearchServerQuery
      */
     public SearchServerQuery query;
+    /**
+     * A search template stored in ElasticSearch to send instead of {@link #query}. The template defines the complete
+     * search body, so the query, paging, sorting, highlighting and aggregation settings of this request are ignored.
+     * Templates cannot be used for count requests, suggestions or downloading complete results.
+     *
+     * @see de.julielab.elastic.query.services.ISearchTemplateService
+     */
+    public SearchTemplate searchTemplate;
     /**
      * For auto completion, this field exposes the fragment to get suggestions
      * for.
@@ -77,6 +85,12 @@ public class SearchServerRequest {
     // TODO should go into semedico as this is not general enough
     public boolean filterReviews;
     public List<SortCommand> sortCmds;
+    /**
+     * The transport options for the requests sent for this request, e.g. a response buffer limit, pooled response
+     * buffers or an <tt>X-Opaque-Id</tt> header. {@link org.elasticsearch.client.RequestOptions#DEFAULT} is used if
+     * null. When multiple requests are sent in one <tt>_msearch</tt> call, the options of the first request apply.
+     */
+    public RequestOptionsProfile requestOptions;
     /**
      * The index to perform the search on.
      *
@@ -113,6 +127,69 @@ public class SearchServerRequest {
      * Limits the maximum documents returned via deep pagination.
      */
     public int downloadCompleteResultsLimit = Integer.MAX_VALUE;
+    /**
+     * <p>The number of deep pagination batches to request in the background ahead of the consumer of
+     * {@link ElasticServerResponse#getDocumentResults()}. The default of 0 fetches the next batch only when the
+     * current batch has been consumed. Values of 1 to 3 let network time and document processing overlap.</p>
+     * <p>At most this many batches are held in memory in addition to the current batch. Closing the returned stream
+     * releases the scroll or point in time on the server, also if the stream has not been consumed completely.</p>
+     */
+    public int downloadCompleteResultsPrefetchDepth = 0;
+    /**
+     * <p>The number of slices to split a deep pagination download into, see the ElasticSearch documentation of
+     * sliced scroll. Each slice is requested separately with its own scroll or on the same point in time. The
+     * default of 1 does not slice the download.</p>
+     * <p>The stream returned by {@link ElasticServerResponse#getDocumentResults()} then supports splitting by slice
+     * so that <tt>parallel()</tt> consumers read the slices on different threads. With a
+     * {@link #downloadCompleteResultsPrefetchDepth} of 1 or more, the slices are also downloaded concurrently for
+     * sequential consumers. The number of slices should not exceed the number of shards.</p>
+     */
+    public int downloadCompleteResultsSlices = 1;
+    /**
+     * <p>Adapts the batch size of the subsequent searchAfter requests of a deep pagination download to the measured
+     * latency and byte size of the previous batches. The batch size is kept between
+     * {@link #downloadCompleteResultsMinBatchSize} and {@link #downloadCompleteResultsMaxBatchSize} and is chosen
+     * such that a batch takes about {@link #downloadCompleteResultsTargetBatchLatency} milliseconds and has at most
+     * {@link #downloadCompleteResultsMaxBatchBytes} bytes. The first batch has the size {@link #rows}.</p>
+     * <p>The keep alive of the scroll or point in time is adapted to the observed time between two batch requests,
+     * with {@link #downloadCompleteResultMethodKeepAlive} as the lower bound. The batch size of a scroll cannot be
+     * changed after the initial request, thus only the keep alive is adapted for scroll downloads.</p>
+     */
+    public boolean downloadCompleteResultsAdaptiveBatchSize = false;
+    public int downloadCompleteResultsMinBatchSize = 100;
+    /**
+     * Should not exceed the <tt>index.max_result_window</tt> setting of the index which defaults to 10000.
+     */
+    public int downloadCompleteResultsMaxBatchSize = 10000;
+    /**
+     * The targeted time in milliseconds between sending a batch request and receiving the response.
+     */
+    public long downloadCompleteResultsTargetBatchLatency = 1000;
+    public long downloadCompleteResultsMaxBatchBytes = 20 * 1024 * 1024;
+    /**
+     * <p>If set together with {@link #downloadCompleteResultsCheckpointKey}, a searchAfter download writes a
+     * {@link DeepPaginationCheckpoint} to this store every {@link #downloadCompleteResultsCheckpointInterval}
+     * batches. The checkpoint is removed when the download has been completed. Sliced downloads are not
+     * checkpointed.</p>
+     * <p>To resume an interrupted download, load the checkpoint and set it to
+     * {@link #downloadCompleteResultsResumeFrom} of an otherwise identical request.</p>
+     */
+    public IDeepPaginationCheckpointStore downloadCompleteResultsCheckpointStore;
+    /**
+     * The key under which the checkpoints of this download are stored, see {@link #downloadCompleteResultsCheckpointStore}.
+     */
+    public String downloadCompleteResultsCheckpointKey;
+    /**
+     * The number of completely consumed batches after which a new checkpoint is written.
+     */
+    public int downloadCompleteResultsCheckpointInterval = 10;
+    /**
+     * <p>Continues a searchAfter download after the given checkpoint instead of starting from the first document.
+     * The checkpoint's point in time is reused; if it has expired, a new point in time is opened and the download
+     * continues after the same sort values. Note that the index might have changed in the meantime in this case.</p>
+     * <p>Requires <tt>downloadCompleteResultsMethod</tt> 'searchAfter' and cannot be combined with slicing.</p>
+     */
+    public DeepPaginationCheckpoint downloadCompleteResultsResumeFrom;
     /**
      * <p>Used when {@link #downloadCompleteResultsMethod} is 'searchAfter'. Denotes index of the sort command
      * in {@link #sortCmds} that should be used for the searchAfter pagination.</p>
@@ -0,0 +1,46 @@
+package de.julielab.elastic.query.components.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Refers to a search template stored in ElasticSearch, e.g. by the
+ * {@link de.julielab.elastic.query.services.ISearchTemplateService}, and the parameters to render it with. Only the
+ * template ID and the parameters are sent with each request, the search body is rendered by ElasticSearch.
+ *
+ * @see SearchServerRequest#searchTemplate
+ */
+public class SearchTemplate {
+    /**
+     * The ID of the stored template.
+     */
+    public String id;
+    /**
+     * The values of the template parameters by parameter name. May be <tt>null</tt> if the template has no
+     * parameters.
+     */
+    public Map<String, Object> params;
+
+    public SearchTemplate() {
+    }
+
+    public SearchTemplate(String id) {
+        this.id = id;
+    }
+
+    public SearchTemplate(String id, Map<String, Object> params) {
+        this.id = id;
+        this.params = params;
+    }
+
+    public void addParam(String name, Object value) {
+        if (null == params)
+            params = new HashMap<>();
+        params.put(name, value);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchTemplate [id=" + id + ", params=" + params + "]";
+    }
+}
@@ -0,0 +1,124 @@
+package de.julielab.elastic.query.components.data;
+
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * <p>A spliterator over the documents of a sliced deep pagination download. Each slice is read by its own
+ * {@link DeepPaginationIterator}.</p>
+ * <p>Sequential consumption alternates between the slices batch by batch so that all scroll contexts stay in use
+ * and, with prefetching, all slices are downloaded concurrently. For parallel streams, {@link #trySplit()} hands
+ * off half of the slices or, with only a single slice left, the remainder of its current batch.</p>
+ * <p>All spliterators split from the same origin share a budget of documents to return so that the deep pagination
+ * limit holds across slices.</p>
+ */
+class SlicedDocumentSpliterator implements Spliterator<ISearchServerDocument> {
+    private final List<DeepPaginationIterator> slices;
+    private final AtomicInteger budget;
+    private int current;
+
+    SlicedDocumentSpliterator(List<DeepPaginationIterator> slices, AtomicInteger budget) {
+        this.slices = new ArrayList<>(slices);
+        this.budget = budget;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ISearchServerDocument> action) {
+        while (!slices.isEmpty()) {
+            final DeepPaginationIterator slice = slices.get(current);
+            if (!slice.hasNext()) {
+                slices.remove(current);
+                if (current >= slices.size())
+                    current = 0;
+                continue;
+            }
+            if (budget.getAndDecrement() <= 0) {
+                slices.forEach(DeepPaginationIterator::close);
+                slices.clear();
+                return false;
+            }
+            action.accept(slice.next());
+            if (!slice.hasNextInBatch())
+                current = (current + 1) % slices.size();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<ISearchServerDocument> trySplit() {
+        if (slices.size() > 1) {
+            final List<DeepPaginationIterator> prefix = new ArrayList<>(slices.subList(0, slices.size() / 2));
+            slices.subList(0, slices.size() / 2).clear();
+            current = 0;
+            return new SlicedDocumentSpliterator(prefix, budget);
+        }
+        if (slices.size() == 1) {
+            final SearchHit[] hits = slices.get(0).takeRemainingBatch();
+            if (hits.length > 0)
+                return new HitArraySpliterator(hits, 0, hits.length, budget);
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    /**
+     * A spliterator over a part of a single batch of hits.
+     */
+    private static class HitArraySpliterator implements Spliterator<ISearchServerDocument> {
+        private final SearchHit[] hits;
+        private final AtomicInteger budget;
+        private final int end;
+        private int pos;
+
+        private HitArraySpliterator(SearchHit[] hits, int pos, int end, AtomicInteger budget) {
+            this.hits = hits;
+            this.pos = pos;
+            this.end = end;
+            this.budget = budget;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ISearchServerDocument> action) {
+            if (pos >= end || budget.getAndDecrement() <= 0)
+                return false;
+            action.accept(new ElasticSearchDocumentHit(hits[pos++]));
+            return true;
+        }
+
+        @Override
+        public Spliterator<ISearchServerDocument> trySplit() {
+            final int mid = (pos + end) >>> 1;
+            if (mid <= pos)
+                return null;
+            final HitArraySpliterator prefix = new HitArraySpliterator(hits, pos, mid, budget);
+            pos = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - pos;
+        }
+
+        @Override
+        public int characteristics() {
+            // not SIZED because the shared budget might end the iteration early
+            return NONNULL;
+        }
+    }
+}
@@ -27,4 +27,11 @@ public abstract class SearchServerQuery {
 	 * A boost to make this query more (> 1) or less (<1) important than other query clauses, if used in a compound query, e.g. {@link BoolQuery}.
 	 */
 	public float boost = 1f;
+	/**
+	 * Declares that neither this query nor any of its subqueries are changed after the query has been passed to the
+	 * search component for the first time. The ElasticSearch representation of immutable queries is cached and reused
+	 * for structurally equal queries, which pays off for large subqueries shared between requests, e.g. fixed filter
+	 * blocks. Changing an immutable query afterwards may cause the outdated representation to be sent.
+	 */
+	public boolean immutable;
 }
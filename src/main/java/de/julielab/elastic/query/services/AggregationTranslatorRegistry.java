@@ -0,0 +1,28 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.IAggregationTranslator;
+import de.julielab.elastic.query.components.data.aggregation.AggregationRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class AggregationTranslatorRegistry implements IAggregationTranslatorRegistry {
+    private final Map<Class<?>, IAggregationTranslator<?>> translators;
+
+    @SuppressWarnings("rawtypes")
+    public AggregationTranslatorRegistry(Map<Class, IAggregationTranslator> configuration) {
+        final Map<Class<?>, IAggregationTranslator<?>> translators = new HashMap<>();
+        configuration.forEach((aggregationClass, translator) -> {
+            if (!AggregationRequest.class.isAssignableFrom(aggregationClass))
+                throw new IllegalArgumentException("The aggregation translator " + translator + " was contributed for " + aggregationClass + " which is not a subclass of " + AggregationRequest.class.getName() + ".");
+            translators.put(aggregationClass, translator);
+        });
+        this.translators = Collections.unmodifiableMap(translators);
+    }
+
+    @Override
+    public Map<Class<?>, IAggregationTranslator<?>> getTranslators() {
+        return translators;
+    }
+}
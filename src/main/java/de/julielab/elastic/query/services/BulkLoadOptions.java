@@ -0,0 +1,35 @@
+package de.julielab.elastic.query.services;
+
+/**
+ * The index settings applied during a bulk load, see {@link IIndexingService#beginBulkLoad(String, BulkLoadOptions)}.
+ * A <tt>null</tt> value leaves the respective setting unchanged.
+ */
+public class BulkLoadOptions {
+    /**
+     * The <tt>index.refresh_interval</tt> during the load. The default of <tt>-1</tt> disables refreshes.
+     */
+    public String refreshInterval = "-1";
+    /**
+     * The <tt>index.number_of_replicas</tt> during the load. The replicas are rebuilt from the loaded primaries when
+     * the setting is restored, which is much cheaper than replicating each bulk request.
+     */
+    public Integer numberOfReplicas = 0;
+    /**
+     * The <tt>index.translog.durability</tt> during the load. <tt>async</tt> fsyncs the translog periodically
+     * instead of after each bulk request. Documents indexed within the sync interval before a node crash might be
+     * lost, which is acceptable for a load that can be repeated.
+     */
+    public String translogDurability = "async";
+    /**
+     * Whether to force merge the index after a successful load.
+     */
+    public boolean forceMerge = false;
+    /**
+     * The number of segments to force merge to.
+     */
+    public int maxNumSegments = 1;
+    /**
+     * Whether to refresh the index after a successful load so that the documents are searchable right away.
+     */
+    public boolean refresh = true;
+}
@@ -0,0 +1,128 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Applies ingestion-friendly settings to an index for the duration of a bulk load and restores the previous
+ * settings afterwards. Use it with try-with-resources:</p>
+ * <pre>
+ * try (BulkLoadSession session = indexingService.beginBulkLoad(index, new BulkLoadOptions())) {
+ *     indexingService.indexDocuments(index, documents);
+ *     session.finish();
+ * }
+ * </pre>
+ * <p>{@link #finish()} restores the settings and then force merges and refreshes the index as configured.
+ * {@link #close()} only restores the settings if the session has not been finished, e.g. when the load failed.</p>
+ */
+public class BulkLoadSession implements AutoCloseable {
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final String TRANSLOG_DURABILITY = "index.translog.durability";
+
+    private final Logger log;
+    private final RestHighLevelClient client;
+    private final IIndexingService indexingService;
+    private final String index;
+    private final BulkLoadOptions options;
+    /**
+     * The previous values of the changed settings for each concrete index. Settings that were not set explicitly
+     * are stored as null and are reset to their defaults on restore.
+     */
+    private final Map<String, Settings> previousSettings = new HashMap<>();
+    private boolean restored;
+
+    BulkLoadSession(Logger log, RestHighLevelClient client, IIndexingService indexingService, String index, BulkLoadOptions options) {
+        this.log = log;
+        this.client = client;
+        this.indexingService = indexingService;
+        this.index = index;
+        this.options = options;
+    }
+
+    /**
+     * Saves the current settings and applies the bulk load settings.
+     */
+    void begin() {
+        final Settings.Builder loadSettings = Settings.builder();
+        if (options.refreshInterval != null)
+            loadSettings.put(REFRESH_INTERVAL, options.refreshInterval);
+        if (options.numberOfReplicas != null)
+            loadSettings.put(NUMBER_OF_REPLICAS, options.numberOfReplicas);
+        if (options.translogDurability != null)
+            loadSettings.put(TRANSLOG_DURABILITY, options.translogDurability);
+        final Settings settings = loadSettings.build();
+        if (settings.isEmpty())
+            return;
+        try {
+            final GetSettingsResponse response = client.indices().getSettings(new GetSettingsRequest().indices(index).names(settings.keySet().toArray(new String[0])), RequestOptions.DEFAULT);
+            for (String concreteIndex : response.getIndexToSettings().keySet()) {
+                final Settings.Builder previous = Settings.builder();
+                for (String key : settings.keySet()) {
+                    final String value = response.getSetting(concreteIndex, key);
+                    if (value != null)
+                        previous.put(key, value);
+                    else
+                        previous.putNull(key);
+                }
+                previousSettings.put(concreteIndex, previous.build());
+            }
+            log.info("Applying bulk load settings {} to index {}, previous settings: {}", settings, index, previousSettings);
+            client.indices().putSettings(new UpdateSettingsRequest(index).settings(settings), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            log.error("Could not apply the bulk load settings to index {}. Loading with the current settings.", index, e);
+        }
+    }
+
+    /**
+     * Restores the previous settings and force merges and refreshes the index as configured.
+     */
+    public void finish() {
+        restore();
+        try {
+            if (options.forceMerge) {
+                log.info("Force merging index {} to {} segments.", index, options.maxNumSegments);
+                // a force merge can take much longer than the socket timeout
+                final RequestOptions requestOptions = RequestOptions.DEFAULT.toBuilder().setRequestConfig(RequestConfig.custom().setSocketTimeout(0).build()).build();
+                client.indices().forcemerge(new ForceMergeRequest(index).maxNumSegments(options.maxNumSegments), requestOptions);
+            }
+        } catch (IOException e) {
+            log.error("Could not force merge index {}", index, e);
+        }
+        if (options.refresh)
+            indexingService.commit(index);
+    }
+
+    /**
+     * Restores the previous settings if this has not yet happened.
+     */
+    @Override
+    public void close() {
+        restore();
+    }
+
+    private void restore() {
+        if (restored)
+            return;
+        restored = true;
+        for (Map.Entry<String, Settings> entry : previousSettings.entrySet()) {
+            try {
+                log.info("Restoring settings {} of index {} after bulk load.", entry.getValue(), entry.getKey());
+                client.indices().putSettings(new UpdateSettingsRequest(entry.getKey()).settings(entry.getValue()), RequestOptions.DEFAULT);
+            } catch (IOException e) {
+                log.error("Could not restore the settings of index {} after the bulk load. Please restore them manually: {}", entry.getKey(), entry.getValue(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package de.julielab.elastic.query.services;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>Sends bulk requests asynchronously and resends the items that were rejected because the write queue of the
+ * cluster was full (HTTP status 429). Only the rejected items are resent, with an exponentially growing delay plus
+ * jitter so that concurrent loaders do not retry in lockstep.</p>
+ * <p>The listener receives a single response for the original request whose items are at their original positions.
+ * Items that are still rejected after the maximum number of retries keep their failure.</p>
+ * <p>The scheduler for the retries is only requested from <tt>scheduler</tt> when a retry is actually necessary.</p>
+ */
+class BulkRetryExecutor {
+    private final Logger log;
+    /**
+     * Sends a bulk request asynchronously, e.g. with {@link org.elasticsearch.client.RestHighLevelClient#bulkAsync}.
+     */
+    private final BiConsumer<BulkRequest, ActionListener<BulkResponse>> bulkSender;
+    private final Supplier<ScheduledExecutorService> scheduler;
+    private final int maxRetries;
+    private final TimeValue initialDelay;
+    private final TimeValue maxDelay;
+
+    BulkRetryExecutor(Logger log, BiConsumer<BulkRequest, ActionListener<BulkResponse>> bulkSender, Supplier<ScheduledExecutorService> scheduler, int maxRetries, TimeValue initialDelay, TimeValue maxDelay) {
+        this.log = log;
+        this.bulkSender = bulkSender;
+        this.scheduler = scheduler;
+        this.maxRetries = maxRetries;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    void execute(BulkRequest request, ActionListener<BulkResponse> listener) {
+        new Execution(request, listener).send(request, identityPositions(request.numberOfActions()), 0);
+    }
+
+    private static int[] identityPositions(int size) {
+        final int[] positions = new int[size];
+        for (int i = 0; i < size; i++)
+            positions[i] = i;
+        return positions;
+    }
+
+    /**
+     * The execution of one original bulk request including its retries.
+     */
+    private class Execution {
+        private final BulkRequest originalRequest;
+        private final ActionListener<BulkResponse> listener;
+        private final BulkItemResponse[] items;
+        private long tookMillis;
+
+        private Execution(BulkRequest originalRequest, ActionListener<BulkResponse> listener) {
+            this.originalRequest = originalRequest;
+            this.listener = listener;
+            this.items = new BulkItemResponse[originalRequest.numberOfActions()];
+        }
+
+        /**
+         * @param request   The request to send, the original request or a request with the rejected items.
+         * @param positions The positions of the items of <tt>request</tt> in the original request.
+         * @param attempt   The number of retries so far.
+         */
+        private void send(BulkRequest request, int[] positions, int attempt) {
+            bulkSender.accept(request, ActionListener.wrap(
+                    response -> onResponse(request, positions, attempt, response),
+                    e -> onFailure(request, positions, attempt, e)));
+        }
+
+        private void onResponse(BulkRequest request, int[] positions, int attempt, BulkResponse response) {
+            tookMillis += response.getTook().millis();
+            final BulkItemResponse[] responseItems = response.getItems();
+            final List<Integer> rejected = new ArrayList<>();
+            for (int i = 0; i < responseItems.length; i++) {
+                final BulkItemResponse item = responseItems[i];
+                if (item.isFailed() && item.status() == RestStatus.TOO_MANY_REQUESTS && attempt < maxRetries)
+                    rejected.add(i);
+                else
+                    items[positions[i]] = reposition(item, positions[i]);
+            }
+            if (rejected.isEmpty()) {
+                complete();
+                return;
+            }
+            final BulkRequest retryRequest = new BulkRequest();
+            copySettings(request, retryRequest);
+            final int[] retryPositions = new int[rejected.size()];
+            for (int i = 0; i < rejected.size(); i++) {
+                final DocWriteRequest<?> itemRequest = request.requests().get(rejected.get(i));
+                retryRequest.add(itemRequest);
+                retryPositions[i] = positions[rejected.get(i)];
+            }
+            retry(retryRequest, retryPositions, attempt, rejected.size() + " of " + responseItems.length + " bulk items were rejected");
+        }
+
+        private void onFailure(BulkRequest request, int[] positions, int attempt, Exception e) {
+            // the whole request might be rejected, e.g. by the circuit breaker
+            if (e instanceof ElasticsearchStatusException && ((ElasticsearchStatusException) e).status() == RestStatus.TOO_MANY_REQUESTS && attempt < maxRetries) {
+                retry(request, positions, attempt, "the bulk request was rejected");
+                return;
+            }
+            if (request == originalRequest) {
+                listener.onFailure(e);
+                return;
+            }
+            // A retry failed as a whole. Report the failure for its items but keep the results of the earlier attempts.
+            for (int i = 0; i < positions.length; i++) {
+                final DocWriteRequest<?> itemRequest = request.requests().get(i);
+                items[positions[i]] = new BulkItemResponse(positions[i], itemRequest.opType(), new BulkItemResponse.Failure(itemRequest.index(), itemRequest.type(), itemRequest.id(), e));
+            }
+            complete();
+        }
+
+        private void retry(BulkRequest request, int[] positions, int attempt, String reason) {
+            final long delay = getDelayMillis(attempt);
+            log.debug("{}; retry {} of {} for {} items in {}ms.", reason, attempt + 1, maxRetries, positions.length, delay);
+            try {
+                scheduler.get().schedule(() -> send(request, positions, attempt + 1), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the scheduler has just been shut down; the retry must still be answered
+                send(request, positions, attempt + 1);
+            }
+        }
+
+        private void complete() {
+            listener.onResponse(new BulkResponse(items, tookMillis));
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter: a random delay between half and the full exponential delay.
+     */
+    long getDelayMillis(int attempt) {
+        final long exponentialDelay = Math.min(maxDelay.millis(), initialDelay.millis() << Math.min(attempt, 30));
+        return exponentialDelay / 2 + ThreadLocalRandom.current().nextLong(exponentialDelay / 2 + 1);
+    }
+
+    private static BulkItemResponse reposition(BulkItemResponse item, int position) {
+        if (item.getItemId() == position)
+            return item;
+        return item.isFailed() ? new BulkItemResponse(position, item.getOpType(), item.getFailure()) : new BulkItemResponse(position, item.getOpType(), item.<DocWriteResponse>getResponse());
+    }
+
+    private static void copySettings(BulkRequest from, BulkRequest to) {
+        to.timeout(from.timeout());
+        to.setRefreshPolicy(from.getRefreshPolicy());
+        to.waitForActiveShards(from.waitForActiveShards());
+        if (from.pipeline() != null)
+            to.pipeline(from.pipeline());
+        if (from.routing() != null)
+            to.routing(from.routing());
+    }
+}
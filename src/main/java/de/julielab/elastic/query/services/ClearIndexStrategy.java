@@ -0,0 +1,25 @@
+package de.julielab.elastic.query.services;
+
+/**
+ * The ways in which {@link IIndexingService#clearIndex(String, ClearIndexStrategy)} can remove all documents from an
+ * index.
+ */
+public enum ClearIndexStrategy {
+    /**
+     * Deletes all documents with a blocking delete-by-query request. Simple but slow for large indices, leaves the
+     * deleted documents to be merged away and may exceed the socket timeout.
+     */
+    DELETE_BY_QUERY,
+    /**
+     * Submits a sliced delete-by-query as a background task on the server and polls the task API until it has
+     * completed. No connection is held open for the duration of the deletion. Failures reported by the completed task
+     * are logged as errors.
+     */
+    DELETE_BY_QUERY_TASK,
+    /**
+     * Deletes the index and creates it anew with the settings, mappings and aliases it had before. This is the
+     * fastest way to clear a large index. The index is not available for a short time. The settings and mappings are
+     * checked with a throwaway index first, an index whose definition is rejected is not deleted.
+     */
+    RECREATE
+}
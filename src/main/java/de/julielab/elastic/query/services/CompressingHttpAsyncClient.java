@@ -0,0 +1,181 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>Wraps the HTTP client of the REST client to gzip request bodies of at least a threshold size, to request gzip
+ * compressed responses and to record the body sizes.</p>
+ * <p>The REST client's own compression cannot be used for this because it compresses all bodies while streaming
+ * them, so neither a threshold nor the compressed size is available. Instead, large request bodies are compressed
+ * before the request is handed to the HTTP client. Compressed responses are left to the REST client, which
+ * decompresses them as a stream while they are read.</p>
+ */
+class CompressingHttpAsyncClient extends CloseableHttpAsyncClient {
+    private static final String GZIP = "gzip";
+
+    private final CloseableHttpAsyncClient delegate;
+    private final int threshold;
+    private final HttpCompressionStatistics statistics;
+    private final Logger log;
+
+    CompressingHttpAsyncClient(CloseableHttpAsyncClient delegate, int threshold, HttpCompressionStatistics statistics, Logger log) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        this.statistics = statistics;
+        this.log = log;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer, HttpContext context, FutureCallback<T> callback) {
+        HttpAsyncRequestProducer producer = requestProducer;
+        try {
+            final HttpRequest request = requestProducer.generateRequest();
+            if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING))
+                request.addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+            if (request instanceof HttpEntityEnclosingRequest) {
+                final HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+                final HttpEntity entity = entityRequest.getEntity();
+                if (entity != null && entity.getContentEncoding() == null && entity.getContentLength() >= threshold) {
+                    final NByteArrayEntity compressedEntity = compress(entity);
+                    entityRequest.setEntity(compressedEntity);
+                    // the original producer streams the original entity
+                    producer = new BasicAsyncRequestProducer(requestProducer.getTarget(), entityRequest);
+                    requestProducer.close();
+                    statistics.requestSent(entity.getContentLength(), compressedEntity.getContentLength());
+                    log.debug("Compressed the body of {} from {} to {} bytes.", request.getRequestLine(), entity.getContentLength(), compressedEntity.getContentLength());
+                } else if (entity != null && entity.getContentLength() > 0) {
+                    statistics.requestSent(entity.getContentLength(), entity.getContentLength());
+                }
+            }
+        } catch (IOException | HttpException e) {
+            log.warn("Could not compress the request body, sending it uncompressed.", e);
+        }
+        return delegate.execute(producer, new CountingResponseConsumer<>(responseConsumer), context, callback);
+    }
+
+    private NByteArrayEntity compress(HttpEntity entity) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, entity.getContentLength() / 4));
+        try (GZIPOutputStream gzos = new GZIPOutputStream(bos)) {
+            entity.writeTo(gzos);
+        }
+        final NByteArrayEntity compressedEntity = new NByteArrayEntity(bos.toByteArray());
+        compressedEntity.setContentType(entity.getContentType());
+        compressedEntity.setContentEncoding(GZIP);
+        return compressedEntity;
+    }
+
+    /**
+     * Counts the received body bytes as they are sent over the wire.
+     */
+    private class CountingResponseConsumer<T> implements HttpAsyncResponseConsumer<T> {
+        private final HttpAsyncResponseConsumer<T> delegate;
+        private long receivedBytes;
+        private boolean compressed;
+        private boolean counted;
+
+        private CountingResponseConsumer(HttpAsyncResponseConsumer<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) throws IOException, HttpException {
+            final Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            compressed = contentEncoding != null && GZIP.equalsIgnoreCase(contentEncoding.getValue());
+            delegate.responseReceived(response);
+        }
+
+        @Override
+        public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            delegate.consumeContent(new ContentDecoder() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    final int read = decoder.read(dst);
+                    if (read > 0)
+                        receivedBytes += read;
+                    return read;
+                }
+
+                @Override
+                public boolean isCompleted() {
+                    return decoder.isCompleted();
+                }
+            }, ioControl);
+        }
+
+        @Override
+        public void responseCompleted(HttpContext context) {
+            if (!counted) {
+                counted = true;
+                statistics.responseReceived(receivedBytes, compressed);
+            }
+            delegate.responseCompleted(context);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            delegate.failed(ex);
+        }
+
+        @Override
+        public Exception getException() {
+            return delegate.getException();
+        }
+
+        @Override
+        public T getResult() {
+            return delegate.getResult();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean cancel() {
+            return delegate.cancel();
+        }
+    }
+}
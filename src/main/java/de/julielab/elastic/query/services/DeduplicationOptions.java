@@ -0,0 +1,31 @@
+package de.julielab.elastic.query.services;
+
+/**
+ * Configures the change detection of
+ * {@link IIndexingService#indexDocuments(String, java.util.Iterator, IBulkFailureHandler, DeduplicationOptions)}.
+ */
+public class DeduplicationOptions {
+    /**
+     * The hashes of the documents last indexed. Documents whose content hash equals the stored hash are not sent to
+     * ElasticSearch. Documents without an <tt>_id</tt> are always sent. May be null to only use external versioning.
+     * The store must belong to the index. Before indexing, the indexing service clears the store if the index does not
+     * exist, is empty or is not the index the hashes were recorded for, as identified by the UUIDs of its concrete
+     * indices stored with {@link IDocumentHashStore#setIndexIdentity(String)}. Thus, hashes recorded before the index
+     * was cleared, re-created or rebuilt, also by another process or before a restart, are not used.
+     */
+    public IDocumentHashStore hashStore;
+    /**
+     * If set, each document must contain a numeric <tt>_version</tt> field. It is removed from the document source
+     * and used as an external version so that ElasticSearch rejects writes of documents older than the indexed ones.
+     * Such rejected writes are counted as stale and not passed to the failure handler.
+     */
+    public boolean externalVersioning;
+
+    public DeduplicationOptions() {
+    }
+
+    public DeduplicationOptions(IDocumentHashStore hashStore, boolean externalVersioning) {
+        this.hashStore = hashStore;
+        this.externalVersioning = externalVersioning;
+    }
+}
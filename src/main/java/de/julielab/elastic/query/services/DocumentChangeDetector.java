@@ -0,0 +1,117 @@
+package de.julielab.elastic.query.services;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.elasticsearch.action.DocWriteRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Decides whether a document has changed since it was last indexed by comparing its content hash with the hash in
+ * an {@link IDocumentHashStore}. The hash of a changed document is only written to the store after the document has
+ * been indexed successfully so that failed documents are sent again in the next run.</p>
+ * <p>The hash is computed over the document structure with map keys in sorted order, so it does not depend on the
+ * iteration order of the document maps.</p>
+ */
+class DocumentChangeDetector {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final IDocumentHashStore hashStore;
+    /**
+     * The hashes of the changed documents currently being indexed.
+     */
+    private final Map<String, HashCode> pendingHashes = new ConcurrentHashMap<>();
+    private final AtomicLong unchanged = new AtomicLong();
+
+    DocumentChangeDetector(IDocumentHashStore hashStore) {
+        this.hashStore = hashStore;
+    }
+
+    static HashCode hash(Map<String, Object> document) {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        putValue(hasher, document);
+        return hasher.hash();
+    }
+
+    private static void putValue(Hasher hasher, Object value) {
+        // each value is prefixed by a type tag and each sequence by its length to keep the encoding unambiguous
+        if (value == null) {
+            hasher.putByte((byte) 0);
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            final TreeMap<String, Object> sortedMap = new TreeMap<>();
+            map.forEach((k, v) -> sortedMap.put(String.valueOf(k), v));
+            hasher.putByte((byte) 'm').putInt(sortedMap.size());
+            sortedMap.forEach((k, v) -> {
+                putString(hasher, k);
+                putValue(hasher, v);
+            });
+        } else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) value;
+            hasher.putByte((byte) 'l').putInt(collection.size());
+            collection.forEach(element -> putValue(hasher, element));
+        } else if (value instanceof Object[]) {
+            final Object[] array = (Object[]) value;
+            hasher.putByte((byte) 'l').putInt(array.length);
+            for (Object element : array)
+                putValue(hasher, element);
+        } else if (value instanceof String) {
+            hasher.putByte((byte) 's');
+            putString(hasher, (String) value);
+        } else if (value instanceof Number) {
+            // numbers are serialized to JSON by their string representation, so 1 and 1L are the same value
+            hasher.putByte((byte) 'n');
+            putString(hasher, value.toString());
+        } else if (value instanceof Boolean) {
+            hasher.putByte((byte) 'b').putBoolean((Boolean) value);
+        } else {
+            hasher.putByte((byte) 'o');
+            putString(hasher, value.toString());
+        }
+    }
+
+    private static void putString(Hasher hasher, String s) {
+        hasher.putInt(s.length()).putString(s, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Whether the document with ID <tt>id</tt> must be indexed because it is new or has changed.
+     */
+    boolean isChanged(String id, Map<String, Object> document) {
+        final HashCode hash = hash(document);
+        if (hash.equals(hashStore.get(id))) {
+            unchanged.incrementAndGet();
+            return false;
+        }
+        pendingHashes.put(id, hash);
+        return true;
+    }
+
+    void documentIndexed(DocWriteRequest<?> request) {
+        if (request.id() == null)
+            return;
+        final HashCode hash = pendingHashes.remove(request.id());
+        if (hash != null)
+            hashStore.put(request.id(), hash);
+    }
+
+    void documentRejected(DocWriteRequest<?> request) {
+        if (request.id() != null)
+            pendingHashes.remove(request.id());
+    }
+
+    long getNumUnchanged() {
+        return unchanged.get();
+    }
+
+    IDocumentHashStore getHashStore() {
+        return hashStore;
+    }
+}
@@ -1,14 +1,76 @@
 package de.julielab.elastic.query.services;
 
+import org.apache.tapestry5.commons.MappedConfiguration;
+import org.apache.tapestry5.ioc.LoggerSource;
 import org.apache.tapestry5.ioc.ServiceBinder;
 
+import de.julielab.elastic.query.components.CachingSearchServerComponent;
 import de.julielab.elastic.query.components.ElasticSearchComponent;
 import de.julielab.elastic.query.components.ISearchServerComponent;
+import de.julielab.elastic.query.components.SearchExecutionSettings;
+import org.apache.tapestry5.ioc.annotations.Contribute;
+import org.apache.tapestry5.ioc.annotations.Decorate;
+import org.apache.tapestry5.ioc.annotations.FactoryDefaults;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.apache.tapestry5.ioc.services.SymbolProvider;
+
+import static de.julielab.elastic.query.ElasticQuerySymbolConstants.*;
 
 public class ElasticQueryComponentsModule {
 	public static void bind(ServiceBinder binder) {
-		binder.bind(ISearchClientProvider.class, ElasticSearchClientProvider.class).withSimpleId();
+		binder.bind(ISearchClientProvider.class, ElasticSearchClientProvider.class).withSimpleId().eagerLoad();
 		binder.bind(ISearchServerComponent.class, ElasticSearchComponent.class).withSimpleId();
 		binder.bind(IIndexingService.class, ElasticSearchIndexingService.class).withSimpleId();
+		binder.bind(ISearchContextRegistry.class, SearchContextRegistry.class).withSimpleId();
+		binder.bind(ISearchTemplateService.class, SearchTemplateService.class).withSimpleId().eagerLoad();
+		binder.bind(ISearchWarmupService.class, SearchWarmupService.class).withSimpleId().eagerLoad();
+		binder.bind(ISearchResultCache.class, SearchResultCache.class).withSimpleId();
+		binder.bind(IQueryTranslatorRegistry.class, QueryTranslatorRegistry.class).withSimpleId();
+		binder.bind(IAggregationTranslatorRegistry.class, AggregationTranslatorRegistry.class).withSimpleId();
+	}
+
+	@Contribute(SymbolProvider.class)
+	@FactoryDefaults
+	public static void contributeFactoryDefaults(MappedConfiguration<String, Object> configuration) {
+		configuration.add(ES_SEARCH_EXECUTION_MODE, SearchExecutionSettings.DEFAULT_EXECUTION_MODE.name());
+		configuration.add(ES_MULTI_SEARCH_MAX_BATCH_SIZE, SearchExecutionSettings.DEFAULT_MULTI_SEARCH_MAX_BATCH_SIZE);
+		configuration.add(ES_ASYNC_MAX_REQUESTS_IN_FLIGHT, SearchExecutionSettings.DEFAULT_ASYNC_MAX_REQUESTS_IN_FLIGHT);
+		configuration.add(ES_SEARCH_COALESCING, SearchExecutionSettings.DEFAULT_COALESCE_REQUESTS);
+		configuration.add(ES_QUERY_TRANSLATION_CACHE_SIZE, SearchExecutionSettings.DEFAULT_QUERY_TRANSLATION_CACHE_SIZE);
+		configuration.add(ES_SEARCH_CONTEXT_REAPER_INTERVAL, SearchContextRegistry.DEFAULT_REAPER_INTERVAL);
+		configuration.add(ES_SEARCH_CONTEXT_MAX_IDLE_TIME, SearchContextRegistry.DEFAULT_MAX_IDLE_TIME);
+		configuration.add(ES_BULK_MAX_ACTIONS, ElasticSearchIndexingService.DEFAULT_BULK_MAX_ACTIONS);
+		configuration.add(ES_BULK_MAX_SIZE, ElasticSearchIndexingService.DEFAULT_BULK_MAX_SIZE);
+		configuration.add(ES_BULK_FLUSH_INTERVAL, ElasticSearchIndexingService.DEFAULT_BULK_FLUSH_INTERVAL);
+		configuration.add(ES_BULK_CONCURRENT_REQUESTS, ElasticSearchIndexingService.DEFAULT_BULK_CONCURRENT_REQUESTS);
+		configuration.add(ES_BULK_MAX_RETRIES, ElasticSearchIndexingService.DEFAULT_BULK_MAX_RETRIES);
+		configuration.add(ES_BULK_RETRY_INITIAL_DELAY, ElasticSearchIndexingService.DEFAULT_BULK_RETRY_INITIAL_DELAY);
+		configuration.add(ES_BULK_RETRY_MAX_DELAY, ElasticSearchIndexingService.DEFAULT_BULK_RETRY_MAX_DELAY);
+		configuration.add(ES_HTTP_MAX_CONNECTIONS_PER_ROUTE, HttpConnectionSettings.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+		configuration.add(ES_HTTP_MAX_CONNECTIONS_TOTAL, HttpConnectionSettings.DEFAULT_MAX_CONNECTIONS_TOTAL);
+		configuration.add(ES_HTTP_IO_THREAD_COUNT, HttpConnectionSettings.DEFAULT_IO_THREAD_COUNT);
+		configuration.add(ES_HTTP_CONNECT_TIMEOUT, HttpConnectionSettings.DEFAULT_CONNECT_TIMEOUT);
+		configuration.add(ES_HTTP_CONNECTION_REQUEST_TIMEOUT, HttpConnectionSettings.DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+		configuration.add(ES_HTTP_KEEP_ALIVE, HttpConnectionSettings.DEFAULT_KEEP_ALIVE);
+		configuration.add(ES_HTTP_TCP_NO_DELAY, HttpConnectionSettings.DEFAULT_TCP_NO_DELAY);
+		configuration.add(ES_HTTP_SO_KEEP_ALIVE, HttpConnectionSettings.DEFAULT_SO_KEEP_ALIVE);
+		configuration.add(ES_HTTP_WARMUP_CONNECTIONS, ElasticSearchClientProvider.DEFAULT_WARMUP_CONNECTIONS);
+		configuration.add(ES_HTTP_COMPRESSION, HttpConnectionSettings.DEFAULT_COMPRESSION);
+		configuration.add(ES_HTTP_COMPRESSION_THRESHOLD, HttpConnectionSettings.DEFAULT_COMPRESSION_THRESHOLD);
+		configuration.add(ES_RESULT_CACHE_ENABLED, SearchResultCache.DEFAULT_ENABLED);
+		configuration.add(ES_RESULT_CACHE_MAX_SIZE, SearchResultCache.DEFAULT_MAX_SIZE);
+		configuration.add(ES_RESULT_CACHE_TIME_TO_LIVE, SearchResultCache.DEFAULT_TIME_TO_LIVE);
+	}
+
+	/**
+	 * Wraps the search server component into a {@link CachingSearchServerComponent} if the result cache is enabled.
+	 */
+	@Decorate(serviceInterface = ISearchServerComponent.class, id = "SearchResultCache")
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public static ISearchServerComponent decorateSearchServerComponentWithResultCache(ISearchServerComponent delegate, ISearchResultCache resultCache,
+			@Symbol(ES_RESULT_CACHE_ENABLED) boolean resultCacheEnabled, LoggerSource loggerSource) {
+		if (!resultCacheEnabled)
+			return null;
+		return new CachingSearchServerComponent(loggerSource.getLogger(CachingSearchServerComponent.class), delegate, resultCache);
 	}
 }
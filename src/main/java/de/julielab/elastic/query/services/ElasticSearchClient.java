@@ -1,23 +1,46 @@
 package de.julielab.elastic.query.services;
 
 import org.apache.http.HttpHost;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 public class ElasticSearchClient implements ISearchClient {
 	private String clusterName;
 	private String[] hosts;
 	private int[] ports;
-	private RestHighLevelClient client;
+	private volatile RestHighLevelClient client;
+	private volatile PoolingNHttpClientConnectionManager connectionManager;
 	private Logger log;
 	private int socketTimeout;
+	private HttpConnectionSettings connectionSettings;
+	private final HttpCompressionStatistics compressionStatistics = new HttpCompressionStatistics();
 
 	public ElasticSearchClient(Logger log, String clusterName, String[] hosts, int[] ports, int socketTimeout) {
+		this(log, clusterName, hosts, ports, socketTimeout, new HttpConnectionSettings());
+	}
+
+	public ElasticSearchClient(Logger log, String clusterName, String[] hosts, int[] ports, int socketTimeout, HttpConnectionSettings connectionSettings) {
 		this.socketTimeout = socketTimeout;
+		this.connectionSettings = connectionSettings;
 		if (hosts.length != ports.length)
 			throw new IllegalArgumentException("The number of hosts and ports must be equal.");
 		this.log = log;
@@ -28,25 +51,123 @@ public class ElasticSearchClient implements ISearchClient {
 
 	@SuppressWarnings("resource")
 	public RestHighLevelClient getRestHighLevelClient() {
-			if (null == client) {
-				log.info("Connecting to a ElasticSearch cluster {} via socket connection \"{}:{}\".",
-						new Object[] { clusterName, hosts, ports});
-				HttpHost[] httpHosts = IntStream.range(0, hosts.length).mapToObj(i -> new HttpHost(hosts[i], ports[i], "http")).toArray(HttpHost[]::new);
-				client = new RestHighLevelClient(RestClient.builder(httpHosts)
-						// https://discuss.elastic.co/t/how-to-avoid-30-000ms-timeout-during-reindexing/231370
-						.setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder.setSocketTimeout(socketTimeout)));
+		RestHighLevelClient client = this.client;
+		if (null == client) {
+			synchronized (this) {
+				client = this.client;
+				if (null == client) {
+					log.info("Connecting to a ElasticSearch cluster {} via socket connection \"{}:{}\" with {}.",
+							new Object[] { clusterName, hosts, ports, connectionSettings});
+					HttpHost[] httpHosts = IntStream.range(0, hosts.length).mapToObj(i -> new HttpHost(hosts[i], ports[i], "http")).toArray(HttpHost[]::new);
+					connectionManager = createConnectionManager();
+					client = new RestHighLevelClient(RestClient.builder(httpHosts)
+							// https://discuss.elastic.co/t/how-to-avoid-30-000ms-timeout-during-reindexing/231370
+							.setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
+									.setSocketTimeout(socketTimeout)
+									.setConnectTimeout(connectionSettings.connectTimeout)
+									.setConnectionRequestTimeout(connectionSettings.connectionRequestTimeout))
+							.setHttpClientConfigCallback(httpClientBuilder -> {
+								httpClientBuilder
+										.setConnectionManager(connectionManager)
+										.setKeepAliveStrategy((response, context) -> {
+											final long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+											if (connectionSettings.keepAlive < 0)
+												return serverKeepAlive;
+											return serverKeepAlive < 0 ? connectionSettings.keepAlive : Math.min(serverKeepAlive, connectionSettings.keepAlive);
+										});
+								if (!connectionSettings.compression)
+									return httpClientBuilder;
+								// the REST client calls build() on the returned builder
+								return new HttpAsyncClientBuilder() {
+									@Override
+									public CloseableHttpAsyncClient build() {
+										return new CompressingHttpAsyncClient(httpClientBuilder.build(), connectionSettings.compressionThreshold, compressionStatistics, log);
+									}
+								};
+							}));
+					this.client = client;
+				}
 			}
-			return client;
+		}
+		return client;
+	}
+
+	@Override
+	public int openConnections(int connectionsPerHost) {
+		final RestClient restClient = getRestHighLevelClient().getLowLevelClient();
+		// the REST client sends consecutive requests to the hosts in round-robin order, thus concurrent requests
+		// open the connections to all hosts
+		final int numRequests = hosts.length * Math.min(connectionsPerHost, connectionSettings.maxConnectionsPerRoute);
+		final CountDownLatch latch = new CountDownLatch(numRequests);
+		final AtomicInteger successful = new AtomicInteger();
+		for (int i = 0; i < numRequests; i++) {
+			restClient.performRequestAsync(new Request("HEAD", "/"), new ResponseListener() {
+				@Override
+				public void onSuccess(Response response) {
+					successful.incrementAndGet();
+					latch.countDown();
+				}
+
+				@Override
+				public void onFailure(Exception exception) {
+					log.warn("Could not open a connection to the ElasticSearch cluster {}: {}", clusterName, exception.getMessage());
+					latch.countDown();
+				}
+			});
+		}
+		try {
+			if (!latch.await((long) connectionSettings.connectTimeout + socketTimeout, TimeUnit.MILLISECONDS))
+				log.warn("Not all connections to the ElasticSearch cluster {} were opened in time.", clusterName);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return successful.get();
+	}
+
+	/**
+	 * Creates the connection pool. The pool replaces the one the REST client would create so that its limits and
+	 * I/O reactor can be configured and its statistics can be read.
+	 */
+	private PoolingNHttpClientConnectionManager createConnectionManager() {
+		try {
+			final IOReactorConfig.Builder ioReactorConfig = IOReactorConfig.custom()
+					.setConnectTimeout(connectionSettings.connectTimeout)
+					.setSoTimeout(socketTimeout)
+					.setTcpNoDelay(connectionSettings.tcpNoDelay)
+					.setSoKeepAlive(connectionSettings.soKeepAlive);
+			if (connectionSettings.ioThreadCount > 0)
+				ioReactorConfig.setIoThreadCount(connectionSettings.ioThreadCount);
+			final PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig.build()));
+			connectionManager.setDefaultMaxPerRoute(connectionSettings.maxConnectionsPerRoute);
+			connectionManager.setMaxTotal(connectionSettings.maxConnectionsTotal);
+			return connectionManager;
+		} catch (IOReactorException e) {
+			throw new UncheckedIOException("Could not create the I/O reactor of the HTTP client", e);
+		}
+	}
+
+	@Override
+	public PoolStats getConnectionPoolStats() {
+		return connectionManager != null ? connectionManager.getTotalStats() : null;
+	}
+
+	@Override
+	public HttpCompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
 	}
 
 	@Override
 	public void shutdown() {
 		try {
-			if (null != client)
+			if (null != client) {
+				log.info("HTTP connection pool statistics at shutdown: {}", getConnectionPoolStats());
+				if (connectionSettings.compression)
+					log.info("HTTP compression statistics at shutdown: {}", compressionStatistics);
 				client.close();
+			}
 		} catch (IOException e) {
 			log.error("Could not close ElasticSearch client", e);
 		}
 
 	}
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package de.julielab.elastic.query.services;
 
 import org.apache.tapestry5.ioc.LoggerSource;
+import org.apache.tapestry5.ioc.annotations.Inject;
 import org.apache.tapestry5.ioc.annotations.PostInjection;
 import org.apache.tapestry5.ioc.annotations.Symbol;
 import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
@@ -11,16 +12,48 @@ import java.util.Arrays;
 import static de.julielab.elastic.query.ElasticQuerySymbolConstants.*;
 
 public class ElasticSearchClientProvider implements ISearchClientProvider {
+	public static final int DEFAULT_WARMUP_CONNECTIONS = 0;
 
 	private final Logger log;
 	private ElasticSearchClient elasticSearchServer;
+	private long connectionWarmupTime = -1;
 
 	public ElasticSearchClientProvider(Logger log, LoggerSource loggerSource,
-			@Symbol(ES_CLUSTER_NAME) String clusterName, @Symbol(ES_HOST) String host, @Symbol(ES_PORT) String port, @Symbol(ES_SOCKET_TIMEOUT) int socketTimeout) {
+			String clusterName, String host, String port, int socketTimeout) {
+		this(log, loggerSource, clusterName, host, port, socketTimeout, new HttpConnectionSettings());
+	}
+
+	@Inject
+	public ElasticSearchClientProvider(Logger log, LoggerSource loggerSource,
+			@Symbol(ES_CLUSTER_NAME) String clusterName, @Symbol(ES_HOST) String host, @Symbol(ES_PORT) String port, @Symbol(ES_SOCKET_TIMEOUT) int socketTimeout,
+			@Symbol(ES_HTTP_MAX_CONNECTIONS_PER_ROUTE) int maxConnectionsPerRoute, @Symbol(ES_HTTP_MAX_CONNECTIONS_TOTAL) int maxConnectionsTotal, @Symbol(ES_HTTP_IO_THREAD_COUNT) int ioThreadCount,
+			@Symbol(ES_HTTP_CONNECT_TIMEOUT) int connectTimeout, @Symbol(ES_HTTP_CONNECTION_REQUEST_TIMEOUT) int connectionRequestTimeout, @Symbol(ES_HTTP_KEEP_ALIVE) long keepAlive,
+			@Symbol(ES_HTTP_TCP_NO_DELAY) boolean tcpNoDelay, @Symbol(ES_HTTP_SO_KEEP_ALIVE) boolean soKeepAlive,
+			@Symbol(ES_HTTP_COMPRESSION) boolean compression, @Symbol(ES_HTTP_COMPRESSION_THRESHOLD) int compressionThreshold) {
+		this(log, loggerSource, clusterName, host, port, socketTimeout, toConnectionSettings(maxConnectionsPerRoute, maxConnectionsTotal, ioThreadCount, connectTimeout, connectionRequestTimeout, keepAlive, tcpNoDelay, soKeepAlive, compression, compressionThreshold));
+	}
+
+	public ElasticSearchClientProvider(Logger log, LoggerSource loggerSource,
+			String clusterName, String host, String port, int socketTimeout, HttpConnectionSettings connectionSettings) {
 		this.log = log;
 		log.info("Got symbol values for ElasticSearch connection; {}:{}, {}:{}, {}:{}", ES_HOST, host, ES_PORT, port, ES_CLUSTER_NAME, clusterName);
 		elasticSearchServer = new ElasticSearchClient(
-				loggerSource.getLogger(ElasticSearchClient.class), clusterName, host.split(","), Arrays.stream(port.split(",")).mapToInt(Integer::valueOf).toArray(), socketTimeout);
+				loggerSource.getLogger(ElasticSearchClient.class), clusterName, host.split(","), Arrays.stream(port.split(",")).mapToInt(Integer::valueOf).toArray(), socketTimeout, connectionSettings);
+	}
+
+	private static HttpConnectionSettings toConnectionSettings(int maxConnectionsPerRoute, int maxConnectionsTotal, int ioThreadCount, int connectTimeout, int connectionRequestTimeout, long keepAlive, boolean tcpNoDelay, boolean soKeepAlive, boolean compression, int compressionThreshold) {
+		final HttpConnectionSettings settings = new HttpConnectionSettings();
+		settings.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		settings.maxConnectionsTotal = maxConnectionsTotal;
+		settings.ioThreadCount = ioThreadCount;
+		settings.connectTimeout = connectTimeout;
+		settings.connectionRequestTimeout = connectionRequestTimeout;
+		settings.keepAlive = keepAlive;
+		settings.tcpNoDelay = tcpNoDelay;
+		settings.soKeepAlive = soKeepAlive;
+		settings.compression = compression;
+		settings.compressionThreshold = compressionThreshold;
+		return settings;
 	}
 
 	@Override
@@ -28,8 +61,23 @@ public class ElasticSearchClientProvider implements ISearchClientProvider {
 		return elasticSearchServer;
 	}
 
+	@Override
+	public long getConnectionWarmupTime() {
+		return connectionWarmupTime;
+	}
+
+	/**
+	 * Registers the client shutdown and, if <tt>warmupConnections</tt> is positive, creates the client and opens
+	 * connections to all configured hosts.
+	 */
 	@PostInjection
-	public void startupService(RegistryShutdownHub shutdownHub) {
+	public void startupService(RegistryShutdownHub shutdownHub, @Symbol(ES_HTTP_WARMUP_CONNECTIONS) int warmupConnections) {
+		if (warmupConnections > 0) {
+			final long time = System.currentTimeMillis();
+			final int opened = elasticSearchServer.openConnections(warmupConnections);
+			connectionWarmupTime = System.currentTimeMillis() - time;
+			log.info("Opened {} connections to the ElasticSearch cluster in {}ms.", opened, connectionWarmupTime);
+		}
 		shutdownHub.addRegistryShutdownListener(new Runnable() {
 			public void run() {
 				log.info("Shutting down elastic search clients.");
@@ -1,71 +1,478 @@
 package de.julielab.elastic.query.services;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
-import org.elasticsearch.action.ActionFuture;
+import org.apache.tapestry5.ioc.annotations.Inject;
+import org.apache.tapestry5.ioc.annotations.PostInjection;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.client.Client;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetIndexResponse;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
-import org.elasticsearch.index.reindex.DeleteByQueryAction;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentType;
 import org.slf4j.Logger;
 
+import static de.julielab.elastic.query.ElasticQuerySymbolConstants.*;
+
 public class ElasticSearchIndexingService implements IIndexingService {
+    public static final int DEFAULT_BULK_MAX_ACTIONS = 1000;
+    public static final String DEFAULT_BULK_MAX_SIZE = "5mb";
+    public static final String DEFAULT_BULK_FLUSH_INTERVAL = "5s";
+    public static final int DEFAULT_BULK_CONCURRENT_REQUESTS = 2;
+    public static final int DEFAULT_BULK_MAX_RETRIES = 8;
+    public static final String DEFAULT_BULK_RETRY_INITIAL_DELAY = "100ms";
+    public static final String DEFAULT_BULK_RETRY_MAX_DELAY = "30s";
+    private static final long DELETE_BY_QUERY_TASK_POLL_INTERVAL = 5000;
+    private static final DateTimeFormatter GENERATION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+    /**
+     * Index settings that are set by the server when an index is created and must not be passed when re-creating it.
+     */
+    private static final Set<String> PRIVATE_INDEX_SETTINGS = Set.of("index.uuid", "index.creation_date", "index.provided_name", "index.version.created", "index.version.upgraded");
+    /**
+     * The minimum number of bytes of an NDJSON file that are memory mapped at once.
+     */
+    private static final long NDJSON_WINDOW_SIZE = 256 * 1024 * 1024;
 
     private Logger log;
     private RestHighLevelClient client;
+    /**
+     * Its entries for an index are invalidated when the index is refreshed or cleared. May be null.
+     */
+    private ISearchResultCache resultCache;
+    private int bulkMaxActions;
+    private ByteSizeValue bulkMaxSize;
+    private TimeValue bulkFlushInterval;
+    private int bulkConcurrentRequests;
+    private BulkRetryExecutor bulkRetryExecutor;
+    /**
+     * Schedules the resending of rejected bulk items. Created with the first retry and shut down by
+     * {@link #shutdown()}.
+     */
+    private ScheduledExecutorService retryScheduler;
+    /**
+     * The number of documents that failed to be indexed into the index generations currently being loaded by
+     * {@link #rebuildIndex(String, IIndexLoader, BulkLoadOptions, int)}.
+     */
+    private final Map<String, AtomicLong> rebuildFailures = new ConcurrentHashMap<>();
 
     public ElasticSearchIndexingService(Logger log, ISearchClientProvider searchServerProvider) {
+        this(log, searchServerProvider, null, DEFAULT_BULK_MAX_ACTIONS, DEFAULT_BULK_MAX_SIZE, DEFAULT_BULK_FLUSH_INTERVAL, DEFAULT_BULK_CONCURRENT_REQUESTS, DEFAULT_BULK_MAX_RETRIES, DEFAULT_BULK_RETRY_INITIAL_DELAY, DEFAULT_BULK_RETRY_MAX_DELAY);
+    }
+
+    @Inject
+    public ElasticSearchIndexingService(Logger log, ISearchClientProvider searchServerProvider, ISearchResultCache resultCache, @Symbol(ES_BULK_MAX_ACTIONS) int bulkMaxActions, @Symbol(ES_BULK_MAX_SIZE) String bulkMaxSize, @Symbol(ES_BULK_FLUSH_INTERVAL) String bulkFlushInterval, @Symbol(ES_BULK_CONCURRENT_REQUESTS) int bulkConcurrentRequests,
+                                        @Symbol(ES_BULK_MAX_RETRIES) int bulkMaxRetries, @Symbol(ES_BULK_RETRY_INITIAL_DELAY) String bulkRetryInitialDelay, @Symbol(ES_BULK_RETRY_MAX_DELAY) String bulkRetryMaxDelay) {
         this.log = log;
+        this.resultCache = resultCache;
+        if (bulkConcurrentRequests < 0)
+            throw new IllegalArgumentException("The number of concurrent bulk requests must not be negative but was " + bulkConcurrentRequests + ".");
+        this.bulkMaxActions = bulkMaxActions;
+        this.bulkMaxSize = ByteSizeValue.parseBytesSizeValue(bulkMaxSize, ES_BULK_MAX_SIZE);
+        this.bulkFlushInterval = TimeValue.parseTimeValue(bulkFlushInterval, ES_BULK_FLUSH_INTERVAL);
+        this.bulkConcurrentRequests = bulkConcurrentRequests;
         ElasticSearchClient semedicoSearchClient = (ElasticSearchClient) searchServerProvider.getSearchClient();
         client = semedicoSearchClient.getRestHighLevelClient();
+        bulkRetryExecutor = new BulkRetryExecutor(log, (request, listener) -> client.bulkAsync(request, RequestOptions.DEFAULT, listener), this::getRetryScheduler, bulkMaxRetries, TimeValue.parseTimeValue(bulkRetryInitialDelay, ES_BULK_RETRY_INITIAL_DELAY), TimeValue.parseTimeValue(bulkRetryMaxDelay, ES_BULK_RETRY_MAX_DELAY));
+    }
+
+    @PostInjection
+    public void startupService(RegistryShutdownHub shutdownHub) {
+        shutdownHub.addRegistryShutdownListener(this::shutdown);
+    }
+
+    /**
+     * Creates the scheduler for the resending of rejected bulk items when the first retry is necessary.
+     */
+    private synchronized ScheduledExecutorService getRetryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "bulk-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retryScheduler;
     }
 
+    @Override
+    public synchronized void shutdown() {
+        if (retryScheduler != null) {
+            // retries that are already scheduled are still sent so that no bulk listener waits forever
+            retryScheduler.shutdown();
+            retryScheduler = null;
+        }
+    }
+
+    /**
+     * <p>Sends the documents with a {@link BulkProcessor} that flushes a bulk request when it has reached the
+     * configured number of documents or byte size, or when the flush interval has passed. Up to the configured
+     * number of bulk requests are in flight concurrently. When all of them are busy, reading from
+     * <tt>documentIterator</tt> blocks until a request has returned.</p>
+     * <p>Items rejected by the cluster because its write queue is full are resent with exponential backoff. Documents
+     * that fail nevertheless are logged.</p>
+     * <p>Returns when all documents have been sent and all bulk requests have returned.</p>
+     */
     @Override
     public void indexDocuments(String index, Iterator<Map<String, Object>> documentIterator) {
+        indexDocuments(index, documentIterator, null);
+    }
+
+    @Override
+    public void indexDocuments(String index, Iterator<Map<String, Object>> documentIterator, IBulkFailureHandler failureHandler) {
+        indexDocuments(index, documentIterator, failureHandler, null);
+    }
+
+    @Override
+    public void indexDocuments(String index, Iterator<Map<String, Object>> documentIterator, IBulkFailureHandler failureHandler, DeduplicationOptions deduplication) {
+        log.info("Indexing documents from iterator into index \"{}\".", index);
+        final DocumentChangeDetector changeDetector = deduplication != null && deduplication.hashStore != null ? new DocumentChangeDetector(deduplication.hashStore) : null;
+        final String indexIdentity = changeDetector != null ? checkHashStore(index, deduplication.hashStore) : null;
+        final boolean externalVersioning = deduplication != null && deduplication.externalVersioning;
+        bulkIndex(index, failureHandler, changeDetector, bulkProcessor -> {
+            while (documentIterator.hasNext()) {
+                Map<String, Object> doc = documentIterator.next();
+                IndexRequest ir = new IndexRequest(index);
+                if (doc.get("_id") != null) {
+                    ir.id((String) doc.get("_id"));
+                    // in ElasticSearch, the document must not contain the _id
+                    // field itself
+                    doc.remove("_id");
+                }
+                if (externalVersioning) {
+                    final Object version = doc.remove("_version");
+                    if (!(version instanceof Number))
+                        throw new IllegalArgumentException("External versioning is enabled but document " + ir.id() + " has no numeric _version field.");
+                    ir.version(((Number) version).longValue()).versionType(VersionType.EXTERNAL);
+                }
+                if (changeDetector != null && ir.id() != null && !changeDetector.isChanged(ir.id(), doc))
+                    continue;
+                ir.source(doc);
+                // blocks while the maximum number of bulk requests is in flight
+                bulkProcessor.add(ir);
+            }
+        });
+        if (changeDetector != null) {
+            log.info("{} documents were skipped because they did not change since they were last indexed into index {}.", changeDetector.getNumUnchanged(), index);
+            try {
+                // the index might have been created by this run
+                if (indexIdentity == null)
+                    changeDetector.getHashStore().setIndexIdentity(getIndexIdentity(index));
+                changeDetector.getHashStore().flush();
+            } catch (IOException | ElasticsearchException e) {
+                log.error("Could not store the document hashes for index {}. Unchanged documents will be indexed again in the next run.", index, e);
+            }
+        }
+    }
+
+    /**
+     * Clears the hash store unless it belongs to the current state of <tt>index</tt>. The hashes are outdated if the
+     * index does not exist, if it is empty, e.g. because it has been cleared, or if it has been re-created or rebuilt
+     * since the hashes were recorded, possibly by another process or before a restart. The latter is detected by the
+     * index identity stored with the hashes.
+     *
+     * @return The identity of the index, now set on the hash store, or null if it could not be determined.
+     */
+    private String checkHashStore(String index, IDocumentHashStore hashStore) {
+        String identity = null;
+        try {
+            identity = getIndexIdentity(index);
+            if (identity == null) {
+                log.info("Clearing the document hashes for index {} because the index does not exist.", index);
+                hashStore.clear();
+            } else if (!identity.equals(hashStore.getIndexIdentity())) {
+                log.info("Clearing the document hashes for index {} because they belong to {} instead of {}.", index, hashStore.getIndexIdentity(), identity);
+                hashStore.clear();
+            } else if (client.count(new CountRequest(index), RequestOptions.DEFAULT).getCount() == 0) {
+                log.info("Clearing the document hashes for index {} because the index is empty.", index);
+                hashStore.clear();
+            }
+        } catch (IOException | ElasticsearchException e) {
+            log.warn("Could not determine the state of index {}. Clearing the document hashes so that all documents are indexed.", index, e);
+            identity = null;
+            hashStore.clear();
+        }
+        hashStore.setIndexIdentity(identity);
+        return identity;
+    }
+
+    /**
+     * @return The sorted names and UUIDs of the concrete indices of <tt>index</tt> or null if the index does not exist.
+     */
+    private String getIndexIdentity(String index) throws IOException {
         try {
-            log.info("Indexing documents from iterator into index \"{}\".", index);
+            final GetSettingsResponse response = client.indices().getSettings(new GetSettingsRequest().indices(index).names("index.uuid"), RequestOptions.DEFAULT);
+            return response.getIndexToSettings().keySet().stream().sorted().map(concreteIndex -> concreteIndex + "/" + response.getSetting(concreteIndex, "index.uuid")).collect(Collectors.joining(","));
+        } catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND)
+                return null;
+            throw e;
+        }
+    }
 
-            int overall = 0;
+    @Override
+    public void indexRawDocuments(String index, Iterator<RawJsonDocument> documentIterator, IBulkFailureHandler failureHandler) {
+        log.info("Indexing raw JSON documents from iterator into index \"{}\".", index);
+        bulkIndex(index, failureHandler, null, bulkProcessor -> {
             while (documentIterator.hasNext()) {
-                int batchCount = 0;
-                BulkRequest br = new BulkRequest();
-                while (documentIterator.hasNext() && batchCount < 1000) {
-                    Map<String, Object> doc = documentIterator.next();
-                    IndexRequest ir = new IndexRequest(index);
-                    if (doc.get("_id") != null) {
-                        ir.id((String) doc.get("_id"));
-                        // in ElasticSearch, the document must not contain the _id
-                        // field itself
-                        doc.remove("_id");
+                final RawJsonDocument doc = documentIterator.next();
+                bulkProcessor.add(new IndexRequest(index).id(doc.getId()).source(doc.getSource(), Requests.INDEX_CONTENT_TYPE));
+            }
+        });
+    }
+
+    /**
+     * <p>The file is memory mapped in windows of at least {@link #NDJSON_WINDOW_SIZE} bytes. Each window is cut into
+     * slices ending after an even number of lines, i.e. after complete action and source line pairs. Each slice is
+     * copied from the mapping into a heap buffer of at most the bulk size and added to the bulk requests; only the
+     * action lines are parsed.</p>
+     */
+    @Override
+    public void indexNdjsonFile(String index, Path ndjsonFile, IBulkFailureHandler failureHandler) throws IOException {
+        log.info("Indexing NDJSON file {} into index \"{}\".", ndjsonFile, index);
+        final long windowSize = Math.min(Integer.MAX_VALUE, Math.max(NDJSON_WINDOW_SIZE, 2 * bulkMaxSize.getBytes()));
+        final long sliceSize = Math.max(1, bulkMaxSize.getBytes());
+        try {
+            bulkIndex(index, failureHandler, null, bulkProcessor -> {
+                try {
+                    sliceNdjsonFile(ndjsonFile, windowSize, sliceSize, slice -> {
+                        try {
+                            bulkProcessor.add(slice, index, Requests.INDEX_CONTENT_TYPE);
+                        } catch (Exception e) {
+                            throw new UncheckedIOException(new IOException("Could not read the bulk actions of a slice of " + slice.length() + " bytes of the NDJSON file " + ndjsonFile + ".", e));
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads the NDJSON file in memory mapped windows of <tt>windowSize</tt> bytes and passes it to
+     * <tt>sliceConsumer</tt> in slices of complete action and source line pairs. A slice is at least
+     * <tt>sliceSize</tt> bytes large unless it is the last slice of a window. A window ends after the last complete
+     * pair it contains, the next window starts right after it.
+     */
+    static void sliceNdjsonFile(Path ndjsonFile, long windowSize, long sliceSize, Consumer<BytesReference> sliceConsumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(ndjsonFile, StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            long windowStart = 0;
+            while (windowStart < fileSize) {
+                final int windowLength = (int) Math.min(windowSize, fileSize - windowStart);
+                final boolean lastWindow = windowStart + windowLength == fileSize;
+                final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+                int sliceStart = 0;
+                int pairEnd = 0;
+                int lines = 0;
+                for (int i = 0; i < windowLength; i++) {
+                    if (window.get(i) == '\n' && ++lines % 2 == 0) {
+                        pairEnd = i + 1;
+                        if (pairEnd - sliceStart >= sliceSize) {
+                            sliceConsumer.accept(copySlice(window, sliceStart, pairEnd));
+                            sliceStart = pairEnd;
+                        }
                     }
-                    ir.source(doc);
-                    br.add(ir);
-                    batchCount++;
-                    overall++;
                 }
-                BulkResponse response = client.bulk(br, RequestOptions.DEFAULT);
-                if (response.hasFailures()) {
-                    log.error("Error while indexing: {}", response.buildFailureMessage());
+                // the last source line of the file might not be terminated by a newline
+                final int windowEnd = lastWindow ? windowLength : pairEnd;
+                if (!lastWindow && pairEnd == 0)
+                    throw new IOException("The NDJSON file " + ndjsonFile + " contains an action and source line pair at offset " + windowStart + " that is larger than the mapping window of " + windowSize + " bytes.");
+                if (windowEnd > sliceStart)
+                    sliceConsumer.accept(copySlice(window, sliceStart, windowEnd));
+                windowStart += windowEnd;
+            }
+        }
+    }
+
+    /**
+     * Copies the bytes between <tt>start</tt> and <tt>end</tt> of the mapping window to the heap. The bulk request
+     * parser requires array backed bytes, which a memory mapped buffer does not have.
+     */
+    private static BytesReference copySlice(MappedByteBuffer window, int start, int end) {
+        final ByteBuffer slice = window.duplicate();
+        slice.position(start).limit(end);
+        final byte[] bytes = new byte[end - start];
+        slice.get(bytes);
+        return new BytesArray(bytes);
+    }
+
+    /**
+     * Creates a bulk processor for the index, lets <tt>feeder</tt> add the requests and waits until all bulk
+     * requests have returned.
+     */
+    private void bulkIndex(String index, IBulkFailureHandler failureHandler, DocumentChangeDetector changeDetector, Consumer<BulkProcessor> feeder) {
+        final BulkProgressListener listener = new BulkProgressListener(index, failureHandler, changeDetector);
+        final BulkProcessor bulkProcessor = createBulkProcessor(index, listener);
+        try {
+            feeder.accept(bulkProcessor);
+        } finally {
+            awaitClose(bulkProcessor, index);
+        }
+        log.info("{} documents indexed into index {}, {} failed, {} were stale.", listener.indexed.get(), index, listener.failed.get(), listener.stale.get());
+    }
+
+    private BulkProcessor createBulkProcessor(String index, BulkProcessor.Listener listener) {
+        return BulkProcessor.builder(bulkRetryExecutor::execute, listener, "bulk-" + index)
+                // rejected items are resent by the BulkRetryExecutor
+                .setBackoffPolicy(BackoffPolicy.noBackoff())
+                .setBulkActions(bulkMaxActions)
+                .setBulkSize(bulkMaxSize)
+                .setFlushInterval(bulkFlushInterval.millis() > 0 ? bulkFlushInterval : null)
+                .setConcurrentRequests(bulkConcurrentRequests)
+                .build();
+    }
+
+    private void awaitClose(BulkProcessor bulkProcessor, String index) {
+        try {
+            // flushes the remaining documents and waits for all requests in flight
+            bulkProcessor.awaitClose(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for the bulk requests to index {} to return.", index);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Logs the indexing progress and passes failed documents to the failure handler, if given. Informs the change
+     * detector, if given, about the outcome for each document.
+     */
+    private class BulkProgressListener implements BulkProcessor.Listener {
+        private final String index;
+        private final IBulkFailureHandler failureHandler;
+        private final DocumentChangeDetector changeDetector;
+        private final AtomicLong indexed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong stale = new AtomicLong();
+
+        private BulkProgressListener(String index, IBulkFailureHandler failureHandler, DocumentChangeDetector changeDetector) {
+            this.index = index;
+            this.failureHandler = failureHandler;
+            this.changeDetector = changeDetector;
+        }
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            log.trace("Sending bulk request {} with {} documents ({} bytes) to index {}.", executionId, request.numberOfActions(), request.estimatedSizeInBytes(), index);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            int numFailed = 0;
+            int numStale = 0;
+            if (response.hasFailures() || changeDetector != null) {
+                for (BulkItemResponse item : response.getItems()) {
+                    final DocWriteRequest<?> itemRequest = request.requests().get(item.getItemId());
+                    if (!item.isFailed()) {
+                        if (changeDetector != null)
+                            changeDetector.documentIndexed(itemRequest);
+                        continue;
+                    }
+                    if (changeDetector != null)
+                        changeDetector.documentRejected(itemRequest);
+                    if (item.getFailure().getStatus() == RestStatus.CONFLICT && itemRequest.versionType() == VersionType.EXTERNAL) {
+                        // a newer version of the document is already indexed
+                        ++numStale;
+                    } else {
+                        ++numFailed;
+                        if (failureHandler != null)
+                            failureHandler.documentFailed(itemRequest, item.getFailureMessage(), item.getFailure().getCause());
+                    }
                 }
-                if (overall % 1000000 == 0)
-                    log.info("{} documents indexed.", overall);
             }
-        } catch (IOException e) {
-            log.error("Could not index documents to index {}", index, e);
+            if (numFailed > 0)
+                log.error("Error while indexing: {}", response.buildFailureMessage());
+            if (numStale > 0)
+                log.debug("{} documents were not indexed into index {} because a newer version is already indexed.", numStale, index);
+            countFailed(numFailed);
+            stale.addAndGet(numStale);
+            final int numIndexed = request.numberOfActions() - numFailed - numStale;
+            final long before = indexed.getAndAdd(numIndexed);
+            if (before / 1000000 != (before + numIndexed) / 1000000)
+                log.info("{} documents indexed.", before + numIndexed);
         }
 
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            countFailed(request.numberOfActions());
+            log.error("Could not index {} documents to index {}", request.numberOfActions(), index, failure);
+            if (changeDetector != null)
+                request.requests().forEach(changeDetector::documentRejected);
+            if (failureHandler != null) {
+                final Exception cause = failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+                request.requests().forEach(itemRequest -> failureHandler.documentFailed(itemRequest, failure.getMessage(), cause));
+            }
+        }
+
+        private void countFailed(int numFailed) {
+            failed.addAndGet(numFailed);
+            final AtomicLong generationFailures = rebuildFailures.get(index);
+            if (generationFailures != null)
+                generationFailures.addAndGet(numFailed);
+        }
     }
 
     @Override
@@ -74,17 +481,254 @@ public class ElasticSearchIndexingService implements IIndexingService {
         indexDocuments(index, documents.iterator());
     }
 
+    @Override
+    public BulkLoadSession beginBulkLoad(String index, BulkLoadOptions options) {
+        final BulkLoadSession session = new BulkLoadSession(log, client, this, index, options);
+        session.begin();
+        return session;
+    }
+
     @Override
     public void clearIndex(String index) {
-        try {
-            log.info("Clearing index {}", index);
-            BulkByScrollResponse response = client.deleteByQuery(new DeleteByQueryRequest(index).setQuery(QueryBuilders.matchAllQuery()), RequestOptions.DEFAULT);
+        clearIndex(index, ClearIndexStrategy.DELETE_BY_QUERY);
+    }
 
-            log.info("Number of deleted documents from index {}: {}.", index, response.getDeleted());
+    @Override
+    public void clearIndex(String index, ClearIndexStrategy strategy) {
+        try {
+            log.info("Clearing index {} with strategy {}", index, strategy);
+            switch (strategy) {
+                case DELETE_BY_QUERY:
+                    BulkByScrollResponse response = client.deleteByQuery(new DeleteByQueryRequest(index).setQuery(QueryBuilders.matchAllQuery()).setRefresh(true), RequestOptions.DEFAULT);
+                    log.info("Number of deleted documents from index {}: {}.", index, response.getDeleted());
+                    break;
+                case DELETE_BY_QUERY_TASK:
+                    deleteByQueryTask(index);
+                    break;
+                case RECREATE:
+                    recreateIndex(index);
+                    break;
+            }
         } catch (IOException e) {
             log.error("Could not clear index {}", index, e);
         }
+        invalidateCachedResults(index);
+    }
 
+    private void deleteByQueryTask(String index) throws IOException {
+        final DeleteByQueryRequest request = new DeleteByQueryRequest(index)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setSlices(AbstractBulkByScrollRequest.AUTO_SLICES)
+                .setAbortOnVersionConflict(false)
+                // the document count tells indexDocuments that the document hashes are outdated
+                .setRefresh(true);
+        final String task = client.submitDeleteByQueryTask(request, RequestOptions.DEFAULT).getTask();
+        log.info("Submitted delete-by-query task {} for index {}", task, index);
+        // the task API of the high level client does not expose the result of completed tasks
+        final Request getTaskRequest = new Request("GET", "/_tasks/" + task);
+        while (true) {
+            final Map<String, Object> taskResponse;
+            try {
+                taskResponse = XContentHelper.convertToMap(XContentType.JSON.xContent(), client.getLowLevelClient().performRequest(getTaskRequest).getEntity().getContent(), false);
+            } catch (ResponseException e) {
+                if (e.getResponse().getStatusLine().getStatusCode() != RestStatus.NOT_FOUND.getStatus())
+                    throw e;
+                log.warn("Delete-by-query task {} for index {} is unknown to the server, it might have been cancelled.", task, index);
+                return;
+            }
+            final Object status = ((Map<?, ?>) taskResponse.get("task")).get("status");
+            if (Boolean.TRUE.equals(taskResponse.get("completed"))) {
+                checkDeleteByQueryTaskResult(task, index, taskResponse);
+                log.info("Delete-by-query task {} for index {} has completed: {}", task, index, status);
+                return;
+            }
+            log.debug("Delete-by-query task {} for index {} is running: {}", task, index, status);
+            try {
+                Thread.sleep(DELETE_BY_QUERY_TASK_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for delete-by-query task {} for index {}. The task continues on the server.", task, index);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Throws an exception if the completed delete-by-query task failed or could not delete all documents. Conflicting
+     * document versions do not count as failures since the task proceeds on conflicts.
+     */
+    private void checkDeleteByQueryTaskResult(String task, String index, Map<String, Object> taskResponse) throws IOException {
+        if (taskResponse.get("error") != null)
+            throw new IOException("Delete-by-query task " + task + " for index " + index + " failed: " + taskResponse.get("error"));
+        final Map<?, ?> result = (Map<?, ?>) taskResponse.get("response");
+        if (result == null)
+            return;
+        final List<?> failures = (List<?>) result.get("failures");
+        if (failures != null && !failures.isEmpty())
+            throw new IOException("Delete-by-query task " + task + " for index " + index + " completed with " + failures.size() + " failures, the first is: " + failures.get(0));
+    }
+
+    /**
+     * Deletes and re-creates each concrete index behind <tt>index</tt> with its previous settings, mappings and
+     * aliases. The settings and mappings are first checked by creating and deleting a throwaway index so that an
+     * index is not deleted if it cannot be created again. Should the creation nevertheless fail, the exception
+     * contains the definition of the index for its manual restoration.
+     */
+    private void recreateIndex(String index) throws IOException {
+        final GetIndexResponse snapshot = client.indices().get(new GetIndexRequest(index), RequestOptions.DEFAULT);
+        for (String concreteIndex : snapshot.getIndices()) {
+            // without aliases, the throwaway index must not receive requests meant for the index
+            final String checkIndex = "recreate-check-" + concreteIndex + "-" + System.currentTimeMillis();
+            log.debug("Checking the settings and mappings of index {} with throwaway index {}", concreteIndex, checkIndex);
+            try {
+                client.indices().create(createIndexRequestFromSnapshot(snapshot, concreteIndex, checkIndex), RequestOptions.DEFAULT);
+            } catch (ElasticsearchException e) {
+                throw new IOException("Index " + index + " is not re-created because the settings and mappings of " + concreteIndex + " are rejected: " + e.getMessage(), e);
+            }
+            client.indices().delete(new DeleteIndexRequest(checkIndex), RequestOptions.DEFAULT);
+        }
+        for (String concreteIndex : snapshot.getIndices()) {
+            final CreateIndexRequest createIndexRequest = createIndexRequestFromSnapshot(snapshot, concreteIndex, concreteIndex);
+            for (AliasMetadata aliasMetadata : snapshot.getAliases().getOrDefault(concreteIndex, Collections.emptyList()))
+                createIndexRequest.alias(toAlias(aliasMetadata));
+            final String definition = Strings.toString(createIndexRequest);
+            log.info("Deleting and re-creating index {} with definition {}", concreteIndex, definition);
+            client.indices().delete(new DeleteIndexRequest(concreteIndex), RequestOptions.DEFAULT);
+            try {
+                client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
+            } catch (IOException | ElasticsearchException e) {
+                throw new IOException("Index " + concreteIndex + " of " + index + " has been deleted but could not be re-created. Its definition was: " + definition, e);
+            }
+        }
+    }
+
+    /**
+     * Creates a request for the index <tt>newIndex</tt> with the settings and mappings of <tt>sourceIndex</tt>.
+     */
+    private CreateIndexRequest createIndexRequestFromSnapshot(GetIndexResponse snapshot, String sourceIndex, String newIndex) {
+        final CreateIndexRequest createIndexRequest = new CreateIndexRequest(newIndex)
+                .settings(snapshot.getSettings().get(sourceIndex).filter(key -> !PRIVATE_INDEX_SETTINGS.contains(key)));
+        final MappingMetadata mapping = snapshot.getMappings().get(sourceIndex);
+        if (mapping != null)
+            createIndexRequest.mapping(mapping.getSourceAsMap());
+        return createIndexRequest;
+    }
+
+    @Override
+    public String rebuildIndex(String alias, IIndexLoader loader, BulkLoadOptions options, int generationsToKeep) throws IOException {
+        final String newIndex = alias + "_" + GENERATION_FORMAT.format(LocalDateTime.now());
+        // the indices currently behind the alias or the concrete index named like the alias
+        final String[] currentIndices;
+        final boolean aliasIsIndex;
+        final CreateIndexRequest createIndexRequest;
+        // the aliases of the current indices, those of the newest generation are moved to the new generation
+        final Map<String, List<AliasMetadata>> currentAliases;
+        final List<AliasMetadata> templateAliases;
+        if (client.indices().exists(new GetIndexRequest(alias), RequestOptions.DEFAULT)) {
+            final GetIndexResponse snapshot = client.indices().get(new GetIndexRequest(alias), RequestOptions.DEFAULT);
+            currentIndices = snapshot.getIndices();
+            aliasIsIndex = currentIndices.length == 1 && currentIndices[0].equals(alias);
+            // generation names sort chronologically, the newest generation is the template for the next one
+            final String templateIndex = Arrays.stream(currentIndices).max(Comparator.naturalOrder()).get();
+            createIndexRequest = createIndexRequestFromSnapshot(snapshot, templateIndex, newIndex);
+            currentAliases = snapshot.getAliases();
+            templateAliases = currentAliases.getOrDefault(templateIndex, Collections.emptyList());
+        } else {
+            currentIndices = new String[0];
+            aliasIsIndex = false;
+            createIndexRequest = new CreateIndexRequest(newIndex);
+            currentAliases = Collections.emptyMap();
+            templateAliases = Collections.emptyList();
+        }
+        log.info("Creating index generation {} for alias {}", newIndex, alias);
+        client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
+        final AtomicLong generationFailures = new AtomicLong();
+        rebuildFailures.put(newIndex, generationFailures);
+        try (BulkLoadSession session = beginBulkLoad(newIndex, options)) {
+            loader.load(newIndex);
+            // the bulk methods do not throw for documents that could not be indexed
+            if (generationFailures.get() > 0)
+                throw new IOException(generationFailures.get() + " documents could not be indexed into index generation " + newIndex + ".");
+            session.finish();
+        } catch (IOException | RuntimeException e) {
+            log.error("Loading index generation {} failed, deleting it. Alias {} is not changed.", newIndex, alias);
+            try {
+                client.indices().delete(new DeleteIndexRequest(newIndex), RequestOptions.DEFAULT);
+            } catch (IOException e1) {
+                e.addSuppressed(e1);
+            }
+            throw e;
+        } finally {
+            rebuildFailures.remove(newIndex);
+        }
+
+        final IndicesAliasesRequest aliasesRequest = new IndicesAliasesRequest();
+        final Set<String> movedAliases = new HashSet<>();
+        movedAliases.add(alias);
+        for (AliasMetadata aliasMetadata : templateAliases) {
+            aliasesRequest.addAliasAction(toAliasAction(aliasMetadata).index(newIndex));
+            movedAliases.add(aliasMetadata.alias());
+        }
+        if (templateAliases.stream().noneMatch(aliasMetadata -> aliasMetadata.alias().equals(alias)))
+            aliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(newIndex).alias(alias));
+        if (aliasIsIndex) {
+            aliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(alias));
+        } else {
+            for (String currentIndex : currentIndices) {
+                for (AliasMetadata aliasMetadata : currentAliases.getOrDefault(currentIndex, Collections.emptyList())) {
+                    if (movedAliases.contains(aliasMetadata.alias()))
+                        aliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(currentIndex).alias(aliasMetadata.alias()));
+                }
+            }
+        }
+        log.info("Switching alias {} from {} to {}", alias, Arrays.toString(currentIndices), newIndex);
+        client.indices().updateAliases(aliasesRequest, RequestOptions.DEFAULT);
+        invalidateCachedResults(alias);
+
+        deleteOldGenerations(alias, newIndex, generationsToKeep);
+        return newIndex;
+    }
+
+    private void deleteOldGenerations(String alias, String newIndex, int generationsToKeep) {
+        try {
+            final Pattern generationPattern = Pattern.compile(Pattern.quote(alias) + "_[0-9]{17}");
+            final String[] oldGenerations = Arrays.stream(client.indices().get(new GetIndexRequest(alias + "_*"), RequestOptions.DEFAULT).getIndices())
+                    .filter(index -> generationPattern.matcher(index).matches())
+                    .filter(index -> !index.equals(newIndex))
+                    .sorted(Comparator.reverseOrder())
+                    .skip(generationsToKeep)
+                    .toArray(String[]::new);
+            if (oldGenerations.length > 0) {
+                log.info("Deleting old generations {} of alias {}", Arrays.toString(oldGenerations), alias);
+                client.indices().delete(new DeleteIndexRequest(oldGenerations), RequestOptions.DEFAULT);
+            }
+        } catch (IOException e) {
+            log.error("Could not delete the old generations of alias {}", alias, e);
+        }
+    }
+
+    private Alias toAlias(AliasMetadata aliasMetadata) {
+        final Alias alias = new Alias(aliasMetadata.alias());
+        if (aliasMetadata.filter() != null)
+            alias.filter(aliasMetadata.filter().string());
+        alias.indexRouting(aliasMetadata.indexRouting());
+        alias.searchRouting(aliasMetadata.searchRouting());
+        alias.writeIndex(aliasMetadata.writeIndex());
+        alias.isHidden(aliasMetadata.isHidden());
+        return alias;
+    }
+
+    /**
+     * @return An action adding the alias with the filter, routing and flags of <tt>aliasMetadata</tt>, without index.
+     */
+    private IndicesAliasesRequest.AliasActions toAliasAction(AliasMetadata aliasMetadata) {
+        final IndicesAliasesRequest.AliasActions action = IndicesAliasesRequest.AliasActions.add().alias(aliasMetadata.alias());
+        if (aliasMetadata.filter() != null)
+            action.filter(aliasMetadata.filter().string());
+        return action.indexRouting(aliasMetadata.indexRouting())
+                .searchRouting(aliasMetadata.searchRouting())
+                .writeIndex(aliasMetadata.writeIndex())
+                .isHidden(aliasMetadata.isHidden());
     }
 
     @Override
@@ -95,6 +739,30 @@ public class ElasticSearchIndexingService implements IIndexingService {
         } catch (IOException e) {
             log.error("Could not refresh index {}", index, e);
         }
+        // after the refresh so that no stale results are cached meanwhile
+        invalidateCachedResults(index);
     }
 
+    /**
+     * Invalidates the cached results for <tt>index</tt>, for the concrete indices if <tt>index</tt> is an alias and
+     * for all aliases of these indices since the cache only compares the names used in the requests.
+     */
+    private void invalidateCachedResults(String index) {
+        if (resultCache == null)
+            return;
+        final Set<String> names = new HashSet<>();
+        names.add(index);
+        try {
+            final GetAliasesResponse aliasesResponse = client.indices().getAlias(new GetAliasesRequest().indices(index), RequestOptions.DEFAULT);
+            aliasesResponse.getAliases().forEach((concreteIndex, aliases) -> {
+                names.add(concreteIndex);
+                aliases.forEach(aliasMetadata -> names.add(aliasMetadata.alias()));
+            });
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not resolve the aliases of index {}, invalidating all cached results.", index, e);
+            resultCache.invalidateAll();
+            return;
+        }
+        names.forEach(resultCache::invalidate);
+    }
 }
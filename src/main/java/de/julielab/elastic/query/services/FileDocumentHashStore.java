@@ -0,0 +1,88 @@
+package de.julielab.elastic.query.services;
+
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Keeps the document hashes in memory and persists them to a binary file of the index identity followed by ID and
+ * 128 bit hash records. The file is read when the store is created and rewritten on {@link #flush()}.</p>
+ * <p>The file is first written to a temporary file and then moved into place so that a crash during writing does not
+ * corrupt the previous hashes. Use one file per index.</p>
+ */
+public class FileDocumentHashStore implements IDocumentHashStore {
+    private static final int HASH_BYTES = 16;
+
+    private final Path file;
+    private final Map<String, HashCode> hashes = new ConcurrentHashMap<>();
+    private volatile String indexIdentity;
+
+    public FileDocumentHashStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                final String identity = is.readUTF();
+                indexIdentity = identity.isEmpty() ? null : identity;
+                final int size = is.readInt();
+                for (int i = 0; i < size; i++) {
+                    final String id = is.readUTF();
+                    final byte[] hash = new byte[HASH_BYTES];
+                    is.readFully(hash);
+                    hashes.put(id, HashCode.fromBytes(hash));
+                }
+            }
+        }
+    }
+
+    @Override
+    public HashCode get(String id) {
+        return hashes.get(id);
+    }
+
+    @Override
+    public void put(String id, HashCode hash) {
+        hashes.put(id, hash);
+    }
+
+    @Override
+    public void clear() {
+        hashes.clear();
+    }
+
+    @Override
+    public String getIndexIdentity() {
+        return indexIdentity;
+    }
+
+    @Override
+    public void setIndexIdentity(String identity) {
+        this.indexIdentity = identity;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        final Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        // a snapshot since puts might happen concurrently
+        final Map<String, HashCode> snapshot = Map.copyOf(hashes);
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            os.writeUTF(indexIdentity != null ? indexIdentity : "");
+            os.writeInt(snapshot.size());
+            for (Map.Entry<String, HashCode> entry : snapshot.entrySet()) {
+                os.writeUTF(entry.getKey());
+                os.write(entry.getValue().asBytes());
+            }
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
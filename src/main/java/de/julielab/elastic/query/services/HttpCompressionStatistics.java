@@ -0,0 +1,58 @@
+package de.julielab.elastic.query.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cumulated HTTP body sizes of all requests and responses since the client was created. Request bodies are counted
+ * before and after gzip compression; uncompressed bodies count with the same size for both values. Response bodies are
+ * counted as received because the REST client decompresses them while they are read.
+ */
+public class HttpCompressionStatistics {
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong compressedRequestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong compressedResponseBytes = new AtomicLong();
+
+    void requestSent(long bytes, long compressedBytes) {
+        requestBytes.addAndGet(bytes);
+        compressedRequestBytes.addAndGet(compressedBytes);
+    }
+
+    void responseReceived(long receivedBytes, boolean compressed) {
+        responseBytes.addAndGet(receivedBytes);
+        if (compressed)
+            compressedResponseBytes.addAndGet(receivedBytes);
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    public long getCompressedRequestBytes() {
+        return compressedRequestBytes.get();
+    }
+
+    /**
+     * @return The number of response body bytes received, compressed or not.
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return The part of {@link #getResponseBytes()} that was received gzip compressed.
+     */
+    public long getCompressedResponseBytes() {
+        return compressedResponseBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpCompressionStatistics{" +
+                "requestBytes=" + requestBytes +
+                ", compressedRequestBytes=" + compressedRequestBytes +
+                ", responseBytes=" + responseBytes +
+                ", compressedResponseBytes=" + compressedResponseBytes +
+                '}';
+    }
+}
@@ -0,0 +1,79 @@
+package de.julielab.elastic.query.services;
+
+/**
+ * The HTTP connection settings of the {@link ElasticSearchClient}. The defaults are those of the ElasticSearch REST
+ * client.
+ */
+public class HttpConnectionSettings {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 30;
+    public static final int DEFAULT_IO_THREAD_COUNT = 0;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 1000;
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = -1;
+    public static final long DEFAULT_KEEP_ALIVE = -1;
+    public static final boolean DEFAULT_TCP_NO_DELAY = true;
+    public static final boolean DEFAULT_SO_KEEP_ALIVE = false;
+    public static final boolean DEFAULT_COMPRESSION = false;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * The maximum number of connections to a single ElasticSearch node.
+     */
+    public int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    /**
+     * The maximum number of connections to all ElasticSearch nodes.
+     */
+    public int maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+    /**
+     * The number of I/O dispatcher threads. 0 uses one thread per available processor.
+     */
+    public int ioThreadCount = DEFAULT_IO_THREAD_COUNT;
+    /**
+     * The timeout in milliseconds for establishing a connection.
+     */
+    public int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    /**
+     * The timeout in milliseconds for leasing a connection from the pool when all connections are in use. A
+     * negative value waits indefinitely.
+     */
+    public int connectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+    /**
+     * The maximum time in milliseconds an idle connection is kept in the pool for reuse. The server may request a
+     * shorter time with the <tt>Keep-Alive</tt> header. A negative value keeps connections as long as the server
+     * allows.
+     */
+    public long keepAlive = DEFAULT_KEEP_ALIVE;
+    /**
+     * Whether to disable Nagle's algorithm.
+     */
+    public boolean tcpNoDelay = DEFAULT_TCP_NO_DELAY;
+    /**
+     * Whether to send TCP keep-alive probes on idle connections, which keeps them alive through firewalls.
+     */
+    public boolean soKeepAlive = DEFAULT_SO_KEEP_ALIVE;
+    /**
+     * Whether to gzip request bodies and to accept gzip compressed responses. ElasticSearch compresses responses if
+     * <tt>http.compression</tt> is enabled on the server, which is the default.
+     */
+    public boolean compression = DEFAULT_COMPRESSION;
+    /**
+     * The minimum size in bytes of a request body to be compressed.
+     */
+    public int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    @Override
+    public String toString() {
+        return "HttpConnectionSettings{" +
+                "maxConnectionsPerRoute=" + maxConnectionsPerRoute +
+                ", maxConnectionsTotal=" + maxConnectionsTotal +
+                ", ioThreadCount=" + ioThreadCount +
+                ", connectTimeout=" + connectTimeout +
+                ", connectionRequestTimeout=" + connectionRequestTimeout +
+                ", keepAlive=" + keepAlive +
+                ", tcpNoDelay=" + tcpNoDelay +
+                ", soKeepAlive=" + soKeepAlive +
+                ", compression=" + compression +
+                ", compressionThreshold=" + compressionThreshold +
+                '}';
+    }
+}
@@ -0,0 +1,25 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.IAggregationTranslator;
+
+import java.util.Map;
+
+/**
+ * <p>Holds the aggregation translators contributed by applications, keyed by the
+ * {@link de.julielab.elastic.query.components.data.aggregation.AggregationRequest} class they translate. The search
+ * component looks up the translator of each aggregation by its exact class. Contributed translators take precedence
+ * over the built-in translation and over the translators that subclasses of the search component add.</p>
+ * <p>Translators are contributed with a mapped configuration, e.g.</p>
+ * <pre>
+ * &#64;Contribute(IAggregationTranslatorRegistry.class)
+ * public static void contributeAggregationTranslators(MappedConfiguration&lt;Class, IAggregationTranslator&gt; configuration) {
+ *     configuration.add(MyAggregation.class, (aggregation, translator) -&gt; ...);
+ * }
+ * </pre>
+ */
+public interface IAggregationTranslatorRegistry {
+    /**
+     * @return The contributed translators by aggregation class.
+     */
+    Map<Class<?>, IAggregationTranslator<?>> getTranslators();
+}
@@ -0,0 +1,17 @@
+package de.julielab.elastic.query.services;
+
+import org.elasticsearch.action.DocWriteRequest;
+
+/**
+ * Receives the documents that could not be indexed, also after all retries. Implementations may, for example, write
+ * the documents to a dead-letter file for a later re-run. Might be called concurrently from multiple threads,
+ * including client I/O threads, and should thus return quickly.
+ */
+public interface IBulkFailureHandler {
+    /**
+     * @param request        The request for the failed document, containing the index, ID and source.
+     * @param failureMessage The failure message returned by ElasticSearch.
+     * @param cause          The cause of the failure, if available.
+     */
+    void documentFailed(DocWriteRequest<?> request, String failureMessage, Exception cause);
+}
@@ -0,0 +1,45 @@
+package de.julielab.elastic.query.services;
+
+import com.google.common.hash.HashCode;
+
+import java.io.IOException;
+
+/**
+ * Stores the content hash of each indexed document by its ID so that unchanged documents can be skipped when they are
+ * indexed again, see {@link DeduplicationOptions}. Implementations must be thread-safe since hashes are put from the
+ * client I/O threads when a bulk request returns.
+ */
+public interface IDocumentHashStore {
+    /**
+     * @return The hash of the document with ID <tt>id</tt> when it was last indexed or null if it is unknown.
+     */
+    HashCode get(String id);
+
+    /**
+     * Records the hash of a successfully indexed document.
+     */
+    void put(String id, HashCode hash);
+
+    /**
+     * Removes all hashes, e.g. because the index has been cleared and all documents must be indexed again.
+     */
+    void clear();
+
+    /**
+     * @return The identity of the index the hashes belong to, as set by {@link #setIndexIdentity(String)}, or null if
+     * it is unknown.
+     */
+    String getIndexIdentity();
+
+    /**
+     * Sets the identity of the index the hashes belong to. The indexing service derives it from the UUIDs of the
+     * concrete indices and clears the store when the identity changes, e.g. because the index has been re-created.
+     * Must be persisted along with the hashes.
+     */
+    void setIndexIdentity(String identity);
+
+    /**
+     * Persists the hashes, called after each indexing run.
+     */
+    void flush() throws IOException;
+}
@@ -1,6 +1,7 @@
 package de.julielab.elastic.query.services;
 
 import java.util.List;
+import java.util.concurrent.Flow;
 import java.util.stream.Stream;
 
 import de.julielab.elastic.query.components.data.ISearchServerDocument;
@@ -8,7 +9,7 @@ import de.julielab.elastic.query.components.data.QueryError;
 import de.julielab.elastic.query.components.data.aggregation.AggregationRequest;
 import de.julielab.elastic.query.components.data.aggregation.IAggregationResult;
 
-public interface IElasticServerResponse extends ISearchServerResponse {
+public interface IElasticServerResponse extends ISearchServerResponse, AutoCloseable {
 
 
 	/**
@@ -21,6 +22,18 @@ public interface IElasticServerResponse extends ISearchServerResponse {
 	 */
 	Stream<ISearchServerDocument> getDocumentResults();
 
+	/**
+	 * Returns the document results like {@link #getDocumentResults()} but as a reactive publisher. The subscriber
+	 * controls when subsequent batches are fetched through its demand, and no thread is blocked while waiting for
+	 * a batch. Since the documents are read from a single scroll or point in time, the publisher accepts only one
+	 * subscriber; repeated calls return the same publisher and further subscribers receive an
+	 * {@link IllegalStateException} via <tt>onError</tt>. Cancelling the subscription releases the scroll or point
+	 * in time on the server.
+	 *
+	 * @return A publisher of the search server documents in the search response.
+	 */
+	Flow.Publisher<ISearchServerDocument> getDocumentPublisher();
+
 	IAggregationResult getAggregationResult(AggregationRequest aggCmd);
 
 	String getNumFoundRelation();
@@ -36,5 +49,13 @@ public interface IElasticServerResponse extends ISearchServerResponse {
 	boolean isCountResponse();
 
 	void setSuggestionSearchResponse(boolean isSuggestionSearchResponse);
+
+	/**
+	 * Releases the scroll or point in time contexts that are still open on the server for this response. Should
+	 * be called, e.g. with try-with-resources, when the document results of a deep pagination response are not
+	 * consumed completely.
+	 */
+	@Override
+	void close();
 	
 }
@@ -0,0 +1,17 @@
+package de.julielab.elastic.query.services;
+
+import java.io.IOException;
+
+/**
+ * Loads the documents into a new index generation, see
+ * {@link IIndexingService#rebuildIndex(String, IIndexLoader, BulkLoadOptions, int)}.
+ */
+@FunctionalInterface
+public interface IIndexLoader {
+    /**
+     * Indexes the documents into <tt>index</tt>, e.g. with {@link IIndexingService#indexDocuments(String, java.util.Iterator)}.
+     * An exception or a document that could not be indexed by these methods aborts the rebuild, the alias is not
+     * switched to <tt>index</tt> then.
+     */
+    void load(String index) throws IOException;
+}
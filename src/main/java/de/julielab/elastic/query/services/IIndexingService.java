@@ -1,5 +1,7 @@
 package de.julielab.elastic.query.services;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -7,9 +9,79 @@ import java.util.Map;
 public interface IIndexingService {
     void indexDocuments(String index, Iterator<Map<String, Object>> documentIterator);
 
+    /**
+     * Indexes the documents like {@link #indexDocuments(String, Iterator)} and passes each document that could not
+     * be indexed, also after retries, to <tt>failureHandler</tt>.
+     */
+    void indexDocuments(String index, Iterator<Map<String, Object>> documentIterator, IBulkFailureHandler failureHandler);
+
+    /**
+     * Indexes the documents like {@link #indexDocuments(String, Iterator, IBulkFailureHandler)} but skips documents
+     * that have not changed since they were last indexed and optionally uses external versioning, as configured by
+     * <tt>deduplication</tt>.
+     */
+    void indexDocuments(String index, Iterator<Map<String, Object>> documentIterator, IBulkFailureHandler failureHandler, DeduplicationOptions deduplication);
+
     void indexDocuments(String index, List<Map<String, Object>> documents);
 
+    /**
+     * Indexes documents that are already serialized to JSON. The JSON bytes are sent as they are, without being
+     * parsed into maps and serialized again.
+     *
+     * @param failureHandler Receives documents that could not be indexed, may be null.
+     */
+    void indexRawDocuments(String index, Iterator<RawJsonDocument> documentIterator, IBulkFailureHandler failureHandler);
+
+    /**
+     * Indexes the documents of a file in the newline delimited JSON format of the ElasticSearch bulk API, i.e. an
+     * action line, e.g. <tt>{"index":{"_id":"1"}}</tt>, followed by a source line for each document. Only actions
+     * with a source line (index, create) are supported. Actions without an index use <tt>index</tt>. The documents
+     * are not parsed.
+     *
+     * @param failureHandler Receives documents that could not be indexed, may be null.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    void indexNdjsonFile(String index, Path ndjsonFile, IBulkFailureHandler failureHandler) throws IOException;
+
+    /**
+     * Applies the settings in <tt>options</tt> to <tt>index</tt>, e.g. disables refreshes and replicas, until the
+     * returned session is finished or closed. Then the previous settings are restored.
+     *
+     * @see BulkLoadSession
+     */
+    BulkLoadSession beginBulkLoad(String index, BulkLoadOptions options);
+
+    /**
+     * <p>Rebuilds the index behind <tt>alias</tt> without affecting searches on the alias. A new index generation,
+     * named <tt>alias_yyyyMMddHHmmssSSS</tt>, is created with the settings and mappings of the current generation and
+     * filled by <tt>loader</tt> within a {@link BulkLoadSession} using <tt>options</tt>. Only after a successful load,
+     * the alias is switched to the new generation in a single atomic request, together with the other aliases of the
+     * current generation and their filters, routings and flags. If <tt>alias</tt> is a concrete index instead of an
+     * alias, this index is replaced by the alias. Then, previous generations are deleted except the
+     * <tt>generationsToKeep</tt> most recent ones.</p>
+     * <p>The load fails if <tt>loader</tt> throws or if a document sent to the new generation by the bulk methods of
+     * this service could not be indexed. Then, the new generation is deleted and the alias keeps pointing to the
+     * current one.</p>
+     *
+     * @return The name of the new index generation.
+     * @throws IOException If the index could not be created, loaded or the alias could not be switched.
+     */
+    String rebuildIndex(String alias, IIndexLoader loader, BulkLoadOptions options, int generationsToKeep) throws IOException;
+
     void clearIndex(String index);
 
+    /**
+     * Removes all documents from <tt>index</tt> using the given strategy. {@link #clearIndex(String)} uses
+     * {@link ClearIndexStrategy#DELETE_BY_QUERY}.
+     */
+    void clearIndex(String index, ClearIndexStrategy strategy);
+
     void commit(String index);
+
+    /**
+     * Stops the thread that resends rejected bulk items, if it has been started. The thread ends after the retries
+     * that are already scheduled have been sent. The service stays usable; a later retry starts a new thread. Called
+     * on registry shutdown when the service is created by the Tapestry IoC registry.
+     */
+    void shutdown();
 }
@@ -0,0 +1,25 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.IQueryTranslator;
+
+import java.util.Map;
+
+/**
+ * <p>Holds the query translators contributed by applications, keyed by the {@link de.julielab.elastic.query.components.data.query.SearchServerQuery}
+ * class they translate. The search component looks up the translator of each query by its exact class. Contributed
+ * translators take precedence over the built-in translation and over the translators that subclasses of the search
+ * component add.</p>
+ * <p>Translators are contributed with a mapped configuration, e.g.</p>
+ * <pre>
+ * &#64;Contribute(IQueryTranslatorRegistry.class)
+ * public static void contributeQueryTranslators(MappedConfiguration&lt;Class, IQueryTranslator&gt; configuration) {
+ *     configuration.add(MyQuery.class, (query, translator) -&gt; ...);
+ * }
+ * </pre>
+ */
+public interface IQueryTranslatorRegistry {
+    /**
+     * @return The contributed translators by query class.
+     */
+    Map<Class<?>, IQueryTranslator<?>> getTranslators();
+}
@@ -1,8 +1,30 @@
 package de.julielab.elastic.query.services;
 
+import org.apache.http.pool.PoolStats;
 import org.elasticsearch.client.RestHighLevelClient;
 
 public interface ISearchClient {
 	void shutdown();
 	RestHighLevelClient getRestHighLevelClient();
+
+	/**
+	 * @return The number of leased, pending and available HTTP connections and the pool limit or null if the client
+	 * has not yet been created. Many pending connections indicate that the pool is too small for the request load.
+	 */
+	PoolStats getConnectionPoolStats();
+
+	/**
+	 * Creates the client, if necessary, and opens up to <tt>connectionsPerHost</tt> connections to each host so that
+	 * the first requests do not have to wait for connection setup.
+	 *
+	 * @return The number of successful connection requests.
+	 */
+	int openConnections(int connectionsPerHost);
+
+	/**
+	 * @return The request and response body sizes before and after compression. Only recorded if compression is
+	 * enabled.
+	 * @see de.julielab.elastic.query.ElasticQuerySymbolConstants#ES_HTTP_COMPRESSION
+	 */
+	HttpCompressionStatistics getCompressionStatistics();
 }
@@ -5,4 +5,11 @@ package de.julielab.elastic.query.services;
 public interface ISearchClientProvider {
 	
 	ISearchClient getSearchClient();
+
+	/**
+	 * @return The time in milliseconds it took to open the connections at startup or -1 if no connections were
+	 * opened at startup.
+	 * @see de.julielab.elastic.query.ElasticQuerySymbolConstants#ES_HTTP_WARMUP_CONNECTIONS
+	 */
+	long getConnectionWarmupTime();
 }
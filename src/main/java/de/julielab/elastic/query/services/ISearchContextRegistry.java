@@ -0,0 +1,39 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.data.SearchContext;
+
+import java.util.Collection;
+
+/**
+ * Keeps track of all scroll and point in time contexts opened by the search component. Contexts are removed when
+ * they are released by their owners. Contexts that have been abandoned by their owners or have not been used for too
+ * long are released by a reaper, and all contexts are released on registry shutdown.
+ */
+public interface ISearchContextRegistry {
+    /**
+     * Adds the context to the registry. It is removed when it is released.
+     */
+    void register(SearchContext context);
+
+    /**
+     * @return The number of contexts that are currently open.
+     */
+    int getNumOpenContexts();
+
+    /**
+     * @return The contexts that are currently open.
+     */
+    Collection<SearchContext> getOpenContexts();
+
+    /**
+     * Releases abandoned and idle contexts. Called periodically by the reaper.
+     *
+     * @return The number of released contexts.
+     */
+    int reap();
+
+    /**
+     * Releases all open contexts.
+     */
+    void releaseAll();
+}
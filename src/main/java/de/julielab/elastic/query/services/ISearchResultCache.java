@@ -0,0 +1,101 @@
+package de.julielab.elastic.query.services;
+
+import com.google.common.cache.CacheStats;
+import de.julielab.elastic.query.components.data.RequestFingerprint;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+
+import java.util.Objects;
+
+/**
+ * A size-bounded cache of search responses keyed by the fingerprint of their {@link SearchServerRequest}, see
+ * {@link RequestFingerprint}. Used by the
+ * {@link de.julielab.elastic.query.components.CachingSearchServerComponent} if enabled via
+ * {@link de.julielab.elastic.query.ElasticQuerySymbolConstants#ES_RESULT_CACHE_ENABLED}. The entries of an index are
+ * invalidated by {@link IIndexingService#commit(String)} and {@link IIndexingService#clearIndex(String)}.
+ */
+public interface ISearchResultCache {
+    /**
+     * @return Whether the response for <tt>serverRequest</tt> may be cached. Deep pagination downloads and
+     * suggestion requests are not cached.
+     */
+    boolean isCacheable(SearchServerRequest serverRequest);
+
+    /**
+     * Computes the cache key of <tt>serverRequest</tt>. The key must be computed before the request is sent and then
+     * be used for both {@link #get(Key)} and {@link #put(Key, IElasticServerResponse)} because sending a request may
+     * complete it with default values.
+     *
+     * @return The key of <tt>serverRequest</tt>.
+     */
+    Key getKey(SearchServerRequest serverRequest);
+
+    /**
+     * @return The cached response for <tt>key</tt> or null.
+     */
+    IElasticServerResponse get(Key key);
+
+    void put(Key key, IElasticServerResponse response);
+
+    /**
+     * Removes all responses for requests on <tt>index</tt>. A request is on <tt>index</tt> if one of the
+     * comma-separated names of {@link SearchServerRequest#index} equals <tt>index</tt>, matches it as a wildcard
+     * pattern or is <tt>_all</tt>. Aliases are not resolved by the cache; the caller must invalidate the aliases of
+     * an index and the indices of an alias as well, as {@link IIndexingService} does.
+     */
+    void invalidate(String index);
+
+    void invalidateAll();
+
+    /**
+     * @return The hit and miss counts and rates as well as the number of evictions.
+     */
+    CacheStats getStats();
+
+    /**
+     * @return The estimated number of bytes used by the cached responses.
+     */
+    long getEstimatedSize();
+
+    /**
+     * The key of a cached response: the searched index and the {@link RequestFingerprint} of the request.
+     */
+    final class Key {
+        private final String index;
+        private final String fingerprint;
+
+        public Key(String index, String fingerprint) {
+            this.index = index;
+            this.fingerprint = fingerprint;
+        }
+
+        public static Key of(SearchServerRequest serverRequest) {
+            return new Key(serverRequest.index, RequestFingerprint.of(serverRequest));
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return index.equals(key.index) && fingerprint.equals(key.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, fingerprint);
+        }
+
+        @Override
+        public String toString() {
+            return "Key [index=" + index + ", fingerprint=" + fingerprint + "]";
+        }
+    }
+}
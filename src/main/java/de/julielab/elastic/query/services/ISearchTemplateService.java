@@ -0,0 +1,40 @@
+package de.julielab.elastic.query.services;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * <p>Stores search templates in ElasticSearch which are then referred to by
+ * {@link de.julielab.elastic.query.components.data.SearchServerRequest#searchTemplate}. The templates contributed to
+ * the mapped configuration of this service - template ID to mustache source - are stored when the registry starts up,
+ * e.g.</p>
+ * <pre>
+ * &#64;Contribute(ISearchTemplateService.class)
+ * public static void contributeSearchTemplates(MappedConfiguration&lt;String, String&gt; configuration) {
+ *     configuration.add("documents-by-term", "{\"query\": {\"term\": {\"{{field}}\": \"{{value}}\"}}, \"size\": \"{{size}}\"}");
+ * }
+ * </pre>
+ */
+public interface ISearchTemplateService {
+    /**
+     * Stores the template, replacing a template with the same ID.
+     *
+     * @param id     The template ID.
+     * @param source The mustache source of the template, rendering to a search request body.
+     * @throws IOException If the template could not be stored.
+     */
+    void putTemplate(String id, String source) throws IOException;
+
+    /**
+     * Deletes the template from ElasticSearch.
+     *
+     * @param id The template ID.
+     * @throws IOException If the template could not be deleted.
+     */
+    void deleteTemplate(String id) throws IOException;
+
+    /**
+     * @return The IDs of the templates that have been stored by this service and not been deleted since.
+     */
+    Set<String> getTemplateIds();
+}
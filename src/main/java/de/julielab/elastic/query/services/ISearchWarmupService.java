@@ -0,0 +1,33 @@
+package de.julielab.elastic.query.services;
+
+import java.util.List;
+
+/**
+ * Runs the warmup search requests contributed to this service when the registry starts up, so that the first user
+ * requests do not pay for cold connections and cold ElasticSearch caches. Warmup requests are contributed as
+ * {@link de.julielab.elastic.query.components.data.SearchServerRequest}s to the unordered configuration of this
+ * service.
+ */
+public interface ISearchWarmupService {
+    /**
+     * @return Whether the warmup has finished. Failed warmup requests do not prevent readiness.
+     */
+    boolean isReady();
+
+    /**
+     * @return The time in milliseconds it took to open the connections at startup or -1 if no connections were
+     * opened at startup.
+     */
+    long getConnectionWarmupTime();
+
+    /**
+     * @return The time in milliseconds of each warmup request in the order the requests were run. A failed request
+     * has the time -1.
+     */
+    List<Long> getRequestWarmupTimes();
+
+    /**
+     * @return The time in milliseconds it took to run all warmup requests.
+     */
+    long getWarmupTime();
+}
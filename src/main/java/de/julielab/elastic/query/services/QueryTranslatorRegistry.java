@@ -0,0 +1,28 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.IQueryTranslator;
+import de.julielab.elastic.query.components.data.query.SearchServerQuery;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class QueryTranslatorRegistry implements IQueryTranslatorRegistry {
+    private final Map<Class<?>, IQueryTranslator<?>> translators;
+
+    @SuppressWarnings("rawtypes")
+    public QueryTranslatorRegistry(Map<Class, IQueryTranslator> configuration) {
+        final Map<Class<?>, IQueryTranslator<?>> translators = new HashMap<>();
+        configuration.forEach((queryClass, translator) -> {
+            if (!SearchServerQuery.class.isAssignableFrom(queryClass))
+                throw new IllegalArgumentException("The query translator " + translator + " was contributed for " + queryClass + " which is not a subclass of " + SearchServerQuery.class.getName() + ".");
+            translators.put(queryClass, translator);
+        });
+        this.translators = Collections.unmodifiableMap(translators);
+    }
+
+    @Override
+    public Map<Class<?>, IQueryTranslator<?>> getTranslators() {
+        return translators;
+    }
+}
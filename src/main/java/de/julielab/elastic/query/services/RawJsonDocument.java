@@ -0,0 +1,53 @@
+package de.julielab.elastic.query.services;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A document that is already serialized as UTF-8 encoded JSON. The bytes are sent to ElasticSearch as they are,
+ * without being parsed. The ID is given separately and must not be contained in the JSON.
+ */
+public class RawJsonDocument {
+    private final String id;
+    private final BytesReference source;
+
+    /**
+     * @param id     The document ID or <tt>null</tt> to let ElasticSearch create an ID.
+     * @param source The JSON source of the document.
+     */
+    public RawJsonDocument(String id, BytesReference source) {
+        this.id = id;
+        this.source = source;
+    }
+
+    public RawJsonDocument(String id, byte[] source) {
+        this(id, new BytesArray(source));
+    }
+
+    /**
+     * Uses the bytes between the position and the limit of the buffer. Heap buffers are used without copying and
+     * must not be changed until the document has been indexed. The bytes of direct and memory mapped buffers are
+     * copied since ElasticSearch requires array backed bytes.
+     */
+    public RawJsonDocument(String id, ByteBuffer source) {
+        this(id, toBytesReference(source));
+    }
+
+    private static BytesReference toBytesReference(ByteBuffer source) {
+        if (source.hasArray())
+            return BytesReference.fromByteBuffer(source);
+        final byte[] bytes = new byte[source.remaining()];
+        source.duplicate().get(bytes);
+        return new BytesArray(bytes);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public BytesReference getSource() {
+        return source;
+    }
+}
@@ -0,0 +1,102 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.data.SearchContext;
+import org.apache.tapestry5.ioc.annotations.PostInjection;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static de.julielab.elastic.query.ElasticQuerySymbolConstants.*;
+
+public class SearchContextRegistry implements ISearchContextRegistry {
+	public static final int DEFAULT_REAPER_INTERVAL = 60;
+	public static final int DEFAULT_MAX_IDLE_TIME = 1800;
+
+	private final Logger log;
+	private final Set<SearchContext> openContexts = ConcurrentHashMap.newKeySet();
+	private final long maxIdleMillis;
+	private final ScheduledExecutorService reaper;
+
+	/**
+	 * @param log               The logger.
+	 * @param reaperInterval    The interval in seconds in which abandoned and idle contexts are released. 0 disables the reaper.
+	 * @param maxIdleTime       The time in seconds after which a context without requests is considered leaked.
+	 */
+	public SearchContextRegistry(Logger log, @Symbol(ES_SEARCH_CONTEXT_REAPER_INTERVAL) int reaperInterval, @Symbol(ES_SEARCH_CONTEXT_MAX_IDLE_TIME) int maxIdleTime) {
+		this.log = log;
+		this.maxIdleMillis = TimeUnit.SECONDS.toMillis(maxIdleTime);
+		if (reaperInterval > 0) {
+			reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+				final Thread thread = new Thread(r, "search-context-reaper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			reaper.scheduleWithFixedDelay(this::reap, reaperInterval, reaperInterval, TimeUnit.SECONDS);
+		} else {
+			reaper = null;
+		}
+	}
+
+	@Override
+	public void register(SearchContext context) {
+		context.setReleaseListener(openContexts::remove);
+		openContexts.add(context);
+		// the context might have been released before the listener was set
+		if (context.isReleased())
+			openContexts.remove(context);
+		log.trace("Registered {}, {} contexts are open.", context, openContexts.size());
+	}
+
+	@Override
+	public int getNumOpenContexts() {
+		return openContexts.size();
+	}
+
+	@Override
+	public Collection<SearchContext> getOpenContexts() {
+		return Collections.unmodifiableCollection(new ArrayList<>(openContexts));
+	}
+
+	@Override
+	public int reap() {
+		final long now = System.currentTimeMillis();
+		int released = 0;
+		for (SearchContext context : openContexts) {
+			final boolean abandoned = context.isAbandoned();
+			if (abandoned || now - context.getLastAccess() > maxIdleMillis) {
+				log.warn("Releasing leaked search context {} because it was {}.", context, abandoned ? "abandoned by its owners" : "idle for more than " + maxIdleMillis + "ms");
+				context.releaseAndWait();
+				++released;
+			}
+		}
+		if (released > 0)
+			log.info("Released {} leaked search contexts, {} contexts are open.", released, openContexts.size());
+		return released;
+	}
+
+	@Override
+	public void releaseAll() {
+		for (SearchContext context : openContexts)
+			context.releaseAndWait();
+	}
+
+	@PostInjection
+	public void startupService(RegistryShutdownHub shutdownHub) {
+		// The contexts must be released while the client is still open.
+		shutdownHub.addRegistryWillShutdownListener(() -> {
+			log.info("Releasing {} open search contexts.", openContexts.size());
+			if (reaper != null)
+				reaper.shutdownNow();
+			releaseAll();
+		});
+	}
+}
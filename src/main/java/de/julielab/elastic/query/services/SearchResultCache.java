@@ -0,0 +1,141 @@
+package de.julielab.elastic.query.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import de.julielab.elastic.query.components.data.ElasticServerResponse;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.cluster.metadata.Metadata;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.julielab.elastic.query.ElasticQuerySymbolConstants.*;
+
+public class SearchResultCache implements ISearchResultCache {
+    public static final boolean DEFAULT_ENABLED = false;
+    public static final String DEFAULT_MAX_SIZE = "64mb";
+    public static final String DEFAULT_TIME_TO_LIVE = "5m";
+    /**
+     * The estimated size of a response without hits and aggregations.
+     */
+    private static final int RESPONSE_BASE_SIZE = 1024;
+    private static final int HIT_BASE_SIZE = 512;
+    private static final int AGGREGATION_SIZE = 4096;
+
+    private final Logger log;
+    private final Cache<Key, CachedResponse> cache;
+    private final AtomicLong estimatedSize = new AtomicLong();
+
+    /**
+     * @param log        The logger.
+     * @param maxSize    The maximum estimated size of all cached responses, e.g. <tt>64mb</tt>.
+     * @param timeToLive The time after which a cached response expires, e.g. <tt>5m</tt>.
+     */
+    public SearchResultCache(Logger log, @Symbol(ES_RESULT_CACHE_MAX_SIZE) String maxSize, @Symbol(ES_RESULT_CACHE_TIME_TO_LIVE) String timeToLive) {
+        this.log = log;
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(ByteSizeValue.parseBytesSizeValue(maxSize, ES_RESULT_CACHE_MAX_SIZE).getBytes())
+                .<Key, CachedResponse>weigher((key, cachedResponse) -> cachedResponse.size)
+                .expireAfterWrite(TimeValue.parseTimeValue(timeToLive, ES_RESULT_CACHE_TIME_TO_LIVE).millis(), TimeUnit.MILLISECONDS)
+                .removalListener(notification -> estimatedSize.addAndGet(-notification.getValue().size))
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public boolean isCacheable(SearchServerRequest serverRequest) {
+        return serverRequest.index != null && !serverRequest.downloadCompleteResults && serverRequest.suggestionText == null;
+    }
+
+    @Override
+    public Key getKey(SearchServerRequest serverRequest) {
+        return Key.of(serverRequest);
+    }
+
+    @Override
+    public IElasticServerResponse get(Key key) {
+        final CachedResponse cachedResponse = cache.getIfPresent(key);
+        return cachedResponse != null ? copy(cachedResponse.response) : null;
+    }
+
+    @Override
+    public void put(Key key, IElasticServerResponse response) {
+        final CachedResponse cachedResponse = new CachedResponse(copy(response), estimateSize(response));
+        estimatedSize.addAndGet(cachedResponse.size);
+        cache.put(key, cachedResponse);
+    }
+
+    /**
+     * Cached responses are copied in and out of the cache so that callers changing their response, e.g. by setting a
+     * query error, do not affect the cached response or other callers.
+     */
+    private IElasticServerResponse copy(IElasticServerResponse response) {
+        return response instanceof ElasticServerResponse ? ((ElasticServerResponse) response).copy() : response;
+    }
+
+    /**
+     * Estimates the heap size of a response from the sizes of the hit sources and the number of aggregations.
+     */
+    private int estimateSize(IElasticServerResponse response) {
+        long size = RESPONSE_BASE_SIZE;
+        final SearchResponse searchResponse = response instanceof ElasticServerResponse ? ((ElasticServerResponse) response).getResponse() : null;
+        if (searchResponse != null) {
+            for (SearchHit hit : searchResponse.getHits().getHits())
+                size += HIT_BASE_SIZE + (hit.getSourceRef() != null ? hit.getSourceRef().length() : 0);
+            if (searchResponse.getAggregations() != null)
+                size += (long) AGGREGATION_SIZE * searchResponse.getAggregations().asList().size();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    @Override
+    public void invalidate(String index) {
+        log.debug("Invalidating the cached results for index {}", index);
+        cache.asMap().keySet().removeIf(key -> isOnIndex(key.getIndex(), index));
+    }
+
+    /**
+     * @return Whether the index expression of a request refers to <tt>index</tt>.
+     */
+    private boolean isOnIndex(String indexExpression, String index) {
+        for (String name : indexExpression.split(",")) {
+            name = name.trim();
+            if (name.equals(index) || name.equals(Metadata.ALL) || (Regex.isSimpleMatchPattern(name) && Regex.simpleMatch(name, index)))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        return estimatedSize.get();
+    }
+
+    private static class CachedResponse {
+        private final IElasticServerResponse response;
+        private final int size;
+
+        private CachedResponse(IElasticServerResponse response, int size) {
+            this.response = response;
+            this.size = size;
+        }
+    }
+}
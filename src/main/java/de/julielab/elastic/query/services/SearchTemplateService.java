@@ -0,0 +1,74 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.tapestry5.ioc.annotations.PostInjection;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.cluster.storedscripts.DeleteStoredScriptRequest;
+import org.elasticsearch.action.admin.cluster.storedscripts.PutStoredScriptRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentType;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Eagerly loaded at registry startup. Stores the contributed templates one after the other before the registry
+ * startup completes. Templates that cannot be stored are logged and skipped.
+ */
+public class SearchTemplateService implements ISearchTemplateService {
+    private final Logger log;
+    private final ISearchClientProvider searchClientProvider;
+    private final Map<String, String> templates;
+    private final Set<String> templateIds = ConcurrentHashMap.newKeySet();
+
+    public SearchTemplateService(Logger log, ISearchClientProvider searchClientProvider, Map<String, String> templates) {
+        this.log = log;
+        this.searchClientProvider = searchClientProvider;
+        this.templates = templates;
+    }
+
+    @PostInjection
+    public void startupService() {
+        for (Map.Entry<String, String> template : templates.entrySet()) {
+            try {
+                putTemplate(template.getKey(), template.getValue());
+            } catch (IOException | ElasticsearchException e) {
+                log.error("Could not store the search template {}", template.getKey(), e);
+            }
+        }
+        if (!templates.isEmpty())
+            log.info("Stored {} of {} search templates.", templateIds.size(), templates.size());
+    }
+
+    @Override
+    public void putTemplate(String id, String source) throws IOException {
+        final XContentBuilder content = XContentFactory.jsonBuilder()
+                .startObject()
+                .startObject("script")
+                .field("lang", "mustache")
+                .field("source", source)
+                .endObject()
+                .endObject();
+        final PutStoredScriptRequest request = new PutStoredScriptRequest().id(id).content(BytesReference.bytes(content), XContentType.JSON);
+        searchClientProvider.getSearchClient().getRestHighLevelClient().putScript(request, RequestOptions.DEFAULT);
+        templateIds.add(id);
+        log.debug("Stored the search template {}.", id);
+    }
+
+    @Override
+    public void deleteTemplate(String id) throws IOException {
+        searchClientProvider.getSearchClient().getRestHighLevelClient().deleteScript(new DeleteStoredScriptRequest(id), RequestOptions.DEFAULT);
+        templateIds.remove(id);
+        log.debug("Deleted the search template {}.", id);
+    }
+
+    @Override
+    public Set<String> getTemplateIds() {
+        return Set.copyOf(templateIds);
+    }
+}
@@ -0,0 +1,87 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.ISearchServerComponent;
+import de.julielab.elastic.query.components.data.ElasticSearchCarrier;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+import org.apache.tapestry5.ioc.annotations.PostInjection;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Eagerly loaded at registry startup. Runs each warmup request through the search server component, one after the
+ * other, before the registry startup completes.
+ */
+public class SearchWarmupService implements ISearchWarmupService {
+    private final Logger log;
+    private final ISearchClientProvider searchClientProvider;
+    private final ISearchServerComponent<ElasticSearchCarrier<IElasticServerResponse>> searchServerComponent;
+    private final ISearchTemplateService searchTemplateService;
+    private final Collection<SearchServerRequest> warmupRequests;
+    private final List<Long> requestWarmupTimes = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean ready;
+    private volatile long warmupTime = -1;
+
+    public SearchWarmupService(Logger log, ISearchClientProvider searchClientProvider, ISearchServerComponent<ElasticSearchCarrier<IElasticServerResponse>> searchServerComponent, ISearchTemplateService searchTemplateService, Collection<SearchServerRequest> warmupRequests) {
+        this.log = log;
+        this.searchClientProvider = searchClientProvider;
+        this.searchServerComponent = searchServerComponent;
+        this.searchTemplateService = searchTemplateService;
+        this.warmupRequests = warmupRequests;
+    }
+
+    @PostInjection
+    public void startupService() {
+        // realizes the template service so that the templates are stored before warmup requests refer to them
+        log.debug("Search templates available for warmup: {}", searchTemplateService.getTemplateIds());
+        final long time = System.currentTimeMillis();
+        for (SearchServerRequest warmupRequest : warmupRequests) {
+            final long requestTime = System.currentTimeMillis();
+            final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("warmup");
+            carrier.addServerRequest(warmupRequest);
+            try {
+                searchServerComponent.process(carrier);
+                final Optional<IElasticServerResponse> failedResponse = carrier.getSearchResponses().stream().filter(ISearchServerResponse::hasQueryError).findAny();
+                if (failedResponse.isPresent()) {
+                    log.warn("Warmup request for index {} failed: {}", warmupRequest.index, failedResponse.get().getQueryErrorMessage());
+                    requestWarmupTimes.add(-1L);
+                } else {
+                    requestWarmupTimes.add(System.currentTimeMillis() - requestTime);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Warmup request for index {} failed", warmupRequest.index, e);
+                requestWarmupTimes.add(-1L);
+            } finally {
+                carrier.getSearchResponses().forEach(IElasticServerResponse::close);
+            }
+        }
+        warmupTime = System.currentTimeMillis() - time;
+        ready = true;
+        if (!warmupRequests.isEmpty())
+            log.info("Ran {} warmup requests in {}ms: {}", warmupRequests.size(), warmupTime, requestWarmupTimes);
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public long getConnectionWarmupTime() {
+        return searchClientProvider.getConnectionWarmupTime();
+    }
+
+    @Override
+    public List<Long> getRequestWarmupTimes() {
+        return List.copyOf(requestWarmupTimes);
+    }
+
+    @Override
+    public long getWarmupTime() {
+        return warmupTime;
+    }
+}
@@ -0,0 +1,115 @@
+package de.julielab.elastic.query.components;
+
+import de.julielab.elastic.query.components.data.ElasticSearchCarrier;
+import de.julielab.elastic.query.components.data.ElasticServerResponse;
+import de.julielab.elastic.query.components.data.QueryError;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+import de.julielab.elastic.query.components.data.query.TermQuery;
+import de.julielab.elastic.query.services.IElasticServerResponse;
+import de.julielab.elastic.query.services.SearchResultCache;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+public class CachingSearchServerComponentTest {
+
+    @Test
+    public void testCacheHit() {
+        final CountingSearchServerComponent delegate = new CountingSearchServerComponent();
+        final SearchResultCache resultCache = new SearchResultCache(LoggerFactory.getLogger(SearchResultCache.class), "1mb", "5m");
+        final CachingSearchServerComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new CachingSearchServerComponent<>(LoggerFactory.getLogger(CachingSearchServerComponent.class), delegate, resultCache);
+
+        for (int i = 0; i < 2; i++) {
+            final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+            carrier.addServerRequest(createRequest("42"));
+            component.process(carrier);
+            assertEquals(1, carrier.getSearchResponses().size());
+        }
+        assertEquals(1, delegate.sentRequests.size());
+        assertEquals(1, resultCache.getStats().hitCount());
+        assertEquals(1, resultCache.getStats().missCount());
+    }
+
+    @Test
+    public void testPartialCacheHit() {
+        final CountingSearchServerComponent delegate = new CountingSearchServerComponent();
+        final SearchResultCache resultCache = new SearchResultCache(LoggerFactory.getLogger(SearchResultCache.class), "1mb", "5m");
+        final CachingSearchServerComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new CachingSearchServerComponent<>(LoggerFactory.getLogger(CachingSearchServerComponent.class), delegate, resultCache);
+
+        final ElasticSearchCarrier<IElasticServerResponse> firstCarrier = new ElasticSearchCarrier<>("testchain");
+        firstCarrier.addServerRequest(createRequest("42"));
+        component.process(firstCarrier);
+
+        final ElasticSearchCarrier<IElasticServerResponse> secondCarrier = new ElasticSearchCarrier<>("testchain");
+        secondCarrier.addServerRequest(createRequest("43"));
+        secondCarrier.addServerRequest(createRequest("42"));
+        component.process(secondCarrier);
+
+        // only the missed request is sent and the responses stay in the order of the requests
+        assertEquals(2, delegate.sentRequests.size());
+        assertEquals(2, secondCarrier.getSearchResponses().size());
+        assertEquals(2, secondCarrier.getServerRequests().size());
+        assertEquals("43", ((TermQuery) secondCarrier.getServerRequest(0).query).term);
+    }
+
+    @Test
+    public void testCachedResponsesAreCopies() {
+        final CountingSearchServerComponent delegate = new CountingSearchServerComponent();
+        final SearchResultCache resultCache = new SearchResultCache(LoggerFactory.getLogger(SearchResultCache.class), "1mb", "5m");
+        final CachingSearchServerComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new CachingSearchServerComponent<>(LoggerFactory.getLogger(CachingSearchServerComponent.class), delegate, resultCache);
+
+        final List<IElasticServerResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+            carrier.addServerRequest(createRequest("42"));
+            component.process(carrier);
+            responses.add(carrier.getSingleSearchServerResponse());
+        }
+        assertEquals(1, delegate.sentRequests.size());
+        // a caller changing its response must not affect the cache or other callers
+        responses.get(0).setSuggestionSearchResponse(true);
+        ((ElasticServerResponse) responses.get(1)).setQueryError(QueryError.QUERY_ERROR);
+        assertNotSame(responses.get(1), responses.get(2));
+        assertFalse(responses.get(2).isSuggestionSearchResponse());
+        assertFalse(responses.get(2).hasQueryError());
+    }
+
+    private SearchServerRequest createRequest(String term) {
+        final SearchServerRequest request = new SearchServerRequest();
+        final TermQuery query = new TermQuery();
+        query.field = "docid";
+        query.term = term;
+        request.query = query;
+        request.index = "testindex";
+        return request;
+    }
+
+    /**
+     * Answers each request with an empty response and completes the requests with default values like the
+     * {@link ElasticSearchComponent} does.
+     */
+    private static class CountingSearchServerComponent extends AbstractSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> implements ISearchServerComponent<ElasticSearchCarrier<IElasticServerResponse>> {
+        private final List<SearchServerRequest> sentRequests = new ArrayList<>();
+
+        public CountingSearchServerComponent() {
+            super(LoggerFactory.getLogger(CountingSearchServerComponent.class));
+        }
+
+        @Override
+        protected boolean processSearch(ElasticSearchCarrier<IElasticServerResponse> carrier) {
+            for (SearchServerRequest serverRequest : carrier.getServerRequests()) {
+                if (serverRequest.fieldsToReturn == null)
+                    serverRequest.addField("*");
+                sentRequests.add(serverRequest);
+                carrier.addSearchResponse(new ElasticServerResponse());
+            }
+            return false;
+        }
+    }
+}
@@ -1,16 +1,19 @@
 package de.julielab.elastic.query.components;
 
+import de.julielab.elastic.query.SearchExecutionMode;
+import de.julielab.elastic.query.components.data.DeepPaginationCheckpoint;
 import de.julielab.elastic.query.components.data.ElasticSearchCarrier;
+import de.julielab.elastic.query.components.data.FileDeepPaginationCheckpointStore;
 import de.julielab.elastic.query.components.data.ISearchServerDocument;
 import de.julielab.elastic.query.components.data.SearchServerRequest;
 import de.julielab.elastic.query.components.data.SortCommand;
 import de.julielab.elastic.query.components.data.query.MatchAllQuery;
 import de.julielab.elastic.query.services.ElasticSearchClientProvider;
 import de.julielab.elastic.query.services.IElasticServerResponse;
+import de.julielab.elastic.query.services.SearchContextRegistry;
 import org.apache.tapestry5.ioc.internal.LoggerSourceImpl;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,20 +29,30 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
-@Ignore
 public class DeepPaginationTest {
     public static final String TEST_INDEX = "testindex";
     public static final String TEST_CLUSTER = "testcluster";
-    public static final int NUM_DOCS = 100000;
+    /**
+     * Enough documents for several deep pagination batches of all tests while keeping the indexing time short.
+     */
+    public static final int NUM_DOCS = 10000;
     private final static Logger log = LoggerFactory.getLogger(DeepPaginationTest.class);
     // in case we need to disable X-shield: https://stackoverflow.com/a/51172136/1314955
     @ClassRule
@@ -231,4 +244,208 @@ public class DeepPaginationTest {
         assertEquals(NUM_DOCS, received);
     }
 
+    @Test
+    public void searchAfterWithPrefetch() {
+
+        final SearchServerRequest request = new SearchServerRequest();
+        request.query = new MatchAllQuery();
+        request.index = TEST_INDEX;
+        request.downloadCompleteResults = true;
+        request.downloadCompleteResultsMethod = "searchAfter";
+        request.downloadCompleteResultsPrefetchDepth = 2;
+        request.fieldsToReturn = List.of("text");
+        request.sortCmds = List.of(new SortCommand("_shard_doc", SortCommand.SortOrder.ASCENDING));
+        request.rows = 500;
+
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(request);
+
+        esSearchComponent.process(carrier);
+
+        final IElasticServerResponse response = carrier.getSingleSearchServerResponse();
+        long nanos = System.nanoTime();
+        final long received = response.getDocumentResults().count();
+        nanos = System.nanoTime() - nanos;
+        log.info("Received {} documents in {}s", received, nanos / Math.pow(10, 9));
+        assertEquals(NUM_DOCS, received);
+    }
+
+    @Test
+    public void searchAfterSlicedParallel() {
+
+        final SearchServerRequest request = new SearchServerRequest();
+        request.query = new MatchAllQuery();
+        request.index = TEST_INDEX;
+        request.downloadCompleteResults = true;
+        request.downloadCompleteResultsMethod = "searchAfter";
+        request.downloadCompleteResultsPrefetchDepth = 1;
+        request.downloadCompleteResultsSlices = 2;
+        request.fieldsToReturn = List.of("text");
+        request.sortCmds = List.of(new SortCommand("_shard_doc", SortCommand.SortOrder.ASCENDING));
+        request.rows = 500;
+
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(request);
+
+        esSearchComponent.process(carrier);
+
+        final IElasticServerResponse response = carrier.getSingleSearchServerResponse();
+        assertEquals(NUM_DOCS, response.getNumFound());
+        long nanos = System.nanoTime();
+        final long received = response.getDocumentResults().parallel().count();
+        nanos = System.nanoTime() - nanos;
+        log.info("Received {} documents in {}s", received, nanos / Math.pow(10, 9));
+        assertEquals(NUM_DOCS, received);
+    }
+
+    @Test
+    public void searchAfterAdaptiveBatchSize() {
+
+        final SearchServerRequest request = new SearchServerRequest();
+        request.query = new MatchAllQuery();
+        request.index = TEST_INDEX;
+        request.downloadCompleteResults = true;
+        request.downloadCompleteResultsMethod = "searchAfter";
+        request.downloadCompleteResultsAdaptiveBatchSize = true;
+        request.downloadCompleteResultsMinBatchSize = 100;
+        request.downloadCompleteResultsMaxBatchSize = 5000;
+        request.downloadCompleteResultsTargetBatchLatency = 200;
+        request.fieldsToReturn = List.of("text");
+        request.sortCmds = List.of(new SortCommand("_shard_doc", SortCommand.SortOrder.ASCENDING));
+        request.rows = 100;
+
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(request);
+
+        esSearchComponent.process(carrier);
+
+        final IElasticServerResponse response = carrier.getSingleSearchServerResponse();
+        long nanos = System.nanoTime();
+        final long received = response.getDocumentResults().count();
+        nanos = System.nanoTime() - nanos;
+        log.info("Received {} documents in {}s", received, nanos / Math.pow(10, 9));
+        assertEquals(NUM_DOCS, received);
+    }
+
+    @Test
+    public void searchAfterResumeFromCheckpoint() throws Exception {
+        final Path checkpointDir = Files.createTempDirectory("deeppaginationcheckpoints");
+        final FileDeepPaginationCheckpointStore checkpointStore = new FileDeepPaginationCheckpointStore(checkpointDir);
+
+        final SearchServerRequest request = createCheckpointedRequest(checkpointStore);
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(request);
+        esSearchComponent.process(carrier);
+
+        // simulate an export that dies after some batches
+        long receivedBeforeAbort;
+        try (Stream<ISearchServerDocument> documents = carrier.getSingleSearchServerResponse().getDocumentResults()) {
+            receivedBeforeAbort = documents.limit(2750).count();
+        }
+        final DeepPaginationCheckpoint checkpoint = checkpointStore.load("export");
+        assertEquals(2500, checkpoint.documentsReturned);
+
+        final SearchServerRequest resumeRequest = createCheckpointedRequest(checkpointStore);
+        resumeRequest.downloadCompleteResultsResumeFrom = checkpoint;
+        final ElasticSearchCarrier<IElasticServerResponse> resumeCarrier = new ElasticSearchCarrier<>("testchain");
+        resumeCarrier.addServerRequest(resumeRequest);
+        esSearchComponent.process(resumeCarrier);
+
+        final long receivedAfterResume = resumeCarrier.getSingleSearchServerResponse().getDocumentResults().count();
+        assertEquals(2750, receivedBeforeAbort);
+        assertEquals(NUM_DOCS - 2500, receivedAfterResume);
+        // the checkpoint is removed after the completed download
+        assertNull(checkpointStore.load("export"));
+    }
+
+    private SearchServerRequest createCheckpointedRequest(FileDeepPaginationCheckpointStore checkpointStore) {
+        final SearchServerRequest request = new SearchServerRequest();
+        request.query = new MatchAllQuery();
+        request.index = TEST_INDEX;
+        request.downloadCompleteResults = true;
+        request.downloadCompleteResultsMethod = "searchAfter";
+        request.downloadCompleteResultsCheckpointStore = checkpointStore;
+        request.downloadCompleteResultsCheckpointKey = "export";
+        request.downloadCompleteResultsCheckpointInterval = 5;
+        request.fieldsToReturn = List.of("text");
+        request.sortCmds = List.of(new SortCommand("_shard_doc", SortCommand.SortOrder.ASCENDING));
+        request.rows = 500;
+        return request;
+    }
+
+    @Test
+    public void searchAfterPublisher() throws Exception {
+        final SearchServerRequest request = new SearchServerRequest();
+        request.query = new MatchAllQuery();
+        request.index = TEST_INDEX;
+        request.downloadCompleteResults = true;
+        request.downloadCompleteResultsMethod = "searchAfter";
+        request.fieldsToReturn = List.of("text");
+        request.sortCmds = List.of(new SortCommand("_shard_doc", SortCommand.SortOrder.ASCENDING));
+        request.rows = 500;
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(request);
+        esSearchComponent.process(carrier);
+
+        final AtomicLong received = new AtomicLong();
+        final CountDownLatch completed = new CountDownLatch(1);
+        carrier.getSingleSearchServerResponse().getDocumentPublisher().subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(100);
+            }
+
+            @Override
+            public void onNext(ISearchServerDocument item) {
+                if (received.incrementAndGet() % 100 == 0)
+                    subscription.request(100);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                log.error("Publisher failed", throwable);
+                completed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        assertTrue(completed.await(2, TimeUnit.MINUTES));
+        assertEquals(NUM_DOCS, received.get());
+    }
+
+    @Test
+    public void searchContextRegistry() {
+        final SearchContextRegistry contextRegistry = new SearchContextRegistry(LoggerFactory.getLogger(SearchContextRegistry.class), 0, 1800);
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new ElasticSearchComponent<>(LoggerFactory.getLogger(ElasticSearchComponent.class), new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), TEST_CLUSTER, "localhost", String.valueOf(es.getMappedPort(9200)), 30000), contextRegistry, null, null, ElasticSearchComponentTest.createSettings(SearchExecutionMode.SEQUENTIAL, 1, 1));
+
+        final SearchServerRequest request = new SearchServerRequest();
+        request.query = new MatchAllQuery();
+        request.index = TEST_INDEX;
+        request.downloadCompleteResults = true;
+        request.fieldsToReturn = List.of("text");
+        request.rows = 500;
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(request);
+        component.process(carrier);
+
+        try (IElasticServerResponse response = carrier.getSingleSearchServerResponse()) {
+            assertEquals(1, contextRegistry.getNumOpenContexts());
+            // abandon the stream after a few documents
+            assertEquals(1000, response.getDocumentResults().limit(1000).count());
+            assertEquals(1, contextRegistry.getNumOpenContexts());
+        }
+        assertEquals(0, contextRegistry.getNumOpenContexts());
+    }
+
 }
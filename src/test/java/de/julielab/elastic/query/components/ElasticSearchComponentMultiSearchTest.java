@@ -0,0 +1,112 @@
+package de.julielab.elastic.query.components;
+
+import de.julielab.elastic.query.SearchExecutionMode;
+import de.julielab.elastic.query.components.data.ElasticSearchCarrier;
+import de.julielab.elastic.query.components.data.RequestOptionsProfile;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+import de.julielab.elastic.query.components.data.query.MatchAllQuery;
+import de.julielab.elastic.query.services.ElasticSearchClientProvider;
+import de.julielab.elastic.query.services.IElasticServerResponse;
+import de.julielab.elastic.query.services.StubElasticSearchServer;
+import org.apache.tapestry5.ioc.internal.LoggerSourceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchComponentMultiSearchTest {
+
+    private static final String EMPTY_SEARCH_RESPONSE = "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]},\"status\":200}";
+
+    private StubElasticSearchServer server;
+    private ElasticSearchClientProvider provider;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubElasticSearchServer();
+        provider = new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), "stubcluster", server.getHost(), String.valueOf(server.getPort()), 30000);
+        // one empty search response for each header and body line pair
+        server.respond("POST", "/_msearch", request -> "{\"took\":1,\"responses\":[" + String.join(",", Collections.nCopies((int) countSearches(request), EMPTY_SEARCH_RESPONSE)) + "]}");
+    }
+
+    @After
+    public void shutdown() {
+        provider.getSearchClient().shutdown();
+        server.close();
+    }
+
+    @Test
+    public void testBatchingByRequestOptions() {
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new ElasticSearchComponent<>(LoggerFactory.getLogger(ElasticSearchComponent.class), provider, null, null, null, ElasticSearchComponentTest.createSettings(SearchExecutionMode.MULTI_SEARCH, 8, 8));
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(createRequest(null));
+        carrier.addServerRequest(createRequest(createProfile("export-1", RequestOptionsProfile.DEFAULT_BUFFER_LIMIT)));
+        carrier.addServerRequest(createRequest(null));
+        // an equal profile in another object
+        carrier.addServerRequest(createRequest(createProfile("export-1", RequestOptionsProfile.DEFAULT_BUFFER_LIMIT)));
+        carrier.addServerRequest(createRequest(createProfile("export-2", 1024 * 1024)));
+
+        component.process(carrier);
+
+        assertEquals(5, carrier.getSearchResponses().size());
+        for (IElasticServerResponse response : carrier.getSearchResponses())
+            assertFalse(response.hasQueryError());
+        final List<StubElasticSearchServer.RecordedRequest> multiSearches = server.getRequests("POST", "/_msearch");
+        // each call carries the options of all its requests
+        final Set<String> batches = multiSearches.stream().map(r -> r.headers.getFirst("X-Opaque-Id") + ":" + countSearches(r)).collect(Collectors.toSet());
+        assertEquals(new HashSet<>(Arrays.asList("null:2", "export-1:2", "export-2:1")), batches);
+    }
+
+    @Test
+    public void testCoalescingBatchItems() {
+        final SearchExecutionSettings settings = ElasticSearchComponentTest.createSettings(SearchExecutionMode.MULTI_SEARCH, 8, 8);
+        settings.coalesceRequests = true;
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new ElasticSearchComponent<>(LoggerFactory.getLogger(ElasticSearchComponent.class), provider, null, null, null, settings);
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        carrier.addServerRequest(createRequest(null));
+        carrier.addServerRequest(createRequest(null));
+        final SearchServerRequest otherIndexRequest = createRequest(null);
+        otherIndexRequest.index = "otherindex";
+        carrier.addServerRequest(otherIndexRequest);
+
+        component.process(carrier);
+
+        // the second request joins the first one in the batch
+        final List<StubElasticSearchServer.RecordedRequest> multiSearches = server.getRequests("POST", "/_msearch");
+        assertEquals(1, multiSearches.size());
+        assertEquals(2, countSearches(multiSearches.get(0)));
+        assertEquals(3, carrier.getSearchResponses().size());
+        for (IElasticServerResponse response : carrier.getSearchResponses())
+            assertFalse(response.hasQueryError());
+        // each request receives its own response
+        assertNotSame(carrier.getSearchResponses().get(0), carrier.getSearchResponses().get(1));
+    }
+
+    private static long countSearches(StubElasticSearchServer.RecordedRequest multiSearch) {
+        return Arrays.stream(multiSearch.getBodyAsString().split("\n")).filter(line -> !line.isEmpty()).count() / 2;
+    }
+
+    private static SearchServerRequest createRequest(RequestOptionsProfile requestOptions) {
+        final SearchServerRequest request = new SearchServerRequest();
+        request.query = new MatchAllQuery();
+        request.index = "testindex";
+        request.requestOptions = requestOptions;
+        return request;
+    }
+
+    private static RequestOptionsProfile createProfile(String opaqueId, int bufferLimit) {
+        final RequestOptionsProfile profile = new RequestOptionsProfile();
+        profile.opaqueId = opaqueId;
+        profile.bufferLimit = bufferLimit;
+        return profile;
+    }
+}
@@ -1,15 +1,29 @@
 package de.julielab.elastic.query.components;
 
+import de.julielab.elastic.query.SearchExecutionMode;
 import de.julielab.elastic.query.components.data.ElasticSearchCarrier;
+import de.julielab.elastic.query.components.data.ElasticServerResponse;
 import de.julielab.elastic.query.components.data.ISearchServerDocument;
 import de.julielab.elastic.query.components.data.SearchServerRequest;
+import de.julielab.elastic.query.components.data.SearchTemplate;
 import de.julielab.elastic.query.components.data.SortCommand;
+import de.julielab.elastic.query.components.data.query.BoolClause;
+import de.julielab.elastic.query.components.data.query.BoolQuery;
 import de.julielab.elastic.query.components.data.query.MatchAllQuery;
+import de.julielab.elastic.query.components.data.query.SearchServerQuery;
 import de.julielab.elastic.query.components.data.query.TermQuery;
+import de.julielab.elastic.query.components.data.query.TermsQuery;
 import de.julielab.elastic.query.services.ElasticSearchClientProvider;
 import de.julielab.elastic.query.services.IElasticServerResponse;
+import de.julielab.elastic.query.services.IQueryTranslatorRegistry;
+import de.julielab.elastic.query.services.ISearchClientProvider;
+import de.julielab.elastic.query.services.QueryTranslatorRegistry;
+import de.julielab.elastic.query.services.SearchTemplateService;
 import de.julielab.java.utilities.FileUtilities;
 import org.apache.tapestry5.ioc.internal.LoggerSourceImpl;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Test;
@@ -30,14 +44,21 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ElasticSearchComponentTest {
     public static final String TEST_INDEX = "testindex";
     public static final String TEST_CLUSTER = "testcluster";
+    public static final String SUGGEST_INDEX = "suggestindex";
     private final static Logger log = LoggerFactory.getLogger(ElasticSearchComponentTest.class);
     // in case we need to disable X-shield: https://stackoverflow.com/a/51172136/1314955
     @ClassRule
@@ -202,4 +223,281 @@ public class ElasticSearchComponentTest {
         assertEquals(2, received);
     }
 
+
+    @Test
+    public void testMultiSearch() {
+        testExecutionMode(SearchExecutionMode.MULTI_SEARCH);
+    }
+
+    @Test
+    public void testAsync() {
+        testExecutionMode(SearchExecutionMode.ASYNC);
+    }
+
+    @Test
+    public void testSuggestionBatching() throws Exception {
+        sendJson("PUT", "/" + SUGGEST_INDEX, "{\"mappings\": {\"properties\": {\"suggest\": {\"type\": \"completion\"}}}}");
+        sendJson("PUT", "/" + SUGGEST_INDEX + "/_doc/1?refresh=true", "{\"suggest\": [\"semantic\", \"search\"]}");
+        for (SearchExecutionMode executionMode : SearchExecutionMode.values()) {
+            final RecordingSearchComponent component = new RecordingSearchComponent(createSettings(executionMode, 8, 8));
+            final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+            final SearchServerRequest request = new SearchServerRequest();
+            final TermQuery query = new TermQuery();
+            query.field = "docid";
+            query.term = "42";
+            request.query = query;
+            request.index = TEST_INDEX;
+            carrier.addServerRequest(request);
+            final SearchServerRequest suggestionRequest = new SearchServerRequest();
+            suggestionRequest.query = new MatchAllQuery();
+            suggestionRequest.index = SUGGEST_INDEX;
+            suggestionRequest.suggestionText = "sem";
+            suggestionRequest.suggestionField = "suggest";
+            carrier.addServerRequest(suggestionRequest);
+
+            component.process(carrier);
+
+            // the responses of the searches, followed by the response of the suggestion
+            assertEquals(3, carrier.getSearchResponses().size());
+            assertEquals(1, carrier.getSearchResponse(0).getNumFound());
+            assertFalse(carrier.getSearchResponse(0).isSuggestionSearchResponse());
+            assertEquals(1, carrier.getSearchResponse(1).getNumFound());
+            assertFalse(carrier.getSearchResponse(1).isSuggestionSearchResponse());
+            assertTrue(carrier.getSearchResponse(2).isSuggestionSearchResponse());
+            assertFalse(carrier.getSearchResponse(2).hasQueryError());
+            assertEquals(1, carrier.getSearchResponse(2).getNumSuggestions());
+            if (executionMode == SearchExecutionMode.SEQUENTIAL)
+                assertTrue(component.batchSizes.isEmpty());
+            else
+                // the suggestion request is sent in the same round trip as the search requests
+                assertEquals(List.of(3), component.batchSizes);
+        }
+    }
+
+    /**
+     * Records the number of search and suggestion requests passed to the batching execution modes.
+     */
+    private static class RecordingSearchComponent extends ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> {
+        private final List<Integer> batchSizes = new ArrayList<>();
+
+        private RecordingSearchComponent(SearchExecutionSettings settings) {
+            super(LoggerFactory.getLogger(ElasticSearchComponent.class), new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), TEST_CLUSTER, "localhost", String.valueOf(es.getMappedPort(9200)), 30000), null, null, null, settings);
+        }
+
+        @Override
+        protected List<ElasticServerResponse> executeMultiSearch(List<SearchServerRequest> serverRequests, List<SearchRequest> searchRequests, List<SearchRequest> suggestionRequests) {
+            batchSizes.add(searchRequests.size() + suggestionRequests.size());
+            return super.executeMultiSearch(serverRequests, searchRequests, suggestionRequests);
+        }
+
+        @Override
+        protected List<ElasticServerResponse> executeAsynchronously(List<SearchServerRequest> serverRequests, List<SearchRequest> searchRequests, List<SearchRequest> suggestionRequests) {
+            batchSizes.add(searchRequests.size() + suggestionRequests.size());
+            return super.executeAsynchronously(serverRequests, searchRequests, suggestionRequests);
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final SearchExecutionSettings settings = createSettings(SearchExecutionMode.ASYNC, 2, 8);
+        settings.coalesceRequests = true;
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new ElasticSearchComponent<>(LoggerFactory.getLogger(ElasticSearchComponent.class), new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), TEST_CLUSTER, "localhost", String.valueOf(es.getMappedPort(9200)), 30000), null, null, null, settings);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<ElasticSearchCarrier<IElasticServerResponse>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+                    // identical requests within the same carrier are coalesced as well
+                    for (int j = 0; j < 3; j++) {
+                        final SearchServerRequest request = new SearchServerRequest();
+                        final TermQuery query = new TermQuery();
+                        query.field = "docid";
+                        query.term = "42";
+                        request.query = query;
+                        request.index = TEST_INDEX;
+                        carrier.addServerRequest(request);
+                    }
+                    component.process(carrier);
+                    return carrier;
+                }));
+            }
+            for (Future<ElasticSearchCarrier<IElasticServerResponse>> future : futures) {
+                final ElasticSearchCarrier<IElasticServerResponse> carrier = future.get();
+                assertEquals(3, carrier.getSearchResponses().size());
+                for (int i = 0; i < 3; i++) {
+                    final IElasticServerResponse response = carrier.getSearchResponse(i);
+                    assertFalse(response.hasQueryError());
+                    assertEquals(1, response.getNumFound());
+                    assertEquals("42", response.getDocumentResults().findFirst().get().getId());
+                }
+                // the callers of coalesced requests get their own response objects
+                assertNotSame(carrier.getSearchResponse(0), carrier.getSearchResponse(1));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueryTranslationCache() {
+        final List<QueryBuilder> builders = new ArrayList<>();
+        for (boolean immutable : List.of(true, true, false, false)) {
+            final TermsQuery query = new TermsQuery(List.of("42", "43"));
+            query.field = "docid";
+            query.immutable = immutable;
+            builders.add(esSearchComponent.buildQuery(query));
+        }
+        // structurally equal immutable queries share their builder, mutable queries are always translated anew
+        assertSame(builders.get(0), builders.get(1));
+        assertNotSame(builders.get(2), builders.get(3));
+        assertEquals(builders.get(2), builders.get(3));
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        final SearchServerRequest request = new SearchServerRequest();
+        final TermsQuery query = new TermsQuery(List.of("42", "43"));
+        query.field = "docid";
+        query.immutable = true;
+        request.query = query;
+        request.index = TEST_INDEX;
+        carrier.addServerRequest(request);
+        esSearchComponent.process(carrier);
+        assertEquals(2, carrier.getSingleSearchServerResponse().getNumFound());
+    }
+
+    @Test
+    public void testContributedQueryTranslator() {
+        final Map<Class, IQueryTranslator> translators = Map.of(IdsQuery.class, (IQueryTranslator<IdsQuery>) (query, translator) -> QueryBuilders.idsQuery().addIds(query.ids.toArray(new String[0])));
+        final SearchExecutionSettings settings = new SearchExecutionSettings();
+        settings.queryTranslationCacheSize = 0;
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new ElasticSearchComponent<>(LoggerFactory.getLogger(ElasticSearchComponent.class), new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), TEST_CLUSTER, "localhost", String.valueOf(es.getMappedPort(9200)), 30000), null, new QueryTranslatorRegistry(translators), null, settings);
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        final SearchServerRequest request = new SearchServerRequest();
+        final IdsQuery idsQuery = new IdsQuery();
+        idsQuery.ids = List.of("42", "44");
+        // contributed query types can be nested into the built-in ones
+        final BoolQuery boolQuery = new BoolQuery();
+        final BoolClause clause = new BoolClause();
+        clause.occur = BoolClause.Occur.FILTER;
+        clause.addQuery(idsQuery);
+        boolQuery.addClause(clause);
+        request.query = boolQuery;
+        request.index = TEST_INDEX;
+        carrier.addServerRequest(request);
+        component.process(carrier);
+        assertEquals(2, carrier.getSingleSearchServerResponse().getNumFound());
+    }
+
+    public static class IdsQuery extends SearchServerQuery {
+        public List<String> ids;
+    }
+
+    @Test
+    public void testContributedQueryTranslatorPrecedence() {
+        final ElasticSearchClientProvider searchClientProvider = new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), TEST_CLUSTER, "localhost", String.valueOf(es.getMappedPort(9200)), 30000);
+        final Map<Class, IQueryTranslator> translators = Map.of(IdsQuery.class, (IQueryTranslator<IdsQuery>) (query, translator) -> QueryBuilders.idsQuery().addIds(query.ids.toArray(new String[0])));
+        final IdsQuery idsQuery = new IdsQuery();
+        idsQuery.ids = List.of("42");
+
+        // the contributed translator wins although the subclass adds its translator after the contributions were read
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new MatchNoneIdsComponent(searchClientProvider, new QueryTranslatorRegistry(translators));
+        assertEquals(QueryBuilders.idsQuery().addIds("42"), component.buildQuery(idsQuery));
+
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> withoutContributions = new MatchNoneIdsComponent(searchClientProvider, null);
+        assertEquals(QueryBuilders.matchNoneQuery(), withoutContributions.buildQuery(idsQuery));
+    }
+
+    private static class MatchNoneIdsComponent extends ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> {
+        private MatchNoneIdsComponent(ISearchClientProvider searchClientProvider, IQueryTranslatorRegistry queryTranslatorRegistry) {
+            super(LoggerFactory.getLogger(ElasticSearchComponent.class), searchClientProvider, null, queryTranslatorRegistry, null, new SearchExecutionSettings());
+            addQueryTranslator(IdsQuery.class, (query, translator) -> QueryBuilders.matchNoneQuery());
+        }
+    }
+
+    @Test
+    public void testSearchTemplate() throws Exception {
+        final ElasticSearchClientProvider searchClientProvider = new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), TEST_CLUSTER, "localhost", String.valueOf(es.getMappedPort(9200)), 30000);
+        final SearchTemplateService templateService = new SearchTemplateService(LoggerFactory.getLogger(SearchTemplateService.class), searchClientProvider, Map.of("docid-template", "{\"query\": {\"term\": {\"docid\": \"{{docid}}\"}}}"));
+        templateService.startupService();
+        assertEquals(Set.of("docid-template"), templateService.getTemplateIds());
+        try {
+            for (SearchExecutionMode executionMode : SearchExecutionMode.values()) {
+                final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new ElasticSearchComponent<>(LoggerFactory.getLogger(ElasticSearchComponent.class), searchClientProvider, null, null, null, createSettings(executionMode, 2, 2));
+                final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+                final SearchServerRequest request = new SearchServerRequest();
+                request.searchTemplate = new SearchTemplate("docid-template");
+                request.searchTemplate.addParam("docid", "43");
+                request.index = TEST_INDEX;
+                carrier.addServerRequest(request);
+                component.process(carrier);
+                final IElasticServerResponse response = carrier.getSingleSearchServerResponse();
+                assertFalse(response.hasQueryError());
+                assertEquals(1, response.getNumFound());
+                assertEquals("43", response.getDocumentResults().findFirst().get().getId());
+            }
+        } finally {
+            templateService.deleteTemplate("docid-template");
+        }
+        assertTrue(templateService.getTemplateIds().isEmpty());
+    }
+
+    private void testExecutionMode(SearchExecutionMode executionMode) {
+        final ElasticSearchComponent<ElasticSearchCarrier<IElasticServerResponse>> component = new ElasticSearchComponent<>(LoggerFactory.getLogger(ElasticSearchComponent.class), new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), TEST_CLUSTER, "localhost", String.valueOf(es.getMappedPort(9200)), 30000), null, null, null, createSettings(executionMode, 2, 2));
+
+        final ElasticSearchCarrier<IElasticServerResponse> carrier = new ElasticSearchCarrier<>("testchain");
+        for (String docid : List.of("42", "43", "44")) {
+            final SearchServerRequest request = new SearchServerRequest();
+            final TermQuery query = new TermQuery();
+            query.field = "docid";
+            query.term = docid;
+            request.query = query;
+            request.index = TEST_INDEX;
+            carrier.addServerRequest(request);
+        }
+        final SearchServerRequest countRequest = new SearchServerRequest();
+        countRequest.query = new MatchAllQuery();
+        countRequest.isCountRequest = true;
+        countRequest.index = TEST_INDEX;
+        carrier.addServerRequest(countRequest);
+        final SearchServerRequest failingRequest = new SearchServerRequest();
+        failingRequest.query = new MatchAllQuery();
+        failingRequest.index = "doesnotexist";
+        carrier.addServerRequest(failingRequest);
+
+        component.process(carrier);
+
+        assertEquals(5, carrier.getSearchResponses().size());
+        for (int i = 0; i < 3; i++) {
+            final IElasticServerResponse response = carrier.getSearchResponse(i);
+            assertFalse(response.hasQueryError());
+            assertEquals(1, response.getNumFound());
+            assertEquals(String.valueOf(42 + i), response.getDocumentResults().findFirst().get().getId());
+        }
+        assertTrue(carrier.getSearchResponse(3).isCountResponse());
+        assertEquals(3, carrier.getSearchResponse(3).getNumFound());
+        assertTrue(carrier.getSearchResponse(4).hasQueryError());
+    }
+
+    private static void sendJson(String method, String path, String body) throws IOException {
+        URL url = new URL("http://localhost:" + es.getMappedPort(9200) + path);
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod(method);
+        urlConnection.setRequestProperty("Content-Type", "application/json");
+        urlConnection.setDoOutput(true);
+        try (OutputStream outputStream = urlConnection.getOutputStream()) {
+            outputStream.write(body.getBytes(UTF_8));
+        }
+        log.debug("Response for {} {}: {}", method, path, urlConnection.getResponseMessage());
+        assertTrue(urlConnection.getResponseCode() < 300);
+    }
+
+    static SearchExecutionSettings createSettings(SearchExecutionMode executionMode, int multiSearchMaxBatchSize, int maxRequestsInFlight) {
+        final SearchExecutionSettings settings = new SearchExecutionSettings();
+        settings.executionMode = executionMode;
+        settings.multiSearchMaxBatchSize = multiSearchMaxBatchSize;
+        settings.maxRequestsInFlight = maxRequestsInFlight;
+        return settings;
+    }
 }
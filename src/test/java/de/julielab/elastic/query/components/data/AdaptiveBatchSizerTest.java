@@ -0,0 +1,80 @@
+package de.julielab.elastic.query.components.data;
+
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBatchSizerTest {
+
+    @Test
+    public void testGrowsAtMostByFactorTwo() {
+        final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(10, 10000, 1000, Long.MAX_VALUE, TimeValue.timeValueMinutes(1), 100);
+        assertEquals(100, batchSizer.getBatchSize());
+        // 100 documents in 10ms, the target latency allows for 10000 documents
+        batchSizer.batchReceived(100, TimeUnit.MILLISECONDS.toNanos(10), 1000);
+        assertEquals(200, batchSizer.getBatchSize());
+        batchSizer.batchReceived(200, TimeUnit.MILLISECONDS.toNanos(20), 2000);
+        assertEquals(400, batchSizer.getBatchSize());
+    }
+
+    @Test
+    public void testShrinksAtMostByFactorTwo() {
+        final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(10, 10000, 100, Long.MAX_VALUE, TimeValue.timeValueMinutes(1), 1000);
+        // 1000 documents in 10s, the target latency allows for 10 documents
+        batchSizer.batchReceived(1000, TimeUnit.SECONDS.toNanos(10), 1000);
+        assertEquals(500, batchSizer.getBatchSize());
+    }
+
+    @Test
+    public void testStaysWithinBounds() {
+        final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(50, 150, 1000, Long.MAX_VALUE, TimeValue.timeValueMinutes(1), 1000);
+        assertEquals(150, batchSizer.getBatchSize());
+        for (int i = 0; i < 10; i++)
+            batchSizer.batchReceived(100, TimeUnit.MILLISECONDS.toNanos(1), 100);
+        assertEquals(150, batchSizer.getBatchSize());
+        for (int i = 0; i < 10; i++)
+            batchSizer.batchReceived(100, TimeUnit.SECONDS.toNanos(100), 100);
+        assertEquals(50, batchSizer.getBatchSize());
+    }
+
+    @Test
+    public void testMaxBatchBytes() {
+        // 1kb per document and at most 100kb per batch
+        final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(10, 10000, 1000, 100 * 1024, TimeValue.timeValueMinutes(1), 100);
+        for (int i = 0; i < 10; i++)
+            batchSizer.batchReceived(batchSizer.getBatchSize(), TimeUnit.MILLISECONDS.toNanos(1), batchSizer.getBatchSize() * 1024L);
+        assertEquals(100, batchSizer.getBatchSize());
+    }
+
+    @Test
+    public void testEmptyBatchIsIgnored() {
+        final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(10, 10000, 1000, Long.MAX_VALUE, TimeValue.timeValueMinutes(1), 100);
+        batchSizer.batchReceived(0, TimeUnit.SECONDS.toNanos(10), 0);
+        assertEquals(100, batchSizer.getBatchSize());
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(10, 10000, 1000, Long.MAX_VALUE, TimeValue.timeValueMillis(10), 100);
+        // without measurements, the configured keep alive is used
+        assertEquals(10, batchSizer.requestStarted().millis());
+        Thread.sleep(50);
+        // three times the time between the requests
+        assertTrue(batchSizer.requestStarted().millis() >= 150);
+    }
+
+    @Test
+    public void testCopyHasNoMeasurements() {
+        final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(10, 10000, 1000, Long.MAX_VALUE, TimeValue.timeValueMinutes(1), 100);
+        batchSizer.batchReceived(100, TimeUnit.MILLISECONDS.toNanos(10), 1000);
+        assertEquals(100, batchSizer.copy().getBatchSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new AdaptiveBatchSizer(100, 10, 1000, Long.MAX_VALUE, TimeValue.timeValueMinutes(1), 100);
+    }
+}
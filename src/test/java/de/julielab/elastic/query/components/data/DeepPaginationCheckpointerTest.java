@@ -0,0 +1,46 @@
+package de.julielab.elastic.query.components.data;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class DeepPaginationCheckpointerTest {
+
+    @Test
+    public void testInterval() {
+        final DeepPaginationIteratorTest.MapCheckpointStore store = new DeepPaginationIteratorTest.MapCheckpointStore();
+        final DeepPaginationCheckpointer checkpointer = new DeepPaginationCheckpointer(store, "export", 3, null);
+        checkpointer.batchCompleted("pit", new Object[]{1L}, 100);
+        checkpointer.batchCompleted("pit", new Object[]{2L}, 200);
+        assertNull(store.checkpoints.get("export"));
+        checkpointer.batchCompleted("pit", new Object[]{3L}, 300);
+        assertEquals(300, store.checkpoints.get("export").documentsReturned);
+        assertArrayEquals(new Object[]{3L}, store.checkpoints.get("export").lastSortValues);
+
+        checkpointer.downloadCompleted();
+        assertNull(store.checkpoints.get("export"));
+    }
+
+    @Test
+    public void testResumedDocuments() {
+        final DeepPaginationCheckpointer checkpointer = new DeepPaginationCheckpointer(new DeepPaginationIteratorTest.MapCheckpointStore(), "export", 1, new DeepPaginationCheckpoint("pit", new Object[]{1L}, 2500));
+        assertEquals(2500, checkpointer.getResumedDocuments());
+    }
+
+    @Test
+    public void testUnsupportedSortValueDoesNotAbortDownload() throws Exception {
+        final Path directory = Files.createTempDirectory("deeppaginationcheckpoints");
+        directory.toFile().deleteOnExit();
+        final FileDeepPaginationCheckpointStore store = new FileDeepPaginationCheckpointStore(directory);
+        final DeepPaginationCheckpointer checkpointer = new DeepPaginationCheckpointer(store, "export", 1, null);
+        checkpointer.batchCompleted("pit", new Object[]{1L}, 100);
+        // the file store cannot encode this value; the download must go on nevertheless
+        checkpointer.batchCompleted("pit", new Object[]{new Object()}, 200);
+        checkpointer.batchCompleted("pit", new Object[]{3L}, 300);
+        // the last checkpoint that could be written is kept
+        assertEquals(100, store.load("export").documentsReturned);
+    }
+}
@@ -0,0 +1,114 @@
+package de.julielab.elastic.query.components.data;
+
+import org.apache.http.HttpHost;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DeepPaginationIteratorTest {
+
+    private RestHighLevelClient client;
+
+    @Before
+    public void setup() {
+        // no server is listening on this port; the iterators under test must not reach the server
+        client = new RestHighLevelClient(RestClient.builder(new HttpHost("localhost", 9)));
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        client.close();
+    }
+
+    @Test
+    public void testReleasedContextFailsIteration() {
+        final MapCheckpointStore store = new MapCheckpointStore();
+        final SearchResponse response = createPointInTimeResponse("pit1", 2);
+        final SearchContext context = new SearchContext(SearchContext.Type.POINT_IN_TIME, "pit1", this, client);
+        final DeepPaginationCheckpointer checkpointer = new DeepPaginationCheckpointer(store, "export", 1, null);
+        final DeepPaginationIterator iterator = createIterator(response, context, checkpointer);
+
+        assertNotNull(iterator.next());
+        assertNotNull(iterator.next());
+        // e.g. the response was closed or the context was reaped by the search context registry
+        context.release();
+        try {
+            iterator.hasNext();
+            fail("The iteration should have failed because the search context was released");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("search context released"));
+        }
+        // the download did not complete and must be resumable
+        final DeepPaginationCheckpoint checkpoint = store.checkpoints.get("export");
+        assertNotNull(checkpoint);
+        assertEquals(2, checkpoint.documentsReturned);
+        assertEquals("pit1", checkpoint.pointInTimeId);
+        // the iterator has been closed by the failure
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testClosedIteratorEndsNormally() {
+        final MapCheckpointStore store = new MapCheckpointStore();
+        final SearchResponse response = createPointInTimeResponse("pit1", 2);
+        final SearchContext context = new SearchContext(SearchContext.Type.POINT_IN_TIME, "pit1", this, client);
+        final DeepPaginationCheckpointer checkpointer = new DeepPaginationCheckpointer(store, "export", 1, null);
+        final DeepPaginationIterator iterator = createIterator(response, context, checkpointer);
+
+        assertNotNull(iterator.next());
+        iterator.close();
+        assertTrue(context.isReleased());
+        assertFalse(iterator.hasNext());
+    }
+
+    private DeepPaginationIterator createIterator(SearchResponse response, SearchContext context, DeepPaginationCheckpointer checkpointer) {
+        final SearchRequest searchRequest = new SearchRequest().source(new SearchSourceBuilder().size(2));
+        return new DeepPaginationIterator(response, searchRequest, true, Integer.MAX_VALUE, 0, context, null, checkpointer, null, RequestOptions.DEFAULT, client);
+    }
+
+    static SearchResponse createPointInTimeResponse(String pointInTimeId, int numHits) {
+        final SearchHit[] hits = new SearchHit[numHits];
+        for (int i = 0; i < numHits; i++) {
+            hits[i] = new SearchHit(i);
+            hits[i].sortValues(new Object[]{(long) i}, new DocValueFormat[]{DocValueFormat.RAW});
+        }
+        final InternalSearchResponse internalResponse = new InternalSearchResponse(new SearchHits(hits, new TotalHits(numHits, TotalHits.Relation.EQUAL_TO), 1f), null, null, null, false, null, 1);
+        return new SearchResponse(internalResponse, null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY, pointInTimeId);
+    }
+
+    static class MapCheckpointStore implements IDeepPaginationCheckpointStore {
+        final Map<String, DeepPaginationCheckpoint> checkpoints = new HashMap<>();
+
+        @Override
+        public void store(String key, DeepPaginationCheckpoint checkpoint) {
+            checkpoints.put(key, checkpoint);
+        }
+
+        @Override
+        public DeepPaginationCheckpoint load(String key) {
+            return checkpoints.get(key);
+        }
+
+        @Override
+        public void remove(String key) {
+            checkpoints.remove(key);
+        }
+    }
+}
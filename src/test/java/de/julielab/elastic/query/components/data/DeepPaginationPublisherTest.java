@@ -0,0 +1,117 @@
+package de.julielab.elastic.query.components.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.*;
+
+public class DeepPaginationPublisherTest {
+
+    @Test
+    public void testSingleSubscriber() {
+        final DeepPaginationPublisher publisher = new DeepPaginationPublisher(Collections::emptyList, 0);
+        final RecordingSubscriber first = new RecordingSubscriber(Long.MAX_VALUE);
+        final RecordingSubscriber second = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+
+        assertTrue(first.completed);
+        assertNull(first.error);
+        // the second subscriber must not read from the same search context
+        assertFalse(second.completed);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testDemand() {
+        final DeepPaginationPublisher publisher = new DeepPaginationPublisher(() -> SlicedDocumentSpliteratorTest.createSlices(3, 2), Integer.MAX_VALUE);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.documents.isEmpty());
+
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.documents.size());
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(2);
+        assertEquals(4, subscriber.documents.size());
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(10);
+        assertEquals(5, subscriber.documents.size());
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testLimit() {
+        final DeepPaginationPublisher publisher = new DeepPaginationPublisher(() -> SlicedDocumentSpliteratorTest.createSlices(3, 2), 4);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        assertEquals(4, subscriber.documents.size());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testCancel() {
+        final List<DeepPaginationIterator> slices = SlicedDocumentSpliteratorTest.createSlices(3, 2);
+        final DeepPaginationPublisher publisher = new DeepPaginationPublisher(() -> slices, Integer.MAX_VALUE);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+
+        assertEquals(1, subscriber.documents.size());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+        // cancelling releases the slices
+        assertFalse(slices.get(0).hasNextInBatch());
+        assertFalse(slices.get(1).hasNextInBatch());
+    }
+
+    @Test
+    public void testInvalidDemand() {
+        final DeepPaginationPublisher publisher = new DeepPaginationPublisher(() -> SlicedDocumentSpliteratorTest.createSlices(3), Integer.MAX_VALUE);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(subscriber.documents.isEmpty());
+    }
+
+    static class RecordingSubscriber implements Flow.Subscriber<ISearchServerDocument> {
+        final List<ISearchServerDocument> documents = new ArrayList<>();
+        final long initialDemand;
+        Flow.Subscription subscription;
+        boolean completed;
+        Throwable error;
+
+        RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0)
+                subscription.request(initialDemand);
+        }
+
+        @Override
+        public void onNext(ISearchServerDocument item) {
+            documents.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.julielab.elastic.query.components.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class FileDeepPaginationCheckpointStoreTest {
+
+    private Path directory;
+    private FileDeepPaginationCheckpointStore store;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("deeppaginationcheckpoints");
+        directory.toFile().deleteOnExit();
+        store = new FileDeepPaginationCheckpointStore(directory);
+    }
+
+    @Test
+    public void testLong() throws Exception {
+        assertRoundTrip(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testInteger() throws Exception {
+        assertRoundTrip(-42);
+    }
+
+    @Test
+    public void testDouble() throws Exception {
+        assertRoundTrip(3.141592653589793);
+    }
+
+    @Test
+    public void testFloat() throws Exception {
+        assertRoundTrip(2.5f);
+    }
+
+    @Test
+    public void testBoolean() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void testBigInteger() throws Exception {
+        // unsigned_long sort values above Long.MAX_VALUE
+        assertRoundTrip(new BigInteger("18446744073709551615"));
+    }
+
+    @Test
+    public void testString() throws Exception {
+        assertRoundTrip("a:b\nc=d ü");
+    }
+
+    @Test
+    public void testNull() throws Exception {
+        assertRoundTrip((Object) null);
+    }
+
+    @Test
+    public void testMixedSortValues() throws Exception {
+        final Object[] sortValues = {"text", 1L, null, 0.5d};
+        store.store("export", new DeepPaginationCheckpoint("pit", sortValues, 1500));
+        final DeepPaginationCheckpoint loaded = store.load("export");
+        assertEquals("pit", loaded.pointInTimeId);
+        assertEquals(1500, loaded.documentsReturned);
+        assertArrayEquals(sortValues, loaded.lastSortValues);
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        store.store("export", new DeepPaginationCheckpoint("pit", new Object[]{1L}, 10));
+        store.remove("export");
+        assertNull(store.load("export"));
+        // removing a missing checkpoint is no error
+        store.remove("export");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedSortValue() throws Exception {
+        store.store("export", new DeepPaginationCheckpoint("pit", new Object[]{new Object()}, 10));
+    }
+
+    private void assertRoundTrip(Object sortValue) throws Exception {
+        store.store("export", new DeepPaginationCheckpoint("pit", new Object[]{sortValue}, 500));
+        final DeepPaginationCheckpoint loaded = store.load("export");
+        assertEquals(500, loaded.documentsReturned);
+        assertEquals(1, loaded.lastSortValues.length);
+        assertEquals(sortValue, loaded.lastSortValues[0]);
+        if (sortValue != null)
+            assertSame(sortValue.getClass(), loaded.lastSortValues[0].getClass());
+    }
+}
@@ -0,0 +1,157 @@
+package de.julielab.elastic.query.components.data;
+
+import de.julielab.elastic.query.components.data.aggregation.TermsAggregation;
+import de.julielab.elastic.query.components.data.query.BoolClause;
+import de.julielab.elastic.query.components.data.query.BoolQuery;
+import de.julielab.elastic.query.components.data.query.TermQuery;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class RequestFingerprintTest {
+
+    @Test
+    public void testRequestOptions() {
+        final SearchServerRequest request = createRequest("42");
+        final SearchServerRequest withOpaqueId = createRequest("42");
+        withOpaqueId.requestOptions = new RequestOptionsProfile();
+        withOpaqueId.requestOptions.opaqueId = "export-1";
+        final SearchServerRequest withOtherOpaqueId = createRequest("42");
+        withOtherOpaqueId.requestOptions = new RequestOptionsProfile();
+        withOtherOpaqueId.requestOptions.opaqueId = "export-2";
+        final SearchServerRequest withHeaders = createRequest("42");
+        withHeaders.requestOptions = new RequestOptionsProfile();
+        withHeaders.requestOptions.opaqueId = "export-1";
+        withHeaders.requestOptions.headers = Map.of("X-Tenant", "a");
+
+        assertNotEquals(RequestFingerprint.of(request), RequestFingerprint.of(withOpaqueId));
+        assertNotEquals(RequestFingerprint.of(withOpaqueId), RequestFingerprint.of(withOtherOpaqueId));
+        assertNotEquals(RequestFingerprint.of(withOpaqueId), RequestFingerprint.of(withHeaders));
+
+        final SearchServerRequest sameOpaqueId = createRequest("42");
+        sameOpaqueId.requestOptions = new RequestOptionsProfile();
+        sameOpaqueId.requestOptions.opaqueId = "export-1";
+        assertEquals(RequestFingerprint.of(withOpaqueId), RequestFingerprint.of(sameOpaqueId));
+    }
+
+    @Test
+    public void testEqualRequests() {
+        assertEquals(RequestFingerprint.of(createRequest("42")), RequestFingerprint.of(createRequest("42")));
+        assertNotEquals(RequestFingerprint.of(createRequest("42")), RequestFingerprint.of(createRequest("43")));
+
+        final SearchServerRequest otherIndex = createRequest("42");
+        otherIndex.index = "otherindex";
+        assertNotEquals(RequestFingerprint.of(createRequest("42")), RequestFingerprint.of(otherIndex));
+    }
+
+    @Test
+    public void testOrderIndependence() {
+        final SearchServerRequest request1 = createRequest("42");
+        request1.aggregationRequests = new LinkedHashMap<>();
+        final SearchServerRequest request2 = createRequest("42");
+        request2.aggregationRequests = new LinkedHashMap<>();
+        request1.addAggregationCommand(createTermsAggregation("agg1", "field1"));
+        request1.addAggregationCommand(createTermsAggregation("agg2", "field2"));
+        request2.addAggregationCommand(createTermsAggregation("agg2", "field2"));
+        request2.addAggregationCommand(createTermsAggregation("agg1", "field1"));
+        assertEquals(RequestFingerprint.of(request1), RequestFingerprint.of(request2));
+
+        final TermsAggregation include1 = createTermsAggregation("agg", "field");
+        include1.include = new LinkedHashSet<>(List.of("a", "b"));
+        final TermsAggregation include2 = createTermsAggregation("agg", "field");
+        include2.include = new LinkedHashSet<>(List.of("b", "a"));
+        assertEquals(RequestFingerprint.of(include1), RequestFingerprint.of(include2));
+        // lists are ordered
+        include2.include = List.of("b", "a");
+        assertNotEquals(RequestFingerprint.of(include1), RequestFingerprint.of(include2));
+    }
+
+    @Test
+    public void testArrays() {
+        final TermsAggregation aggregation1 = createTermsAggregation("agg", "field");
+        aggregation1.include = new long[]{1, 2};
+        final TermsAggregation aggregation2 = createTermsAggregation("agg", "field");
+        aggregation2.include = new long[]{1, 2};
+        assertEquals(RequestFingerprint.of(aggregation1), RequestFingerprint.of(aggregation2));
+        aggregation2.include = new long[]{1, 3};
+        assertNotEquals(RequestFingerprint.of(aggregation1), RequestFingerprint.of(aggregation2));
+        // the element type is part of the fingerprint
+        aggregation2.include = new int[]{1, 2};
+        assertNotEquals(RequestFingerprint.of(aggregation1), RequestFingerprint.of(aggregation2));
+        aggregation2.include = new String[]{"1", "2"};
+        assertNotEquals(RequestFingerprint.of(aggregation1), RequestFingerprint.of(aggregation2));
+
+        final HighlightCommand.HlField field1 = new HighlightCommand.HlField();
+        field1.boundaryChars = new char[]{'.', '!'};
+        final HighlightCommand.HlField field2 = new HighlightCommand.HlField();
+        field2.boundaryChars = new char[]{'.', '!'};
+        assertEquals(RequestFingerprint.of(field1), RequestFingerprint.of(field2));
+        field2.boundaryChars = new char[]{'.', '?'};
+        assertNotEquals(RequestFingerprint.of(field1), RequestFingerprint.of(field2));
+    }
+
+    @Test
+    public void testIgnoredFields() {
+        final SearchServerRequest request = createRequest("42");
+        request.downloadCompleteResultsCheckpointKey = "export";
+        request.downloadCompleteResultsCheckpointInterval = 7;
+        assertEquals(RequestFingerprint.of(createRequest("42")), RequestFingerprint.of(request));
+    }
+
+    @Test
+    public void testNestedFingerprints() {
+        final BoolQuery query1 = createBoolQuery("42");
+        final BoolQuery query2 = createBoolQuery("43");
+        assertNotEquals(RequestFingerprint.of(query1), RequestFingerprint.of(query2));
+        // the term queries are represented by the given fingerprint instead of their fields
+        final Function<Object, String> nestedFingerprints = nested -> nested instanceof TermQuery ? "term" : null;
+        assertEquals(RequestFingerprint.of(query1, nestedFingerprints), RequestFingerprint.of(query2, nestedFingerprints));
+        assertNotEquals(RequestFingerprint.of(query1), RequestFingerprint.of(query1, nestedFingerprints));
+        // but not the object the fingerprint is computed of
+        assertNotEquals(RequestFingerprint.of(query1.clauses.get(0).queries.get(0), nestedFingerprints), RequestFingerprint.of(query2.clauses.get(0).queries.get(0), nestedFingerprints));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycle() {
+        final BoolQuery query = new BoolQuery();
+        final BoolClause clause = new BoolClause();
+        clause.addQuery(query);
+        query.addClause(clause);
+        RequestFingerprint.of(query);
+    }
+
+    private BoolQuery createBoolQuery(String term) {
+        final TermQuery termQuery = new TermQuery();
+        termQuery.field = "docid";
+        termQuery.term = term;
+        final BoolClause clause = new BoolClause();
+        clause.addQuery(termQuery);
+        final BoolQuery query = new BoolQuery();
+        query.addClause(clause);
+        return query;
+    }
+
+    private TermsAggregation createTermsAggregation(String name, String field) {
+        final TermsAggregation aggregation = new TermsAggregation();
+        aggregation.name = name;
+        aggregation.field = field;
+        return aggregation;
+    }
+
+    static SearchServerRequest createRequest(String term) {
+        final SearchServerRequest request = new SearchServerRequest();
+        final TermQuery query = new TermQuery();
+        query.field = "docid";
+        query.term = term;
+        request.query = query;
+        request.index = "testindex";
+        return request;
+    }
+}
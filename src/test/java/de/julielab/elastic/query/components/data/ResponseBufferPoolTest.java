@@ -0,0 +1,88 @@
+package de.julielab.elastic.query.components.data;
+
+import de.julielab.elastic.query.services.StubElasticSearchServer;
+import org.apache.http.HttpHost;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ResponseBufferPoolTest {
+
+    @Test
+    public void testAcquireRelease() {
+        final ResponseBufferPool pool = new ResponseBufferPool(1024, 2);
+        final byte[] first = pool.acquire();
+        final byte[] second = pool.acquire();
+        final byte[] third = pool.acquire();
+        assertEquals(1024, first.length);
+        assertEquals(0, pool.getNumPooledChunks());
+
+        pool.release(first);
+        pool.release(second);
+        // the pool is full, the third chunk is left to the garbage collector
+        pool.release(third);
+        assertEquals(2, pool.getNumPooledChunks());
+
+        final byte[] reused = pool.acquire();
+        assertTrue(reused == first || reused == second);
+        assertEquals(1, pool.getNumPooledChunks());
+        pool.acquire();
+        assertEquals(0, pool.getNumPooledChunks());
+        // an empty pool allocates new chunks
+        final byte[] allocated = pool.acquire();
+        assertNotSame(first, allocated);
+        assertNotSame(second, allocated);
+        assertNotSame(third, allocated);
+        assertEquals(0, pool.getNumPooledChunks());
+    }
+
+    @Test
+    public void testPooledResponses() throws Exception {
+        final ResponseBufferPool pool = new ResponseBufferPool(1024, 16);
+        // spans three chunks
+        final String body = "{\"text\":\"" + String.join(" ", Collections.nCopies(600, "term")) + "\"}";
+        try (StubElasticSearchServer server = new StubElasticSearchServer();
+             RestClient client = RestClient.builder(new HttpHost(server.getHost(), server.getPort())).build()) {
+            server.respond("GET", "/pooled", 200, body);
+            final Request request = new Request("GET", "/pooled");
+            request.setOptions(RequestOptions.DEFAULT.toBuilder().setHttpAsyncResponseConsumerFactory(new PooledResponseConsumerFactory(pool, 10 * 1024)));
+
+            for (int i = 0; i < 2; i++) {
+                final Response response = client.performRequest(request);
+                assertEquals(body.length(), response.getEntity().getContentLength());
+                // the chunks belong to the response until its body has been read
+                assertEquals(0, pool.getNumPooledChunks());
+                assertEquals(body, EntityUtils.toString(response.getEntity()));
+                // the second response reuses the chunks of the first
+                assertEquals(3, pool.getNumPooledChunks());
+            }
+        }
+    }
+
+    @Test
+    public void testBufferLimit() throws Exception {
+        final ResponseBufferPool pool = new ResponseBufferPool(1024, 16);
+        final String body = "{\"text\":\"" + String.join(" ", Collections.nCopies(600, "term")) + "\"}";
+        try (StubElasticSearchServer server = new StubElasticSearchServer();
+             RestClient client = RestClient.builder(new HttpHost(server.getHost(), server.getPort())).build()) {
+            server.respond("GET", "/pooled", 200, body);
+            final Request request = new Request("GET", "/pooled");
+            request.setOptions(RequestOptions.DEFAULT.toBuilder().setHttpAsyncResponseConsumerFactory(new PooledResponseConsumerFactory(pool, 2048)));
+            try {
+                client.performRequest(request);
+                fail("The response should have exceeded the buffer limit");
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(0, pool.getNumPooledChunks());
+        }
+    }
+}
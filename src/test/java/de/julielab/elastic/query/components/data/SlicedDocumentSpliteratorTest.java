@@ -0,0 +1,92 @@
+package de.julielab.elastic.query.components.data;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.*;
+
+public class SlicedDocumentSpliteratorTest {
+
+    @Test
+    public void testSequential() {
+        final SlicedDocumentSpliterator spliterator = new SlicedDocumentSpliterator(createSlices(3, 2), new AtomicInteger(Integer.MAX_VALUE));
+        final List<ISearchServerDocument> documents = new ArrayList<>();
+        while (spliterator.tryAdvance(documents::add)) ;
+        assertEquals(5, documents.size());
+    }
+
+    @Test
+    public void testBudget() {
+        final List<DeepPaginationIterator> slices = createSlices(3, 3);
+        final AtomicInteger budget = new AtomicInteger(4);
+        final SlicedDocumentSpliterator spliterator = new SlicedDocumentSpliterator(slices, budget);
+        // the budget is shared with the split off spliterator
+        final Spliterator<ISearchServerDocument> prefix = spliterator.trySplit();
+        assertNotNull(prefix);
+
+        int count = 0;
+        while (prefix.tryAdvance(document -> {
+        }))
+            ++count;
+        while (spliterator.tryAdvance(document -> {
+        }))
+            ++count;
+        assertEquals(4, count);
+        // the slices have been closed when the budget was exhausted
+        assertFalse(slices.get(1).hasNextInBatch());
+    }
+
+    @Test
+    public void testSplitSlices() {
+        final SlicedDocumentSpliterator spliterator = new SlicedDocumentSpliterator(createSlices(3, 2, 4, 1), new AtomicInteger(Integer.MAX_VALUE));
+        final Spliterator<ISearchServerDocument> prefix = spliterator.trySplit();
+        // the first two slices are handed off
+        assertEquals(5, count(prefix));
+        assertEquals(5, count(spliterator));
+    }
+
+    @Test
+    public void testSplitBatch() {
+        final SlicedDocumentSpliterator spliterator = new SlicedDocumentSpliterator(createSlices(6), new AtomicInteger(Integer.MAX_VALUE));
+        assertTrue(spliterator.tryAdvance(document -> {
+        }));
+        // the single slice cannot be split, the remainder of its batch is handed off instead
+        final Spliterator<ISearchServerDocument> batch = spliterator.trySplit();
+        assertNotNull(batch);
+        assertEquals(5, batch.estimateSize());
+        final Spliterator<ISearchServerDocument> halfBatch = batch.trySplit();
+        assertEquals(2, count(halfBatch));
+        assertEquals(3, count(batch));
+        assertEquals(0, count(spliterator));
+        assertNull(spliterator.trySplit());
+    }
+
+    @Test
+    public void testParallelStream() {
+        final SlicedDocumentSpliterator spliterator = new SlicedDocumentSpliterator(createSlices(100, 50, 75, 0), new AtomicInteger(200));
+        assertEquals(200, StreamSupport.stream(spliterator, true).count());
+    }
+
+    private int count(Spliterator<ISearchServerDocument> spliterator) {
+        final int[] count = new int[1];
+        spliterator.forEachRemaining(document -> ++count[0]);
+        return count[0];
+    }
+
+    /**
+     * Creates slices consisting of a single batch of the given sizes each.
+     */
+    static List<DeepPaginationIterator> createSlices(int... numHits) {
+        final List<DeepPaginationIterator> slices = new ArrayList<>();
+        for (int n : numHits)
+            slices.add(new DeepPaginationIterator(DeepPaginationIteratorTest.createPointInTimeResponse(null, n), new SearchRequest(), false, Integer.MAX_VALUE, 0, null, null, null, null, RequestOptions.DEFAULT, null));
+        return slices;
+    }
+}
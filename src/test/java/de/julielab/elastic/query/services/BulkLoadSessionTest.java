@@ -0,0 +1,109 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BulkLoadSessionTest {
+
+    private static final String SETTINGS_ACKNOWLEDGED = "{\"acknowledged\":true}";
+
+    private StubElasticSearchServer server;
+    private RestHighLevelClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubElasticSearchServer();
+        client = new RestHighLevelClient(RestClient.builder(new HttpHost(server.getHost(), server.getPort())));
+        server.respond("PUT", "/testindex/_settings", 200, SETTINGS_ACKNOWLEDGED);
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testRestoreSettings() {
+        // only the refresh interval has been set explicitly
+        server.respond("GET", "/testindex/_settings/*", 200, "{\"testindex\":{\"settings\":{\"index\":{\"refresh_interval\":\"5s\"}}}}");
+        final BulkLoadSession session = createSession(new BulkLoadOptions());
+        session.begin();
+
+        final List<StubElasticSearchServer.RecordedRequest> puts = server.getRequests("PUT", "/testindex/_settings");
+        assertEquals(1, puts.size());
+        final Settings loadSettings = parseSettings(puts.get(0));
+        assertEquals("-1", loadSettings.get("index.refresh_interval"));
+        assertEquals("0", loadSettings.get("index.number_of_replicas"));
+        assertEquals("async", loadSettings.get("index.translog.durability"));
+
+        session.close();
+        final List<StubElasticSearchServer.RecordedRequest> putsAfterClose = server.getRequests("PUT", "/testindex/_settings");
+        assertEquals(2, putsAfterClose.size());
+        final Settings restoredSettings = parseSettings(putsAfterClose.get(1));
+        assertEquals("5s", restoredSettings.get("index.refresh_interval"));
+        // settings that were not set explicitly are reset to their defaults
+        assertTrue(restoredSettings.keySet().contains("index.number_of_replicas"));
+        assertNull(restoredSettings.get("index.number_of_replicas"));
+        assertTrue(restoredSettings.keySet().contains("index.translog.durability"));
+        assertNull(restoredSettings.get("index.translog.durability"));
+
+        // the settings are restored only once
+        session.close();
+        session.finish();
+        assertEquals(2, server.getRequests("PUT", "/testindex/_settings").size());
+    }
+
+    @Test
+    public void testRestoreSettingsOfAliasedIndices() {
+        server.respond("GET", "/testindex/_settings/*", 200, "{\"testindex_1\":{\"settings\":{\"index\":{\"refresh_interval\":\"5s\"}}},\"testindex_2\":{\"settings\":{\"index\":{\"refresh_interval\":\"10s\"}}}}");
+        server.respond("PUT", "/testindex_1/_settings", 200, SETTINGS_ACKNOWLEDGED);
+        server.respond("PUT", "/testindex_2/_settings", 200, SETTINGS_ACKNOWLEDGED);
+        final BulkLoadOptions options = new BulkLoadOptions();
+        options.numberOfReplicas = null;
+        options.translogDurability = null;
+        final BulkLoadSession session = createSession(options);
+        session.begin();
+        session.finish();
+
+        assertEquals(1, server.getRequests("PUT", "/testindex/_settings").size());
+        // each concrete index gets its own previous settings back
+        assertEquals("5s", parseSettings(server.getRequests("PUT", "/testindex_1/_settings").get(0)).get("index.refresh_interval"));
+        assertEquals("10s", parseSettings(server.getRequests("PUT", "/testindex_2/_settings").get(0)).get("index.refresh_interval"));
+    }
+
+    @Test
+    public void testNoChangedSettings() {
+        final BulkLoadOptions options = new BulkLoadOptions();
+        options.refreshInterval = null;
+        options.numberOfReplicas = null;
+        options.translogDurability = null;
+        final BulkLoadSession session = createSession(options);
+        session.begin();
+        session.close();
+
+        assertTrue(server.getRequests("PUT", "/testindex/_settings").isEmpty());
+    }
+
+    private BulkLoadSession createSession(BulkLoadOptions options) {
+        // the index is neither force merged nor refreshed, thus no indexing service is required
+        options.forceMerge = false;
+        options.refresh = false;
+        return new BulkLoadSession(LoggerFactory.getLogger(BulkLoadSession.class), client, null, "testindex", options);
+    }
+
+    private Settings parseSettings(StubElasticSearchServer.RecordedRequest request) {
+        return Settings.builder().loadFromSource(request.getBodyAsString(), XContentType.JSON).build();
+    }
+}
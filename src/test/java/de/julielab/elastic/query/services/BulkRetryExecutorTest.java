@@ -0,0 +1,224 @@
+package de.julielab.elastic.query.services;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class BulkRetryExecutorTest {
+
+    private static final TimeValue INITIAL_DELAY = TimeValue.timeValueMillis(100);
+    private static final TimeValue MAX_DELAY = TimeValue.timeValueMillis(1000);
+
+    private final ImmediateScheduler scheduler = new ImmediateScheduler();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testOnlyRejectedItemsAreResent() {
+        final StubBulkSender sender = new StubBulkSender(
+                // the first attempt: documents 1 and 3 are rejected, document 2 is malformed
+                Map.of("1", RestStatus.TOO_MANY_REQUESTS, "2", RestStatus.BAD_REQUEST, "3", RestStatus.TOO_MANY_REQUESTS),
+                // the second attempt: document 3 is rejected again
+                Map.of("3", RestStatus.TOO_MANY_REQUESTS),
+                Map.of());
+        final BulkRetryExecutor executor = new BulkRetryExecutor(LoggerFactory.getLogger(getClass()), sender, () -> scheduler, 5, INITIAL_DELAY, MAX_DELAY);
+        final RecordingListener listener = new RecordingListener();
+        executor.execute(createRequest(4), listener);
+
+        assertEquals(Arrays.asList(Arrays.asList("0", "1", "2", "3"), Arrays.asList("1", "3"), Arrays.asList("3")), sender.sentIds);
+        assertNull(listener.failure);
+        final BulkItemResponse[] items = listener.response.getItems();
+        assertEquals(4, items.length);
+        for (int i = 0; i < items.length; i++) {
+            // the items of the retries are back at their positions in the original request
+            assertEquals(i, items[i].getItemId());
+            assertEquals(String.valueOf(i), items[i].getId());
+            assertEquals(i == 2, items[i].isFailed());
+        }
+        assertEquals(RestStatus.BAD_REQUEST, items[2].status());
+        assertEquals(2, scheduler.delays.size());
+    }
+
+    @Test
+    public void testRejectedItemsKeepFailureAfterMaxRetries() {
+        final Map<String, RestStatus> rejectAll = Map.of("0", RestStatus.TOO_MANY_REQUESTS, "1", RestStatus.TOO_MANY_REQUESTS);
+        final StubBulkSender sender = new StubBulkSender(rejectAll, rejectAll, rejectAll, rejectAll);
+        final BulkRetryExecutor executor = new BulkRetryExecutor(LoggerFactory.getLogger(getClass()), sender, () -> scheduler, 2, INITIAL_DELAY, MAX_DELAY);
+        final RecordingListener listener = new RecordingListener();
+        executor.execute(createRequest(2), listener);
+
+        // the original attempt and two retries
+        assertEquals(3, sender.sentIds.size());
+        final BulkItemResponse[] items = listener.response.getItems();
+        assertTrue(items[0].isFailed());
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, items[0].status());
+        assertEquals(1, items[1].getItemId());
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, items[1].status());
+    }
+
+    @Test
+    public void testRejectedRequestIsResent() {
+        final StubBulkSender sender = new StubBulkSender(Map.of());
+        sender.rejectedRequests = 1;
+        final BulkRetryExecutor executor = new BulkRetryExecutor(LoggerFactory.getLogger(getClass()), sender, () -> scheduler, 2, INITIAL_DELAY, MAX_DELAY);
+        final RecordingListener listener = new RecordingListener();
+        executor.execute(createRequest(3), listener);
+
+        assertEquals(2, sender.sentIds.size());
+        assertEquals(sender.sentIds.get(0), sender.sentIds.get(1));
+        assertNull(listener.failure);
+        assertFalse(listener.response.hasFailures());
+        assertEquals(3, listener.response.getItems().length);
+    }
+
+    @Test
+    public void testFailedRequestIsNotResent() {
+        final StubBulkSender sender = new StubBulkSender(Map.of());
+        sender.rejectedRequests = 1;
+        // no retries allowed
+        final BulkRetryExecutor executor = new BulkRetryExecutor(LoggerFactory.getLogger(getClass()), sender, () -> scheduler, 0, INITIAL_DELAY, MAX_DELAY);
+        final RecordingListener listener = new RecordingListener();
+        executor.execute(createRequest(3), listener);
+
+        assertEquals(1, sender.sentIds.size());
+        assertNull(listener.response);
+        assertTrue(listener.failure instanceof ElasticsearchStatusException);
+        assertTrue(scheduler.delays.isEmpty());
+    }
+
+    @Test
+    public void testBackoffBounds() {
+        final Map<String, RestStatus> reject = Map.of("0", RestStatus.TOO_MANY_REQUESTS);
+        final StubBulkSender sender = new StubBulkSender(reject, reject, reject, reject, reject, reject, Map.of());
+        final BulkRetryExecutor executor = new BulkRetryExecutor(LoggerFactory.getLogger(getClass()), sender, () -> scheduler, 10, INITIAL_DELAY, MAX_DELAY);
+        executor.execute(createRequest(1), new RecordingListener());
+
+        assertEquals(6, scheduler.delays.size());
+        for (int attempt = 0; attempt < scheduler.delays.size(); attempt++)
+            assertDelayInBounds(attempt, scheduler.delays.get(attempt));
+    }
+
+    @Test
+    public void testGetDelayMillis() {
+        final BulkRetryExecutor executor = new BulkRetryExecutor(LoggerFactory.getLogger(getClass()), new StubBulkSender(), () -> scheduler, 10, INITIAL_DELAY, MAX_DELAY);
+        for (int attempt = 0; attempt < 64; attempt++) {
+            for (int i = 0; i < 100; i++)
+                assertDelayInBounds(attempt, executor.getDelayMillis(attempt));
+        }
+        // the jitter spreads the delays of concurrent retries
+        final long distinctDelays = Arrays.stream(new long[200]).map(l -> executor.getDelayMillis(3)).distinct().count();
+        assertTrue(distinctDelays > 1);
+    }
+
+    /**
+     * The delay must be between half and the full exponential delay, which is capped by the maximum delay.
+     */
+    private void assertDelayInBounds(int attempt, long delay) {
+        final long exponentialDelay = Math.min(MAX_DELAY.millis(), INITIAL_DELAY.millis() << Math.min(attempt, 30));
+        assertTrue("Delay " + delay + " of attempt " + attempt + " is too short", delay >= exponentialDelay / 2);
+        assertTrue("Delay " + delay + " of attempt " + attempt + " is too long", delay <= exponentialDelay);
+    }
+
+    private BulkRequest createRequest(int numDocuments) {
+        final BulkRequest request = new BulkRequest();
+        for (int i = 0; i < numDocuments; i++)
+            request.add(new IndexRequest("testindex").id(String.valueOf(i)).source(Map.of("text", "document " + i)));
+        return request;
+    }
+
+    /**
+     * Answers each bulk request synchronously. The items of the n-th request fail with the status given for their
+     * document ID in the n-th map, all other items succeed. The first <tt>rejectedRequests</tt> requests are rejected
+     * as a whole.
+     */
+    private static class StubBulkSender implements BiConsumer<BulkRequest, ActionListener<BulkResponse>> {
+        private final List<Map<String, RestStatus>> failures;
+        private final List<List<String>> sentIds = new ArrayList<>();
+        private int rejectedRequests;
+
+        @SafeVarargs
+        private StubBulkSender(Map<String, RestStatus>... failures) {
+            this.failures = Arrays.asList(failures);
+        }
+
+        @Override
+        public void accept(BulkRequest request, ActionListener<BulkResponse> listener) {
+            final int attempt = sentIds.size();
+            sentIds.add(request.requests().stream().map(DocWriteRequest::id).collect(Collectors.toList()));
+            if (attempt < rejectedRequests) {
+                listener.onFailure(new ElasticsearchStatusException("rejected execution", RestStatus.TOO_MANY_REQUESTS));
+                return;
+            }
+            final Map<String, RestStatus> attemptFailures = attempt < failures.size() ? failures.get(attempt) : Map.of();
+            final BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+            for (int i = 0; i < items.length; i++) {
+                final DocWriteRequest<?> item = request.requests().get(i);
+                final RestStatus status = attemptFailures.get(item.id());
+                if (status != null)
+                    items[i] = new BulkItemResponse(i, item.opType(), new BulkItemResponse.Failure(item.index(), item.type(), item.id(), new ElasticsearchStatusException("failed", status)));
+                else
+                    items[i] = new BulkItemResponse(i, item.opType(), new IndexResponse(new ShardId(item.index(), "_na_", 0), item.type(), item.id(), 1, 1, 1, true));
+            }
+            listener.onResponse(new BulkResponse(items, 1));
+        }
+    }
+
+    /**
+     * Records the delays of scheduled tasks and runs them immediately in the calling thread.
+     */
+    private static class ImmediateScheduler extends ScheduledThreadPoolExecutor {
+        private final List<Long> delays = new ArrayList<>();
+
+        private ImmediateScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            command.run();
+            return null;
+        }
+    }
+
+    private static class RecordingListener implements ActionListener<BulkResponse> {
+        private BulkResponse response;
+        private Exception failure;
+
+        @Override
+        public void onResponse(BulkResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            this.failure = e;
+        }
+    }
+}
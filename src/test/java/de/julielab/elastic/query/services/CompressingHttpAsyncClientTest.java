@@ -0,0 +1,119 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class CompressingHttpAsyncClientTest {
+
+    private static final int COMPRESSION_THRESHOLD = 100;
+
+    private StubElasticSearchServer server;
+    private ElasticSearchClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubElasticSearchServer();
+        final HttpConnectionSettings connectionSettings = new HttpConnectionSettings();
+        connectionSettings.compression = true;
+        connectionSettings.compressionThreshold = COMPRESSION_THRESHOLD;
+        client = new ElasticSearchClient(LoggerFactory.getLogger(ElasticSearchClient.class), "stubcluster", new String[]{server.getHost()}, new int[]{server.getPort()}, 30000, connectionSettings);
+    }
+
+    @After
+    public void shutdown() {
+        client.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void testCompressionThreshold() throws Exception {
+        server.respond("POST", "/small", 200, "{\"acknowledged\":true}");
+        server.respond("POST", "/large", 200, "{\"acknowledged\":true}");
+        final String smallBody = "{\"text\":\"small\"}";
+        final String largeBody = createJson(COMPRESSION_THRESHOLD * 10);
+        send("/small", smallBody);
+        send("/large", largeBody);
+
+        final StubElasticSearchServer.RecordedRequest smallRequest = server.getRequests("POST", "/small").get(0);
+        // bodies below the threshold are sent as they are
+        assertNull(smallRequest.headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(smallBody, smallRequest.getBodyAsString());
+        assertEquals("gzip", smallRequest.headers.getFirst(HttpHeaders.ACCEPT_ENCODING));
+
+        final StubElasticSearchServer.RecordedRequest largeRequest = server.getRequests("POST", "/large").get(0);
+        assertEquals("gzip", largeRequest.headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertTrue(largeRequest.body.length < largeBody.length());
+        assertEquals(largeBody, new String(gunzip(largeRequest.body), UTF_8));
+
+        final HttpCompressionStatistics statistics = client.getCompressionStatistics();
+        assertEquals(smallBody.length() + largeBody.length(), statistics.getRequestBytes());
+        assertEquals(smallBody.length() + largeRequest.body.length, statistics.getCompressedRequestBytes());
+    }
+
+    @Test
+    public void testResponseDecompression() throws Exception {
+        final String plainResponse = "{\"acknowledged\":true}";
+        final String compressedResponse = createJson(1000);
+        final byte[] gzippedResponse = gzip(compressedResponse.getBytes(UTF_8));
+        server.respond("GET", "/plain", 200, plainResponse);
+        server.respond("GET", "/compressed", 200, gzippedResponse, Map.of(HttpHeaders.CONTENT_ENCODING, "gzip"));
+
+        final Response plain = client.getRestHighLevelClient().getLowLevelClient().performRequest(new Request("GET", "/plain"));
+        assertEquals(plainResponse, EntityUtils.toString(plain.getEntity()));
+        final Response compressed = client.getRestHighLevelClient().getLowLevelClient().performRequest(new Request("GET", "/compressed"));
+        // the REST client decompresses the response
+        assertNull(compressed.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(compressedResponse, EntityUtils.toString(compressed.getEntity()));
+
+        // the bodies are counted as received
+        final HttpCompressionStatistics statistics = client.getCompressionStatistics();
+        assertEquals(plainResponse.length() + gzippedResponse.length, statistics.getResponseBytes());
+        assertEquals(gzippedResponse.length, statistics.getCompressedResponseBytes());
+    }
+
+    private void send(String path, String jsonBody) throws IOException {
+        final RestClient restClient = client.getRestHighLevelClient().getLowLevelClient();
+        final Request request = new Request("POST", path);
+        request.setJsonEntity(jsonBody);
+        restClient.performRequest(request);
+    }
+
+    /**
+     * @return A well compressible JSON object of at least <tt>minLength</tt> characters.
+     */
+    private static String createJson(int minLength) {
+        return "{\"text\":\"" + String.join(" ", Collections.nCopies(minLength / 5 + 1, "term")) + "\"}";
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzos = new GZIPOutputStream(bos)) {
+            gzos.write(bytes);
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream gzis = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return gzis.readAllBytes();
+        }
+    }
+}
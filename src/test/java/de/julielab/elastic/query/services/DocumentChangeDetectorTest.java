@@ -0,0 +1,99 @@
+package de.julielab.elastic.query.services;
+
+import com.google.common.hash.HashCode;
+import org.elasticsearch.action.index.IndexRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DocumentChangeDetectorTest {
+
+    @Test
+    public void testHashIndependentOfKeyOrder() {
+        final Map<String, Object> nested1 = new LinkedHashMap<>();
+        nested1.put("b", 2);
+        nested1.put("a", List.of("x", "y"));
+        final Map<String, Object> document1 = new LinkedHashMap<>();
+        document1.put("title", "A title");
+        document1.put("nested", nested1);
+        document1.put("count", 1);
+
+        final Map<String, Object> nested2 = new LinkedHashMap<>();
+        nested2.put("a", List.of("x", "y"));
+        nested2.put("b", 2);
+        final Map<String, Object> document2 = new LinkedHashMap<>();
+        document2.put("count", 1);
+        document2.put("nested", nested2);
+        document2.put("title", "A title");
+
+        assertEquals(DocumentChangeDetector.hash(document1), DocumentChangeDetector.hash(document2));
+    }
+
+    @Test
+    public void testHashDistinguishesValues() {
+        final Map<String, Object> document = Map.of("title", "A title", "tags", List.of("x", "y"));
+        assertNotEquals(DocumentChangeDetector.hash(document), DocumentChangeDetector.hash(Map.of("title", "A title", "tags", List.of("y", "x"))));
+        assertNotEquals(DocumentChangeDetector.hash(document), DocumentChangeDetector.hash(Map.of("title", "Another title", "tags", List.of("x", "y"))));
+        // the value is serialized to the same JSON
+        assertEquals(DocumentChangeDetector.hash(Map.of("count", 1)), DocumentChangeDetector.hash(Map.of("count", 1L)));
+        assertNotEquals(DocumentChangeDetector.hash(Map.of("count", 1)), DocumentChangeDetector.hash(Map.of("count", "1")));
+    }
+
+    @Test
+    public void testHashIsStoredAfterIndexing() {
+        final MapDocumentHashStore hashStore = new MapDocumentHashStore();
+        final DocumentChangeDetector changeDetector = new DocumentChangeDetector(hashStore);
+        final Map<String, Object> document = Map.of("title", "A title");
+
+        assertTrue(changeDetector.isChanged("1", document));
+        // still unknown while the document is being indexed
+        assertTrue(changeDetector.isChanged("1", document));
+        changeDetector.documentIndexed(new IndexRequest("testindex").id("1"));
+        assertFalse(changeDetector.isChanged("1", document));
+        assertEquals(1, changeDetector.getNumUnchanged());
+
+        assertTrue(changeDetector.isChanged("2", document));
+        changeDetector.documentRejected(new IndexRequest("testindex").id("2"));
+        changeDetector.documentIndexed(new IndexRequest("testindex").id("2"));
+        // rejected documents are sent again
+        assertTrue(changeDetector.isChanged("2", document));
+    }
+
+    private static class MapDocumentHashStore implements IDocumentHashStore {
+        private final Map<String, HashCode> hashes = new HashMap<>();
+
+        @Override
+        public HashCode get(String id) {
+            return hashes.get(id);
+        }
+
+        @Override
+        public void put(String id, HashCode hash) {
+            hashes.put(id, hash);
+        }
+
+        @Override
+        public void clear() {
+            hashes.clear();
+        }
+
+        @Override
+        public String getIndexIdentity() {
+            return null;
+        }
+
+        @Override
+        public void setIndexIdentity(String identity) {
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+    }
+}
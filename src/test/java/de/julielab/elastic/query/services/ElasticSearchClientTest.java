@@ -0,0 +1,122 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.http.pool.PoolStats;
+import org.apache.tapestry5.ioc.internal.LoggerSourceImpl;
+import org.apache.tapestry5.ioc.internal.services.RegistryShutdownHubImpl;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchClientTest {
+
+    private StubElasticSearchServer server;
+    private ElasticSearchClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubElasticSearchServer();
+        server.respond("HEAD", "/", 200, "");
+    }
+
+    @After
+    public void shutdown() {
+        if (client != null)
+            client.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void testConnectionPoolSettings() {
+        final HttpConnectionSettings connectionSettings = new HttpConnectionSettings();
+        connectionSettings.maxConnectionsPerRoute = 3;
+        connectionSettings.maxConnectionsTotal = 5;
+        connectionSettings.ioThreadCount = 1;
+        client = createClient(connectionSettings);
+        // the pool is created with the client
+        assertNull(client.getConnectionPoolStats());
+        client.getRestHighLevelClient();
+        assertEquals(5, client.getConnectionPoolStats().getMax());
+
+        // more connections than allowed per route are requested
+        assertEquals(3, client.openConnections(10));
+        assertEquals(3, server.getRequests("HEAD", "/").size());
+        final PoolStats stats = client.getConnectionPoolStats();
+        assertTrue(stats.getAvailable() + stats.getLeased() > 0);
+        assertTrue(stats.getAvailable() + stats.getLeased() <= 3);
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        final HttpConnectionSettings connectionSettings = new HttpConnectionSettings();
+        connectionSettings.keepAlive = 1000;
+        client = createClient(connectionSettings);
+        client.openConnections(1);
+        // the connection is released to the pool after the response listener has been called
+        Thread.sleep(100);
+        client.openConnections(1);
+        // the idle connection is reused within the keep-alive time
+        assertEquals(server.getRequests("HEAD", "/").get(0).clientPort, server.getRequests("HEAD", "/").get(1).clientPort);
+
+        Thread.sleep(1500);
+        client.openConnections(1);
+        // and replaced after it
+        assertNotEquals(server.getRequests("HEAD", "/").get(1).clientPort, server.getRequests("HEAD", "/").get(2).clientPort);
+    }
+
+    @Test
+    public void testConcurrentClientCreation() throws Exception {
+        client = createClient(new HttpConnectionSettings());
+        final Set<RestHighLevelClient> clients = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> {
+                start.await();
+                clients.add(client.getRestHighLevelClient());
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, clients.size());
+    }
+
+    @Test
+    public void testConnectionWarmup() {
+        final ElasticSearchClientProvider provider = new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), "stubcluster", server.getHost(), String.valueOf(server.getPort()), 30000);
+        final RegistryShutdownHubImpl shutdownHub = new RegistryShutdownHubImpl(LoggerFactory.getLogger(RegistryShutdownHubImpl.class));
+        provider.startupService(shutdownHub, 2);
+        assertTrue(provider.getConnectionWarmupTime() >= 0);
+        assertEquals(2, server.getRequests("HEAD", "/").size());
+        shutdownHub.fireRegistryDidShutdown();
+    }
+
+    @Test
+    public void testNoConnectionWarmup() {
+        final ElasticSearchClientProvider provider = new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), "stubcluster", server.getHost(), String.valueOf(server.getPort()), 30000);
+        final RegistryShutdownHubImpl shutdownHub = new RegistryShutdownHubImpl(LoggerFactory.getLogger(RegistryShutdownHubImpl.class));
+        provider.startupService(shutdownHub, 0);
+        assertEquals(-1, provider.getConnectionWarmupTime());
+        // the client is not even created
+        assertNull(provider.getSearchClient().getConnectionPoolStats());
+        assertTrue(server.getRequests("HEAD", "/").isEmpty());
+        shutdownHub.fireRegistryDidShutdown();
+    }
+
+    private ElasticSearchClient createClient(HttpConnectionSettings connectionSettings) {
+        return new ElasticSearchClient(LoggerFactory.getLogger(ElasticSearchClient.class), "stubcluster", new String[]{server.getHost()}, new int[]{server.getPort()}, 30000, connectionSettings);
+    }
+}
@@ -0,0 +1,164 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.tapestry5.ioc.internal.LoggerSourceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchIndexingServiceBulkTest {
+
+    private static final String INDEX = "testindex";
+    private static final int BULK_MAX_ACTIONS = 10;
+    private static final Pattern ID_PATTERN = Pattern.compile("\"_id\":\"([^\"]*)\"");
+
+    private StubElasticSearchServer server;
+    private ElasticSearchClientProvider provider;
+    private ElasticSearchIndexingService indexingService;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubElasticSearchServer();
+        provider = new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), "stubcluster", server.getHost(), String.valueOf(server.getPort()), 30000);
+        indexingService = new ElasticSearchIndexingService(LoggerFactory.getLogger(ElasticSearchIndexingService.class), provider, null, BULK_MAX_ACTIONS, "5mb", "-1", 2, 3, "1ms", "10ms");
+    }
+
+    @After
+    public void shutdown() {
+        indexingService.shutdown();
+        provider.getSearchClient().shutdown();
+        server.close();
+    }
+
+    @Test
+    public void testFlushByNumberOfActions() {
+        server.respond("POST", "/_bulk", request -> bulkResponse(request, id -> 201));
+        indexingService.indexDocuments(INDEX, createDocuments(25));
+
+        final List<StubElasticSearchServer.RecordedRequest> bulkRequests = server.getRequests("POST", "/_bulk");
+        // the concurrent requests might arrive in any order
+        final List<Integer> sizes = bulkRequests.stream().map(r -> getIds(r).size()).sorted().collect(Collectors.toList());
+        assertEquals(List.of(5, BULK_MAX_ACTIONS, BULK_MAX_ACTIONS), sizes);
+        assertEquals(createIds(25), getSentIds(bulkRequests));
+    }
+
+    @Test
+    public void testFlushBySize() {
+        indexingService = new ElasticSearchIndexingService(LoggerFactory.getLogger(ElasticSearchIndexingService.class), provider, null, 1000, "1kb", "-1", 2, 3, "1ms", "10ms");
+        server.respond("POST", "/_bulk", request -> bulkResponse(request, id -> 201));
+        indexingService.indexDocuments(INDEX, createDocuments(20, 200));
+
+        final List<StubElasticSearchServer.RecordedRequest> bulkRequests = server.getRequests("POST", "/_bulk");
+        assertTrue(bulkRequests.size() > 1);
+        // a request is flushed as soon as it has reached the size, thus it exceeds the size by less than a document
+        for (StubElasticSearchServer.RecordedRequest request : bulkRequests)
+            assertTrue(request.body.length < 1024 + 300);
+        assertEquals(createIds(20), getSentIds(bulkRequests));
+    }
+
+    @Test
+    public void testRejectedDocumentsAreResent() {
+        final AtomicBoolean rejected = new AtomicBoolean();
+        // the write queue of the cluster is full the first time document 7 arrives
+        server.respond("POST", "/_bulk", request -> bulkResponse(request, id -> id.equals("7") && rejected.compareAndSet(false, true) ? 429 : 201));
+        final List<String> failedIds = new CopyOnWriteArrayList<>();
+        indexingService.indexDocuments(INDEX, createDocuments(25), (request, failureMessage, cause) -> failedIds.add(request.id()));
+
+        assertTrue(rejected.get());
+        assertTrue(failedIds.isEmpty());
+        final List<List<String>> sentIds = server.getRequests("POST", "/_bulk").stream().map(this::getIds).collect(Collectors.toList());
+        assertEquals(4, sentIds.size());
+        // only the rejected document is resent
+        assertTrue(sentIds.contains(List.of("7")));
+        final List<String> allIds = sentIds.stream().flatMap(List::stream).collect(Collectors.toList());
+        assertEquals(2, Collections.frequency(allIds, "7"));
+    }
+
+    @Test
+    public void testFailedDocumentsAreReported() {
+        server.respond("POST", "/_bulk", request -> bulkResponse(request, id -> id.equals("3") ? 400 : 201));
+        final List<String> failedIds = new CopyOnWriteArrayList<>();
+        final List<String> failureMessages = new CopyOnWriteArrayList<>();
+        indexingService.indexDocuments(INDEX, createDocuments(25), (request, failureMessage, cause) -> {
+            failedIds.add(request.id());
+            failureMessages.add(failureMessage);
+        });
+
+        assertEquals(List.of("3"), failedIds);
+        assertTrue(failureMessages.get(0).contains("mapper_parsing_exception"));
+        // documents with other errors than rejections are not resent
+        assertEquals(3, server.getRequests("POST", "/_bulk").size());
+    }
+
+    private static Iterator<Map<String, Object>> createDocuments(int numDocuments) {
+        return createDocuments(numDocuments, 10);
+    }
+
+    private static Iterator<Map<String, Object>> createDocuments(int numDocuments, int textLength) {
+        final List<Map<String, Object>> documents = new ArrayList<>();
+        for (int i = 0; i < numDocuments; i++) {
+            final Map<String, Object> document = new HashMap<>();
+            document.put("_id", String.valueOf(i));
+            document.put("text", String.join("", Collections.nCopies(textLength, "x")));
+            documents.add(document);
+        }
+        return documents.iterator();
+    }
+
+    private static List<String> createIds(int numDocuments) {
+        return IntStream.range(0, numDocuments).mapToObj(String::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * @return The IDs of the documents in the bulk request, read from the action lines.
+     */
+    private List<String> getIds(StubElasticSearchServer.RecordedRequest request) {
+        final List<String> ids = new ArrayList<>();
+        for (String line : request.getBodyAsString().split("\n")) {
+            final Matcher m = ID_PATTERN.matcher(line);
+            if (line.startsWith("{\"index\"") && m.find())
+                ids.add(m.group(1));
+        }
+        return ids;
+    }
+
+    private List<String> getSentIds(List<StubElasticSearchServer.RecordedRequest> bulkRequests) {
+        return bulkRequests.stream().map(this::getIds).flatMap(List::stream).map(Integer::valueOf).sorted().map(String::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * Creates the bulk response for the documents in <tt>request</tt>, with the item status given by
+     * <tt>statusById</tt>.
+     */
+    private String bulkResponse(StubElasticSearchServer.RecordedRequest request, Function<String, Integer> statusById) {
+        final List<String> items = new ArrayList<>();
+        boolean errors = false;
+        for (String id : getIds(request)) {
+            final int status = statusById.apply(id);
+            if (status < 300) {
+                items.add("{\"index\":{\"_index\":\"" + INDEX + "\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":" + status + "}}");
+            } else {
+                errors = true;
+                final String errorType = status == 429 ? "es_rejected_execution_exception" : "mapper_parsing_exception";
+                items.add("{\"index\":{\"_index\":\"" + INDEX + "\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"status\":" + status + ",\"error\":{\"type\":\"" + errorType + "\",\"reason\":\"" + errorType + " for document " + id + "\"}}}");
+            }
+        }
+        return "{\"took\":1,\"errors\":" + errors + ",\"items\":[" + String.join(",", items) + "]}";
+    }
+}
@@ -0,0 +1,357 @@
+package de.julielab.elastic.query.services;
+
+import org.apache.tapestry5.ioc.internal.LoggerSourceImpl;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchIndexingServiceIndexManagementTest {
+
+    private static final String ACKNOWLEDGED = "{\"acknowledged\":true}";
+    private static final String TASK_ID = "node1:42";
+    private static final String OLD_GENERATION = "docs_20240101000000000";
+    private static final String CURRENT_GENERATION = "docs_20250101000000000";
+
+    private StubElasticSearchServer server;
+    private ElasticSearchClientProvider provider;
+    private ElasticSearchIndexingService indexingService;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubElasticSearchServer();
+        provider = new ElasticSearchClientProvider(LoggerFactory.getLogger(ElasticSearchClientProvider.class), new LoggerSourceImpl(), "stubcluster", server.getHost(), String.valueOf(server.getPort()), 30000);
+        indexingService = new ElasticSearchIndexingService(LoggerFactory.getLogger(ElasticSearchIndexingService.class), provider);
+    }
+
+    @After
+    public void shutdown() {
+        indexingService.shutdown();
+        provider.getSearchClient().shutdown();
+        server.close();
+    }
+
+    @Test
+    public void testClearByQuery() {
+        server.respond("POST", "/testindex/_delete_by_query", 200, "{\"took\":10,\"timed_out\":false,\"total\":5,\"updated\":0,\"created\":0,\"deleted\":5,\"batches\":1,\"version_conflicts\":0,\"noops\":0,\"retries\":{\"bulk\":0,\"search\":0},\"throttled_millis\":0,\"requests_per_second\":-1.0,\"throttled_until_millis\":0,\"failures\":[]}");
+        indexingService.clearIndex("testindex", ClearIndexStrategy.DELETE_BY_QUERY);
+
+        final List<StubElasticSearchServer.RecordedRequest> requests = server.getRequests("POST", "/testindex/_delete_by_query");
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).getBodyAsString().contains("match_all"));
+    }
+
+    @Test
+    public void testClearByQueryTask() {
+        server.respond("POST", "/testindex/_delete_by_query", 200, "{\"task\":\"" + TASK_ID + "\"}");
+        server.respond("GET", "/_tasks/" + TASK_ID, 200, "{\"completed\":true,\"task\":{\"node\":\"node1\",\"id\":42,\"type\":\"transport\",\"action\":\"indices:data/write/delete/byquery\",\"status\":{\"total\":5,\"deleted\":5},\"description\":\"delete-by-query [testindex]\",\"start_time_in_millis\":1600000000000,\"running_time_in_nanos\":1000,\"cancellable\":true,\"cancelled\":false,\"headers\":{}}}");
+        indexingService.clearIndex("testindex", ClearIndexStrategy.DELETE_BY_QUERY_TASK);
+
+        final StubElasticSearchServer.RecordedRequest submission = server.getRequests("POST", "/testindex/_delete_by_query").get(0);
+        // the deletion runs in the background, sliced and without aborting on version conflicts
+        assertTrue(submission.query.contains("wait_for_completion=false"));
+        assertTrue(submission.query.contains("slices=auto"));
+        assertTrue(submission.query.contains("conflicts=proceed"));
+        assertEquals(1, server.getRequests("GET", "/_tasks/" + TASK_ID).size());
+    }
+
+    @Test
+    public void testClearByQueryTaskUnknownTask() {
+        server.respond("POST", "/testindex/_delete_by_query", 200, "{\"task\":\"" + TASK_ID + "\"}");
+        // the stub answers the task request with a 404, the service must not wait forever
+        indexingService.clearIndex("testindex", ClearIndexStrategy.DELETE_BY_QUERY_TASK);
+
+        assertEquals(1, server.getRequests("GET", "/_tasks/" + TASK_ID).size());
+    }
+
+    @Test
+    public void testClearByRecreation() {
+        // the alias testindex points to two concrete indices
+        server.respond("GET", "/testindex", 200, "{" +
+                "\"testindex_1\":{\"aliases\":{\"testindex\":{}},\"mappings\":{\"properties\":{\"text\":{\"type\":\"text\"}}},\"settings\":{\"index\":{\"number_of_shards\":\"2\",\"number_of_replicas\":\"1\",\"uuid\":\"uuid1\",\"creation_date\":\"1600000000000\",\"provided_name\":\"testindex_1\",\"version\":{\"created\":\"7170799\"}}}}," +
+                "\"testindex_2\":{\"aliases\":{\"testindex\":{\"is_write_index\":true}},\"mappings\":{\"properties\":{\"title\":{\"type\":\"keyword\"}}},\"settings\":{\"index\":{\"number_of_shards\":\"3\",\"number_of_replicas\":\"0\",\"uuid\":\"uuid2\",\"creation_date\":\"1600000000000\",\"provided_name\":\"testindex_2\",\"version\":{\"created\":\"7170799\"}}}}}");
+        server.respond("DELETE", "/testindex_*", 200, ACKNOWLEDGED);
+        server.respond("PUT", "/testindex_*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("PUT", "/recreate-check-*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("DELETE", "/recreate-check-*", 200, ACKNOWLEDGED);
+        indexingService.clearIndex("testindex", ClearIndexStrategy.RECREATE);
+
+        assertEquals(1, server.getRequests("DELETE", "/testindex_1").size());
+        assertEquals(1, server.getRequests("DELETE", "/testindex_2").size());
+
+        // both indices are checked with throwaway indices without aliases before any index is deleted
+        final List<String> requests = server.getRequests().stream().map(r -> r.method + " " + r.path).collect(Collectors.toList());
+        final int firstDeletion = requests.indexOf("DELETE /testindex_1");
+        assertEquals(2, requests.subList(0, firstDeletion).stream().filter(r -> r.startsWith("PUT /recreate-check-testindex_")).count());
+        assertEquals(2, requests.subList(0, firstDeletion).stream().filter(r -> r.startsWith("DELETE /recreate-check-testindex_")).count());
+        for (StubElasticSearchServer.RecordedRequest request : server.getRequests()) {
+            if (request.method.equals("PUT") && request.path.startsWith("/recreate-check-"))
+                assertNull(XContentHelper.convertToMap(XContentType.JSON.xContent(), request.getBodyAsString(), false).get("aliases"));
+        }
+
+        final Map<String, Object> firstIndex = XContentHelper.convertToMap(XContentType.JSON.xContent(), server.getRequests("PUT", "/testindex_1").get(0).getBodyAsString(), false);
+        final Settings firstSettings = getSettings(firstIndex);
+        assertEquals("2", firstSettings.get("index.number_of_shards"));
+        assertEquals("1", firstSettings.get("index.number_of_replicas"));
+        // the settings set by the server are not passed
+        assertNull(firstSettings.get("index.uuid"));
+        assertNull(firstSettings.get("index.creation_date"));
+        assertNull(firstSettings.get("index.provided_name"));
+        assertNull(firstSettings.get("index.version.created"));
+        assertEquals(Map.of("properties", Map.of("text", Map.of("type", "text"))), firstIndex.get("mappings"));
+        assertTrue(((Map<?, ?>) firstIndex.get("aliases")).containsKey("testindex"));
+
+        final Map<String, Object> secondIndex = XContentHelper.convertToMap(XContentType.JSON.xContent(), server.getRequests("PUT", "/testindex_2").get(0).getBodyAsString(), false);
+        assertEquals("3", getSettings(secondIndex).get("index.number_of_shards"));
+        assertEquals(Map.of("properties", Map.of("title", Map.of("type", "keyword"))), secondIndex.get("mappings"));
+        assertEquals(true, ((Map<?, ?>) ((Map<?, ?>) secondIndex.get("aliases")).get("testindex")).get("is_write_index"));
+    }
+
+    @Test
+    public void testClearByRecreationWithRejectedSettings() {
+        server.respond("GET", "/testindex", 200, "{" + emptyIndex("testindex") + "}");
+        server.respond("PUT", "/recreate-check-*", 400, "{\"error\":{\"root_cause\":[{\"type\":\"illegal_argument_exception\",\"reason\":\"unknown setting\"}],\"type\":\"illegal_argument_exception\",\"reason\":\"unknown setting\"},\"status\":400}");
+        server.respond("DELETE", "/testindex", 200, ACKNOWLEDGED);
+        indexingService.clearIndex("testindex", ClearIndexStrategy.RECREATE);
+
+        // the index is kept since it could not be created again
+        assertTrue(server.getRequests("DELETE", "/testindex").isEmpty());
+        assertTrue(server.getRequests("PUT", "/testindex").isEmpty());
+    }
+
+    @Test
+    public void testRebuildIndex() throws Exception {
+        server.respond("HEAD", "/docs", 200, "");
+        server.respond("GET", "/docs", 200, "{\"" + CURRENT_GENERATION + "\":{\"aliases\":{\"docs\":{}},\"mappings\":{\"properties\":{\"text\":{\"type\":\"text\"}}},\"settings\":{\"index\":{\"number_of_shards\":\"2\",\"uuid\":\"uuid1\",\"creation_date\":\"1600000000000\",\"provided_name\":\"" + CURRENT_GENERATION + "\",\"version\":{\"created\":\"7170799\"}}}}}");
+        server.respond("GET", "/docs_*", 200, "{" + emptyIndex(OLD_GENERATION) + "," + emptyIndex(CURRENT_GENERATION) + "}");
+        server.respond("PUT", "/docs_*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("DELETE", "/docs_*", 200, ACKNOWLEDGED);
+        server.respond("POST", "/_aliases", 200, ACKNOWLEDGED);
+        final AtomicReference<String> loadedIndex = new AtomicReference<>();
+        final String newIndex = indexingService.rebuildIndex("docs", index -> {
+            // the alias is switched only after loading
+            assertTrue(server.getRequests("POST", "/_aliases").isEmpty());
+            loadedIndex.set(index);
+        }, createBulkLoadOptions(), 1);
+
+        assertTrue(newIndex.matches("docs_[0-9]{17}"));
+        assertEquals(newIndex, loadedIndex.get());
+        // the new generation is created like the newest current generation
+        final Map<String, Object> createBody = XContentHelper.convertToMap(XContentType.JSON.xContent(), server.getRequests("PUT", "/" + newIndex).get(0).getBodyAsString(), false);
+        assertEquals("2", getSettings(createBody).get("index.number_of_shards"));
+        assertNull(getSettings(createBody).get("index.uuid"));
+        assertEquals(Map.of("properties", Map.of("text", Map.of("type", "text"))), createBody.get("mappings"));
+
+        // the alias is moved from the current to the new generation in a single request
+        final List<StubElasticSearchServer.RecordedRequest> aliasRequests = server.getRequests("POST", "/_aliases");
+        assertEquals(1, aliasRequests.size());
+        final String aliasActions = aliasRequests.get(0).getBodyAsString();
+        assertTrue(aliasActions.contains("\"add\""));
+        assertTrue(aliasActions.contains(newIndex));
+        assertTrue(aliasActions.contains("\"remove\""));
+        assertTrue(aliasActions.contains(CURRENT_GENERATION));
+
+        // one old generation is kept
+        assertEquals(1, server.getRequests("DELETE", "/" + OLD_GENERATION).size());
+        assertTrue(server.getRequests("DELETE", "/" + CURRENT_GENERATION).isEmpty());
+        assertTrue(server.getRequests("DELETE", "/" + newIndex).isEmpty());
+    }
+
+    @Test
+    public void testRebuildIndexMovesAliases() throws Exception {
+        server.respond("HEAD", "/docs", 200, "");
+        // the older generation still has the alias docs, the newest one has further aliases with filters and routings
+        server.respond("GET", "/docs", 200, "{" +
+                "\"" + OLD_GENERATION + "\":{\"aliases\":{\"docs\":{}},\"mappings\":{},\"settings\":{\"index\":{\"number_of_shards\":\"1\"}}}," +
+                "\"" + CURRENT_GENERATION + "\":{\"aliases\":{\"docs\":{\"index_routing\":\"1\",\"search_routing\":\"1\",\"is_write_index\":true},\"articles\":{\"filter\":{\"term\":{\"type\":\"article\"}}}},\"mappings\":{},\"settings\":{\"index\":{\"number_of_shards\":\"1\"}}}}");
+        server.respond("GET", "/docs_*", 200, "{}");
+        server.respond("PUT", "/docs_*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("POST", "/_aliases", 200, ACKNOWLEDGED);
+        final String newIndex = indexingService.rebuildIndex("docs", index -> {
+        }, createBulkLoadOptions(), 1);
+
+        final List<Map<String, Object>> actions = getAliasActions(server.getRequests("POST", "/_aliases").get(0));
+        final Map<String, Object> addDocs = findAliasAction(actions, "add", newIndex, "docs");
+        assertEquals("1", addDocs.get("index_routing"));
+        assertEquals("1", addDocs.get("search_routing"));
+        assertEquals(true, addDocs.get("is_write_index"));
+        final Map<String, Object> addArticles = findAliasAction(actions, "add", newIndex, "articles");
+        assertEquals(Map.of("term", Map.of("type", "article")), addArticles.get("filter"));
+        // the aliases are removed from the current indices that have them
+        assertNotNull(findAliasAction(actions, "remove", OLD_GENERATION, "docs"));
+        assertNotNull(findAliasAction(actions, "remove", CURRENT_GENERATION, "docs"));
+        assertNotNull(findAliasAction(actions, "remove", CURRENT_GENERATION, "articles"));
+        assertEquals(5, actions.size());
+    }
+
+    @Test
+    public void testRebuildIndexWithFailedDocuments() {
+        server.respond("HEAD", "/docs", 200, "");
+        server.respond("GET", "/docs", 200, "{" + emptyIndex(CURRENT_GENERATION) + "}");
+        server.respond("PUT", "/docs_*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("DELETE", "/docs_*", 200, ACKNOWLEDGED);
+        server.respond("POST", "/_bulk", 200, "{\"took\":1,\"errors\":true,\"items\":[" +
+                "{\"index\":{\"_index\":\"docs\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}}," +
+                "{\"index\":{\"_index\":\"docs\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\"}}}]}");
+        final AtomicReference<String> loadedIndex = new AtomicReference<>();
+        try {
+            // the loader itself does not notice the failed document
+            indexingService.rebuildIndex("docs", index -> {
+                loadedIndex.set(index);
+                final Map<String, Object> first = new HashMap<>(Map.of("_id", "1", "text", "first"));
+                final Map<String, Object> second = new HashMap<>(Map.of("_id", "2", "text", "second"));
+                indexingService.indexDocuments(index, List.of(first, second).iterator());
+            }, createBulkLoadOptions(), 1);
+            fail("The failed document should have aborted the rebuild");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("1 documents could not be indexed"));
+        }
+
+        assertEquals(1, server.getRequests("POST", "/_bulk").size());
+        assertEquals(1, server.getRequests("DELETE", "/" + loadedIndex.get()).size());
+        assertTrue(server.getRequests("POST", "/_aliases").isEmpty());
+    }
+
+    @Test
+    public void testRebuildIndexReplacingConcreteIndex() throws Exception {
+        // an index named like the alias, e.g. from before the first rebuild
+        server.respond("HEAD", "/docs", 200, "");
+        server.respond("GET", "/docs", 200, "{" + emptyIndex("docs") + "}");
+        server.respond("GET", "/docs_*", 200, "{}");
+        server.respond("PUT", "/docs_*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("POST", "/_aliases", 200, ACKNOWLEDGED);
+        final String newIndex = indexingService.rebuildIndex("docs", index -> {
+        }, createBulkLoadOptions(), 1);
+
+        // the index is deleted in the same request that creates the alias
+        final String aliasActions = server.getRequests("POST", "/_aliases").get(0).getBodyAsString();
+        assertTrue(aliasActions.contains("\"add\""));
+        assertTrue(aliasActions.contains(newIndex));
+        assertTrue(aliasActions.contains("\"remove_index\""));
+    }
+
+    @Test
+    public void testRebuildNewIndex() throws Exception {
+        server.respond("GET", "/docs_*", 200, "{}");
+        server.respond("PUT", "/docs_*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("POST", "/_aliases", 200, ACKNOWLEDGED);
+        final String newIndex = indexingService.rebuildIndex("docs", index -> {
+        }, createBulkLoadOptions(), 1);
+
+        assertTrue(server.getRequests("GET", "/docs").isEmpty());
+        assertEquals(1, server.getRequests("PUT", "/" + newIndex).size());
+        final String aliasActions = server.getRequests("POST", "/_aliases").get(0).getBodyAsString();
+        assertTrue(aliasActions.contains("\"add\""));
+        assertFalse(aliasActions.contains("\"remove"));
+    }
+
+    @Test
+    public void testFailedRebuild() {
+        server.respond("PUT", "/docs_*", 200, "{\"acknowledged\":true,\"shards_acknowledged\":true}");
+        server.respond("DELETE", "/docs_*", 200, ACKNOWLEDGED);
+        final AtomicReference<String> loadedIndex = new AtomicReference<>();
+        try {
+            indexingService.rebuildIndex("docs", index -> {
+                loadedIndex.set(index);
+                throw new IOException("The documents could not be read");
+            }, createBulkLoadOptions(), 1);
+            fail("The loader exception should have been thrown");
+        } catch (IOException e) {
+            assertEquals("The documents could not be read", e.getMessage());
+        }
+
+        // the incomplete generation is deleted and the alias is not touched
+        assertEquals(1, server.getRequests("DELETE", "/" + loadedIndex.get()).size());
+        assertTrue(server.getRequests("POST", "/_aliases").isEmpty());
+    }
+
+    @Test
+    public void testDocumentHashesOfChangedIndex() throws Exception {
+        server.respond("GET", "/testindex/_settings/index.uuid", 200, "{\"testindex\":{\"settings\":{\"index\":{\"uuid\":\"u2\"}}}}");
+        server.respond("POST", "/testindex/_count", 200, count(1));
+        server.respond("POST", "/_bulk", 200, "{\"took\":1,\"errors\":false,\"items\":[" +
+                "{\"index\":{\"_index\":\"testindex\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}}]}");
+        final Path file = Files.createTempDirectory("documenthashes").resolve("testindex.hashes");
+        // hashes from before the index was re-created, e.g. by another process
+        final FileDocumentHashStore hashStore = new FileDocumentHashStore(file);
+        hashStore.put("1", DocumentChangeDetector.hash(Map.of("text", "first")));
+        hashStore.setIndexIdentity("testindex/u1");
+        hashStore.flush();
+
+        final DeduplicationOptions deduplication = new DeduplicationOptions(new FileDocumentHashStore(file), false);
+        indexingService.indexDocuments("testindex", List.of(createDocument()).iterator(), null, deduplication);
+        assertEquals(1, server.getRequests("POST", "/_bulk").size());
+        assertEquals("testindex/u2", new FileDocumentHashStore(file).getIndexIdentity());
+
+        // the unchanged document is skipped as long as the index has the same identity and is not empty
+        indexingService.indexDocuments("testindex", List.of(createDocument()).iterator(), null, new DeduplicationOptions(new FileDocumentHashStore(file), false));
+        assertEquals(1, server.getRequests("POST", "/_bulk").size());
+
+        // the index has been cleared
+        server.respond("POST", "/testindex/_count", 200, count(0));
+        indexingService.indexDocuments("testindex", List.of(createDocument()).iterator(), null, new DeduplicationOptions(new FileDocumentHashStore(file), false));
+        assertEquals(2, server.getRequests("POST", "/_bulk").size());
+    }
+
+    /**
+     * @return Options that change no index settings and send no requests after loading.
+     */
+    private static BulkLoadOptions createBulkLoadOptions() {
+        final BulkLoadOptions options = new BulkLoadOptions();
+        options.refreshInterval = null;
+        options.numberOfReplicas = null;
+        options.translogDurability = null;
+        options.forceMerge = false;
+        options.refresh = false;
+        return options;
+    }
+
+    private static Map<String, Object> createDocument() {
+        return new HashMap<>(Map.of("_id", "1", "text", "first"));
+    }
+
+    private static String count(long count) {
+        return "{\"count\":" + count + ",\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}}";
+    }
+
+    private static String emptyIndex(String index) {
+        return "\"" + index + "\":{\"aliases\":{},\"mappings\":{},\"settings\":{\"index\":{\"number_of_shards\":\"1\"}}}";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getAliasActions(StubElasticSearchServer.RecordedRequest aliasesRequest) {
+        return (List<Map<String, Object>>) XContentHelper.convertToMap(XContentType.JSON.xContent(), aliasesRequest.getBodyAsString(), false).get("actions");
+    }
+
+    /**
+     * @return The action of the given type for exactly the index and the alias or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> findAliasAction(List<Map<String, Object>> actions, String type, String index, String alias) {
+        for (Map<String, Object> action : actions) {
+            final Map<String, Object> body = (Map<String, Object>) action.get(type);
+            if (body != null && List.of(index).equals(body.get("indices")) && List.of(alias).equals(body.get("aliases")))
+                return body;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Settings getSettings(Map<String, Object> createIndexBody) {
+        return Settings.builder().loadFromMap((Map<String, ?>) createIndexBody.get("settings")).build();
+    }
+}
@@ -0,0 +1,96 @@
+package de.julielab.elastic.query.services;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchIndexingServiceTest {
+
+    private static final int NUM_NDJSON_DOCUMENTS = 20;
+
+    @Test
+    public void testSliceNdjsonFile() throws Exception {
+        final Path ndjsonFile = writeNdjsonFile();
+        final byte[] fileContents = Files.readAllBytes(ndjsonFile);
+        // the window size is no multiple of the pair sizes, thus windows end inside of action and source line pairs
+        final long windowSize = 150;
+        final List<BytesReference> slices = new ArrayList<>();
+        ElasticSearchIndexingService.sliceNdjsonFile(ndjsonFile, windowSize, 1, slices::add);
+
+        // with a slice size of 1 byte, each pair becomes its own slice
+        assertEquals(NUM_NDJSON_DOCUMENTS, slices.size());
+        final ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (BytesReference slice : slices)
+            slice.writeTo(concatenated);
+        assertArrayEquals(fileContents, concatenated.toByteArray());
+
+        final List<DocWriteRequest<?>> requests = new ArrayList<>();
+        for (BytesReference slice : slices)
+            requests.addAll(new BulkRequest().add(slice, "testindex", XContentType.JSON).requests());
+        assertEquals(NUM_NDJSON_DOCUMENTS, requests.size());
+        for (int i = 0; i < NUM_NDJSON_DOCUMENTS; i++) {
+            final IndexRequest request = (IndexRequest) requests.get(i);
+            assertEquals("testindex", request.index());
+            assertEquals(String.valueOf(i), request.id());
+            assertTrue(request.source().utf8ToString().contains("document " + i + " "));
+        }
+    }
+
+    @Test
+    public void testSliceNdjsonFileLargeSlices() throws Exception {
+        final Path ndjsonFile = writeNdjsonFile();
+        final List<BytesReference> slices = new ArrayList<>();
+        ElasticSearchIndexingService.sliceNdjsonFile(ndjsonFile, 150, 100, slices::add);
+
+        int numRequests = 0;
+        for (BytesReference slice : slices)
+            numRequests += new BulkRequest().add(slice, "testindex", XContentType.JSON).numberOfActions();
+        assertEquals(NUM_NDJSON_DOCUMENTS, numRequests);
+    }
+
+    @Test
+    public void testRawJsonDocumentFromDirectBuffer() {
+        final byte[] json = "{\"text\":\"raw\"}".getBytes(UTF_8);
+        final ByteBuffer directBuffer = ByteBuffer.allocateDirect(json.length + 2);
+        directBuffer.put((byte) ' ').put(json).put((byte) ' ');
+        directBuffer.position(1).limit(json.length + 1);
+
+        final RawJsonDocument document = new RawJsonDocument("1", directBuffer);
+        assertEquals("{\"text\":\"raw\"}", document.getSource().utf8ToString());
+        // the buffer itself is not consumed
+        assertEquals(1, directBuffer.position());
+    }
+
+    /**
+     * Writes action and source line pairs of different lengths. The last source line is not terminated by a newline.
+     */
+    private Path writeNdjsonFile() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_NDJSON_DOCUMENTS; i++) {
+            sb.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n");
+            sb.append("{\"text\":\"document ").append(i).append(" ").append(String.join("", Collections.nCopies(i % 7 * 5, "x"))).append("\"}");
+            if (i < NUM_NDJSON_DOCUMENTS - 1)
+                sb.append('\n');
+        }
+        final Path ndjsonFile = Files.createTempFile("bulk", ".ndjson");
+        ndjsonFile.toFile().deleteOnExit();
+        Files.write(ndjsonFile, sb.toString().getBytes(UTF_8));
+        return ndjsonFile;
+    }
+}
@@ -0,0 +1,59 @@
+package de.julielab.elastic.query.services;
+
+import com.google.common.hash.HashCode;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileDocumentHashStoreTest {
+
+    @Test
+    public void testFlushAndReload() throws Exception {
+        final Path file = createFile();
+        final HashCode hash1 = DocumentChangeDetector.hash(Map.of("title", "A title"));
+        final HashCode hash2 = DocumentChangeDetector.hash(Map.of("title", "Another title"));
+        final FileDocumentHashStore store = new FileDocumentHashStore(file);
+        store.put("1", hash1);
+        store.put("äöü-2", hash2);
+        store.setIndexIdentity("testindex/u1");
+        store.flush();
+
+        final FileDocumentHashStore reloaded = new FileDocumentHashStore(file);
+        assertEquals("testindex/u1", reloaded.getIndexIdentity());
+        assertEquals(hash1, reloaded.get("1"));
+        assertEquals(hash2, reloaded.get("äöü-2"));
+        assertNull(reloaded.get("3"));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        final Path file = createFile();
+        final FileDocumentHashStore store = new FileDocumentHashStore(file);
+        store.put("1", DocumentChangeDetector.hash(Map.of("title", "A title")));
+        store.flush();
+        store.clear();
+        assertNull(store.get("1"));
+        store.flush();
+
+        final FileDocumentHashStore reloaded = new FileDocumentHashStore(file);
+        assertNull(reloaded.get("1"));
+        assertNull(reloaded.getIndexIdentity());
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        final Path file = createFile().resolveSibling("missing.hashes");
+        assertNull(new FileDocumentHashStore(file).get("1"));
+    }
+
+    private Path createFile() throws Exception {
+        final Path directory = Files.createTempDirectory("documenthashes");
+        directory.toFile().deleteOnExit();
+        return directory.resolve("testindex.hashes");
+    }
+}
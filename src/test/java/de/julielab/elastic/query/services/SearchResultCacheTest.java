@@ -0,0 +1,94 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.data.ElasticServerResponse;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+import de.julielab.elastic.query.components.data.query.TermQuery;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class SearchResultCacheTest {
+
+    @Test
+    public void testGetAndPut() {
+        final SearchResultCache cache = createCache("1mb");
+        final ISearchResultCache.Key key = cache.getKey(createRequest("testindex", "42"));
+        assertNull(cache.get(key));
+        cache.put(key, new ElasticServerResponse());
+
+        assertNotNull(cache.get(cache.getKey(createRequest("testindex", "42"))));
+        assertNull(cache.get(cache.getKey(createRequest("testindex", "43"))));
+        assertNull(cache.get(cache.getKey(createRequest("otherindex", "42"))));
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(3, cache.getStats().missCount());
+        assertTrue(cache.getEstimatedSize() > 0);
+    }
+
+    @Test
+    public void testIsCacheable() {
+        final SearchResultCache cache = createCache("1mb");
+        assertTrue(cache.isCacheable(createRequest("testindex", "42")));
+
+        final SearchServerRequest download = createRequest("testindex", "42");
+        download.downloadCompleteResults = true;
+        assertFalse(cache.isCacheable(download));
+
+        final SearchServerRequest suggestion = createRequest("testindex", "42");
+        suggestion.suggestionText = "sugg";
+        assertFalse(cache.isCacheable(suggestion));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final SearchResultCache cache = createCache("1mb");
+        final ISearchResultCache.Key single = put(cache, "testindex");
+        final ISearchResultCache.Key multiple = put(cache, "otherindex, testindex");
+        final ISearchResultCache.Key wildcard = put(cache, "test*");
+        final ISearchResultCache.Key all = put(cache, "_all");
+        final ISearchResultCache.Key other = put(cache, "otherindex");
+        final ISearchResultCache.Key prefix = put(cache, "testindex2");
+
+        cache.invalidate("testindex");
+        assertNull(cache.get(single));
+        assertNull(cache.get(multiple));
+        assertNull(cache.get(wildcard));
+        assertNull(cache.get(all));
+        assertNotNull(cache.get(other));
+        assertNotNull(cache.get(prefix));
+
+        cache.invalidateAll();
+        assertNull(cache.get(other));
+        assertEquals(0, cache.getEstimatedSize());
+    }
+
+    @Test
+    public void testMaxSize() {
+        // room for a few empty responses only
+        final SearchResultCache cache = createCache("4kb");
+        for (int i = 0; i < 100; i++)
+            cache.put(cache.getKey(createRequest("testindex", String.valueOf(i))), new ElasticServerResponse());
+        assertTrue(cache.getStats().evictionCount() > 0);
+        assertTrue(cache.getEstimatedSize() <= 4096);
+    }
+
+    private ISearchResultCache.Key put(SearchResultCache cache, String index) {
+        final ISearchResultCache.Key key = cache.getKey(createRequest(index, "42"));
+        cache.put(key, new ElasticServerResponse());
+        return key;
+    }
+
+    private SearchResultCache createCache(String maxSize) {
+        return new SearchResultCache(LoggerFactory.getLogger(SearchResultCache.class), maxSize, "5m");
+    }
+
+    private SearchServerRequest createRequest(String index, String term) {
+        final SearchServerRequest request = new SearchServerRequest();
+        final TermQuery query = new TermQuery();
+        query.field = "docid";
+        query.term = term;
+        request.query = query;
+        request.index = index;
+        return request;
+    }
+}
@@ -0,0 +1,75 @@
+package de.julielab.elastic.query.services;
+
+import de.julielab.elastic.query.components.ISearchServerComponent;
+import de.julielab.elastic.query.components.data.ElasticSearchCarrier;
+import de.julielab.elastic.query.components.data.SearchServerRequest;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SearchWarmupServiceTest {
+
+    @Test
+    public void testWarmup() {
+        final List<String> processedIndices = new ArrayList<>();
+        final ISearchServerComponent<ElasticSearchCarrier<IElasticServerResponse>> searchServerComponent = carrier -> {
+            final String index = carrier.getServerRequest(0).index;
+            processedIndices.add(index);
+            if (index.equals("missingindex"))
+                throw new IllegalStateException("no such index");
+            return false;
+        };
+        final SearchWarmupService warmupService = new SearchWarmupService(LoggerFactory.getLogger(SearchWarmupService.class), null, searchServerComponent, new EmptySearchTemplateService(), List.of(createRequest("documents"), createRequest("missingindex"), createRequest("terms")));
+        assertFalse(warmupService.isReady());
+        assertEquals(-1, warmupService.getWarmupTime());
+
+        warmupService.startupService();
+        // the requests run one after the other, a failed request does not stop the warmup
+        assertEquals(List.of("documents", "missingindex", "terms"), processedIndices);
+        assertTrue(warmupService.isReady());
+        assertTrue(warmupService.getWarmupTime() >= 0);
+        final List<Long> requestWarmupTimes = warmupService.getRequestWarmupTimes();
+        assertEquals(3, requestWarmupTimes.size());
+        assertTrue(requestWarmupTimes.get(0) >= 0);
+        assertEquals(-1L, (long) requestWarmupTimes.get(1));
+        assertTrue(requestWarmupTimes.get(2) >= 0);
+    }
+
+    @Test
+    public void testNoWarmupRequests() {
+        final SearchWarmupService warmupService = new SearchWarmupService(LoggerFactory.getLogger(SearchWarmupService.class), null, carrier -> {
+            fail("There are no warmup requests to process");
+            return false;
+        }, new EmptySearchTemplateService(), Collections.emptyList());
+        warmupService.startupService();
+        assertTrue(warmupService.isReady());
+        assertTrue(warmupService.getRequestWarmupTimes().isEmpty());
+    }
+
+    private static SearchServerRequest createRequest(String index) {
+        final SearchServerRequest request = new SearchServerRequest();
+        request.index = index;
+        return request;
+    }
+
+    private static class EmptySearchTemplateService implements ISearchTemplateService {
+        @Override
+        public void putTemplate(String id, String source) {
+        }
+
+        @Override
+        public void deleteTemplate(String id) {
+        }
+
+        @Override
+        public Set<String> getTemplateIds() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package de.julielab.elastic.query.services;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>A minimal HTTP server in place of ElasticSearch for testing the client side without a cluster. It records all
+ * requests and answers them with the responses registered for their method and path. A registered path ending with
+ * <tt>*</tt> matches all paths with that prefix. Responses may be computed from the request. Requests without a
+ * registered response get a 404.</p>
+ * <p><tt>GET /</tt> is answered with the cluster information that the high level REST client checks before its first
+ * request.</p>
+ */
+public class StubElasticSearchServer implements AutoCloseable {
+    private static final String INFO_RESPONSE = "{\"name\":\"stub\",\"cluster_name\":\"stubcluster\",\"cluster_uuid\":\"_na_\",\"version\":{\"number\":\"7.17.7\",\"build_flavor\":\"default\",\"build_type\":\"docker\",\"build_hash\":\"78dcaaa8cee33438b91eca7f5c7f56a70fec9e80\",\"build_date\":\"2022-10-17T15:29:54.167373105Z\",\"build_snapshot\":false,\"lucene_version\":\"8.11.1\",\"minimum_wire_compatibility_version\":\"6.8.0\",\"minimum_index_compatibility_version\":\"6.0.0-beta1\"},\"tagline\":\"You Know, for Search\"}";
+
+    private final HttpServer server;
+    private final Map<String, Function<RecordedRequest, StubResponse>> responses = new ConcurrentHashMap<>();
+    private final List<RecordedRequest> requests = new CopyOnWriteArrayList<>();
+
+    public StubElasticSearchServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        respond("GET", "/", 200, INFO_RESPONSE);
+    }
+
+    public String getHost() {
+        return server.getAddress().getHostString();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void respond(String method, String path, int status, String jsonBody) {
+        respond(method, path, status, jsonBody.getBytes(UTF_8), Map.of());
+    }
+
+    public void respond(String method, String path, int status, byte[] body, Map<String, String> headers) {
+        final StubResponse response = new StubResponse(status, body, headers);
+        responses.put(method + " " + path, request -> response);
+    }
+
+    /**
+     * Answers the requests to <tt>path</tt> with status 200 and the JSON body computed by <tt>jsonResponder</tt>.
+     */
+    public void respond(String method, String path, Function<RecordedRequest, String> jsonResponder) {
+        responses.put(method + " " + path, request -> new StubResponse(200, jsonResponder.apply(request).getBytes(UTF_8), Map.of()));
+    }
+
+    /**
+     * @return All recorded requests in the order they were received.
+     */
+    public List<RecordedRequest> getRequests() {
+        return List.copyOf(requests);
+    }
+
+    /**
+     * @return The recorded requests with the given method and path, in the order they were received.
+     */
+    public List<RecordedRequest> getRequests(String method, String path) {
+        return requests.stream().filter(r -> r.method.equals(method) && r.path.equals(path)).collect(Collectors.toList());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().getPath();
+        final RecordedRequest request = new RecordedRequest(method, path, exchange.getRequestURI().getRawQuery(), exchange.getRequestHeaders(), exchange.getRequestBody().readAllBytes(), exchange.getRemoteAddress().getPort());
+        requests.add(request);
+        Function<RecordedRequest, StubResponse> responder = responses.get(method + " " + path);
+        if (responder == null) {
+            responder = responses.entrySet().stream()
+                    .filter(e -> e.getKey().endsWith("*") && (method + " " + path).startsWith(e.getKey().substring(0, e.getKey().length() - 1)))
+                    .map(Map.Entry::getValue)
+                    .findAny()
+                    .orElse(r -> new StubResponse(404, ("{\"error\":\"no stub response for " + method + " " + path + "\",\"status\":404}").getBytes(UTF_8), Map.of()));
+        }
+        final StubResponse response = responder.apply(request);
+        final Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("Content-Type", "application/json; charset=UTF-8");
+        responseHeaders.set("X-Elastic-Product", "Elasticsearch");
+        response.headers.forEach(responseHeaders::set);
+        final boolean hasBody = response.body.length > 0 && !method.equals("HEAD");
+        exchange.sendResponseHeaders(response.status, hasBody ? response.body.length : -1);
+        try (OutputStream os = exchange.getResponseBody()) {
+            if (hasBody)
+                os.write(response.body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    public static class RecordedRequest {
+        public final String method;
+        public final String path;
+        public final String query;
+        public final Headers headers;
+        public final byte[] body;
+        /**
+         * The client port of the connection the request was sent on.
+         */
+        public final int clientPort;
+
+        private RecordedRequest(String method, String path, String query, Headers headers, byte[] body, int clientPort) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.headers = headers;
+            this.body = body;
+            this.clientPort = clientPort;
+        }
+
+        public String getBodyAsString() {
+            return new String(body, UTF_8);
+        }
+    }
+
+    private static class StubResponse {
+        private final int status;
+        private final byte[] body;
+        private final Map<String, String> headers;
+
+        private StubResponse(int status, byte[] body, Map<String, String> headers) {
+            this.status = status;
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+}